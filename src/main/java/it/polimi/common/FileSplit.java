@@ -0,0 +1,22 @@
+package it.polimi.common;
+
+/**
+ * The FileSplit class is a record used to represent a range of bytes of an input file, which is processed by a single task.
+ * A split contains the lines that start inside its range, so the line crossing its end is read until its end,
+ * while the line crossing its start is skipped, since it belongs to the previous split.
+ *
+ * @param path  represents the path of the file on HDFS.
+ * @param start represents the offset of the first byte of the range.
+ * @param end   represents the offset following the last byte of the range.
+ */
+public record FileSplit(String path, long start, long end) {
+
+    /**
+     * The length method returns the number of bytes of the range.
+     *
+     * @return the length of the split.
+     */
+    public long length() {
+        return end - start;
+    }
+}
@@ -0,0 +1,87 @@
+package it.polimi.common;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+/**
+ * The FileSystemPool class contains the HDFS clients shared by the whole process, one for each HDFS address.
+ * Opening a client connects to the NameNode and starts its threads and buffers, so the HadoopFileManagers of the programs
+ * and of the connections of a worker acquire the client of their address instead of creating their own.
+ * Each client counts its references, and it is closed when the last HadoopFileManager using it releases it.
+ * The clients are thread safe, so they can be used concurrently by the programs and the tasks.
+ */
+public final class FileSystemPool {
+    private static final Logger logger = LogManager.getLogger("it.polimi.FileSystemPool");
+    private static final Map<String, PooledFileSystem> clients = new HashMap<>();
+
+    /**
+     * The PooledFileSystem class is used to count the references to a client.
+     */
+    private static final class PooledFileSystem {
+        private final FileSystem fs;
+        private int references;
+
+        /**
+         * The constructor creates a new PooledFileSystem with no references.
+         *
+         * @param fs represents the client.
+         */
+        private PooledFileSystem(FileSystem fs) {
+            this.fs = fs;
+            this.references = 0;
+        }
+    }
+
+    /**
+     * The constructor is private, since the pool is used through its static methods.
+     */
+    private FileSystemPool() {
+    }
+
+    /**
+     * The acquire method returns the client of an HDFS address, opening it if it is not in the pool.
+     *
+     * @param address represents the address of HDFS.
+     * @return the client.
+     * @throws IOException if the client cannot be opened.
+     */
+    public static synchronized FileSystem acquire(String address) throws IOException {
+        PooledFileSystem client = clients.get(address);
+        if (client == null) {
+            Configuration conf = new Configuration();
+            conf.set("fs.defaultFS", address);
+            conf.set("fs.hdfs.impl", "org.apache.hadoop.hdfs.DistributedFileSystem");
+            client = new PooledFileSystem(FileSystem.newInstance(conf));
+            clients.put(address, client);
+            logger.info(Thread.currentThread().getName() + ": HDFS client opened for " + address);
+        }
+        client.references++;
+        return client.fs;
+    }
+
+    /**
+     * The release method releases a reference to the client of an HDFS address, and closes the client if it was the last one.
+     *
+     * @param address represents the address of HDFS.
+     */
+    public static synchronized void release(String address) {
+        PooledFileSystem client = clients.get(address);
+        if (client == null || --client.references > 0) {
+            return;
+        }
+        clients.remove(address);
+        try {
+            client.fs.close();
+            logger.info(Thread.currentThread().getName() + ": HDFS client closed for " + address);
+        } catch (IOException e) {
+            logger.error(Thread.currentThread().getName() + ": Error closing the file system: " + e.getMessage());
+            System.out.println(Thread.currentThread().getName() + ": Error closing the file system: " + e.getMessage());
+        }
+    }
+}
@@ -2,13 +2,13 @@ package it.polimi.common;
 
 import java.io.IOException;
 
-import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.log4j.Logger;
 
 /**
  * The HadoopFileManager class is an abstract class used to manage the HDFS file system.
  * It contains the HDFS URI, the file system and the buffer size.
+ * The file system is the client of the HDFS URI shared by the process through the FileSystemPool.
  * It is extended by HadoopCoordinator and HadoopWorker classes.
  */
 public abstract class HadoopFileManager {
@@ -16,6 +16,7 @@ public abstract class HadoopFileManager {
     protected FileSystem fs;
     protected static Logger logger;
     protected final int BUFFER_SIZE;
+    private boolean released;
 
     /**
      * The constructor creates a new HadoopFileManager.
@@ -28,6 +29,7 @@ public abstract class HadoopFileManager {
     public HadoopFileManager(String address, int BUFFER_SIZE) throws IOException {
         this.HDFS_URI = address;
         this.BUFFER_SIZE = BUFFER_SIZE;
+        this.released = false;
         try {
             fs = initialize();
         } catch (IOException e) {
@@ -37,29 +39,23 @@ public abstract class HadoopFileManager {
     }
 
     /**
-     * The initialize method initializes the file system.
+     * The initialize method acquires the shared client of the file system.
      *
      * @return the file system.
      * @throws IOException if the file system cannot be initialized.
      */
     protected FileSystem initialize() throws IOException {
-        Configuration conf = new Configuration();
-        conf.set("fs.defaultFS", HDFS_URI);
-        conf.set("fs.hdfs.impl", "org.apache.hadoop.hdfs.DistributedFileSystem");
-        return FileSystem.newInstance(conf);
+        return FileSystemPool.acquire(HDFS_URI);
     }
 
     /**
-     * The closeFileSystem method closes the file system.
+     * The closeFileSystem method releases the shared client of the file system, which is closed when no other HadoopFileManager uses it.
+     * It can be called more than once.
      */
-    public void closeFileSystem() {
-        if (fs != null) {
-            try {
-                fs.close();
-            } catch (IOException e) {
-                logger.error(Thread.currentThread().getName() + ": Error closing the file system: " + e.getMessage());
-                System.out.println(Thread.currentThread().getName() + ": Error closing the file system: " + e.getMessage());
-            }
+    public synchronized void closeFileSystem() {
+        if (fs != null && !released) {
+            released = true;
+            FileSystemPool.release(HDFS_URI);
         }
     }
 
@@ -0,0 +1,461 @@
+package it.polimi.common;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang3.tuple.MutablePair;
+
+import it.polimi.common.messages.CancelTask;
+import it.polimi.common.messages.EndComputation;
+import it.polimi.common.messages.ErrorMessage;
+import it.polimi.common.messages.Heartbeat;
+import it.polimi.common.messages.HeartbeatRequest;
+import it.polimi.common.messages.NormalOperations;
+import it.polimi.common.messages.ReduceOperation;
+import it.polimi.common.messages.ShuffleAck;
+import it.polimi.common.messages.ShuffleData;
+import it.polimi.common.messages.StopComputation;
+import it.polimi.common.messages.TaskFlushed;
+import it.polimi.common.messages.TaskProgress;
+
+/**
+ * The MessageCodec class implements the binary protocol used by the coordinator and the workers.
+ * Each message is sent as a frame made of its length, as a 4-byte integer, followed by the version of the protocol,
+ * the type of the message and its fields, each one encoded by hand.
+ * Since the length of a frame is known before reading it, the coordinator can read the messages from non-blocking channels,
+ * while the workers read them from the blocking streams of their sockets, and several frames can be sent one after the other
+ * without waiting for an answer.
+ * The versioning is strict: the coordinator and the workers must run the same version of the protocol, and a frame of another version,
+ * or with bytes following the fields of its message, is rejected. The version is incremented whenever a message changes,
+ * since a message of another version may have the same layout but a different meaning, as a task acknowledged before its partitions are durable.
+ */
+public class MessageCodec {
+    public static final int MAX_FRAME_SIZE = 64 * 1024 * 1024;
+    public static final byte VERSION = 8;
+    private static final byte END_COMPUTATION = 1;
+    private static final byte STOP_COMPUTATION = 2;
+    private static final byte ERROR_MESSAGE = 3;
+    private static final byte NORMAL_OPERATIONS = 4;
+    private static final byte REDUCE_OPERATION = 5;
+    private static final byte SHUFFLE_DATA = 6;
+    private static final byte SHUFFLE_ACK = 7;
+    private static final byte TASK_PROGRESS = 8;
+    private static final byte HEARTBEAT_REQUEST = 9;
+    private static final byte HEARTBEAT = 10;
+    private static final byte CANCEL_TASK = 11;
+    private static final byte TASK_FLUSHED = 12;
+
+    private MessageCodec() {
+    }
+
+    /**
+     * The encode method encodes a message into a frame.
+     *
+     * @param message represents the message.
+     * @return the buffer containing the frame, ready to be written.
+     * @throws IOException if the type of the message is not part of the protocol.
+     */
+    public static ByteBuffer encode(Object message) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(message instanceof ShuffleData data ? data.data().length + 64 : 256);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0);
+        out.writeByte(VERSION);
+        switch (message) {
+            case EndComputation ignored -> out.writeByte(END_COMPUTATION);
+            case StopComputation ignored -> out.writeByte(STOP_COMPUTATION);
+            case ErrorMessage(String text) -> {
+                out.writeByte(ERROR_MESSAGE);
+                writeString(out, text);
+            }
+            case NormalOperations task -> {
+                out.writeByte(NORMAL_OPERATIONS);
+                writeNormalOperations(out, task);
+            }
+            case ReduceOperation reduce -> {
+                out.writeByte(REDUCE_OPERATION);
+                writeReduceOperation(out, reduce);
+            }
+            case ShuffleData data -> {
+                out.writeByte(SHUFFLE_DATA);
+                writeShuffleData(out, data);
+            }
+            case ShuffleAck(int sequence) -> {
+                out.writeByte(SHUFFLE_ACK);
+                out.writeInt(sequence);
+            }
+            case TaskProgress(int identifier, long processed) -> {
+                out.writeByte(TASK_PROGRESS);
+                out.writeInt(identifier);
+                out.writeLong(processed);
+            }
+            case CancelTask(int identifier, int attempt) -> {
+                out.writeByte(CANCEL_TASK);
+                out.writeInt(identifier);
+                out.writeInt(attempt);
+            }
+            case TaskFlushed flushed -> {
+                out.writeByte(TASK_FLUSHED);
+                writeTaskFlushed(out, flushed);
+            }
+            case HeartbeatRequest(long interval) -> {
+                out.writeByte(HEARTBEAT_REQUEST);
+                out.writeLong(interval);
+            }
+            case Heartbeat(int slots, int runningTasks, long freeMemory) -> {
+                out.writeByte(HEARTBEAT);
+                out.writeInt(slots);
+                out.writeInt(runningTasks);
+                out.writeLong(freeMemory);
+            }
+            case null, default -> throw new IOException("Message not supported by the protocol: " + message);
+        }
+        ByteBuffer frame = ByteBuffer.wrap(bytes.toByteArray());
+        frame.putInt(0, checkLength(frame.capacity() - Integer.BYTES));
+        return frame;
+    }
+
+    /**
+     * The decode method decodes the message contained in a frame.
+     *
+     * @param data   represents the buffer containing the frame.
+     * @param offset represents the offset of the message, after the length of the frame.
+     * @param length represents the length of the message.
+     * @return the message.
+     * @throws IOException if the version of the protocol or the type of the message is not known, or the message does not fill the frame.
+     */
+    public static Object decode(byte[] data, int offset, int length) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data, offset, length));
+        byte version = in.readByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported protocol version: " + version);
+        }
+        byte type = in.readByte();
+        Object message = switch (type) {
+            case END_COMPUTATION -> new EndComputation();
+            case STOP_COMPUTATION -> new StopComputation();
+            case ERROR_MESSAGE -> new ErrorMessage(readString(in));
+            case NORMAL_OPERATIONS -> readNormalOperations(in);
+            case REDUCE_OPERATION -> readReduceOperation(in);
+            case SHUFFLE_DATA -> readShuffleData(in);
+            case SHUFFLE_ACK -> new ShuffleAck(in.readInt());
+            case TASK_PROGRESS -> new TaskProgress(in.readInt(), in.readLong());
+            case CANCEL_TASK -> new CancelTask(in.readInt(), in.readInt());
+            case TASK_FLUSHED -> readTaskFlushed(in);
+            case HEARTBEAT_REQUEST -> new HeartbeatRequest(in.readLong());
+            case HEARTBEAT -> new Heartbeat(in.readInt(), in.readInt(), in.readLong());
+            default -> throw new IOException("Unknown message type: " + type);
+        };
+        if (in.available() > 0) {
+            throw new IOException("Unexpected " + in.available() + " bytes after the message of type " + type);
+        }
+        return message;
+    }
+
+    /**
+     * The write method writes a message to a stream and flushes it.
+     *
+     * @param out     represents the stream.
+     * @param message represents the message.
+     * @throws IOException if it is not possible to write the message.
+     */
+    public static void write(DataOutputStream out, Object message) throws IOException {
+        ByteBuffer frame = encode(message);
+        out.write(frame.array(), 0, frame.limit());
+        out.flush();
+    }
+
+    /**
+     * The read method reads a message from a stream, blocking until it is completely received.
+     *
+     * @param in represents the stream.
+     * @return the message.
+     * @throws IOException if it is not possible to read the message or the frame is not valid.
+     */
+    public static Object read(DataInputStream in) throws IOException {
+        int length = checkLength(in.readInt());
+        byte[] data = new byte[length];
+        in.readFully(data);
+        return decode(data, 0, length);
+    }
+
+    /**
+     * The checkLength method checks the length of a frame before allocating its buffer.
+     *
+     * @param length represents the length read from the frame.
+     * @return the length.
+     * @throws IOException if the length is negative or larger than MAX_FRAME_SIZE.
+     */
+    public static int checkLength(int length) throws IOException {
+        if (length < 0 || length > MAX_FRAME_SIZE) {
+            throw new IOException("Invalid frame length: " + length);
+        }
+        return length;
+    }
+
+    /**
+     * The writeNormalOperations method encodes the fields of a task of the first phase.
+     *
+     * @param out  represents the stream of the frame.
+     * @param task represents the task.
+     * @throws IOException if it is not possible to write the fields.
+     */
+    private static void writeNormalOperations(DataOutputStream out, NormalOperations task) throws IOException {
+        writeString(out, task.getProgramId());
+        out.writeInt(task.getIdentifier());
+        out.writeInt(task.getOperators().size());
+        for (MutablePair<String, String> operator : task.getOperators()) {
+            writeString(out, operator.getLeft());
+            writeString(out, operator.getRight());
+        }
+        out.writeInt(task.getSplits().size());
+        for (FileSplit split : task.getSplits()) {
+            writeString(out, split.path());
+            out.writeLong(split.start());
+            out.writeLong(split.end());
+        }
+        out.writeBoolean(task.getChangeKey());
+        out.writeBoolean(task.getReduce());
+        out.writeInt(task.getNumPartitions());
+        out.writeInt(task.getReducers().size());
+        for (Address reducer : task.getReducers()) {
+            writeString(out, reducer.hostname());
+            out.writeInt(reducer.port());
+        }
+        out.writeInt(task.getAttempt());
+        out.writeBoolean(task.isWriteBehind());
+    }
+
+    /**
+     * The readNormalOperations method decodes the fields of a task of the first phase.
+     *
+     * @param in represents the stream of the frame.
+     * @return the task.
+     * @throws IOException if the fields are truncated or the number of partitions is not positive.
+     */
+    private static NormalOperations readNormalOperations(DataInputStream in) throws IOException {
+        String programId = readString(in);
+        int identifier = in.readInt();
+        int size = readSize(in);
+        List<MutablePair<String, String>> operators = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            operators.add(new MutablePair<>(readString(in), readString(in)));
+        }
+        size = readSize(in);
+        List<FileSplit> splits = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            splits.add(new FileSplit(readString(in), in.readLong(), in.readLong()));
+        }
+        boolean changeKey = in.readBoolean();
+        boolean reduce = in.readBoolean();
+        int numPartitions = in.readInt();
+        if (numPartitions <= 0) {
+            throw new IOException("Invalid number of partitions: " + numPartitions);
+        }
+        size = readSize(in);
+        List<Address> reducers = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            reducers.add(new Address(readString(in), in.readInt()));
+        }
+        int attempt = in.readInt();
+        boolean writeBehind = in.readBoolean();
+        return new NormalOperations(programId, operators, splits, changeKey, reduce, identifier, numPartitions, reducers, attempt, writeBehind);
+    }
+
+    /**
+     * The writeTaskFlushed method encodes the report of the partitions of a task committed in HDFS.
+     *
+     * @param out     represents the stream of the frame.
+     * @param flushed represents the report.
+     * @throws IOException if it is not possible to write the fields.
+     */
+    private static void writeTaskFlushed(DataOutputStream out, TaskFlushed flushed) throws IOException {
+        writeString(out, flushed.programId());
+        out.writeInt(flushed.identifier());
+        out.writeInt(flushed.attempt());
+        out.writeInt(flushed.cached().size());
+        for (Map.Entry<Integer, Long> entry : flushed.cached().entrySet()) {
+            out.writeInt(entry.getKey());
+            out.writeLong(entry.getValue());
+        }
+    }
+
+    /**
+     * The readTaskFlushed method decodes the report of the partitions of a task committed in HDFS.
+     *
+     * @param in represents the stream of the frame.
+     * @return the report.
+     * @throws IOException if the fields are truncated.
+     */
+    private static TaskFlushed readTaskFlushed(DataInputStream in) throws IOException {
+        String programId = readString(in);
+        int identifier = in.readInt();
+        int attempt = in.readInt();
+        int size = readSize(in);
+        Map<Integer, Long> cached = new HashMap<>(size);
+        for (int i = 0; i < size; i++) {
+            cached.put(in.readInt(), in.readLong());
+        }
+        return new TaskFlushed(programId, identifier, attempt, cached);
+    }
+
+    /**
+     * The writeReduceOperation method encodes the fields of a task of the second phase.
+     *
+     * @param out    represents the stream of the frame.
+     * @param reduce represents the task.
+     * @throws IOException if it is not possible to write the fields.
+     */
+    private static void writeReduceOperation(DataOutputStream out, ReduceOperation reduce) throws IOException {
+        writeString(out, reduce.getProgramId());
+        out.writeInt(reduce.getIdentifier());
+        writeString(out, reduce.getReduce().getLeft());
+        writeString(out, reduce.getReduce().getRight());
+        out.writeBoolean(reduce.getPartitions() != null);
+        if (reduce.getPartitions() != null) {
+            out.writeInt(reduce.getPartitions().size());
+            for (int partition : reduce.getPartitions()) {
+                out.writeInt(partition);
+            }
+        }
+        out.writeBoolean(reduce.isPipelined());
+        out.writeInt(reduce.getSlices().size());
+        for (PartitionSlice slice : reduce.getSlices()) {
+            out.writeInt(slice.partition());
+            out.writeInt(slice.slice());
+            out.writeInt(slice.slices());
+        }
+    }
+
+    /**
+     * The readReduceOperation method decodes the fields of a task of the second phase.
+     *
+     * @param in represents the stream of the frame.
+     * @return the task.
+     * @throws IOException if the fields are truncated.
+     */
+    private static ReduceOperation readReduceOperation(DataInputStream in) throws IOException {
+        String programId = readString(in);
+        int identifier = in.readInt();
+        MutablePair<String, String> reduce = new MutablePair<>(readString(in), readString(in));
+        List<Integer> partitions = null;
+        if (in.readBoolean()) {
+            int size = readSize(in);
+            partitions = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                partitions.add(in.readInt());
+            }
+        }
+        boolean pipelined = in.readBoolean();
+        int size = readSize(in);
+        List<PartitionSlice> slices = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            slices.add(new PartitionSlice(in.readInt(), in.readInt(), in.readInt()));
+        }
+        return new ReduceOperation(programId, reduce, partitions, identifier, pipelined, slices);
+    }
+
+    /**
+     * The writeShuffleData method encodes a chunk of a shuffle partition.
+     *
+     * @param out  represents the stream of the frame.
+     * @param data represents the chunk.
+     * @throws IOException if it is not possible to write the fields.
+     */
+    private static void writeShuffleData(DataOutputStream out, ShuffleData data) throws IOException {
+        writeString(out, data.programId());
+        out.writeInt(data.partition());
+        out.writeInt(data.source());
+        out.writeInt(data.sequence());
+        out.writeBoolean(data.last());
+        out.writeInt(data.data().length);
+        out.write(data.data());
+    }
+
+    /**
+     * The readShuffleData method decodes a chunk of a shuffle partition.
+     *
+     * @param in represents the stream of the frame.
+     * @return the chunk.
+     * @throws IOException if the fields are truncated.
+     */
+    private static ShuffleData readShuffleData(DataInputStream in) throws IOException {
+        String programId = readString(in);
+        int partition = in.readInt();
+        int source = in.readInt();
+        int sequence = in.readInt();
+        boolean last = in.readBoolean();
+        byte[] data = new byte[readSize(in)];
+        in.readFully(data);
+        return new ShuffleData(programId, partition, source, sequence, data, last);
+    }
+
+    /**
+     * The writeString method encodes a string as its length followed by its UTF-8 bytes, or -1 if it is null.
+     *
+     * @param out    represents the stream of the frame.
+     * @param string represents the string, it can be null.
+     * @throws IOException if it is not possible to write the string.
+     */
+    private static void writeString(DataOutputStream out, String string) throws IOException {
+        if (string == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * The readString method decodes a string written by writeString.
+     *
+     * @param in represents the stream of the frame.
+     * @return the string, null if it was null.
+     * @throws IOException if the string is truncated.
+     */
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length == -1) {
+            return null;
+        }
+        byte[] bytes = new byte[checkSize(length, in)];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * The readSize method reads the number of elements of a list or an array.
+     *
+     * @param in represents the stream of the frame.
+     * @return the number of elements.
+     * @throws IOException if the number is not valid.
+     */
+    private static int readSize(DataInputStream in) throws IOException {
+        return checkSize(in.readInt(), in);
+    }
+
+    /**
+     * The checkSize method checks that a size read from a frame does not exceed the bytes left in the frame,
+     * so that a corrupted frame cannot cause a large allocation.
+     *
+     * @param size represents the size.
+     * @param in   represents the stream of the frame.
+     * @return the size.
+     * @throws IOException if the size is negative or larger than the rest of the frame.
+     */
+    private static int checkSize(int size, DataInputStream in) throws IOException {
+        if (size < 0 || size > in.available()) {
+            throw new IOException("Invalid size in frame: " + size);
+        }
+        return size;
+    }
+}
@@ -0,0 +1,22 @@
+package it.polimi.common;
+
+/**
+ * The PartitionSlice class is a record used to represent a part of a shuffle partition too large to be reduced by a single worker.
+ * The files of the partition are split among the slices, and each slice is reduced by a different worker into a file of partial aggregations.
+ * The worker of the first slice merges the partial aggregations of all the slices and writes the reduced values of the partition.
+ *
+ * @param partition represents the index of the partition.
+ * @param slice     represents the index of the slice, from 0 to slices - 1.
+ * @param slices    represents the number of slices of the partition.
+ */
+public record PartitionSlice(int partition, int slice, int slices) {
+
+    /**
+     * The isFinal method checks if the worker of the slice merges the partial aggregations of the other slices.
+     *
+     * @return true if it is the first slice, false otherwise.
+     */
+    public boolean isFinal() {
+        return slice == 0;
+    }
+}
@@ -0,0 +1,12 @@
+package it.polimi.common.messages;
+
+/**
+ * The CancelTask message is used by the coordinator to cancel the attempt of a task of the first phase that has been completed by another worker.
+ * The worker stops processing the task as soon as the message is received and acknowledges the attempt as usual,
+ * while the message itself is ignored when it is read, since the attempt it cancels has already ended.
+ *
+ * @param identifier represents the identifier of the task.
+ * @param attempt    represents the number of the cancelled attempt.
+ */
+public record CancelTask(int identifier, int attempt) {
+}
@@ -1,10 +1,8 @@
 package it.polimi.common.messages;
 
-import java.io.Serializable;
-
 /**
  * The EndComputation class is a message used to notify the end of the computation to the coordinator node.
  */
-public class EndComputation implements Serializable {
+public class EndComputation {
 
 }
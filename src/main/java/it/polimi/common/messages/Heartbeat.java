@@ -0,0 +1,20 @@
+package it.polimi.common.messages;
+
+/**
+ * The Heartbeat message is used by a worker to report periodically to the coordinator that it is alive and how loaded it is.
+ *
+ * @param slots        represents the number of tasks the worker can process at the same time.
+ * @param runningTasks represents the number of tasks of all the programs the worker is processing.
+ * @param freeMemory   represents the number of bytes of memory the worker can still allocate.
+ */
+public record Heartbeat(int slots, int runningTasks, long freeMemory) {
+
+    /**
+     * The freeSlots method returns the number of tasks the worker can still accept, negative if it is overloaded.
+     *
+     * @return the number of free slots.
+     */
+    public int freeSlots() {
+        return slots - runningTasks;
+    }
+}
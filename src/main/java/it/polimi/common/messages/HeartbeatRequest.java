@@ -0,0 +1,10 @@
+package it.polimi.common.messages;
+
+/**
+ * The HeartbeatRequest message is used by the coordinator to ask a worker to report its load periodically on the connection.
+ * The connection is then used only for the heartbeats, and it is closed by the coordinator.
+ *
+ * @param interval represents the time between two heartbeats in milliseconds.
+ */
+public record HeartbeatRequest(long interval) {
+}
@@ -4,32 +4,50 @@ import java.util.List;
 
 import org.apache.commons.lang3.tuple.MutablePair;
 
+import it.polimi.common.Address;
+import it.polimi.common.FileSplit;
+
 /**
  * The NormalOperations class is a message used to notify the operations to the worker node.
- * It contains the list of operations, the list of files, the change key flag and the reduce flag.
+ * It contains the list of operations, the splits of the input files processed by the task, the change key flag, the reduce flag, the number of shuffle partitions,
+ * the reducer of each partition if the shuffle goes through the network, the number of the attempt of the task,
+ * and whether the partitions written in HDFS are acknowledged before they are durable.
+ * The same task can be sent to several workers, so the outputs of an attempt are written in temporary paths of the attempt and then committed.
  */
 public class NormalOperations extends Operation {
     private final List<MutablePair<String, String>> operators;
-    private final List<String> pathFiles;
+    private final List<FileSplit> splits;
     private final boolean changeKey;
     private final boolean reduce;
+    private final int numPartitions;
+    private final List<Address> reducers;
+    private final int attempt;
+    private final boolean writeBehind;
 
     /**
      * The constructor creates a new NormalOperations.
      *
      * @param programId  represents the program id.
      * @param list       represents the list of operations.
-     * @param pathFiles  represents the list of files on hdfs to process.
+     * @param splits     represents the splits of the files on hdfs to process.
      * @param changeKey  represents if the changekey operations is present or not in the list of operations.
      * @param reduce     represents if the reduce operation is present or not in the list of operations.
-     * @param identifier represents the identifier of the worker for a specific program.
+     * @param identifier    represents the identifier of the task for a specific program.
+     * @param numPartitions represents the number of partitions in which the keys are shuffled to the second phase.
+     * @param reducers      represents the address of the reducer of each partition, empty if the shuffle goes through HDFS.
+     * @param attempt       represents the number of the attempt of the task.
+     * @param writeBehind   represents if the partitions are written in HDFS after the task is acknowledged, with a TaskFlushed message when they are durable.
      */
-    public NormalOperations(String programId, List<MutablePair<String, String>> list, List<String> pathFiles, boolean changeKey, boolean reduce, Integer identifier) {
+    public NormalOperations(String programId, List<MutablePair<String, String>> list, List<FileSplit> splits, boolean changeKey, boolean reduce, Integer identifier, int numPartitions, List<Address> reducers, int attempt, boolean writeBehind) {
         super(programId, identifier);
         this.operators = list;
-        this.pathFiles = pathFiles;
+        this.splits = splits;
         this.changeKey = changeKey;
         this.reduce = reduce;
+        this.numPartitions = numPartitions;
+        this.reducers = reducers;
+        this.attempt = attempt;
+        this.writeBehind = writeBehind;
     }
 
     /**
@@ -42,12 +60,12 @@ public class NormalOperations extends Operation {
     }
 
     /**
-     * The getPathFiles method returns the list of files on hdfs to process.
+     * The getSplits method returns the splits of the files on hdfs to process.
      *
-     * @return the list of files on hdfs to process.
+     * @return the splits of the files to process.
      */
-    public List<String> getPathFiles() {
-        return pathFiles;
+    public List<FileSplit> getSplits() {
+        return splits;
     }
 
     /**
@@ -67,4 +85,40 @@ public class NormalOperations extends Operation {
     public boolean getReduce() {
         return reduce;
     }
-}
\ No newline at end of file
+
+    /**
+     * The getNumPartitions method returns the number of shuffle partitions.
+     *
+     * @return the number of partitions in which the keys are shuffled to the second phase.
+     */
+    public int getNumPartitions() {
+        return numPartitions;
+    }
+
+    /**
+     * The getReducers method returns the address of the reducer of each shuffle partition.
+     *
+     * @return the reducers of the partitions, empty if the shuffle goes through HDFS.
+     */
+    public List<Address> getReducers() {
+        return reducers;
+    }
+
+    /**
+     * The getAttempt method returns the number of the attempt of the task.
+     *
+     * @return the number of the attempt, 0 for the first attempt.
+     */
+    public int getAttempt() {
+        return attempt;
+    }
+
+    /**
+     * The isWriteBehind method returns if the partitions of the task are written in HDFS after the task is acknowledged.
+     *
+     * @return true if the partitions are written in the background and a TaskFlushed message reports when they are durable, false otherwise.
+     */
+    public boolean isWriteBehind() {
+        return writeBehind;
+    }
+}
@@ -1,13 +1,11 @@
 package it.polimi.common.messages;
 
-import java.io.Serializable;
-
 /**
  * The Operation class is an abstract class used to notify the operations to the worker node.
- * It contains the program id and the identifier of the worker for a specific program.
+ * It contains the program id and the identifier of the task or of the reducer for a specific program.
  * It is extended by the NormalOperations and ReduceOperation classes.
  */
-public abstract class Operation implements Serializable {
+public abstract class Operation {
     private final String programId;
     private final int identifier;
 
@@ -15,7 +13,7 @@ public abstract class Operation implements Serializable {
      * The constructor creates a new Operation.
      *
      * @param programId  represents the program id.
-     * @param identifier represents the identifier of the worker for a specific program.
+     * @param identifier represents the identifier of the task or of the reducer for a specific program.
      */
     public Operation(String programId, int identifier) {
         this.programId = programId;
@@ -32,9 +30,9 @@ public abstract class Operation implements Serializable {
     }
 
     /**
-     * The getIdentifier method returns the identifier of the worker for a specific program.
+     * The getIdentifier method returns the identifier of the task or of the reducer for a specific program.
      *
-     * @return the identifier of the worker for a specific program.
+     * @return the identifier of the task or of the reducer for a specific program.
      */
     public int getIdentifier() {
         return identifier;
@@ -1,28 +1,40 @@
 package it.polimi.common.messages;
 
+import java.util.List;
 
 import org.apache.commons.lang3.tuple.MutablePair;
 
+import it.polimi.common.PartitionSlice;
+
 /**
  * The ReduceOperation class is a message used to notify the reduce operation to the worker node.
- * It contains the reduce operation and the keys.
+ * It contains the reduce operation and the shuffle partitions to be reduced, which are not necessarily contiguous,
+ * and the slices of the partitions too large to be reduced by a single worker.
+ * When the second phase is pipelined, the message is sent before the end of the first phase,
+ * and the worker merges the partial aggregations of the partitions as soon as they are written.
  */
 public class ReduceOperation extends Operation {
     private final MutablePair<String, String> reduce;
-    private final MutablePair<Integer, Integer> keys;
+    private final List<Integer> partitions;
+    private final boolean pipelined;
+    private final List<PartitionSlice> slices;
 
     /**
      * The constructor creates a new ReduceOperation.
      *
      * @param programId  represents the program id.
      * @param reduce     represents the reduce operation.
-     * @param keys       represents the keys interval for which is responsible the worker.
+     * @param partitions represents the partitions for which is responsible the worker, in increasing order.
      * @param identifier represents the identifier of the worker for a specific program.
+     * @param pipelined  represents if the second phase is pipelined with the first one.
+     * @param slices     represents the slices of the large partitions for which is responsible the worker.
      */
-    public ReduceOperation(String programId, MutablePair<String, String> reduce, MutablePair<Integer, Integer> keys, Integer identifier) {
+    public ReduceOperation(String programId, MutablePair<String, String> reduce, List<Integer> partitions, Integer identifier, boolean pipelined, List<PartitionSlice> slices) {
         super(programId, identifier); // Call to superclass constructor
         this.reduce = reduce;
-        this.keys = keys;
+        this.partitions = partitions;
+        this.pipelined = pipelined;
+        this.slices = slices;
     }
 
     /**
@@ -35,11 +47,29 @@ public class ReduceOperation extends Operation {
     }
 
     /**
-     * The getKeys method returns the keys interval for which is responsible the worker.
+     * The getPartitions method returns the partitions for which is responsible the worker.
+     *
+     * @return the partitions for which is responsible the worker.
+     */
+    public List<Integer> getPartitions() {
+        return partitions;
+    }
+
+    /**
+     * The isPipelined method returns if the second phase is pipelined with the first one.
+     *
+     * @return true if the first phase may still be running, false otherwise.
+     */
+    public boolean isPipelined() {
+        return pipelined;
+    }
+
+    /**
+     * The getSlices method returns the slices of the large partitions for which is responsible the worker.
      *
-     * @return the keys interval for which is responsible the worker.
+     * @return the slices of the partitions.
      */
-    public MutablePair<Integer, Integer> getKeys() {
-        return keys;
+    public List<PartitionSlice> getSlices() {
+        return slices;
     }
 }
@@ -0,0 +1,9 @@
+package it.polimi.common.messages;
+
+/**
+ * The ShuffleAck message is used by a reducer to acknowledge a chunk of a shuffle partition once it has been stored on its local disk.
+ *
+ * @param sequence represents the sequence number of the acknowledged chunk.
+ */
+public record ShuffleAck(int sequence) {
+}
@@ -0,0 +1,15 @@
+package it.polimi.common.messages;
+
+/**
+ * The ShuffleData message is used to send a chunk of a shuffle partition from a worker of the first phase to its reducer.
+ * The chunks of a partition are sent in order, and the partition is committed by the reducer when the last chunk is received.
+ *
+ * @param programId represents the program id.
+ * @param partition represents the shuffle partition.
+ * @param source    represents the identifier of the task that produced the partition.
+ * @param sequence  represents the sequence number of the chunk, the first chunk of a partition has sequence number 0.
+ * @param data      represents the content of the chunk, i.e. lines of partial aggregations.
+ * @param last      represents if the chunk is the last one of the partition.
+ */
+public record ShuffleData(String programId, int partition, int source, int sequence, byte[] data, boolean last) {
+}
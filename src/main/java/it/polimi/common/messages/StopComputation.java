@@ -1,11 +1,9 @@
 package it.polimi.common.messages;
 
 
-import java.io.Serializable;
-
 /**
  * The StopComputation class is a message used to notify the worker node to stop the computation.
  */
-public class StopComputation implements Serializable {
+public class StopComputation {
 
 }
@@ -0,0 +1,16 @@
+package it.polimi.common.messages;
+
+import java.util.Map;
+
+/**
+ * The TaskFlushed message is used by a worker to report that the shuffle partitions of a task acknowledged with write-behind have been committed in HDFS.
+ * The coordinator considers the task completed only when this message is received, so that a task whose partitions are lost with its worker is processed again.
+ * The message also reports the partitions the worker keeps in its intermediate cache, so that the coordinator prefers it as their reducer.
+ *
+ * @param programId  represents the program id.
+ * @param identifier represents the identifier of the task.
+ * @param attempt    represents the number of the attempt of the task.
+ * @param cached     represents the number of bytes kept in memory for each partition.
+ */
+public record TaskFlushed(String programId, int identifier, int attempt, Map<Integer, Long> cached) {
+}
@@ -0,0 +1,10 @@
+package it.polimi.common.messages;
+
+/**
+ * The TaskProgress message is used by a worker to report periodically to the coordinator the progress of the task of the first phase it is processing.
+ *
+ * @param identifier represents the identifier of the task.
+ * @param bytes      represents the number of bytes of the splits of the task processed so far.
+ */
+public record TaskProgress(int identifier, long bytes) {
+}
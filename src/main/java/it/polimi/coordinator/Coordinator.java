@@ -2,12 +2,10 @@ package it.polimi.coordinator;
 
 import java.io.File;
 import java.net.Socket;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Scanner;
+import java.util.Set;
 
 import org.apache.commons.lang3.tuple.MutablePair;
 import org.apache.log4j.LogManager;
@@ -22,7 +20,6 @@ import it.polimi.common.Address;
  */
 public class Coordinator {
     private static final Logger logger = LogManager.getLogger("it.polimi.Coordinator");
-    private static final List<ProgramExecutor> executors = new ArrayList<>();
 
     /**
      * The main method is used to start the coordinator, read the configurations from the file and start the ProgramExecutor for each program.
@@ -57,6 +54,10 @@ public class Coordinator {
 
         try {
             MutablePair<List<String>, List<Address>> configs = CoordinatorFileManager.readConfigurations(new File(conf_path));
+            CoordinatorLoop loop = CoordinatorLoop.start(configs.getLeft().size());
+            MutablePair<Double, Long> failureDetection = CoordinatorFileManager.readFailureDetection(new File(conf_path));
+            WorkerRegistry.get().configure(failureDetection.getLeft(), failureDetection.getRight());
+            WorkerRegistry.get().monitor(configs.getRight());
             int i = 0;
             String programId;
             for (String f : configs.getLeft()) {
@@ -67,8 +68,7 @@ public class Coordinator {
                         configs.getRight(),
                         new HadoopCoordinator(address)
                 );
-                executor.start();
-                executors.add(executor);
+                loop.offload(executor);
                 System.out.println("Program " + i + " identified by " + programId);
                 logger.info("Program " + i + " identified by " + programId);
                 i++;
@@ -81,53 +81,64 @@ public class Coordinator {
     }
 
     /**
-     * The getNewActiveSocket method returns a new active socket.
+     * The getNewActiveSocket method returns a new active socket, together with the configured address of its worker.
+     * The least loaded worker is chosen from the WorkerRegistry, without a lock shared by the programs.
+     * If no heartbeat has been received yet, the workers are tried in order, starting from the ones on the machine.
+     * The address is returned as it is configured, since the name of the host resolved from the socket may differ from it.
      *
-     * @param addressesToCheck represents the list of addresses to check.
-     * @param machine          represents the machine, if it is not null the machine is used to give higher priority to the sockets of the same machine.
-     * @return the new active socket.
+     * @param addresses represents the addresses of the workers of the program.
+     * @param excluded  represents the addresses of the workers that cannot be chosen.
+     * @param machine   represents the machine, if it is not null the machine is used to give higher priority to the sockets of the same machine.
+     * @return the address of the worker and the new active socket.
      * @throws RuntimeException if no workers are available.
      */
-    public static synchronized Socket getNewActiveSocket(List<Address> addressesToCheck, String machine) {
+    public static MutablePair<Address, Socket> getNewActiveSocket(List<Address> addresses, Set<Address> excluded, String machine) {
         logger.info(Thread.currentThread().getName() + ": Search for a new active socket...");
-        if (addressesToCheck.isEmpty()) {
-            logger.error(Thread.currentThread().getName() + ": No workers available");
-            throw new RuntimeException("No workers available");
-        }
-
-        machine = (machine == null) ? "" : machine;
-
-        Map<Address, Integer> load = new HashMap<>();
-        Socket result;
-        for (Address a : addressesToCheck) {
-            if (!machine.equals(a.hostname())) {
-                load.put(a, 0);
-            } else {
-                load.put(a, -2);
+        WorkerRegistry registry = WorkerRegistry.get();
+        Set<Address> checked = new HashSet<>(excluded);
+        while (true) {
+            Address finalAddress = registry.select(checked, machine);
+            if (finalAddress == null) {
+                finalAddress = firstAddress(addresses, checked, machine);
             }
-        }
-        List<Socket> clientSockets = new ArrayList<>();
-        for (ProgramExecutor e : executors) {
-            clientSockets.addAll(e.getClientSockets());
-        }
-        for (Socket s : clientSockets) {
-            Address a = new Address(s.getInetAddress().getHostName(), s.getPort());
-            if (load.containsKey(a)) {
-                load.put(a, load.get(a) + 1);
+            if (finalAddress == null) {
+                logger.error(Thread.currentThread().getName() + ": No workers available");
+                throw new RuntimeException("No workers available");
+            }
+            try {
+                Socket result = SessionPool.get().acquire(finalAddress);
+                logger.info(Thread.currentThread().getName() + ": New active socket found " + finalAddress.hostname() + ":" + finalAddress.port());
+                return MutablePair.of(finalAddress, result);
+            } catch (Exception e) {
+                logger.warn(Thread.currentThread().getName() + ": Error while creating the new active socket: " + finalAddress.hostname() + ":" + finalAddress.port());
+                registry.markDead(finalAddress);
+                checked.add(finalAddress);
             }
         }
+    }
 
-        Address finalAddress = Collections.min(load.entrySet(), Map.Entry.comparingByValue()).getKey();
-        try {
-            result = new Socket(finalAddress.hostname(), finalAddress.port());
-            logger.info(Thread.currentThread().getName() + ": New active socket found " + finalAddress.hostname() + ":" + finalAddress.port());
-            return result;
-        } catch (Exception e) {
-            logger.warn(Thread.currentThread().getName() + ": Error while creating the new active socket: " + finalAddress.hostname() + ":" + finalAddress.port());
-            addressesToCheck.remove(finalAddress);
-            return getNewActiveSocket(addressesToCheck, machine);
+    /**
+     * The firstAddress method returns the first address of a worker not checked yet, preferring the ones on the machine.
+     * It is used before the heartbeats of the workers are received, and it skips the workers already judged dead by the WorkerRegistry.
+     *
+     * @param addresses represents the addresses of the workers of the program.
+     * @param checked   represents the addresses already checked.
+     * @param machine   represents the preferred machine, or null.
+     * @return the address, or null if all the addresses have been checked.
+     */
+    private static Address firstAddress(List<Address> addresses, Set<Address> checked, String machine) {
+        Address result = null;
+        WorkerRegistry registry = WorkerRegistry.get();
+        for (Address a : addresses) {
+            if (!checked.contains(a) && !registry.isDead(a)) {
+                if (a.hostname().equals(machine)) {
+                    return a;
+                }
+                if (result == null) {
+                    result = a;
+                }
+            }
         }
+        return result;
     }
-
-
 }
@@ -59,6 +59,66 @@ public class CoordinatorFileManager {
         return new MutablePair<>(dataFunctions, files);
     }
 
+    /**
+     * The readNetworkShuffle method is used to read the shuffle mode of a program from its operations file.
+     * The optional "shuffle" field can be "hdfs", which is the default, or "network", to send the shuffle partitions
+     * directly from the workers of the first phase to the reducers.
+     *
+     * @param file represents the operation file to read.
+     * @return true if the shuffle goes through the network, false otherwise.
+     * @throws Exception if the file is not found or the shuffle mode is not valid.
+     */
+    public boolean readNetworkShuffle(File file) throws Exception {
+        Object shuffle = readOption(file, "shuffle");
+        if (shuffle == null || shuffle.equals("hdfs")) {
+            return false;
+        }
+        if (shuffle.equals("network")) {
+            return true;
+        }
+        throw new Exception("Unknown shuffle mode: " + shuffle);
+    }
+
+    /**
+     * The readPipelined method is used to read if the second phase of a program is pipelined with the first one.
+     * When the optional "pipelined" field is true, the reducers are assigned before the first phase and they merge
+     * the partial aggregations as soon as each task of the first phase writes them, instead of waiting for all the tasks.
+     *
+     * @param file represents the operation file to read.
+     * @return true if the second phase is pipelined, false otherwise.
+     * @throws Exception if the file is not found or the field is not a boolean.
+     */
+    public boolean readPipelined(File file) throws Exception {
+        Object pipelined = readOption(file, "pipelined");
+        if (pipelined == null) {
+            return false;
+        }
+        if (pipelined instanceof Boolean value) {
+            return value;
+        }
+        throw new Exception("The pipelined option must be true or false: " + pipelined);
+    }
+
+    /**
+     * The readOption method is used to read an optional field of the operations file.
+     *
+     * @param file represents the operation file to read.
+     * @param name represents the name of the field.
+     * @return the value of the field, null if it is not present.
+     * @throws Exception if the file is not found or the format is not correct.
+     */
+    private Object readOption(File file, String name) throws Exception {
+        try {
+            ObjectMapper objectMapper = new ObjectMapper();
+            Map<String, Object> jsonData = objectMapper.readValue(file, new TypeReference<>() {
+            });
+            return jsonData.get(name);
+        } catch (Exception e) {
+            logger.error(e);
+            throw new Exception("Not possible to read the operations file:\n" + file.getAbsolutePath() + "\nCheck the path and the format of the file!");
+        }
+    }
+
     /**
      * The readConfigurations method is used to read the configurations from the file.
      *
@@ -95,4 +155,36 @@ public class CoordinatorFileManager {
         logger.info("Configuration file read: " + file.getAbsolutePath());
         return new MutablePair<>(programsPaths, addresses);
     }
+
+    /**
+     * The readFailureDetection method is used to read the parameters of the failure detection from the configuration file.
+     * The optional field failureThreshold is the value of phi above which a worker is judged dead,
+     * and the optional field failureTimeout is the time in milliseconds without heartbeats after which a worker is judged dead.
+     *
+     * @param file represents the configuration file to read.
+     * @return a MutablePair containing the threshold and the timeout, with the default values of the WorkerRegistry for the missing fields.
+     * @throws Exception if the file is not found or the format is not correct.
+     */
+    public static MutablePair<Double, Long> readFailureDetection(File file) throws Exception {
+        double threshold = WorkerRegistry.DEFAULT_THRESHOLD;
+        long timeout = WorkerRegistry.DEFAULT_TIMEOUT;
+        try {
+            ObjectMapper objectMapper = new ObjectMapper();
+            Map<String, Object> jsonData = objectMapper.readValue(file, new TypeReference<>() {
+            });
+            if (jsonData.get("failureThreshold") != null) {
+                threshold = objectMapper.convertValue(jsonData.get("failureThreshold"), Double.class);
+            }
+            if (jsonData.get("failureTimeout") != null) {
+                timeout = objectMapper.convertValue(jsonData.get("failureTimeout"), Long.class);
+            }
+        } catch (Exception e) {
+            logger.error(e);
+            throw new Exception("Not possible to read the configuration file:\n" + file.getAbsolutePath() + "\nCheck the path and the format of the file!");
+        }
+        if (threshold <= 0 || timeout <= 0) {
+            throw new IllegalArgumentException("The failure threshold and the failure timeout must be positive");
+        }
+        return new MutablePair<>(threshold, timeout);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,178 @@
+package it.polimi.coordinator;
+
+import java.io.IOException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+/**
+ * The CoordinatorLoop class is the event loop that drives the connections with the workers of all the programs.
+ * A single thread waits on a selector for the messages of the workers and runs the SocketHandlers, which are state machines
+ * reacting to the messages, so that the number of threads does not depend on the number of workers and programs.
+ * The operations that may block, such as the connections to the workers and the accesses to HDFS, are run by a small pool of threads,
+ * which post their results back to the loop.
+ */
+public class CoordinatorLoop implements Runnable {
+    public static final int BLOCKING_THREADS = 4;
+    private static final Logger logger = LogManager.getLogger("it.polimi.Coordinator");
+    private static CoordinatorLoop instance;
+    private final Selector selector;
+    private final Queue<Runnable> tasks;
+    private final ScheduledExecutorService blockingPool;
+    private final AtomicInteger runningPrograms;
+    private volatile boolean running;
+
+    /**
+     * The constructor creates a new CoordinatorLoop.
+     *
+     * @param programs represents the number of programs driven by the loop.
+     * @throws IOException if it is not possible to open the selector.
+     */
+    private CoordinatorLoop(int programs) throws IOException {
+        this.selector = Selector.open();
+        this.tasks = new ConcurrentLinkedQueue<>();
+        ScheduledThreadPoolExecutor pool = new ScheduledThreadPoolExecutor(BLOCKING_THREADS);
+        pool.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        this.blockingPool = pool;
+        this.runningPrograms = new AtomicInteger(programs);
+        this.running = true;
+    }
+
+    /**
+     * The start method creates and starts the loop of the coordinator.
+     * The loop stops when all the programs are finished.
+     *
+     * @param programs represents the number of programs driven by the loop.
+     * @return the loop.
+     * @throws IOException if it is not possible to open the selector.
+     */
+    public static synchronized CoordinatorLoop start(int programs) throws IOException {
+        instance = new CoordinatorLoop(programs);
+        new Thread(instance, "CoordinatorLoop").start();
+        return instance;
+    }
+
+    /**
+     * The get method returns the loop of the coordinator.
+     *
+     * @return the loop.
+     */
+    public static synchronized CoordinatorLoop get() {
+        return instance;
+    }
+
+    /**
+     * The execute method runs a task on the thread of the loop.
+     * It can be called from any thread.
+     *
+     * @param task represents the task.
+     */
+    public void execute(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    /**
+     * The offload method runs a task that may block on the pool of the loop.
+     *
+     * @param task represents the task.
+     */
+    public void offload(Runnable task) {
+        blockingPool.execute(task);
+    }
+
+    /**
+     * The offload method runs a task that may block on the pool of the loop after a delay.
+     *
+     * @param task  represents the task.
+     * @param delay represents the delay in milliseconds.
+     */
+    public void offload(Runnable task, long delay) {
+        blockingPool.schedule(task, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * The open method registers the channel of a worker in the loop.
+     * A session detached by another program may still have its cancelled key in the selector, so the cancelled keys are removed first.
+     * It must be called on the thread of the loop.
+     *
+     * @param channel  represents the connected channel.
+     * @param listener represents the listener of the messages of the worker.
+     * @return the channel of the worker.
+     * @throws IOException if it is not possible to register the channel.
+     */
+    public WorkerChannel open(SocketChannel channel, WorkerChannel.Listener listener) throws IOException {
+        SelectionKey previous = channel.keyFor(selector);
+        if (previous != null && !previous.isValid()) {
+            selector.selectNow();
+        }
+        channel.configureBlocking(false);
+        WorkerChannel workerChannel = new WorkerChannel(channel, listener);
+        workerChannel.setKey(channel.register(selector, SelectionKey.OP_READ, workerChannel));
+        return workerChannel;
+    }
+
+    /**
+     * The programFinished method records the end of a program.
+     * When all the programs are finished, the loop and its pool are stopped.
+     */
+    public void programFinished() {
+        if (runningPrograms.decrementAndGet() == 0) {
+            logger.info(Thread.currentThread().getName() + ": All the programs are finished, stopping the loop");
+            running = false;
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * The run method waits for the events of the channels and runs the tasks posted to the loop, until all the programs are finished.
+     */
+    @Override
+    public void run() {
+        logger.info(Thread.currentThread().getName() + ": Coordinator loop started");
+        try {
+            while (running) {
+                selector.select();
+                Runnable task;
+                while ((task = tasks.poll()) != null) {
+                    try {
+                        task.run();
+                    } catch (RuntimeException e) {
+                        logger.error(Thread.currentThread().getName() + ": Error while running a task: " + e.getMessage(), e);
+                    }
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    try {
+                        ((WorkerChannel) key.attachment()).handle(key);
+                    } catch (RuntimeException e) {
+                        logger.error(Thread.currentThread().getName() + ": Error while handling a channel: " + e.getMessage(), e);
+                    }
+                }
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            logger.error(Thread.currentThread().getName() + ": Coordinator loop stopped: " + e.getMessage());
+            System.out.println(Thread.currentThread().getName() + ": Coordinator loop stopped: " + e.getMessage());
+        } finally {
+            blockingPool.shutdown();
+            try {
+                selector.close();
+            } catch (IOException e) {
+                logger.error(Thread.currentThread().getName() + ": Error while closing the selector: " + e.getMessage());
+            }
+        }
+    }
+}
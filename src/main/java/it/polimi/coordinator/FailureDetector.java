@@ -0,0 +1,101 @@
+package it.polimi.coordinator;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * The FailureDetector class is a phi accrual failure detector of a worker, fed by the heartbeats of the worker.
+ * It keeps the intervals between the last heartbeats, and estimates how likely it is that the worker is alive
+ * given the time elapsed since the last heartbeat, assuming the intervals are normally distributed.
+ * The suspicion level phi is the negative base 10 logarithm of the probability that a heartbeat arrives later than now,
+ * so a phi of 8 means that the worker is wrongly suspected once every 10^8 checks.
+ * A worker is also suspected when no heartbeat is received for longer than the timeout, whatever its history.
+ * Before the first heartbeat only the FIRST_HEARTBEAT_TIMEOUT is checked, since a worker that has just started may need time to answer.
+ * All the methods are synchronized, since the heartbeats are received on the loop and the workers are checked on its pool.
+ */
+public class FailureDetector {
+    public static final int WINDOW = 100;
+    public static final double MIN_STANDARD_DEVIATION = 100;
+    public static final long FIRST_HEARTBEAT_TIMEOUT = 5000;
+    private final double threshold;
+    private final long timeout;
+    private final long expectedInterval;
+    private final Deque<Long> intervals;
+    private double sum;
+    private double squares;
+    private long lastHeartbeat;
+    private boolean started;
+
+    /**
+     * The constructor creates a new FailureDetector.
+     *
+     * @param threshold        represents the value of phi above which the worker is suspected.
+     * @param timeout          represents the time in milliseconds without heartbeats after which the worker is suspected.
+     * @param expectedInterval represents the time in milliseconds between two heartbeats requested to the worker.
+     * @param now              represents the current time in milliseconds, when the heartbeats are requested.
+     */
+    public FailureDetector(double threshold, long timeout, long expectedInterval, long now) {
+        this.threshold = threshold;
+        this.timeout = timeout;
+        this.expectedInterval = expectedInterval;
+        this.intervals = new ArrayDeque<>();
+        this.lastHeartbeat = now;
+        this.started = false;
+    }
+
+    /**
+     * The heartbeat method records the arrival of a heartbeat.
+     *
+     * @param now represents the current time in milliseconds.
+     */
+    public synchronized void heartbeat(long now) {
+        if (!started) {
+            started = true;
+            lastHeartbeat = now;
+            return;
+        }
+        long interval = now - lastHeartbeat;
+        lastHeartbeat = now;
+        intervals.addLast(interval);
+        sum += interval;
+        squares += (double) interval * interval;
+        if (intervals.size() > WINDOW) {
+            long removed = intervals.removeFirst();
+            sum -= removed;
+            squares -= (double) removed * removed;
+        }
+    }
+
+    /**
+     * The phi method computes the suspicion level of the worker.
+     * Until some heartbeats are received, the intervals are assumed to be the expected interval.
+     * The cumulative distribution function of the normal distribution is approximated with a logistic function.
+     *
+     * @param now represents the current time in milliseconds.
+     * @return the suspicion level.
+     */
+    public synchronized double phi(long now) {
+        double mean = intervals.isEmpty() ? expectedInterval : sum / intervals.size();
+        double variance = intervals.isEmpty() ? 0 : squares / intervals.size() - mean * mean;
+        double deviation = Math.max(MIN_STANDARD_DEVIATION, Math.sqrt(Math.max(0, variance)));
+        double y = (now - lastHeartbeat - mean) / deviation;
+        double e = Math.exp(-y * (1.5976 + 0.070566 * y * y));
+        if (now - lastHeartbeat > mean) {
+            return -Math.log10(e / (1.0 + e));
+        }
+        return -Math.log10(1.0 - 1.0 / (1.0 + e));
+    }
+
+    /**
+     * The isAvailable method checks if the worker is considered alive.
+     *
+     * @param now represents the current time in milliseconds.
+     * @return true if phi is below the threshold and the timeout has not expired, false otherwise.
+     */
+    public synchronized boolean isAvailable(long now) {
+        if (!started) {
+            return now - lastHeartbeat <= FIRST_HEARTBEAT_TIMEOUT;
+        }
+        return now - lastHeartbeat <= timeout && phi(now) < threshold;
+    }
+}
@@ -7,14 +7,20 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
+import org.apache.hadoop.fs.BlockLocation;
+import org.apache.hadoop.fs.ContentSummary;
 import org.apache.hadoop.fs.FSDataOutputStream;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.Path;
 import org.apache.log4j.LogManager;
 
 
+import it.polimi.common.FileSplit;
 import it.polimi.common.HadoopFileManager;
 
 /**
@@ -38,20 +44,17 @@ public class HadoopCoordinator extends HadoopFileManager {
 
     /**
      * This method deletes the files from HDFS.
+     * The directory of the program, which contains the shuffle partitions and the temporary files of the attempts of the tasks, is always deleted.
      *
      * @param programId it is the id of the program.
-     * @param phase2    it is a boolean that indicates if the phase 2 is present or not.
      */
-    public void deleteFiles(String programId, Boolean phase2) {
+    public void deleteFiles(String programId) {
         logger.info(Thread.currentThread().getName() + ": Deleting files from HDFS");
         try {
 
             fs.delete(new Path("/input" + programId), true);
             fs.delete(new Path("/output" + programId), true);
-
-            if (phase2) {
-                fs.delete(new Path("/program" + programId), true);
-            }
+            fs.delete(new Path("/program" + programId), true);
 
             System.out.println(Thread.currentThread().getName() + ": Files deleted");
             logger.info(Thread.currentThread().getName() + ": Files deleted from HDFS");
@@ -105,20 +108,78 @@ public class HadoopCoordinator extends HadoopFileManager {
     }
 
     /**
-     * This method gets the size of the keys.
+     * This method gets the hosts storing the blocks of a split of an input file.
+     * The workers run on the DataNodes, so a worker running on one of these hosts reads the bytes of the block from its local disk.
+     *
+     * @param split it is the split.
+     * @return the number of bytes of the split stored by each host.
+     * @throws IOException if it is not possible to get the locations of the blocks.
+     */
+    public Map<String, Long> getBlockHosts(FileSplit split) throws IOException {
+        Map<String, Long> hosts = new HashMap<>();
+        if (split.length() == 0) {
+            return hosts;
+        }
+        FileStatus status = fs.getFileStatus(new Path(split.path()));
+        for (BlockLocation block : fs.getFileBlockLocations(status, split.start(), split.length())) {
+            long bytes = Math.min(split.end(), block.getOffset() + block.getLength()) - Math.max(split.start(), block.getOffset());
+            if (bytes <= 0) {
+                continue;
+            }
+            for (String host : block.getHosts()) {
+                hosts.merge(host, bytes, Long::sum);
+            }
+        }
+        return hosts;
+    }
+
+    /**
+     * This method gets the sizes of the non-empty shuffle partitions written in HDFS by the first phase.
      *
      * @param programId it is the id of the program.
-     * @return the size of the keys to be processed.
-     * @throws IOException if it is not possible to get the size of the keys.
+     * @return the sizes of the partitions containing keys to be processed, empty if there are no keys.
+     * @throws IOException if it is not possible to get the sizes of the partitions.
      */
-    public int getKeysSize(String programId) throws IOException {
-        logger.info(Thread.currentThread().getName() + ": Getting keys size from HDFS");
+    public List<PartitionSize> getPartitionSizes(String programId) throws IOException {
+        logger.info(Thread.currentThread().getName() + ": Getting partition sizes from HDFS");
         String path = "/program" + programId;
+        List<PartitionSize> sizes = new ArrayList<>();
         if (!fs.exists(new Path(path))) {
-            return 0;
+            return sizes;
+        }
+        FileStatus[] fileStatuses = fs.listStatus(new Path(path), p -> p.getName().startsWith("part"));
+        for (FileStatus fileStatus : fileStatuses) {
+            ContentSummary summary = fs.getContentSummary(fileStatus.getPath());
+            int partition = Integer.parseInt(fileStatus.getPath().getName().substring("part".length()));
+            sizes.add(new PartitionSize(partition, summary.getLength(), summary.getFileCount()));
+        }
+        return sizes;
+    }
+
+    /**
+     * This method marks the shuffle of a program as complete, when all the tasks of the first phase have written their partitions.
+     * The pipelined reducers wait for the marker before writing their results.
+     *
+     * @param programId it is the id of the program.
+     * @throws IOException if it is not possible to write the marker.
+     */
+    public void commitShuffle(String programId) throws IOException {
+        fs.create(new Path("/program" + programId + "/_SUCCESS"), true).close();
+        logger.info(Thread.currentThread().getName() + ": Shuffle of the program " + programId + " completed");
+    }
+
+    /**
+     * This method marks the shuffle of a program as aborted, so that the pipelined reducers stop waiting for the first phase,
+     * and the reducers of the split partitions stop waiting for the partial aggregations of the other slices.
+     *
+     * @param programId it is the id of the program.
+     */
+    public void abortShuffle(String programId) {
+        try {
+            fs.create(new Path("/program" + programId + "/_ABORTED"), true).close();
+        } catch (IOException e) {
+            logger.error(Thread.currentThread().getName() + ": Error while aborting the shuffle: " + e.getMessage());
         }
-        FileStatus[] fileStatuses = fs.listStatus(new Path(path));
-        return fileStatuses.length;
     }
 
     /**
@@ -191,33 +252,5 @@ public class HadoopCoordinator extends HadoopFileManager {
         logger.info(Thread.currentThread().getName() + ": File " + hdfsFilePath + " downloaded and appended to merged file successfully.");
     }
 
-    /**
-     * This method uploads the merged files to HDFS.
-     *
-     * @param id    it is the id of the program.
-     * @param i     it is the number of the task.
-     * @param files it is the list of files to upload.
-     * @throws IOException if it is not possible to upload the merged files.
-     */
-    public synchronized void uploadMergedFiles(String id, String i, List<String> files) throws IOException {
-        logger.info(Thread.currentThread().getName() + ": Merging files from HDFS");
-        files.forEach(file -> logger.info(Thread.currentThread().getName() + ": File: " + file));
-        String hdfsFilePath = "/input" + id;
-        String localMergedFilePath = "task" + i + ".csv";
-
-        FSDataOutputStream mergedOut = fs.create(new Path(hdfsFilePath + "/" + localMergedFilePath));
-        for (String file : files) {
-            try (BufferedInputStream in = new BufferedInputStream(new FileInputStream(file))) {
-                byte[] buffer = new byte[BUFFER_SIZE];
-                int bytesRead;
-                while ((bytesRead = in.read(buffer)) > 0) {
-                    mergedOut.write(buffer, 0, bytesRead);
-                }
-            }
-        }
-        logger.info(Thread.currentThread().getName() + ": Files merged from HDFS successfully : " + hdfsFilePath + "/" + localMergedFilePath);
-        mergedOut.close();
-    }
-
 
 }
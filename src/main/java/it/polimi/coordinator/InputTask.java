@@ -0,0 +1,40 @@
+package it.polimi.coordinator;
+
+import java.util.List;
+import java.util.Map;
+
+import it.polimi.common.FileSplit;
+
+/**
+ * The InputTask class is a record used to represent a task of the first phase of a program.
+ * It contains the identifier of the task, the splits of the input files that it processes and the number of bytes of the splits stored by each host.
+ *
+ * @param identifier represents the identifier of the task for the program.
+ * @param splits     represents the splits processed by the task.
+ * @param localBytes represents the number of bytes of the splits stored by each host, identified by its IP address.
+ */
+public record InputTask(int identifier, List<FileSplit> splits, Map<String, Long> localBytes) {
+
+    /**
+     * The size method returns the number of bytes processed by the task.
+     *
+     * @return the sum of the lengths of the splits.
+     */
+    public long size() {
+        long size = 0;
+        for (FileSplit split : splits) {
+            size += split.length();
+        }
+        return size;
+    }
+
+    /**
+     * The getLocalBytes method returns the number of bytes of the task that a worker running on a host reads from its local disk.
+     *
+     * @param host represents the IP address of the host.
+     * @return the number of bytes stored by the host.
+     */
+    public long getLocalBytes(String host) {
+        return localBytes.getOrDefault(host, 0L);
+    }
+}
@@ -8,16 +8,28 @@ import org.apache.commons.lang3.tuple.MutablePair;
 import org.apache.log4j.LogManager;
 import org.apache.log4j.Logger;
 
+import it.polimi.common.PartitionSlice;
+
 /**
  * The KeyAssignmentManager class is responsible for managing the key assignments to workers.
+ * The keys are hashed into a fixed number of shuffle partitions, and each worker is assigned a set of partitions.
+ * When the shuffle goes through HDFS, the partitions are assigned after the first phase according to their size in bytes and files,
+ * so that the reducers of a few large partitions do not get more partitions than the others.
+ * A partition is preferably assigned to the worker that keeps most of it in memory, as long as the cost of that worker stays within the fair share.
+ * A partition larger than the fair share of a reducer is split in slices reduced by different workers, whose partial aggregations are merged by one of them.
  * It contains methods to insert assignments and determine new assignments with load balancing.
  * It also manages the case in which the results of the computation of the first phase are empty.
+ * The SocketHandlers waiting for the second phase are notified when the assignments are ready, instead of polling them.
  */
 public class KeyAssignmentManager {
 
-    private final Map<SocketHandler, MutablePair<Integer, Integer>> assignments;
+    public static final long FILE_COST = 64 * 1024;
+    private final Map<SocketHandler, List<Integer>> assignments;
+    private final Map<SocketHandler, List<PartitionSlice>> slices;
     private volatile Boolean canProceed;
     private volatile Boolean exit;
+    private boolean cancelled;
+    private final List<Runnable> waiters;
     private static final Logger logger = LogManager.getLogger("it.polimi.Coordinator");
     private final HadoopCoordinator hadoopCoordinator;
     private final String programId;
@@ -32,8 +44,11 @@ public class KeyAssignmentManager {
      */
     public KeyAssignmentManager(HadoopCoordinator hadoopCoordinator, String programId, String outputId) {
         assignments = new HashMap<>();
+        slices = new HashMap<>();
         canProceed = false;
         exit = false;
+        cancelled = false;
+        waiters = new ArrayList<>();
         this.hadoopCoordinator = hadoopCoordinator;
         this.programId = programId;
         this.outputId = outputId;
@@ -44,10 +59,29 @@ public class KeyAssignmentManager {
      *
      * @return the assignments.
      */
-    public Map<SocketHandler, MutablePair<Integer, Integer>> getAssignments() {
+    public Map<SocketHandler, List<Integer>> getAssignments() {
         return assignments;
     }
 
+    /**
+     * The getSlices method returns the slices of the large partitions assigned to a worker.
+     *
+     * @param worker represents the worker.
+     * @return the slices assigned to the worker, empty if no partition is split.
+     */
+    public synchronized List<PartitionSlice> getSlices(SocketHandler worker) {
+        return slices.getOrDefault(worker, List.of());
+    }
+
+    /**
+     * The hasSlices method checks if some partitions are split among several workers.
+     *
+     * @return true if some partitions are split, false otherwise.
+     */
+    public synchronized boolean hasSlices() {
+        return !slices.isEmpty();
+    }
+
     /**
      * The canProceed method returns the canProceed flag which indicates if the assignments have been computed.
      *
@@ -69,57 +103,274 @@ public class KeyAssignmentManager {
     /**
      * The insertAssignment method inserts the worker keys.
      *
-     * @param worker represents the worker.
-     * @param num    represents the number of workers.
+     * @param worker     represents the worker.
+     * @param num        represents the number of workers.
+     * @param partitions     represents the number of shuffle partitions.
+     * @param networkShuffle represents if the shuffle partitions have been sent to the reducers through the network.
      * @throws IOException              if it is not possible to insert the worker keys or determine the new assignments with load balancing.
      * @throws IllegalArgumentException if the keys size is 0.
      */
-    public synchronized void insertAssignment(SocketHandler worker, int num) throws IOException, IllegalArgumentException {
+    public synchronized void insertAssignment(SocketHandler worker, int num, int partitions, boolean networkShuffle) throws IOException, IllegalArgumentException {
         logger.info(Thread.currentThread().getName() + ": Inserting worker keys");
         assignments.put(worker, null);
         if (assignments.size() == num) {
-            determineNewAssignmentsWithLoadBalancing();
+            try {
+                determineNewAssignmentsWithLoadBalancing(partitions, networkShuffle);
+            } finally {
+                notifyWaiters();
+            }
         }
     }
 
+    /**
+     * The whenReady method runs an action when the assignments are ready, when the results of the first phase are empty,
+     * or when the program is cancelled. If one of these has already happened, the action is run immediately.
+     *
+     * @param action represents the action to run.
+     */
+    public synchronized void whenReady(Runnable action) {
+        if (canProceed || exit || cancelled) {
+            action.run();
+        } else {
+            waiters.add(action);
+        }
+    }
+
+    /**
+     * The cancel method wakes up the SocketHandlers waiting for the assignments, when the program has an error.
+     */
+    public synchronized void cancel() {
+        cancelled = true;
+        notifyWaiters();
+    }
+
+    /**
+     * The notifyWaiters method runs the actions waiting for the assignments.
+     */
+    private void notifyWaiters() {
+        for (Runnable waiter : waiters) {
+            waiter.run();
+        }
+        waiters.clear();
+    }
+
+    /**
+     * The planAssignments method assigns the partitions to the workers before the first phase, when the second phase is pipelined.
+     * The workers can then start the second phase as soon as they finish their task of the first phase.
+     *
+     * @param workers    represents the workers.
+     * @param partitions represents the number of shuffle partitions.
+     */
+    public synchronized void planAssignments(List<SocketHandler> workers, int partitions) {
+        assignIntervals(new ArrayList<>(workers), partitions);
+        canProceed = true;
+        notifyWaiters();
+        logger.info(Thread.currentThread().getName() + ": Worker assignments planned before the first phase");
+    }
+
     /**
      * The determineNewAssignmentsWithLoadBalancing method determines the new worker assignments with load balancing and sets the canProceed flag to true.
+     * When the shuffle goes through HDFS, the non-empty partitions are assigned by size, while the empty ones are not assigned.
      * It also manages the case in which the results of the computation of the first phase are empty by deleting the files and setting the exit flag to true.
+     * When the shuffle goes through the network the partitions are on the disks of the reducers, so they keep the intervals planned before the first phase,
+     * the second phase is always started and the reducers of empty partitions write empty results.
      *
+     * @param partitions     represents the number of shuffle partitions.
+     * @param networkShuffle represents if the shuffle partitions have been sent to the reducers through the network.
      * @throws IOException              if it is not possible to determine the new worker assignments with load balancing.
      * @throws IllegalArgumentException if the keys size is 0.
      */
-    public void determineNewAssignmentsWithLoadBalancing() throws IOException, IllegalArgumentException {
+    public void determineNewAssignmentsWithLoadBalancing(int partitions, boolean networkShuffle) throws IOException, IllegalArgumentException {
         logger.info(Thread.currentThread().getName() + ": Determining new worker assignments with load balancing");
 
-        int numWorkers = assignments.size();
-
+        if (networkShuffle) {
+            assignIntervals(new ArrayList<>(assignments.keySet()), partitions);
+            canProceed = true;
+            logger.info(Thread.currentThread().getName() + ": Worker assignments planned before the network shuffle kept");
+            return;
+        }
 
-        int keysSize = hadoopCoordinator.getKeysSize(programId);
-        if (keysSize == 0) {
+        List<PartitionSize> sizes = hadoopCoordinator.getPartitionSizes(programId);
+        if (sizes.isEmpty()) {
 
             new FileOutputStream("result-" + outputId + ".csv").close();
-            hadoopCoordinator.deleteFiles(programId, true);
+            hadoopCoordinator.deleteFiles(programId);
             exit = true;
             throw new IllegalArgumentException("Keys size is 0");
         }
-        int keysPerWorker = keysSize / numWorkers;
-        int remainingKeys = keysSize % numWorkers;
-
-        int start = 0;
-        int end;
-        for (SocketHandler worker : assignments.keySet()) {
-            end = start + keysPerWorker;
-            if (remainingKeys > 0) {
-                end++;
-                remainingKeys--;
-            }
-            assignments.put(worker, new MutablePair<>(start, end));
-            start = end;
-        }
+        assignBySize(new ArrayList<>(assignments.keySet()), sizes);
         canProceed = true;
 
         logger.info(Thread.currentThread().getName() + ": New worker assignments with load balancing determined");
     }
 
+    /**
+     * The assignIntervals method assigns an interval of partitions to each worker, in the order of their identifiers,
+     * so that the assignment is the same that is planned before the first phase.
+     *
+     * @param workers    represents the workers.
+     * @param partitions represents the number of shuffle partitions.
+     */
+    private void assignIntervals(List<SocketHandler> workers, int partitions) {
+        workers.sort(Comparator.comparingInt(SocketHandler::getIdentifier));
+        for (int i = 0; i < workers.size(); i++) {
+            MutablePair<Integer, Integer> interval = intervalOf(i, workers.size(), partitions);
+            List<Integer> assigned = new ArrayList<>();
+            for (int p = interval.getLeft(); p < interval.getRight(); p++) {
+                assigned.add(p);
+            }
+            assignments.put(workers.get(i), assigned);
+        }
+    }
+
+    /**
+     * The assignBySize method assigns the partitions to the workers with the largest-first heuristic:
+     * the partitions are sorted by decreasing cost, and each one is assigned to the worker with the lowest total cost so far.
+     * A partition whose cost is more than the mean cost of a worker is first split in slices of similar cost, one for each group of files,
+     * and the slices of a partition are assigned to different workers.
+     * A partition that is not split is assigned instead to the worker keeping most of its bytes in memory, if its cost stays within the mean cost,
+     * so that the partition is read from memory without making the assignment less balanced than the mean.
+     * The ties are broken by the identifiers of the workers and the indexes of the partitions, so that the assignment is deterministic.
+     * The imbalance of the assignment, i.e. the highest cost of a worker over the mean cost, is reported.
+     *
+     * @param workers represents the workers.
+     * @param sizes   represents the sizes of the non-empty partitions.
+     */
+    private void assignBySize(List<SocketHandler> workers, List<PartitionSize> sizes) {
+        workers.sort(Comparator.comparingInt(SocketHandler::getIdentifier));
+        long total = 0;
+        for (PartitionSize size : sizes) {
+            total += size.getCost();
+        }
+        long fairShare = Math.max(1, total / workers.size());
+
+        List<Piece> pieces = new ArrayList<>();
+        for (PartitionSize size : sizes) {
+            int count = (int) Math.min(Math.min(workers.size(), size.files()), (size.getCost() + fairShare - 1) / fairShare);
+            if (count > 1) {
+                logger.info(Thread.currentThread().getName() + ": Partition " + size.partition() + " of " + size.getCost() + " bytes split in " + count + " slices");
+            }
+            for (int slice = 0; slice < Math.max(1, count); slice++) {
+                pieces.add(new Piece(size, slice, Math.max(1, count)));
+            }
+        }
+        pieces.sort(Comparator.comparingLong(Piece::getCost).reversed().thenComparingInt(piece -> piece.size().partition()).thenComparingInt(Piece::slice));
+
+        long[] costs = new long[workers.size()];
+        List<List<Integer>> assigned = new ArrayList<>();
+        List<List<PartitionSlice>> assignedSlices = new ArrayList<>();
+        for (int i = 0; i < workers.size(); i++) {
+            assigned.add(new ArrayList<>());
+            assignedSlices.add(new ArrayList<>());
+        }
+        int local = 0;
+        for (Piece piece : pieces) {
+            int lightest = -1;
+            for (int i = 0; i < costs.length; i++) {
+                if ((lightest < 0 || costs[i] < costs[lightest]) && !hasSliceOf(assignedSlices.get(i), piece.size().partition())) {
+                    lightest = i;
+                }
+            }
+            if (piece.slices() == 1) {
+                int holder = holderOf(workers, piece.size().partition());
+                if (holder >= 0 && costs[holder] + piece.getCost() <= fairShare) {
+                    lightest = holder;
+                    local++;
+                }
+            }
+            costs[lightest] += piece.getCost();
+            if (piece.slices() > 1) {
+                assignedSlices.get(lightest).add(new PartitionSlice(piece.size().partition(), piece.slice(), piece.slices()));
+            } else {
+                assigned.get(lightest).add(piece.size().partition());
+            }
+        }
+
+        long max = 0;
+        for (int i = 0; i < workers.size(); i++) {
+            assigned.get(i).sort(null);
+            assignments.put(workers.get(i), assigned.get(i));
+            if (!assignedSlices.get(i).isEmpty()) {
+                slices.put(workers.get(i), assignedSlices.get(i));
+            }
+            max = Math.max(max, costs[i]);
+            logger.info(Thread.currentThread().getName() + ": Worker " + workers.get(i).getIdentifier() + " assigned " + assigned.get(i).size() + " partitions and " + assignedSlices.get(i).size() + " slices, cost " + costs[i] + " bytes");
+        }
+        double imbalance = total > 0 ? (double) max * workers.size() / total : 1;
+        logger.info(Thread.currentThread().getName() + ": " + sizes.size() + " partitions assigned by size, imbalance " + String.format("%.2f", imbalance) + " (highest cost over mean cost), " + local + " assigned to the worker keeping them in memory");
+        System.out.println(Thread.currentThread().getName() + ": Partitions of program " + programId + " assigned by size, imbalance " + String.format("%.2f", imbalance));
+    }
+
+    /**
+     * The holderOf method returns the worker that keeps most of the bytes of a partition in memory.
+     *
+     * @param workers   represents the workers, sorted by identifier.
+     * @param partition represents the partition.
+     * @return the index of the worker, -1 if no worker keeps the partition in memory.
+     */
+    private static int holderOf(List<SocketHandler> workers, int partition) {
+        int holder = -1;
+        long most = 0;
+        for (int i = 0; i < workers.size(); i++) {
+            long bytes = workers.get(i).getCachedBytes(partition);
+            if (bytes > most) {
+                holder = i;
+                most = bytes;
+            }
+        }
+        return holder;
+    }
+
+    /**
+     * The hasSliceOf method checks if a worker has already been assigned a slice of a partition.
+     *
+     * @param assigned  represents the slices assigned to the worker.
+     * @param partition represents the partition.
+     * @return true if the worker reduces a slice of the partition, false otherwise.
+     */
+    private static boolean hasSliceOf(List<PartitionSlice> assigned, int partition) {
+        for (PartitionSlice slice : assigned) {
+            if (slice.partition() == partition) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The intervalOf method returns the interval of partitions assigned to a worker.
+     * The partitions are split in contiguous intervals whose sizes differ at most by one, in the order of the workers.
+     * It is also used to know the reducer of each partition before the first phase, when the shuffle goes through the network.
+     *
+     * @param index      represents the index of the worker.
+     * @param workers    represents the number of workers.
+     * @param partitions represents the number of shuffle partitions.
+     * @return the interval of partitions, with the end excluded.
+     */
+    public static MutablePair<Integer, Integer> intervalOf(int index, int workers, int partitions) {
+        int partitionsPerWorker = partitions / workers;
+        int remainingPartitions = partitions % workers;
+        int start = index * partitionsPerWorker + Math.min(index, remainingPartitions);
+        int end = start + partitionsPerWorker + (index < remainingPartitions ? 1 : 0);
+        return new MutablePair<>(start, end);
+    }
+
+    /**
+     * The Piece class is a record used to represent a partition, or a slice of a partition, while the partitions are assigned.
+     *
+     * @param size   represents the size of the partition.
+     * @param slice  represents the index of the slice.
+     * @param slices represents the number of slices of the partition, 1 if it is not split.
+     */
+    private record Piece(PartitionSize size, int slice, int slices) {
+
+        /**
+         * The getCost method estimates the work needed to reduce the slice, assuming the files of the partition have similar sizes.
+         *
+         * @return the cost of the slice in bytes.
+         */
+        long getCost() {
+            return size.getCost() / slices;
+        }
+    }
 }
@@ -0,0 +1,22 @@
+package it.polimi.coordinator;
+
+/**
+ * The PartitionSize class is a record used to represent the size of a shuffle partition written in HDFS by the first phase.
+ * It is used to balance the work of the reducers in the second phase.
+ *
+ * @param partition represents the index of the partition.
+ * @param bytes     represents the number of bytes of the files of the partition.
+ * @param files     represents the number of files of the partition, one for each task of the first phase that found its keys.
+ */
+public record PartitionSize(int partition, long bytes, long files) {
+
+    /**
+     * The getCost method estimates the work needed to reduce the partition.
+     * Every file costs the same as FILE_COST bytes, since it has to be opened and read from HDFS.
+     *
+     * @return the cost of the partition in bytes.
+     */
+    public long getCost() {
+        return bytes + files * KeyAssignmentManager.FILE_COST;
+    }
+}
@@ -2,13 +2,16 @@ package it.polimi.coordinator;
 
 import java.io.File;
 import java.io.IOException;
+import java.net.InetAddress;
 import java.net.Socket;
+import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
 
 import org.apache.commons.lang3.tuple.MutablePair;
 import org.apache.hadoop.fs.Path;
@@ -16,21 +19,29 @@ import org.apache.log4j.LogManager;
 import org.apache.log4j.Logger;
 
 import it.polimi.common.Address;
+import it.polimi.common.FileSplit;
 
 /**
  * The ProgramExecutor class is responsible for executing the program.
- * It contains methods to manage the files per worker, initialize the connections, initialize Hadoop, read the operations and manage the end of the program.
+ * It contains methods to split the input in tasks, initialize the connections, initialize Hadoop, read the operations and manage the end of the program.
+ * The input is split in about TASKS_PER_WORKER tasks per worker, which are taken from a TaskQueue by the workers when they are free.
+ * It runs on the pool of the CoordinatorLoop, and once the program is initialized its SocketHandlers are driven by the loop.
  */
 
-public class ProgramExecutor extends Thread {
+public class ProgramExecutor implements Runnable {
 
+    public static final int PARTITIONS_PER_WORKER = 4;
+    public static final int TASKS_PER_WORKER = 4;
+    public static final long MIN_SPLIT_SIZE = 1048576;
     private int endedWorkers;
+    private int finishedHandlers;
+    private int handlers;
     private List<MutablePair<String, String>> operations;
-    private final List<Socket> clientSockets;
+    private final List<MutablePair<Address, Socket>> clientSockets;
     private final KeyAssignmentManager keyManager;
-    private final Map<List<String>, Socket> fileSocketMap;
     private List<String> files;
     private List<String> localFiles;
+    private TaskQueue taskQueue;
     private final List<Address> addresses;
     private MutablePair<String, String> lastReduce;
     private final CoordinatorFileManager coordinatorFileManager;
@@ -42,6 +53,11 @@ public class ProgramExecutor extends Thread {
     private volatile boolean errorPresent;
     private boolean changeKey;
     private boolean reduce;
+    private boolean networkShuffle;
+    private boolean pipelined;
+    private final Map<Integer, Address> reducerAddresses;
+    private final List<Address> partitionReducers;
+    private Consumer<Address> deathListener;
 
     /**
      * The ProgramExecutor class constructor creates a new ProgramExecutor.
@@ -54,7 +70,7 @@ public class ProgramExecutor extends Thread {
      */
 
     public ProgramExecutor(String outputId, String programId, String op_path, List<Address> addresses, HadoopCoordinator hadoopCoordinator) {
-        this.clientSockets = new ArrayList<>();
+        this.clientSockets = new CopyOnWriteArrayList<>();
         this.programId = programId;
         this.op_path = op_path;
         this.outputId = outputId;
@@ -63,7 +79,6 @@ public class ProgramExecutor extends Thread {
 
         this.coordinatorFileManager = new CoordinatorFileManager();
 
-        this.fileSocketMap = new HashMap<>();
         this.lastReduce = new MutablePair<>();
         this.keyManager = new KeyAssignmentManager(hadoopCoordinator, programId, outputId);
 
@@ -71,8 +86,14 @@ public class ProgramExecutor extends Thread {
 
         this.errorPresent = false;
         this.endedWorkers = 0;
+        this.finishedHandlers = 0;
+        this.handlers = 0;
         this.changeKey = false;
         this.reduce = false;
+        this.networkShuffle = false;
+        this.pipelined = false;
+        this.reducerAddresses = new HashMap<>();
+        this.partitionReducers = new ArrayList<>();
 
     }
 
@@ -92,6 +113,15 @@ public class ProgramExecutor extends Thread {
      */
     public void setErrorPresent(boolean errorPresent) {
         this.errorPresent = errorPresent;
+        if (errorPresent) {
+            keyManager.cancel();
+        }
+        if (errorPresent && (pipelined || keyManager.hasSlices())) {
+            CoordinatorLoop.get().offload(() -> hadoopCoordinator.abortShuffle(programId));
+        }
+        if (errorPresent && taskQueue != null) {
+            CoordinatorLoop.get().execute(taskQueue::cancel);
+        }
     }
 
     /**
@@ -104,14 +134,32 @@ public class ProgramExecutor extends Thread {
     }
 
     /**
-     * The getClientSockets method returns the client sockets.
+     * The getClientSockets method returns the client sockets, each with the configured address of its worker.
      *
      * @return the client sockets.
      */
-    public List<Socket> getClientSockets() {
+    public List<MutablePair<Address, Socket>> getClientSockets() {
         return clientSockets;
     }
 
+    /**
+     * The getTaskQueue method returns the queue of the tasks of the first phase.
+     *
+     * @return the task queue.
+     */
+    public TaskQueue getTaskQueue() {
+        return taskQueue;
+    }
+
+    /**
+     * The getNumHandlers method returns the number of SocketHandlers of the program, i.e. the number of workers that process its tasks.
+     *
+     * @return the number of SocketHandlers.
+     */
+    public int getNumHandlers() {
+        return Math.min(addresses.size(), taskQueue.size());
+    }
+
     /**
      * The getOperations method returns the operations of the program.
      *
@@ -131,12 +179,52 @@ public class ProgramExecutor extends Thread {
     }
 
     /**
-     * The getFileSocketMap method returns the file socket map which contains the files and the sockets of the workers.
+     * The getShufflePartitions method returns the number of partitions in which the keys are shuffled to the second phase.
+     * Each worker of the second phase reduces about PARTITIONS_PER_WORKER partitions.
+     *
+     * @return the number of shuffle partitions.
+     */
+    public int getShufflePartitions() {
+        return getNumHandlers() * PARTITIONS_PER_WORKER;
+    }
+
+    /**
+     * The isPipelined method returns if the second phase of the program is pipelined with the first one.
      *
-     * @return the file socket map.
+     * @return true if the reducers start before the end of the first phase, false otherwise.
      */
-    public Map<List<String>, Socket> getFileSocketMap() {
-        return fileSocketMap;
+    public boolean isPipelined() {
+        return pipelined;
+    }
+
+    /**
+     * The isWriteBehind method returns if the tasks of the first phase write their shuffle partitions in HDFS after being acknowledged.
+     * It is the case when the partitions go through HDFS and the second phase is not pipelined, since the partitions are assigned
+     * only when they are all durable, and the workers can keep in memory the partitions they will reduce.
+     *
+     * @return true if the tasks are completed when their partitions are flushed, false if they are completed when they are acknowledged.
+     */
+    public boolean isWriteBehind() {
+        return getChangeKey() && getReduce() && !pipelined && partitionReducers.isEmpty();
+    }
+
+    /**
+     * The getPartitionReducers method returns the address of the reducer of each shuffle partition.
+     *
+     * @return the reducers of the partitions, empty if the shuffle goes through HDFS.
+     */
+    public List<Address> getPartitionReducers() {
+        return partitionReducers;
+    }
+
+    /**
+     * The getReducerAddress method returns the address of the worker planned to reduce the partitions of a SocketHandler.
+     *
+     * @param identifier represents the identifier of the SocketHandler.
+     * @return the address of the planned reducer, null if the shuffle goes through HDFS.
+     */
+    public Address getReducerAddress(int identifier) {
+        return reducerAddresses.get(identifier);
     }
 
     /**
@@ -185,60 +273,136 @@ public class ProgramExecutor extends Thread {
     }
 
     /**
-     * The getFilesSize method returns the size of the files.
+     * The planTasks method splits the input files in the tasks of the first phase and creates the task queue.
+     * The files are cut in splits of about the same size, so that there are about TASKS_PER_WORKER tasks per worker,
+     * and consecutive splits smaller than this size, such as small files, are grouped in the same task.
+     * If the program includes a reduce but not a changekey, the values are reduced separately for each file,
+     * so each file is processed as a whole by its own task.
+     * The hosts storing the blocks of each task are taken from HDFS, so that the workers prefer the tasks they can read locally.
      *
-     * @return the size of the files.
+     * @throws IOException if it is not possible to get the locations of the blocks.
      */
-    public int getFilesSize() {
-        return files.size();
+    private void planTasks() throws IOException {
+        List<InputTask> tasks = new ArrayList<>();
+        if (reduce && !changeKey) {
+            for (int f = 0; f < files.size(); f++) {
+                tasks.add(createTask(f, List.of(new FileSplit(files.get(f), 0, new File(localFiles.get(f)).length()))));
+            }
+        } else {
+            long total = 0;
+            for (String localFile : localFiles) {
+                total += new File(localFile).length();
+            }
+            long splitSize = Math.max(MIN_SPLIT_SIZE, (total + addresses.size() * TASKS_PER_WORKER - 1) / (addresses.size() * TASKS_PER_WORKER));
+            List<FileSplit> splits = new ArrayList<>();
+            long size = 0;
+            for (int f = 0; f < files.size(); f++) {
+                long length = new File(localFiles.get(f)).length();
+                long start = 0;
+                do {
+                    long end = Math.min(length, start + splitSize - size);
+                    splits.add(new FileSplit(files.get(f), start, end));
+                    size += end - start;
+                    start = end;
+                    if (size >= splitSize) {
+                        tasks.add(createTask(tasks.size(), splits));
+                        splits = new ArrayList<>();
+                        size = 0;
+                    }
+                } while (start < length);
+            }
+            if (!splits.isEmpty()) {
+                tasks.add(createTask(tasks.size(), splits));
+            }
+        }
+        taskQueue = new TaskQueue(tasks, this::tasksCompleted);
+        logger.info(Thread.currentThread().getName() + ": Input split in " + tasks.size() + " tasks");
     }
 
     /**
-     * The manageFilesPerWorker method returns the files for a specific worker.
+     * The createTask method creates a task of the first phase, computing the number of bytes of its splits stored by each host.
+     * A block is stored by several hosts, so the bytes of all the hosts may be more than the size of the task.
      *
-     * @param workerIndex represents the index of the worker.
-     * @param local       represents if the path of the files is local or not.
-     * @return the list of files for a specific worker.
+     * @param identifier represents the identifier of the task.
+     * @param splits     represents the splits of the task.
+     * @return the task.
+     * @throws IOException if it is not possible to get the locations of the blocks.
      */
-    private List<String> manageFilesPerWorker(int workerIndex, boolean local) {
-        int numFilesPerWorker = files.size() / addresses.size();
-        int remainingFiles = files.size() % addresses.size();
+    private InputTask createTask(int identifier, List<FileSplit> splits) throws IOException {
+        Map<String, Long> localBytes = new HashMap<>();
+        for (FileSplit split : splits) {
+            for (Map.Entry<String, Long> entry : hadoopCoordinator.getBlockHosts(split).entrySet()) {
+                localBytes.merge(resolveHost(entry.getKey()), entry.getValue(), Long::sum);
+            }
+        }
+        return new InputTask(identifier, splits, localBytes);
+    }
 
-        int start = workerIndex * numFilesPerWorker + Math.min(workerIndex, remainingFiles);
-        int end = (workerIndex + 1) * numFilesPerWorker + Math.min(workerIndex + 1, remainingFiles);
+    /**
+     * The resolveHost method returns the IP address of a host, so that the hosts of the blocks can be compared with the addresses of the workers.
+     *
+     * @param host represents the name of the host.
+     * @return the IP address of the host, or its name if it cannot be resolved.
+     */
+    public static String resolveHost(String host) {
+        try {
+            return InetAddress.getByName(host).getHostAddress();
+        } catch (UnknownHostException e) {
+            return host;
+        }
+    }
 
-        List<String> filesPerWorker = new ArrayList<>();
-        if (!local) {
-            for (int i = start; i < end && i < files.size(); i++) {
-                filesPerWorker.add(files.get(i));
-            }
-        } else {
-            for (int i = start; i < end && i < localFiles.size(); i++) {
-                filesPerWorker.add(localFiles.get(i));
-            }
+    /**
+     * The tasksCompleted method is invoked on the loop of the coordinator when all the tasks of the first phase are completed.
+     * It reports the percentage of the input read by workers running on a host that stores it.
+     * When the second phase is pipelined, the shuffle is marked as complete, so that the reducers can write their results.
+     */
+    private void tasksCompleted() {
+        long total = taskQueue.getCompletedBytes();
+        long local = taskQueue.getLocalReadBytes();
+        String percentage = total > 0 ? String.format("%.1f", 100.0 * local / total) : "100.0";
+        logger.info(Thread.currentThread().getName() + ": First phase completed, " + percentage + "% of the " + total + " bytes of the input read locally");
+        System.out.println(Thread.currentThread().getName() + ": First phase of program " + programId + " completed, " + percentage + "% of the input read locally");
+        if (pipelined) {
+            CoordinatorLoop.get().offload(() -> {
+                try {
+                    hadoopCoordinator.commitShuffle(programId);
+                } catch (IOException e) {
+                    logger.error(Thread.currentThread().getName() + ": Error while committing the shuffle: " + e.getMessage());
+                    System.out.println(Thread.currentThread().getName() + ": Error while committing the shuffle: " + e.getMessage());
+                    setErrorPresent(true);
+                }
+            });
         }
-        return filesPerWorker;
     }
 
     /**
-     * The initializeConnections method initializes the connections with the workers.
+     * The initializeConnections method initializes the connections with the workers, one for each SocketHandler.
+     * If there are fewer tasks than workers, the workers whose hosts store more bytes of the input are chosen.
+     * The workers already known as dead by the WorkerRegistry are replaced without trying to connect to them.
      */
     private void initializeConnections() {
         logger.info(Thread.currentThread().getName() + ": Initializing connections...");
 
-
-        for (int j = 0; j < Math.min(addresses.size(), files.size()); j++) {
-
-            List<String> filesWorker = manageFilesPerWorker(j, false);
+        Map<Address, Long> localBytes = new HashMap<>();
+        for (Address address : addresses) {
+            localBytes.put(address, taskQueue.getStoredBytes(resolveHost(address.hostname())));
+        }
+        List<Address> sortedAddresses = new ArrayList<>(addresses);
+        sortedAddresses.sort((a, b) -> Long.compare(localBytes.get(b), localBytes.get(a)));
+
+        WorkerRegistry registry = WorkerRegistry.get();
+        for (int j = 0; j < getNumHandlers(); j++) {
+            Address a = sortedAddresses.get(j);
+            if (registry.isDead(a)) {
+                clientSockets.add(Coordinator.getNewActiveSocket(addresses, Set.of(a), null));
+                continue;
+            }
             try {
-                Address a = addresses.get(j);
-                Socket clientSocket = new Socket(a.hostname(), a.port());
-                clientSockets.add(clientSocket);
-                fileSocketMap.put(filesWorker, clientSocket);
+                clientSockets.add(MutablePair.of(a, SessionPool.get().acquire(a)));
             } catch (IOException e) {
-                Socket clientSocket = Coordinator.getNewActiveSocket(new ArrayList<>(addresses), null);
-                clientSockets.add(clientSocket);
-                fileSocketMap.put(filesWorker, clientSocket);
+                registry.markDead(a);
+                clientSockets.add(Coordinator.getNewActiveSocket(addresses, Set.of(a), null));
             }
 
         }
@@ -248,32 +412,14 @@ public class ProgramExecutor extends Thread {
 
     /**
      * The initializeHDFS method initializes the Hadoop file system and uploads the files to HDFS.
-     * If the program has a reduce operation and the change key operation is not present, the files are uploaded to HDFS without merging them.
-     * Otherwise, the files are uploaded to HDFS and merged.
+     * The files are uploaded as they are, since the tasks read ranges of them.
      *
      * @throws RuntimeException if an error occurs while uploading files to HDFS.
      */
     private void initializeHDFS() {
         try {
-            if (reduce && !changeKey) {
-                hadoopCoordinator.uploadFiles(localFiles, "/input" + programId + "/");
-
-            } else {
-                System.out.println(Thread.currentThread().getName() + ": Uploading files to HDFS");
-                for (int i = 0; i < Math.min(addresses.size(), files.size()); i++) {
-
-
-                    List<String> filesPerWorker = manageFilesPerWorker(i, true);
-
-                    hadoopCoordinator.uploadMergedFiles(programId, String.valueOf(i), filesPerWorker);
-                }
-
-
-                this.fileSocketMap.clear();
-                for (int i = 0; i < Math.min(addresses.size(), files.size()); i++) {
-                    this.fileSocketMap.put(new ArrayList<>(List.of("/input" + programId + "/task" + i + ".csv")), clientSockets.get(i));
-                }
-            }
+            System.out.println(Thread.currentThread().getName() + ": Uploading files to HDFS");
+            hadoopCoordinator.uploadFiles(localFiles, "/input" + programId + "/");
         } catch (Exception e) {
             logger.error(Thread.currentThread().getName() + ": Error while uploading files to HDFS\n" + e.getMessage());
             throw new RuntimeException(e.getMessage());
@@ -293,12 +439,14 @@ public class ProgramExecutor extends Thread {
 
         this.operations = operations.getLeft();
         this.localFiles = operations.getRight();
+        this.networkShuffle = coordinatorFileManager.readNetworkShuffle(new File(op_path));
+        boolean pipelinedOption = coordinatorFileManager.readPipelined(new File(op_path));
         this.files = new ArrayList<>();
         for (String localFile : localFiles) {
             files.add("/input" + programId + "/" + new Path(localFile).getName());
         }
 
-        if (this.addresses.isEmpty() || this.operations.isEmpty()) {
+        if (this.addresses.isEmpty() || this.operations.isEmpty() || this.localFiles.isEmpty()) {
             logger.info(Thread.currentThread().getName() + ": Operations or num partitions are 0!");
             System.out.println(Thread.currentThread().getName() + ": Operations or num partitions are 0!");
             return false;
@@ -316,63 +464,128 @@ public class ProgramExecutor extends Thread {
                 }
             }
         }
+        pipelined = pipelinedOption && changeKey && reduce;
 
         return true;
     }
 
     /**
      * The run method executes the program.
-     * It initializes the connections, initializes Hadoop, reads the operations and launches the SocketHandlers.
+     * It initializes the connections, initializes Hadoop, reads the operations and launches the SocketHandlers on the loop of the coordinator.
+     * If the program cannot be initialized, it is recorded as finished.
      */
     @Override
     public void run() {
 
         Thread.currentThread().setName("ProgramExecutor" + programId);
 
+        if (!initialize() || !launchSocketHandlers()) {
+            CoordinatorLoop.get().programFinished();
+        }
+    }
+
+    /**
+     * The initialize method reads the operations, initializes Hadoop, splits the input in tasks and initializes the connections.
+     * The input is split after it is uploaded to HDFS, since the tasks are placed on the hosts storing their blocks.
+     *
+     * @return true if the program is initialized, false otherwise.
+     */
+    private boolean initialize() {
         try {
             if (!this.readOperations()) {
-                return;
+                return false;
             }
         } catch (Exception e) {
             System.out.println(Thread.currentThread().getName() + ": Error while reading operations");
             System.out.println(e.getMessage());
-            return;
+            return false;
         }
 
 
+        try {
+            this.initializeHDFS();
+            this.planTasks();
+        } catch (Exception e) {
+            System.out.println(Thread.currentThread().getName() + ": Error while initializing Hadoop");
+            System.out.println(e.getMessage());
+            return false;
+        }
+        logger.info(Thread.currentThread().getName() + " initialized Hadoop");
+
         try {
             this.initializeConnections();
         } catch (Exception e) {
 
             System.out.println(Thread.currentThread().getName() + ": Error while initializing connections");
             System.out.println(e.getMessage());
-            return;
+            return false;
         }
         logger.info(Thread.currentThread().getName() + " initialized connections");
+        return true;
+    }
 
+    /**
+     * The launchSocketHandlers method creates a SocketHandler for each connection and starts them on the loop of the coordinator.
+     *
+     * @return true if the SocketHandlers are launched, false otherwise.
+     */
+    private boolean launchSocketHandlers() {
         try {
-            this.initializeHDFS();
+            List<SocketHandler> socketHandlers = new ArrayList<>();
+            for (int i = 0; i < clientSockets.size(); i++) {
+                MutablePair<Address, Socket> connection = clientSockets.get(i);
+                socketHandlers.add(new SocketHandler(this, connection.getLeft(), connection.getRight(), i, ProgramPhase.INIT));
+            }
+            if (networkShuffle && changeKey && reduce) {
+                planReducers(socketHandlers);
+            }
+            if (pipelined) {
+                keyManager.planAssignments(socketHandlers, getShufflePartitions());
+            }
+            handlers = socketHandlers.size();
+            deathListener = address -> CoordinatorLoop.get().execute(() -> socketHandlers.forEach(h -> h.onWorkerDead(address)));
+            WorkerRegistry.get().addListener(deathListener);
+            for (SocketHandler socketHandler : socketHandlers) {
+                CoordinatorLoop.get().execute(socketHandler::start);
+            }
         } catch (Exception e) {
-            System.out.println(Thread.currentThread().getName() + ": Error while initializing Hadoop");
             System.out.println(e.getMessage());
-            return;
+            return false;
         }
-        logger.info(Thread.currentThread().getName() + " initialized Hadoop");
+        logger.info(Thread.currentThread().getName() + " initialized SocketHandlers");
+        return true;
+    }
 
-        ExecutorService executorService = Executors.newFixedThreadPool(this.getFileSocketMap().size());
-        try {
-            int i = getFileSocketMap().size() - 1;
+    /**
+     * The handlerFinished method records that a SocketHandler has closed its connection with the worker.
+     * When all the SocketHandlers are finished, the program is recorded as finished in the loop of the coordinator.
+     */
+    public synchronized void handlerFinished() {
+        finishedHandlers++;
+        if (finishedHandlers == handlers) {
+            WorkerRegistry.get().removeListener(deathListener);
+            CoordinatorLoop.get().programFinished();
+        }
+    }
 
-            for (List<String> f : this.getFileSocketMap().keySet()) {
-                executorService.submit(new SocketHandler(this, f, i, ProgramPhase.INIT));
-                i--;
+    /**
+     * The planReducers method assigns the shuffle partitions to the reducers before the first phase, when the shuffle goes through the network.
+     * The worker of each SocketHandler reduces the same interval of partitions that the KeyAssignmentManager assigns to it in the second phase.
+     *
+     * @param socketHandlers represents the SocketHandlers of the program.
+     */
+    private void planReducers(List<SocketHandler> socketHandlers) {
+        for (SocketHandler socketHandler : socketHandlers) {
+            reducerAddresses.put(socketHandler.getIdentifier(), socketHandler.getAddress());
+        }
+        int partitions = getShufflePartitions();
+        for (int r = 0; r < socketHandlers.size(); r++) {
+            MutablePair<Integer, Integer> interval = KeyAssignmentManager.intervalOf(r, socketHandlers.size(), partitions);
+            for (int p = interval.getLeft(); p < interval.getRight(); p++) {
+                partitionReducers.add(reducerAddresses.get(r));
             }
-            executorService.shutdown();
-        } catch (Exception e) {
-            System.out.println(e.getMessage());
-            return;
         }
-        logger.info(Thread.currentThread().getName() + " initialized SocketHandlers");
+        logger.info(Thread.currentThread().getName() + ": Shuffle through the network, reducers of the partitions: " + partitionReducers);
     }
 
     /**
@@ -389,9 +602,9 @@ public class ProgramExecutor extends Thread {
             return;
         }
         endedWorkers++;
-        if (endedWorkers == Math.min(addresses.size(), files.size())) {
+        if (endedWorkers == getNumHandlers()) {
             hadoopCoordinator.mergeFiles(outputId, programId, changeKey && reduce);
-            hadoopCoordinator.deleteFiles(programId, changeKey && reduce);
+            hadoopCoordinator.deleteFiles(programId);
             hadoopCoordinator.closeFileSystem();
         }
     }
@@ -0,0 +1,141 @@
+package it.polimi.coordinator;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+import it.polimi.common.Address;
+
+/**
+ * The SessionPool class contains the idle sessions with the workers, shared by all the programs.
+ * A session is a connection with a worker that runs the tasks of many programs: when a program ends cleanly,
+ * its SocketHandlers return their connections to the pool instead of closing them, and the next programs take them
+ * instead of connecting again, so that the worker handles them with a warm thread and HDFS client.
+ * At most MAX_IDLE_SESSIONS idle sessions are kept for each worker, and the sessions of dead workers are closed.
+ * An idle session is checked before it is taken, since the worker may have closed it meanwhile.
+ */
+public class SessionPool {
+    public static final int MAX_IDLE_SESSIONS = 4;
+    private static final Logger logger = LogManager.getLogger("it.polimi.Coordinator");
+    private static final SessionPool instance = new SessionPool();
+    private final Map<Address, Deque<SocketChannel>> idle;
+
+    /**
+     * The constructor creates a new SessionPool.
+     */
+    private SessionPool() {
+        this.idle = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * The get method returns the pool of the coordinator.
+     *
+     * @return the pool.
+     */
+    public static SessionPool get() {
+        return instance;
+    }
+
+    /**
+     * The acquire method returns a session with a worker, taking an idle one if possible and connecting otherwise.
+     * It can be called from any thread, and it blocks only while connecting.
+     *
+     * @param address represents the address of the worker.
+     * @return the socket of the session.
+     * @throws IOException if it is not possible to connect to the worker.
+     */
+    public Socket acquire(Address address) throws IOException {
+        if (!WorkerRegistry.get().isDead(address)) {
+            SocketChannel channel;
+            while ((channel = poll(address)) != null) {
+                if (isIdle(channel)) {
+                    logger.info(Thread.currentThread().getName() + ": Reusing a session with the worker " + address);
+                    return channel.socket();
+                }
+                close(channel);
+            }
+        }
+        return SocketChannel.open(new InetSocketAddress(address.hostname(), address.port())).socket();
+    }
+
+    /**
+     * The release method returns the session of a program that ended cleanly to the pool.
+     * The session is closed if the worker is dead or the pool of the worker is full.
+     * The channel must be already detached from the loop.
+     *
+     * @param address represents the address of the worker, as it was given to the acquire method.
+     * @param socket  represents the socket of the session.
+     */
+    public void release(Address address, Socket socket) {
+        SocketChannel channel = socket.getChannel();
+        if (channel == null || !channel.isOpen() || WorkerRegistry.get().isDead(address)) {
+            close(channel);
+            return;
+        }
+        Deque<SocketChannel> sessions = idle.computeIfAbsent(address, a -> new ArrayDeque<>());
+        synchronized (sessions) {
+            if (sessions.size() < MAX_IDLE_SESSIONS) {
+                sessions.push(channel);
+                return;
+            }
+        }
+        close(channel);
+    }
+
+    /**
+     * The poll method takes the idle session used most recently with a worker.
+     *
+     * @param address represents the address of the worker.
+     * @return the channel of the session, or null if there are no idle sessions.
+     */
+    private SocketChannel poll(Address address) {
+        Deque<SocketChannel> sessions = idle.get(address);
+        if (sessions == null) {
+            return null;
+        }
+        synchronized (sessions) {
+            return sessions.poll();
+        }
+    }
+
+    /**
+     * The isIdle method checks if an idle session is still open and the worker has not sent anything on it.
+     * The channel is non-blocking, since it has been registered in the loop, so the check does not block.
+     *
+     * @param channel represents the channel of the session.
+     * @return true if the session can be used, false otherwise.
+     */
+    private static boolean isIdle(SocketChannel channel) {
+        try {
+            channel.configureBlocking(false);
+            return channel.read(ByteBuffer.allocate(1)) == 0;
+        } catch (IOException | RuntimeException e) {
+            return false;
+        }
+    }
+
+    /**
+     * The close method closes a session that cannot be used anymore.
+     *
+     * @param channel represents the channel of the session, null if the socket has no channel.
+     */
+    private static void close(SocketChannel channel) {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            logger.error(Thread.currentThread().getName() + ": Error while closing a session: " + e.getMessage());
+        }
+    }
+}
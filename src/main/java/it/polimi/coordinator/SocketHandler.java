@@ -1,37 +1,60 @@
 package it.polimi.coordinator;
 
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.net.Socket;
-
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.lang3.tuple.MutablePair;
 import org.apache.log4j.LogManager;
 import org.apache.log4j.Logger;
 
 import it.polimi.common.Address;
+import it.polimi.common.messages.CancelTask;
 import it.polimi.common.messages.EndComputation;
 import it.polimi.common.messages.ErrorMessage;
 import it.polimi.common.messages.ReduceOperation;
 import it.polimi.common.messages.StopComputation;
 import it.polimi.common.messages.NormalOperations;
+import it.polimi.common.messages.TaskFlushed;
+import it.polimi.common.messages.TaskProgress;
 
 /**
  * The SocketHandler class is used to manage the connection with the worker node.
- * It contains the client socket, the identifier of the worker, the program executor, the list of files, the key assignment manager and the phase of the coordinator.
+ * It contains the client socket and the configured address of its worker, the identifier of the worker, the program executor, the task being processed, the key assignment manager and the phase of the coordinator.
+ * It is a state machine driven by the CoordinatorLoop: it sends a message to the worker when it enters a phase and it reacts to the replies of the worker,
+ * while the transition to the second phase is signalled by the KeyAssignmentManager when the assignments are ready.
+ * In the first phase, it takes a task from the TaskQueue of the program whenever its worker is free, until all the tasks are completed.
+ * The worker acknowledges each task once, also when it is cancelled, so the attempts sent and not acknowledged yet are kept in order,
+ * and the acknowledgement of an attempt cancelled because its task was completed by another worker is ignored.
+ * When the tasks write their partitions in HDFS after being acknowledged, an acknowledged attempt is completed only when the worker reports
+ * with a TaskFlushed message that its partitions are durable, and the attempts still being flushed fail if the connection is lost, so that they are processed again.
+ * The partitions that the worker keeps in memory are recorded, so that the KeyAssignmentManager prefers it as their reducer.
+ * All its methods run on the thread of the loop, except the ones that may block, which are offloaded to the pool of the loop.
  */
-public class SocketHandler implements Runnable {
+public class SocketHandler implements WorkerChannel.Listener {
     public Socket clientSocket;
+    private Address address;
     private final int identifier;
     private final ProgramExecutor programExecutor;
-    private final List<String> files;
+    private final TaskQueue taskQueue;
     private final KeyAssignmentManager keyManager;
+    private final CoordinatorLoop loop;
+    private WorkerChannel channel;
     private ProgramPhase phase;
+    private TaskAttempt attempt;
+    private final Deque<TaskAttempt> inFlight;
+    private final List<TaskAttempt> flushing;
+    private final Map<Integer, Long> cached;
+    private Runnable waiter;
     private boolean isProcessing;
     private final String programId;
+    private String name;
     private static final Logger logger = LogManager.getLogger("it.polimi.Coordinator");
     public static final int WAIT_TIME = 500;
     public static final int MAX_RETRIES = 3;
@@ -40,159 +63,381 @@ public class SocketHandler implements Runnable {
      * The constructor creates a new SocketHandler.
      *
      * @param programExecutor represents the program executor.
-     * @param files           represents the list of files to process.
+     * @param address         represents the configured address of the worker.
+     * @param clientSocket    represents the socket connected to the worker.
      * @param identifier      represents the identifier of the worker for a specific program.
      * @param phase           represents the phase of the program.
      */
-    public SocketHandler(ProgramExecutor programExecutor, List<String> files, int identifier, ProgramPhase phase) {
-        this.clientSocket = programExecutor.getFileSocketMap().get(files);
+    public SocketHandler(ProgramExecutor programExecutor, Address address, Socket clientSocket, int identifier, ProgramPhase phase) {
+        this.address = address;
+        this.clientSocket = clientSocket;
         this.keyManager = programExecutor.getKeyManager();
-        this.files = files;
+        this.taskQueue = programExecutor.getTaskQueue();
+        this.loop = CoordinatorLoop.get();
         this.identifier = identifier;
         this.programExecutor = programExecutor;
         this.phase = phase;
         this.isProcessing = true;
+        this.inFlight = new ArrayDeque<>();
+        this.flushing = new ArrayList<>();
+        this.cached = new ConcurrentHashMap<>();
         this.programId = programExecutor.getProgramId();
     }
 
     /**
-     * The run method is used to manage the connection with the worker node.
-     * It sends the message to the worker and receives the result.
-     * It manages the reconnection to the worker in case of failure.
+     * The start method registers the connection with the worker in the loop and sends the message of the current phase.
+     * It is also invoked after a reconnection, to resume the operations with the new worker.
      */
-    @Override
-    public void run() {
-        Thread.currentThread().setName(clientSocket.getInetAddress().getHostName() + ":" + clientSocket.getPort() + "(" + clientSocket.getLocalPort() + "):" + programId);
-
-        logger.info(Thread.currentThread().getName() + ": Starting worker connection");
+    public void start() {
+        name = address.hostname() + ":" + address.port() + "(" + clientSocket.getLocalPort() + "):" + programId;
+        logger.info(name + ": Starting worker connection");
         try {
-            ObjectInputStream inputStream = new ObjectInputStream(clientSocket.getInputStream());
-            ObjectOutputStream outputStream = new ObjectOutputStream(clientSocket.getOutputStream());
-
-            while (isProcessing) {
-                switch (phase) {
-                    case INIT:
-
-                        NormalOperations task = new NormalOperations(programId, programExecutor.getOperations(), files, programExecutor.getChangeKey(), programExecutor.getReduce(), identifier);
-                        System.out.println(Thread.currentThread().getName() + ": Sending task to worker phase1: " + clientSocket.getInetAddress().getHostName() + ":" + clientSocket.getPort());
-                        logger.info(Thread.currentThread().getName() + ": Sending task to worker phase1: " + clientSocket.getInetAddress().getHostName() + ":" + clientSocket.getPort());
-                        outputStream.writeObject(task);
-
-                        Object object = inputStream.readObject();
-                        switch (object) {
-                            case null -> {
-                                logger.error(Thread.currentThread().getName() + ": Received a null object!");
-                                System.out.println(Thread.currentThread().getName() + ": Received a null object!");
-                            }
-                            case ErrorMessage errorMessage -> {
-                                logger.error(Thread.currentThread().getName() + ": Received an error message!" + errorMessage.message());
-                                System.out.println(Thread.currentThread().getName() + ": " + errorMessage.message());
-                                programExecutor.setErrorPresent(true);
-                                isProcessing = false;
-                            }
-                            case EndComputation ignored -> {
-                                if (!(programExecutor.getChangeKey() && programExecutor.getReduce())) {
-                                    System.out.println(Thread.currentThread().getName() + ": Received the final result");
-                                    logger.info(Thread.currentThread().getName() + ": Received the final result");
-                                    end();
-                                    isProcessing = false;
-                                } else {
-                                    System.out.println(Thread.currentThread().getName() + ": Received the message end computation for phase1");
-                                    logger.info(Thread.currentThread().getName() + ": Received the message end computation for phase1");
-                                    managePhase2();
-                                }
-                            }
-                            default -> {
-                            }
-                        }
-                        break;
-
-                    case FINAL:
-                        if (programExecutor.IsErrorPresent()) {
-                            logger.error(Thread.currentThread().getName() + ": Error present in the program. Aborting...");
-                            System.out.println(Thread.currentThread().getName() + ": Error present in the program. Aborting...");
-                            isProcessing = false;
-                            break;
-                        }
-                        if (keyManager.canProceed()) {
-                            logger.info(Thread.currentThread().getName() + ": Sending task to worker phase2: " + clientSocket.getInetAddress().getHostName() + ":" + clientSocket.getPort());
-                            System.out.println(Thread.currentThread().getName() + ": Sending task to worker phase2: " + clientSocket.getInetAddress().getHostName() + ":" + clientSocket.getPort());
-                            ReduceOperation lastReduce = new ReduceOperation(programId, programExecutor.getLastReduce(), keyManager.getAssignments().get(this), identifier);
-                            outputStream.writeObject(lastReduce);
-                            Object finalObject = inputStream.readObject();
-                            switch (finalObject) {
-                                case null -> {
-                                    logger.error(Thread.currentThread().getName() + ": Something went wrong with the reduce phase!");
-                                    System.out.println(Thread.currentThread().getName() + ": Something went wrong with the reduce phase!");
-                                }
-                                case ErrorMessage errorMessage -> {
-                                    logger.error(Thread.currentThread().getName() + ": Received an error message!" + errorMessage.message());
-                                    System.out.println(Thread.currentThread().getName() + ": " + errorMessage.message());
-                                    programExecutor.setErrorPresent(true);
-                                    isProcessing = false;
-                                }
-                                case EndComputation ignored -> {
-                                    System.out.println(Thread.currentThread().getName() + ": Received the final result");
-                                    logger.info(Thread.currentThread().getName() + ": Received the final result");
-                                    end();
-                                    isProcessing = false;
-                                }
-                                default -> {
-                                }
-                            }
-                        }
-                        if (keyManager.exit()) {
-                            outputStream.writeObject(new StopComputation());
-                            logger.info("No keys to process, exiting...");
-                            isProcessing = false;
-                            break;
+            channel = loop.open(clientSocket.getChannel(), this);
+        } catch (IOException e) {
+            onConnectionLost();
+            return;
+        }
+        proceed();
+    }
+
+    /**
+     * The proceed method sends the message of the current phase to the worker.
+     * In the first phase the next task is taken from the queue, while in the second phase the handler waits until the assignments are ready.
+     */
+    private void proceed() {
+        if (!isProcessing) {
+            return;
+        }
+        switch (phase) {
+            case INIT -> requestTask();
+            case FINAL -> keyManager.whenReady(() -> loop.execute(this::proceedFinal));
+        }
+    }
+
+    /**
+     * The requestTask method sends the next task of the queue to the worker.
+     * If the queue is empty, the handler runs a backup attempt of a slow task, if any, otherwise it ends the first phase when all the tasks are completed,
+     * or it waits until a task of a failed worker is put back in the queue or a task becomes slow.
+     * When the second phase is pipelined, the handler enters it as soon as the queue is empty, since its worker can start reducing.
+     */
+    private void requestTask() {
+        if (attempt != null || waiter != null) {
+            return;
+        }
+        if (programExecutor.IsErrorPresent()) {
+            logger.error(name + ": Error present in the program. Aborting...");
+            System.out.println(name + ": Error present in the program. Aborting...");
+            finish();
+            return;
+        }
+        attempt = taskQueue.poll(this);
+        if (attempt == null && !programExecutor.isPipelined()) {
+            attempt = taskQueue.speculate(this);
+        }
+        if (attempt != null) {
+            InputTask task = attempt.getTask();
+            System.out.println(name + ": Sending task " + task.identifier() + " (attempt " + attempt.getNumber() + ") to worker phase1: " + address.hostname() + ":" + address.port());
+            logger.info(name + ": Sending task " + task.identifier() + " (attempt " + attempt.getNumber() + ") to worker phase1: " + address.hostname() + ":" + address.port());
+            inFlight.add(attempt);
+            channel.send(new NormalOperations(programId, programExecutor.getOperations(), task.splits(), programExecutor.getChangeKey(), programExecutor.getReduce(), task.identifier(), programExecutor.getShufflePartitions(), programExecutor.getPartitionReducers(), attempt.getNumber(), programExecutor.isWriteBehind()));
+        } else if (taskQueue.isComplete() || programExecutor.isPipelined()) {
+            endFirstPhase();
+        } else {
+            waiter = () -> {
+                waiter = null;
+                proceed();
+            };
+            taskQueue.whenAvailable(waiter);
+        }
+    }
+
+    /**
+     * The endFirstPhase method is invoked when the worker has no more tasks of the first phase.
+     * If the program includes a changekey and a reduce the handler enters the second phase, otherwise the worker is stopped and the program ends.
+     */
+    private void endFirstPhase() {
+        if (programExecutor.getChangeKey() && programExecutor.getReduce()) {
+            System.out.println(name + ": Received the message end computation for phase1");
+            logger.info(name + ": Received the message end computation for phase1");
+            managePhase2();
+        } else {
+            System.out.println(name + ": Received the final result");
+            logger.info(name + ": Received the final result");
+            channel.send(new StopComputation());
+            end();
+            finish();
+        }
+    }
+
+    /**
+     * The proceedFinal method sends the reduce operation to the worker once the assignments are ready,
+     * or stops the worker if the results of the first phase are empty or the program has an error.
+     */
+    private void proceedFinal() {
+        if (!isProcessing) {
+            return;
+        }
+        if (programExecutor.IsErrorPresent()) {
+            logger.error(name + ": Error present in the program. Aborting...");
+            System.out.println(name + ": Error present in the program. Aborting...");
+            finish();
+            return;
+        }
+        if (keyManager.canProceed() && !isPlannedReducer()) {
+            logger.error(name + ": The reducer of the partitions changed after the network shuffle, the partitions received by the failed worker are lost!");
+            System.out.println(name + ": The reducer of the partitions changed after the network shuffle, the partitions received by the failed worker are lost!");
+            programExecutor.setErrorPresent(true);
+            finish();
+            return;
+        }
+        if (keyManager.canProceed()) {
+            logger.info(name + ": Sending task to worker phase2: " + address.hostname() + ":" + address.port());
+            System.out.println(name + ": Sending task to worker phase2: " + address.hostname() + ":" + address.port());
+            channel.send(new ReduceOperation(programId, programExecutor.getLastReduce(), keyManager.getAssignments().get(this), identifier, programExecutor.isPipelined(), keyManager.getSlices(this)));
+        } else if (keyManager.exit()) {
+            channel.send(new StopComputation());
+            logger.info("No keys to process, exiting...");
+            finish();
+        }
+    }
+
+    /**
+     * The onMessage method reacts to a message received from the worker.
+     *
+     * @param message represents the message.
+     */
+    @Override
+    public void onMessage(Object message) {
+        if (!isProcessing) {
+            return;
+        }
+        switch (message) {
+            case null -> {
+                logger.error(name + ": Received a null object!");
+                System.out.println(name + ": Received a null object!");
+                proceed();
+            }
+            case ErrorMessage errorMessage -> {
+                logger.error(name + ": Received an error message!" + errorMessage.message());
+                System.out.println(name + ": " + errorMessage.message());
+                programExecutor.setErrorPresent(true);
+                finish();
+            }
+            case EndComputation ignored -> {
+                TaskAttempt acknowledged = inFlight.poll();
+                if (acknowledged != null) {
+                    if (acknowledged == attempt) {
+                        attempt = null;
+                        if (programExecutor.isWriteBehind()) {
+                            flushing.add(acknowledged);
+                        } else {
+                            taskQueue.complete(acknowledged);
                         }
-                        break;
-                    default:
-                        break;
+                        proceed();
+                    } else {
+                        logger.info(name + ": Attempt " + acknowledged.getNumber() + " of task " + acknowledged.getTask().identifier() + " acknowledged after its cancellation");
+                    }
+                } else if (phase == ProgramPhase.FINAL) {
+                    System.out.println(name + ": Received the final result");
+                    logger.info(name + ": Received the final result");
+                    end();
+                    finish();
+                }
+            }
+            case TaskProgress(int task, long bytes) -> {
+                if (attempt != null && attempt.getTask().identifier() == task) {
+                    attempt.setProgress(bytes);
                 }
+            }
+            case TaskFlushed flushed -> onTaskFlushed(flushed);
+            default -> logger.warn(name + ": Received unexpected object type");
+        }
+    }
 
+    /**
+     * The onTaskFlushed method completes an attempt whose partitions have been committed in HDFS by the worker,
+     * and records the partitions the worker keeps in memory.
+     * The report of an attempt that is not being flushed is ignored, since its task has been completed by another attempt.
+     *
+     * @param flushed represents the report of the worker.
+     */
+    private void onTaskFlushed(TaskFlushed flushed) {
+        for (TaskAttempt flushedAttempt : flushing) {
+            if (flushed.programId().equals(programId) && flushedAttempt.getTask().identifier() == flushed.identifier() && flushedAttempt.getNumber() == flushed.attempt()) {
+                flushing.remove(flushedAttempt);
+                flushed.cached().forEach((partition, bytes) -> cached.merge(partition, bytes, Long::sum));
+                taskQueue.complete(flushedAttempt);
+                return;
             }
-            inputStream.close();
-            outputStream.close();
-            clientSocket.close();
-        } catch (Exception e) {
-            System.out.println(Thread.currentThread().getName() + ": Worker connection lost");
-            logger.error(Thread.currentThread().getName() + ": Worker connection lost");
-            handleSocketException();
         }
+        logger.info(name + ": Attempt " + flushed.attempt() + " of task " + flushed.identifier() + " flushed after its cancellation");
+    }
+
+    /**
+     * The getCachedBytes method returns the number of bytes of a partition that the worker keeps in memory.
+     *
+     * @param partition represents the partition.
+     * @return the number of bytes, 0 if the worker does not keep the partition in memory.
+     */
+    public long getCachedBytes(int partition) {
+        return cached.getOrDefault(partition, 0L);
+    }
+
+    /**
+     * The onConnectionLost method is invoked by the channel when the connection with the worker fails.
+     */
+    @Override
+    public void onConnectionLost() {
+        System.out.println(name + ": Worker connection lost");
+        logger.error(name + ": Worker connection lost");
+        if (waiter != null) {
+            taskQueue.removeWaiter(waiter);
+            waiter = null;
+        }
+        if (attempt != null) {
+            taskQueue.fail(attempt);
+            attempt = null;
+        }
+        for (TaskAttempt flushedAttempt : new ArrayList<>(flushing)) {
+            taskQueue.fail(flushedAttempt);
+        }
+        flushing.clear();
+        cached.clear();
+        inFlight.clear();
+        handleSocketException();
+    }
+
+    /**
+     * The onWorkerDead method is invoked when the WorkerRegistry judges a worker dead, before its connection fails.
+     * If it is the worker of the handler, the connection is closed and the work is moved as if the connection were lost.
+     *
+     * @param address represents the address of the dead worker.
+     */
+    public void onWorkerDead(Address address) {
+        if (!isProcessing || channel == null || channel.isClosed() || !getAddress().equals(address)) {
+            return;
+        }
+        logger.warn(name + ": Worker " + address + " judged dead by the failure detector");
+        channel.close();
+        onConnectionLost();
+    }
+
+    /**
+     * The cancelAttempt method is invoked by the TaskQueue when the task of the attempt run by the worker has been completed by another attempt.
+     * The worker is sent a CancelTask message, which stops the attempt as soon as the worker checks its connection,
+     * and the handler proceeds without waiting for the acknowledgement of the attempt, which is ignored.
+     * An attempt already acknowledged and being flushed is only forgotten, since the worker may be processing another task.
+     *
+     * @param cancelled represents the cancelled attempt.
+     */
+    public void cancelAttempt(TaskAttempt cancelled) {
+        if (flushing.remove(cancelled)) {
+            logger.info(name + ": Task " + cancelled.getTask().identifier() + " completed by another worker while flushing the attempt " + cancelled.getNumber());
+            return;
+        }
+        if (attempt != cancelled) {
+            return;
+        }
+        logger.info(name + ": Task " + cancelled.getTask().identifier() + " completed by another worker, cancelling the attempt " + cancelled.getNumber());
+        attempt = null;
+        channel.send(new CancelTask(cancelled.getTask().identifier(), cancelled.getNumber()));
+        proceed();
+    }
+
+    /**
+     * The getIdentifier method returns the identifier of the worker for the program.
+     *
+     * @return the identifier of the worker.
+     */
+    public int getIdentifier() {
+        return identifier;
+    }
+
+    /**
+     * The getAddress method returns the address of the worker currently connected to the handler, as it is configured.
+     * It is not resolved from the socket, since the name of the host may differ from the one known by the WorkerRegistry.
+     *
+     * @return the address of the worker.
+     */
+    public Address getAddress() {
+        return address;
+    }
+
+    /**
+     * The getHostAddress method returns the IP address of the host of the worker currently connected to the handler.
+     *
+     * @return the IP address of the worker.
+     */
+    public String getHostAddress() {
+        return clientSocket.getInetAddress().getHostAddress();
+    }
+
+    /**
+     * The isPlannedReducer method checks if the worker connected to the handler is the reducer planned before the first phase.
+     * When the shuffle goes through the network, the partitions are stored on the local disk of the planned reducer,
+     * so the second phase cannot be moved to another worker.
+     *
+     * @return true if the shuffle goes through HDFS or the worker is the planned reducer, false otherwise.
+     */
+    private boolean isPlannedReducer() {
+        Address planned = programExecutor.getReducerAddress(identifier);
+        return planned == null || planned.equals(getAddress());
+    }
+
+    /**
+     * The finish method ends the work of the handler.
+     * If the program has no errors and the worker has acknowledged all the tasks, the connection is returned to the SessionPool
+     * to be used by the next programs, otherwise it is closed.
+     */
+    private void finish() {
+        isProcessing = false;
+        if (inFlight.isEmpty() && flushing.isEmpty() && !programExecutor.IsErrorPresent() && channel.detach()) {
+            SessionPool.get().release(address, clientSocket);
+        } else {
+            channel.close();
+        }
+        programExecutor.handlerFinished();
     }
 
     /**
      * The end method is used to manage the end of the program.
-     * It calls the manageEnd method of the program executor.
+     * It calls the manageEnd method of the program executor on the pool of the loop, since it accesses HDFS.
      */
     private void end() {
-        try {
-            programExecutor.manageEnd();
-        } catch (Exception e) {
-            System.out.println(Thread.currentThread().getName() + ": Error while managing the end of the program" + e.getMessage());
-            logger.error(Thread.currentThread().getName() + ": Error while managing the end of the program" + e.getMessage());
-            System.exit(0);
-        }
+        loop.offload(() -> {
+            try {
+                programExecutor.manageEnd();
+            } catch (Exception e) {
+                System.out.println(name + ": Error while managing the end of the program" + e.getMessage());
+                logger.error(name + ": Error while managing the end of the program" + e.getMessage());
+                System.exit(0);
+            }
+        });
     }
 
     /**
      * The managePhase2 method is used to manage the second phase of the program.
+     * The end of the first phase of the worker is recorded on the pool of the loop, since it may access HDFS, then the handler enters the second phase.
+     * When the second phase is pipelined, the assignments are planned before the first phase, so there is nothing to record.
      */
     public void managePhase2() {
-
-        try {
-            keyManager.insertAssignment(this, Math.min(programExecutor.getNumPartitions(), programExecutor.getFilesSize()));
-            this.phase = ProgramPhase.FINAL;
-        } catch (IllegalArgumentException e) {
-            logger.info(Thread.currentThread().getName() + ": " + e.getMessage());
-            this.phase = ProgramPhase.FINAL;
-        } catch (IOException e) {
-            System.out.println(Thread.currentThread().getName() + ": Error while splitting the keys" + e.getMessage());
-            logger.error(Thread.currentThread().getName() + ": Error while splitting th keys" + e.getMessage());
-            System.exit(0);
-        }
+        loop.offload(() -> {
+            try {
+                if (!programExecutor.isPipelined()) {
+                    keyManager.insertAssignment(this, programExecutor.getNumHandlers(), programExecutor.getShufflePartitions(), !programExecutor.getPartitionReducers().isEmpty());
+                }
+            } catch (IllegalArgumentException e) {
+                logger.info(name + ": " + e.getMessage());
+            } catch (IOException e) {
+                System.out.println(name + ": Error while splitting the keys" + e.getMessage());
+                logger.error(name + ": Error while splitting th keys" + e.getMessage());
+                System.exit(0);
+            }
+            loop.execute(() -> {
+                phase = ProgramPhase.FINAL;
+                proceed();
+            });
+        });
     }
 
     /**
@@ -200,50 +445,54 @@ public class SocketHandler implements Runnable {
      * It tries to reconnect to the failed worker and, if not possible, it assigns the task to another worker.
      * If the reconnection is successful, the task is reassigned to the new worker.
      * If it is not possible to connect to any worker, the program is stopped.
+     * The reconnection attempts are run on the pool of the loop, since they block.
      */
     private void handleSocketException() {
-        logger.info(Thread.currentThread().getName() + ": Handling socket exception...");
+        logger.info(name + ": Handling socket exception...");
 
-        programExecutor.getClientSockets().remove(clientSocket);
-        programExecutor.getFileSocketMap().put(files, null);
+        programExecutor.getClientSockets().remove(MutablePair.of(address, clientSocket));
 
         if (isProcessing) {
-            boolean reconnected = attemptReconnection(clientSocket);
-
-            if (!reconnected) {
-                logger.error(Thread.currentThread().getName() + ": Not possible to reconnect to the failed worker. Assigning to another worker...");
-                System.out.println(Thread.currentThread().getName() + ": Not possible to reconnect to the failed worker. Assigning to another worker...");
-                reconnected = attemptReconnectionFromPool();
+            loop.offload(() -> {
+                boolean reconnected = attemptReconnection();
 
                 if (!reconnected) {
-                    logger.error(Thread.currentThread().getName() + ": Not possible to connect to any worker.");
-                    System.out.println(Thread.currentThread().getName() + ": Not possible to connect to any worker.");
-                    System.exit(0);
-                } else {
-                    performReconnectedActions();
+                    logger.error(name + ": Not possible to reconnect to the failed worker. Assigning to another worker...");
+                    System.out.println(name + ": Not possible to reconnect to the failed worker. Assigning to another worker...");
+                    reconnected = attemptReconnectionFromPool();
+
+                    if (!reconnected) {
+                        logger.error(name + ": Not possible to connect to any worker.");
+                        System.out.println(name + ": Not possible to connect to any worker.");
+                        System.exit(0);
+                    }
                 }
-            } else {
-                performReconnectedActions();
-            }
+                loop.execute(this::performReconnectedActions);
+            });
         }
     }
 
     /**
      * The attemptReconnection method is used to try to reconnect to the failed worker.
+     * No attempt is made while the WorkerRegistry judges the worker dead, so that its work is moved to another worker immediately.
      *
-     * @param socket represents the socket of the failed worker.
      * @return true if the reconnection is successful, false otherwise.
      */
-    private boolean attemptReconnection(Socket socket) {
+    private boolean attemptReconnection() {
         boolean reconnected = false;
         int attempts = 0;
+        Address failed = address;
 
         while (!reconnected && attempts < MAX_RETRIES) {
+            if (WorkerRegistry.get().isDead(failed)) {
+                logger.info(name + ": Worker " + failed + " is dead, not reconnecting");
+                break;
+            }
             try {
-                clientSocket = new Socket(socket.getInetAddress().getHostName(), socket.getPort());
+                clientSocket = SessionPool.get().acquire(failed);
                 reconnected = true;
-                System.out.println(Thread.currentThread().getName() + ": Reconnected to the failed worker. Resuming operations...");
-                logger.info(Thread.currentThread().getName() + ": Reconnected to the failed worker. Resuming operations...");
+                System.out.println(name + ": Reconnected to the failed worker. Resuming operations...");
+                logger.info(name + ": Reconnected to the failed worker. Resuming operations...");
             } catch (IOException e) {
                 attempts = getAttempts(attempts);
             }
@@ -260,14 +509,14 @@ public class SocketHandler implements Runnable {
      */
     private int getAttempts(int attempts) {
         attempts++;
-        System.out.println(Thread.currentThread().getName() + ": Reconnection attempt " + attempts + " failed. Retrying...");
-        logger.error(Thread.currentThread().getName() + ": Reconnection attempt " + attempts + " failed. Retrying...");
+        System.out.println(name + ": Reconnection attempt " + attempts + " failed. Retrying...");
+        logger.error(name + ": Reconnection attempt " + attempts + " failed. Retrying...");
 
         try {
             Thread.sleep(WAIT_TIME);
         } catch (InterruptedException interruptedException) {
-            System.out.println(Thread.currentThread().getName() + ": Reconnection attempt interrupted.");
-            logger.error(Thread.currentThread().getName() + ": Reconnection attempt interrupted.");
+            System.out.println(name + ": Reconnection attempt interrupted.");
+            logger.error(name + ": Reconnection attempt interrupted.");
             Thread.currentThread().interrupt();
         }
         return attempts;
@@ -283,20 +532,22 @@ public class SocketHandler implements Runnable {
         boolean reconnected = false;
         int attempts = 0;
 
-        logger.info(Thread.currentThread().getName() + ": Attempting to reconnect to another worker...");
+        logger.info(name + ": Attempting to reconnect to another worker...");
 
         while (!reconnected && attempts < MAX_RETRIES) {
             try {
-                List<Address> addresses = new ArrayList<>(programExecutor.getAddresses());
-                addresses.remove(new Address(clientSocket.getInetAddress().getHostName(), clientSocket.getPort()));
-                logger.info(Thread.currentThread().getName() + ": Searching for a new worker, among " + addresses.size() + " available workers..." + addresses);
-                if (addresses.isEmpty()) {
+                Address failed = address;
+                List<Address> addresses = programExecutor.getAddresses();
+                logger.info(name + ": Searching for a new worker, among " + (addresses.size() - 1) + " available workers..." + addresses);
+                if (addresses.size() <= 1) {
                     return false;
                 }
-                clientSocket = Coordinator.getNewActiveSocket(addresses, clientSocket.getInetAddress().getHostName());
+                MutablePair<Address, Socket> connection = Coordinator.getNewActiveSocket(addresses, Set.of(failed), failed.hostname());
+                address = connection.getLeft();
+                clientSocket = connection.getRight();
                 reconnected = true;
-                System.out.println(Thread.currentThread().getName() + ": Reconnected to a new worker " + clientSocket.getInetAddress().getHostName() + ":" + clientSocket.getPort() + ". Resuming operations...");
-                logger.info(Thread.currentThread().getName() + ": Reconnected to a new worker " + clientSocket.getInetAddress().getHostName() + ":" + clientSocket.getPort() + ". Resuming operations...");
+                System.out.println(name + ": Reconnected to a new worker " + address.hostname() + ":" + address.port() + ". Resuming operations...");
+                logger.info(name + ": Reconnected to a new worker " + address.hostname() + ":" + address.port() + ". Resuming operations...");
             } catch (Exception e) {
 
 
@@ -309,21 +560,12 @@ public class SocketHandler implements Runnable {
 
     /**
      * The performReconnectedActions method is used to perform the actions after a successful reconnection.
-     * It adds the new worker to the list of client sockets and updates the file socket map,
-     * it creates a new SocketHandler for the new worker and reassigns the keys to the new worker, and
-     * it resumes the operations with the new worker.
+     * It adds the new worker to the list of client sockets,
+     * then it resumes the operations of the current phase with the new worker, taking a new task in the first phase.
+     * The handler keeps its assignment of partitions, since it is the same object.
      */
     private void performReconnectedActions() {
-        programExecutor.getClientSockets().add(clientSocket);
-        programExecutor.getFileSocketMap().put(files, clientSocket);
-        SocketHandler newSocketHandler = new SocketHandler(programExecutor, files, identifier, phase);
-        if (keyManager.getAssignments().get(this) != null) {
-            System.out.println(Thread.currentThread().getName() + ": Reassigning keys to the worker...");
-            logger.info(Thread.currentThread().getName() + ": Reassigning keys to the worker...");
-            MutablePair<Integer, Integer> keys = keyManager.getAssignments().get(this);
-            keyManager.getAssignments().remove(this);
-            keyManager.getAssignments().put(newSocketHandler, keys);
-        }
-        newSocketHandler.run();
+        programExecutor.getClientSockets().add(MutablePair.of(address, clientSocket));
+        start();
     }
-}
\ No newline at end of file
+}
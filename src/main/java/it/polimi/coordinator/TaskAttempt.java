@@ -0,0 +1,98 @@
+package it.polimi.coordinator;
+
+/**
+ * The TaskAttempt class represents the execution of a task of the first phase on a worker.
+ * A task may have several attempts: a new one is created when the worker of the previous one fails,
+ * or when the previous one is much slower than the other tasks, in which case the attempts run at the same time.
+ * It contains the progress reported by the worker, which is used to find the slow attempts.
+ * All the methods must be called on the thread of the CoordinatorLoop.
+ */
+public class TaskAttempt {
+    private final InputTask task;
+    private final int number;
+    private final SocketHandler handler;
+    private final long start;
+    private long progress;
+
+    /**
+     * The constructor creates a new TaskAttempt.
+     *
+     * @param task    represents the task.
+     * @param number  represents the number of the attempt of the task.
+     * @param handler represents the SocketHandler of the worker running the attempt.
+     */
+    public TaskAttempt(InputTask task, int number, SocketHandler handler) {
+        this.task = task;
+        this.number = number;
+        this.handler = handler;
+        this.start = System.currentTimeMillis();
+        this.progress = 0;
+    }
+
+    /**
+     * The getTask method returns the task of the attempt.
+     *
+     * @return the task.
+     */
+    public InputTask getTask() {
+        return task;
+    }
+
+    /**
+     * The getNumber method returns the number of the attempt of the task.
+     *
+     * @return the number of the attempt.
+     */
+    public int getNumber() {
+        return number;
+    }
+
+    /**
+     * The getHandler method returns the SocketHandler of the worker running the attempt.
+     *
+     * @return the SocketHandler.
+     */
+    public SocketHandler getHandler() {
+        return handler;
+    }
+
+    /**
+     * The getElapsed method returns the time elapsed since the attempt was sent to the worker.
+     *
+     * @param now represents the current time in milliseconds.
+     * @return the elapsed time in milliseconds, at least 1.
+     */
+    public long getElapsed(long now) {
+        return Math.max(1, now - start);
+    }
+
+    /**
+     * The setProgress method records the progress reported by the worker.
+     *
+     * @param progress represents the number of bytes of the task processed so far.
+     */
+    public void setProgress(long progress) {
+        this.progress = Math.min(progress, task.size());
+    }
+
+    /**
+     * The getRate method returns the rate at which the attempt processes its task.
+     *
+     * @param now represents the current time in milliseconds.
+     * @return the number of bytes processed per millisecond.
+     */
+    public double getRate(long now) {
+        return (double) progress / getElapsed(now);
+    }
+
+    /**
+     * The getTimeLeft method estimates the time needed by the attempt to complete its task, at its current rate.
+     *
+     * @param now represents the current time in milliseconds.
+     * @return the estimated time in milliseconds, infinite if the worker has not reported any progress.
+     */
+    public double getTimeLeft(long now) {
+        double rate = getRate(now);
+        return rate > 0 ? (task.size() - progress) / rate : Double.POSITIVE_INFINITY;
+    }
+}
@@ -0,0 +1,327 @@
+package it.polimi.coordinator;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+/**
+ * The TaskQueue class contains the tasks of the first phase of a program that are still to be processed.
+ * The input is split in more tasks than workers, and each SocketHandler takes the next task from the queue when its worker is free,
+ * so that the faster workers process more tasks, and a failure costs only the task being processed by the failed worker,
+ * which is put back at the head of the queue.
+ * A SocketHandler takes the task with most bytes stored on the host of its worker, so that the workers running on the DataNodes read their input locally.
+ * The SocketHandlers that find the queue empty while some tasks are still running wait for one of them to be put back or for the end of the phase.
+ * Meanwhile, a waiting SocketHandler runs a backup attempt of a task whose attempt is much slower than the completed tasks:
+ * the first attempt that completes is accepted, and the other attempts of the task are cancelled.
+ * All the methods must be called on the thread of the CoordinatorLoop.
+ */
+public class TaskQueue {
+    public static final int MAX_ATTEMPTS = 2;
+    public static final long MIN_SPECULATION_TIME = 5000;
+    public static final long SPECULATION_INTERVAL = 1000;
+    public static final double SLOW_TASK_RATIO = 0.5;
+    private static final Logger logger = LogManager.getLogger("it.polimi.Coordinator");
+    private final List<InputTask> tasks;
+    private final Deque<InputTask> pending;
+    private final Set<Integer> completed;
+    private final Map<Integer, List<TaskAttempt>> running;
+    private final Map<Integer, Integer> attempts;
+    private final List<Double> rates;
+    private final List<Runnable> waiters;
+    private final int total;
+    private final Runnable onComplete;
+    private boolean checkScheduled;
+    private long completedBytes;
+    private long localReadBytes;
+
+    /**
+     * The constructor creates a new TaskQueue.
+     *
+     * @param tasks      represents the tasks of the first phase.
+     * @param onComplete represents the action run when all the tasks are completed.
+     */
+    public TaskQueue(List<InputTask> tasks, Runnable onComplete) {
+        this.tasks = List.copyOf(tasks);
+        this.pending = new ArrayDeque<>(tasks);
+        this.completed = new HashSet<>();
+        this.running = new HashMap<>();
+        this.attempts = new HashMap<>();
+        this.rates = new ArrayList<>();
+        this.waiters = new ArrayList<>();
+        this.total = tasks.size();
+        this.onComplete = onComplete;
+        this.checkScheduled = false;
+        this.completedBytes = 0;
+        this.localReadBytes = 0;
+    }
+
+    /**
+     * The size method returns the number of tasks of the first phase.
+     *
+     * @return the number of tasks.
+     */
+    public int size() {
+        return total;
+    }
+
+    /**
+     * The getStoredBytes method returns the number of bytes of the input of the program stored by a host.
+     *
+     * @param host represents the IP address of the host.
+     * @return the number of bytes stored by the host.
+     */
+    public long getStoredBytes(String host) {
+        long bytes = 0;
+        for (InputTask task : tasks) {
+            bytes += task.getLocalBytes(host);
+        }
+        return bytes;
+    }
+
+    /**
+     * The getCompletedBytes method returns the number of bytes of the input processed by the completed tasks.
+     *
+     * @return the number of bytes processed.
+     */
+    public long getCompletedBytes() {
+        return completedBytes;
+    }
+
+    /**
+     * The getLocalReadBytes method returns the number of bytes of the input processed by the completed tasks on a host storing them.
+     *
+     * @return the number of bytes read locally.
+     */
+    public long getLocalReadBytes() {
+        return localReadBytes;
+    }
+
+    /**
+     * The poll method takes the next task to process and starts its attempt on the worker of a SocketHandler.
+     * The task with most bytes stored on the host of the worker is taken, and the first task of the queue if no task is stored on the host.
+     *
+     * @param handler represents the SocketHandler that runs the attempt.
+     * @return the attempt, or null if no task is waiting to be processed.
+     */
+    public TaskAttempt poll(SocketHandler handler) {
+        String host = handler.getHostAddress();
+        InputTask task = pending.peek();
+        long localBytes = 0;
+        for (InputTask candidate : pending) {
+            if (candidate.getLocalBytes(host) > localBytes) {
+                task = candidate;
+                localBytes = candidate.getLocalBytes(host);
+            }
+        }
+        if (task == null) {
+            return null;
+        }
+        pending.remove(task);
+        return launch(task, handler);
+    }
+
+    /**
+     * The speculate method starts a backup attempt of a slow task on the worker of a SocketHandler.
+     * Among the tasks with a single attempt, running on another worker for at least MIN_SPECULATION_TIME milliseconds,
+     * an attempt is slow if its rate is less than SLOW_TASK_RATIO times the median rate of the completed tasks,
+     * and the time it needs to complete is more than the time needed by a new attempt at the median rate.
+     * The task of the slow attempt with the longest time left is chosen.
+     *
+     * @param handler represents the SocketHandler that runs the backup attempt.
+     * @return the backup attempt, or null if no task is slow.
+     */
+    public TaskAttempt speculate(SocketHandler handler) {
+        InputTask task = findSlowTask(handler);
+        if (task == null) {
+            return null;
+        }
+        TaskAttempt attempt = launch(task, handler);
+        logger.info(Thread.currentThread().getName() + ": Task " + task.identifier() + " is slow, starting the backup attempt " + attempt.getNumber());
+        return attempt;
+    }
+
+    /**
+     * The isComplete method checks if all the tasks of the first phase are completed.
+     *
+     * @return true if all the tasks are completed, false otherwise.
+     */
+    public boolean isComplete() {
+        return completed.size() == total;
+    }
+
+    /**
+     * The complete method records the end of an attempt.
+     * If it is the first attempt of its task to complete, the other attempts of the task are cancelled,
+     * and when the last task is completed, the completion action and the waiting SocketHandlers are run.
+     *
+     * @param attempt represents the completed attempt.
+     * @return true if the attempt completed its task, false if the task was already completed by another attempt.
+     */
+    public boolean complete(TaskAttempt attempt) {
+        InputTask task = attempt.getTask();
+        if (!completed.add(task.identifier())) {
+            return false;
+        }
+        long now = System.currentTimeMillis();
+        if (task.size() > 0) {
+            rates.add((double) task.size() / attempt.getElapsed(now));
+        }
+        completedBytes += task.size();
+        localReadBytes += task.getLocalBytes(attempt.getHandler().getHostAddress());
+        logger.info(Thread.currentThread().getName() + ": Task " + task.identifier() + " completed by attempt " + attempt.getNumber() + " in " + attempt.getElapsed(now) + " ms, " + completed.size() + "/" + total);
+        List<TaskAttempt> others = running.remove(task.identifier());
+        if (others != null) {
+            for (TaskAttempt other : others) {
+                if (other != attempt) {
+                    other.getHandler().cancelAttempt(other);
+                }
+            }
+        }
+        if (isComplete()) {
+            onComplete.run();
+            wakeWaiters();
+        }
+        return true;
+    }
+
+    /**
+     * The fail method records that the worker of an attempt failed.
+     * If no other attempt of the task is running, the task is put back at the head of the queue, and a waiting SocketHandler is woken up to process it.
+     *
+     * @param attempt represents the failed attempt.
+     */
+    public void fail(TaskAttempt attempt) {
+        int identifier = attempt.getTask().identifier();
+        List<TaskAttempt> others = running.get(identifier);
+        if (others != null) {
+            others.remove(attempt);
+            if (!others.isEmpty()) {
+                return;
+            }
+            running.remove(identifier);
+        }
+        if (completed.contains(identifier)) {
+            return;
+        }
+        logger.info(Thread.currentThread().getName() + ": Task " + identifier + " put back in the queue");
+        pending.addFirst(attempt.getTask());
+        if (!waiters.isEmpty()) {
+            waiters.removeFirst().run();
+        }
+    }
+
+    /**
+     * The whenAvailable method runs an action when a task is put back in the queue, when a task becomes slow, when all the tasks are completed
+     * or when the program is cancelled.
+     * The running attempts are checked every SPECULATION_INTERVAL milliseconds while some SocketHandlers are waiting.
+     *
+     * @param action represents the action.
+     */
+    public void whenAvailable(Runnable action) {
+        waiters.add(action);
+        if (!checkScheduled && !running.isEmpty()) {
+            checkScheduled = true;
+            CoordinatorLoop loop = CoordinatorLoop.get();
+            loop.offload(() -> loop.execute(this::checkSlowTasks), SPECULATION_INTERVAL);
+        }
+    }
+
+    /**
+     * The removeWaiter method removes an action registered by whenAvailable, when its SocketHandler loses the connection with the worker.
+     *
+     * @param action represents the action.
+     */
+    public void removeWaiter(Runnable action) {
+        waiters.remove(action);
+    }
+
+    /**
+     * The cancel method empties the queue when the program has an error, and wakes up the waiting SocketHandlers so that they can stop.
+     */
+    public void cancel() {
+        pending.clear();
+        wakeWaiters();
+    }
+
+    /**
+     * The launch method creates a new attempt of a task and records it as running.
+     *
+     * @param task    represents the task.
+     * @param handler represents the SocketHandler that runs the attempt.
+     * @return the attempt.
+     */
+    private TaskAttempt launch(InputTask task, SocketHandler handler) {
+        int number = attempts.merge(task.identifier(), 1, Integer::sum) - 1;
+        TaskAttempt attempt = new TaskAttempt(task, number, handler);
+        running.computeIfAbsent(task.identifier(), t -> new ArrayList<>()).add(attempt);
+        return attempt;
+    }
+
+    /**
+     * The findSlowTask method finds the slow task whose backup attempt can be run by a SocketHandler.
+     *
+     * @param handler represents the SocketHandler, null to check if any slow task exists.
+     * @return the task with the longest time left, or null if no task is slow.
+     */
+    private InputTask findSlowTask(SocketHandler handler) {
+        if (rates.isEmpty()) {
+            return null;
+        }
+        List<Double> sorted = new ArrayList<>(rates);
+        sorted.sort(null);
+        double median = sorted.get(sorted.size() / 2);
+        long now = System.currentTimeMillis();
+        InputTask slowest = null;
+        double longest = 0;
+        for (List<TaskAttempt> taskAttempts : running.values()) {
+            TaskAttempt attempt = taskAttempts.getFirst();
+            if (taskAttempts.size() >= MAX_ATTEMPTS || attempt.getElapsed(now) < MIN_SPECULATION_TIME || attempt.getRate(now) >= SLOW_TASK_RATIO * median) {
+                continue;
+            }
+            if (handler != null && attempt.getHandler().getAddress().equals(handler.getAddress())) {
+                continue;
+            }
+            double timeLeft = attempt.getTimeLeft(now);
+            if (timeLeft > attempt.getTask().size() / median && timeLeft > longest) {
+                slowest = attempt.getTask();
+                longest = timeLeft;
+            }
+        }
+        return slowest;
+    }
+
+    /**
+     * The checkSlowTasks method wakes up the waiting SocketHandlers when some task is slow, so that they can run its backup attempt.
+     * The SocketHandlers that cannot run it wait again.
+     */
+    private void checkSlowTasks() {
+        checkScheduled = false;
+        if (waiters.isEmpty() || running.isEmpty()) {
+            return;
+        }
+        if (findSlowTask(null) != null) {
+            wakeWaiters();
+        } else {
+            checkScheduled = true;
+            CoordinatorLoop loop = CoordinatorLoop.get();
+            loop.offload(() -> loop.execute(this::checkSlowTasks), SPECULATION_INTERVAL);
+        }
+    }
+
+    /**
+     * The wakeWaiters method runs all the actions registered by whenAvailable.
+     */
+    private void wakeWaiters() {
+        List<Runnable> ready = new ArrayList<>(waiters);
+        waiters.clear();
+        ready.forEach(Runnable::run);
+    }
+}
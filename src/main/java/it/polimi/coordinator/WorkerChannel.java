@@ -0,0 +1,229 @@
+package it.polimi.coordinator;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+import it.polimi.common.MessageCodec;
+
+/**
+ * The WorkerChannel class is used by the CoordinatorLoop to exchange the messages with a worker on a non-blocking channel.
+ * The bytes received are accumulated until a whole frame is available, then the message is passed to the listener.
+ * The messages to send are queued and written when the channel is ready, so that a slow worker never blocks the loop.
+ * All the methods must be called on the thread of the loop.
+ */
+public class WorkerChannel {
+    private static final Logger logger = LogManager.getLogger("it.polimi.Coordinator");
+    private static final int INITIAL_BUFFER_SIZE = 16384;
+    private final SocketChannel channel;
+    private final Listener listener;
+    private final Deque<ByteBuffer> writeQueue;
+    private ByteBuffer readBuffer;
+    private SelectionKey key;
+    private boolean closed;
+
+    /**
+     * The Listener interface is implemented by the state machines that react to the messages of a worker.
+     */
+    public interface Listener {
+        /**
+         * The onMessage method is invoked when a message is received from the worker.
+         *
+         * @param message represents the message.
+         */
+        void onMessage(Object message);
+
+        /**
+         * The onConnectionLost method is invoked when the connection with the worker fails.
+         */
+        void onConnectionLost();
+    }
+
+    /**
+     * The constructor creates a new WorkerChannel.
+     *
+     * @param channel  represents the connected channel.
+     * @param listener represents the listener of the messages.
+     */
+    WorkerChannel(SocketChannel channel, Listener listener) {
+        this.channel = channel;
+        this.listener = listener;
+        this.writeQueue = new ArrayDeque<>();
+        this.readBuffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+        this.closed = false;
+    }
+
+    /**
+     * The setKey method sets the key of the channel in the selector of the loop.
+     *
+     * @param key represents the selection key.
+     */
+    void setKey(SelectionKey key) {
+        this.key = key;
+    }
+
+    /**
+     * The send method queues a message and writes as much as possible of it.
+     *
+     * @param message represents the message.
+     */
+    public void send(Object message) {
+        if (closed) {
+            return;
+        }
+        try {
+            writeQueue.add(MessageCodec.encode(message));
+            flush();
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * The handle method is invoked by the loop when the channel is ready to be read or written.
+     *
+     * @param key represents the selection key.
+     */
+    void handle(SelectionKey key) {
+        try {
+            if (key.isValid() && key.isWritable()) {
+                flush();
+            }
+            if (key.isValid() && key.isReadable()) {
+                read();
+            }
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * The isClosed method checks if the channel has been closed or has failed.
+     *
+     * @return true if the channel is closed, false otherwise.
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * The detach method removes the channel from the loop without closing the connection, so that it can be used as a session by another program.
+     * The queued messages are written if the channel accepts them without blocking, otherwise the connection is closed.
+     *
+     * @return true if the connection is still open and all the messages have been written, false otherwise.
+     */
+    public boolean detach() {
+        if (closed) {
+            return false;
+        }
+        closed = true;
+        try {
+            flush();
+        } catch (IOException | RuntimeException e) {
+            logger.warn(Thread.currentThread().getName() + ": Not possible to write the last messages: " + e.getMessage());
+        }
+        key.cancel();
+        if (writeQueue.isEmpty()) {
+            return true;
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            logger.error(Thread.currentThread().getName() + ": Error while closing the channel: " + e.getMessage());
+        }
+        return false;
+    }
+
+    /**
+     * The close method closes the channel without notifying the listener.
+     * The queued messages are written if the channel accepts them without blocking.
+     */
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            flush();
+        } catch (IOException | RuntimeException e) {
+            logger.warn(Thread.currentThread().getName() + ": Not possible to write the last messages: " + e.getMessage());
+        }
+        key.cancel();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            logger.error(Thread.currentThread().getName() + ": Error while closing the channel: " + e.getMessage());
+        }
+    }
+
+    /**
+     * The read method reads the available bytes and passes the complete messages to the listener.
+     *
+     * @throws IOException if the connection is closed or a frame is not valid.
+     */
+    private void read() throws IOException {
+        if (channel.read(readBuffer) < 0) {
+            throw new IOException("Connection closed by the worker");
+        }
+        readBuffer.flip();
+        int required = 0;
+        while (readBuffer.remaining() >= Integer.BYTES) {
+            int length = MessageCodec.checkLength(readBuffer.getInt(readBuffer.position()));
+            if (readBuffer.remaining() < Integer.BYTES + length) {
+                required = Integer.BYTES + length;
+                break;
+            }
+            Object message = MessageCodec.decode(readBuffer.array(), readBuffer.position() + Integer.BYTES, length);
+            readBuffer.position(readBuffer.position() + Integer.BYTES + length);
+            listener.onMessage(message);
+            if (closed) {
+                return;
+            }
+        }
+        readBuffer.compact();
+        if (required > readBuffer.capacity()) {
+            ByteBuffer larger = ByteBuffer.allocate(required);
+            readBuffer.flip();
+            larger.put(readBuffer);
+            readBuffer = larger;
+        }
+    }
+
+    /**
+     * The flush method writes the queued messages until the channel is full,
+     * and asks the selector to be notified when it can be written again.
+     *
+     * @throws IOException if it is not possible to write to the channel.
+     */
+    private void flush() throws IOException {
+        while (!writeQueue.isEmpty()) {
+            ByteBuffer frame = writeQueue.peek();
+            channel.write(frame);
+            if (frame.hasRemaining()) {
+                break;
+            }
+            writeQueue.poll();
+        }
+        key.interestOps(writeQueue.isEmpty() ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+    }
+
+    /**
+     * The fail method closes the channel after an error and notifies the listener.
+     *
+     * @param e represents the error.
+     */
+    private void fail(Exception e) {
+        if (closed) {
+            return;
+        }
+        logger.warn(Thread.currentThread().getName() + ": Channel closed: " + e.getMessage());
+        close();
+        listener.onConnectionLost();
+    }
+}
@@ -0,0 +1,36 @@
+package it.polimi.coordinator;
+
+import java.util.Comparator;
+
+import it.polimi.common.Address;
+
+/**
+ * The WorkerLoad class is a record used to represent the load of a worker, as reported by its last heartbeat.
+ * The records are immutable, so that they can be kept ordered by load in the WorkerRegistry:
+ * a new record replaces the old one whenever the load of the worker changes.
+ *
+ * @param address       represents the address of the worker.
+ * @param freeSlots     represents the number of tasks the worker can still accept, decreased by the connections opened since the heartbeat.
+ * @param freeMemory    represents the number of bytes of memory the worker can still allocate.
+ * @param lastHeartbeat represents the time of the last heartbeat in milliseconds.
+ */
+public record WorkerLoad(Address address, int freeSlots, long freeMemory, long lastHeartbeat) {
+
+    /**
+     * The ORDER comparator orders the workers from the least loaded to the most loaded.
+     * The ties are broken by the addresses, so that two workers are never equal.
+     */
+    public static final Comparator<WorkerLoad> ORDER = Comparator.comparingInt(WorkerLoad::freeSlots).reversed()
+            .thenComparing(Comparator.comparingLong(WorkerLoad::freeMemory).reversed())
+            .thenComparing(load -> load.address().hostname())
+            .thenComparingInt(load -> load.address().port());
+
+    /**
+     * The reserve method returns the load of the worker after the coordinator opens a new connection to it.
+     *
+     * @return the new load of the worker.
+     */
+    public WorkerLoad reserve() {
+        return new WorkerLoad(address, freeSlots - 1, freeMemory, lastHeartbeat);
+    }
+}
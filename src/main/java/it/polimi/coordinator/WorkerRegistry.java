@@ -0,0 +1,381 @@
+package it.polimi.coordinator;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+import it.polimi.common.Address;
+import it.polimi.common.messages.Heartbeat;
+import it.polimi.common.messages.HeartbeatRequest;
+
+/**
+ * The WorkerRegistry class contains the load of the workers known by the coordinator, shared by all the programs.
+ * The coordinator opens a heartbeat connection to each worker, on which the worker reports periodically its free slots, its running tasks and its memory.
+ * The workers are kept ordered by load, both globally and per host, so that the least loaded worker is found at the head of a concurrent skip list
+ * and its load is updated in logarithmic time, without a lock shared by the programs.
+ * The heartbeats of each worker feed a phi accrual FailureDetector, checked every CHECK_INTERVAL milliseconds:
+ * a worker is judged dead when it is suspected by its detector, when its heartbeat connection is lost or when it cannot be connected.
+ * A dead worker is removed until it is connected again, which is retried periodically, and the listeners of the registry are notified,
+ * so that the programs move its tasks to another worker without waiting for their connections to fail.
+ */
+public class WorkerRegistry {
+    public static final long HEARTBEAT_INTERVAL = 200;
+    public static final long CHECK_INTERVAL = 100;
+    public static final long RECONNECT_INTERVAL = 5000;
+    public static final double DEFAULT_THRESHOLD = 8;
+    public static final long DEFAULT_TIMEOUT = 1000;
+    private static final Logger logger = LogManager.getLogger("it.polimi.Coordinator");
+    private static final WorkerRegistry instance = new WorkerRegistry();
+    private final Map<Address, WorkerLoad> workers;
+    private final NavigableSet<WorkerLoad> ranking;
+    private final Map<String, NavigableSet<WorkerLoad>> hosts;
+    private final Set<Address> monitored;
+    private final Set<Address> dead;
+    private final Map<Address, FailureDetector> detectors;
+    private final Map<Address, WorkerChannel> channels;
+    private final List<Consumer<Address>> listeners;
+    private final AtomicBoolean checking;
+    private volatile double threshold;
+    private volatile long timeout;
+
+    /**
+     * The constructor creates a new WorkerRegistry.
+     */
+    private WorkerRegistry() {
+        this.workers = new ConcurrentHashMap<>();
+        this.ranking = new ConcurrentSkipListSet<>(WorkerLoad.ORDER);
+        this.hosts = new ConcurrentHashMap<>();
+        this.monitored = ConcurrentHashMap.newKeySet();
+        this.dead = ConcurrentHashMap.newKeySet();
+        this.detectors = new ConcurrentHashMap<>();
+        this.channels = new ConcurrentHashMap<>();
+        this.listeners = new CopyOnWriteArrayList<>();
+        this.checking = new AtomicBoolean(false);
+        this.threshold = DEFAULT_THRESHOLD;
+        this.timeout = DEFAULT_TIMEOUT;
+    }
+
+    /**
+     * The get method returns the registry of the coordinator.
+     *
+     * @return the registry.
+     */
+    public static WorkerRegistry get() {
+        return instance;
+    }
+
+    /**
+     * The configure method sets the parameters of the failure detectors of the workers connected from now on.
+     *
+     * @param threshold represents the value of phi above which a worker is judged dead.
+     * @param timeout   represents the time in milliseconds without heartbeats after which a worker is judged dead.
+     */
+    public void configure(double threshold, long timeout) {
+        this.threshold = threshold;
+        this.timeout = timeout;
+        logger.info(Thread.currentThread().getName() + ": Failure detection with phi threshold " + threshold + " and timeout " + timeout + " ms");
+    }
+
+    /**
+     * The monitor method opens the heartbeat connections to the workers not monitored yet, and starts checking the workers.
+     * It can be called from any thread, and it does not block.
+     *
+     * @param addresses represents the addresses of the workers.
+     */
+    public void monitor(List<Address> addresses) {
+        for (Address address : addresses) {
+            if (monitored.add(address)) {
+                connect(address);
+            }
+        }
+        if (checking.compareAndSet(false, true)) {
+            scheduleCheck();
+        }
+    }
+
+    /**
+     * The addListener method registers an action run with the address of a worker when it is judged dead.
+     *
+     * @param listener represents the action.
+     */
+    public void addListener(Consumer<Address> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * The removeListener method removes an action registered by addListener.
+     *
+     * @param listener represents the action.
+     */
+    public void removeListener(Consumer<Address> listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * The isDead method checks if a worker has been found unreachable and has not sent any heartbeat since then.
+     *
+     * @param address represents the address of the worker.
+     * @return true if the worker is dead, false otherwise.
+     */
+    public boolean isDead(Address address) {
+        return dead.contains(address);
+    }
+
+    /**
+     * The select method chooses the least loaded worker and records that a new connection is opened to it.
+     * If the load of the worker changes while it is chosen, the choice is repeated.
+     * A worker on the given machine is preferred, since the checkpoints of a failed worker are stored on its machine.
+     * The workers whose last heartbeat is older than the timeout of the failure detectors are skipped, even if they have not been checked yet.
+     *
+     * @param excluded represents the addresses of the workers that cannot be chosen.
+     * @param machine  represents the preferred machine, or null.
+     * @return the address of the worker, or null if no live worker is known.
+     */
+    public Address select(Set<Address> excluded, String machine) {
+        while (true) {
+            long now = System.currentTimeMillis();
+            WorkerLoad best = machine != null ? first(hosts.get(machine), excluded, now - timeout) : null;
+            if (best == null) {
+                best = first(ranking, excluded, now - timeout);
+            }
+            if (best == null) {
+                return null;
+            }
+            WorkerLoad chosen = best;
+            boolean[] reserved = {false};
+            workers.computeIfPresent(chosen.address(), (address, current) -> {
+                if (current != chosen) {
+                    return current;
+                }
+                WorkerLoad load = current.reserve();
+                replace(current, load);
+                reserved[0] = true;
+                return load;
+            });
+            if (reserved[0]) {
+                logger.info(Thread.currentThread().getName() + ": Worker " + chosen.address() + " selected with " + chosen.freeSlots() + " free slots");
+                return chosen.address();
+            }
+        }
+    }
+
+    /**
+     * The markDead method removes a worker that cannot be reached, until it sends a heartbeat again.
+     * The listeners are notified every time, since a program may have connected to the worker after it was first judged dead.
+     *
+     * @param address represents the address of the worker.
+     */
+    public void markDead(Address address) {
+        workers.computeIfPresent(address, (a, current) -> {
+            replace(current, null);
+            return null;
+        });
+        if (dead.add(address)) {
+            logger.warn(Thread.currentThread().getName() + ": Worker " + address + " is dead");
+            System.out.println(Thread.currentThread().getName() + ": Worker " + address.hostname() + ":" + address.port() + " is dead");
+        }
+        for (Consumer<Address> listener : listeners) {
+            listener.accept(address);
+        }
+    }
+
+    /**
+     * The first method returns the least loaded live worker of a set, skipping the excluded ones.
+     *
+     * @param loads    represents the loads ordered from the least loaded worker.
+     * @param excluded represents the addresses of the workers that cannot be chosen.
+     * @param oldest   represents the time of the oldest heartbeat accepted, in milliseconds.
+     * @return the load of the worker, or null if no worker can be chosen.
+     */
+    private static WorkerLoad first(NavigableSet<WorkerLoad> loads, Set<Address> excluded, long oldest) {
+        if (loads == null) {
+            return null;
+        }
+        for (WorkerLoad load : loads) {
+            if (!excluded.contains(load.address()) && load.lastHeartbeat() >= oldest) {
+                return load;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The replace method replaces the load of a worker in the ordered sets.
+     * It must be called while the entry of the worker is locked in the map of the workers.
+     *
+     * @param old  represents the old load, or null.
+     * @param load represents the new load, or null to remove the worker.
+     */
+    private void replace(WorkerLoad old, WorkerLoad load) {
+        if (old != null) {
+            ranking.remove(old);
+            hosts.get(old.address().hostname()).remove(old);
+        }
+        if (load != null) {
+            ranking.add(load);
+            hosts.computeIfAbsent(load.address().hostname(), host -> new ConcurrentSkipListSet<>(WorkerLoad.ORDER)).add(load);
+        }
+    }
+
+    /**
+     * The update method records the load reported by a heartbeat of a worker.
+     *
+     * @param address   represents the address of the worker.
+     * @param heartbeat represents the heartbeat.
+     */
+    private void update(Address address, Heartbeat heartbeat) {
+        FailureDetector detector = detectors.get(address);
+        if (detector == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        detector.heartbeat(now);
+        if (dead.remove(address)) {
+            logger.info(Thread.currentThread().getName() + ": Worker " + address + " is alive");
+        }
+        WorkerLoad load = new WorkerLoad(address, heartbeat.freeSlots(), heartbeat.freeMemory(), now);
+        workers.compute(address, (a, current) -> {
+            replace(current, load);
+            return load;
+        });
+    }
+
+    /**
+     * The check method judges dead the workers suspected by their failure detectors.
+     * Their heartbeat connections are closed and opened again later, so that a worker that was only slow starts with a new history.
+     */
+    private void check() {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<Address, FailureDetector> entry : detectors.entrySet()) {
+            FailureDetector detector = entry.getValue();
+            if (detector.isAvailable(now) || !detectors.remove(entry.getKey(), detector)) {
+                continue;
+            }
+            Address address = entry.getKey();
+            logger.warn(Thread.currentThread().getName() + ": Worker " + address + " suspected by the failure detector, phi " + String.format("%.2f", detector.phi(now)));
+            WorkerChannel channel = channels.remove(address);
+            if (channel != null) {
+                CoordinatorLoop.get().execute(channel::close);
+            }
+            markDead(address);
+            reconnect(address);
+        }
+    }
+
+    /**
+     * The scheduleCheck method checks the workers every CHECK_INTERVAL milliseconds on the pool of the loop, until the loop is stopped.
+     */
+    private void scheduleCheck() {
+        try {
+            CoordinatorLoop.get().offload(() -> {
+                check();
+                scheduleCheck();
+            }, CHECK_INTERVAL);
+        } catch (RejectedExecutionException e) {
+            logger.info(Thread.currentThread().getName() + ": Coordinator stopped, the workers are not checked anymore");
+        }
+    }
+
+    /**
+     * The connect method opens the heartbeat connection to a worker on the pool of the loop, and registers it in the loop.
+     *
+     * @param address represents the address of the worker.
+     */
+    private void connect(Address address) {
+        CoordinatorLoop loop = CoordinatorLoop.get();
+        try {
+            loop.offload(() -> {
+                SocketChannel channel;
+                try {
+                    channel = SocketChannel.open(new InetSocketAddress(address.hostname(), address.port()));
+                } catch (IOException e) {
+                    markDead(address);
+                    reconnect(address);
+                    return;
+                }
+                loop.execute(() -> {
+                    try {
+                        WorkerChannel workerChannel = loop.open(channel, new HeartbeatListener(address));
+                        channels.put(address, workerChannel);
+                        detectors.put(address, new FailureDetector(threshold, timeout, HEARTBEAT_INTERVAL, System.currentTimeMillis()));
+                        workerChannel.send(new HeartbeatRequest(HEARTBEAT_INTERVAL));
+                        logger.info(Thread.currentThread().getName() + ": Heartbeat connection opened to the worker " + address);
+                    } catch (IOException e) {
+                        logger.warn(Thread.currentThread().getName() + ": Not possible to register the heartbeat connection: " + e.getMessage());
+                        markDead(address);
+                        reconnect(address);
+                    }
+                });
+            });
+        } catch (RejectedExecutionException e) {
+            logger.info(Thread.currentThread().getName() + ": Coordinator stopped, the worker " + address + " is not monitored anymore");
+        }
+    }
+
+    /**
+     * The reconnect method connects again to a worker after RECONNECT_INTERVAL milliseconds.
+     *
+     * @param address represents the address of the worker.
+     */
+    private void reconnect(Address address) {
+        try {
+            CoordinatorLoop.get().offload(() -> connect(address), RECONNECT_INTERVAL);
+        } catch (RejectedExecutionException e) {
+            logger.info(Thread.currentThread().getName() + ": Coordinator stopped, the worker " + address + " is not monitored anymore");
+        }
+    }
+
+    /**
+     * The HeartbeatListener class receives the heartbeats of a worker on the loop of the coordinator.
+     */
+    private class HeartbeatListener implements WorkerChannel.Listener {
+        private final Address address;
+
+        /**
+         * The constructor creates a new HeartbeatListener.
+         *
+         * @param address represents the address of the worker.
+         */
+        HeartbeatListener(Address address) {
+            this.address = address;
+        }
+
+        /**
+         * The onMessage method records the load reported by the worker.
+         *
+         * @param message represents the message.
+         */
+        @Override
+        public void onMessage(Object message) {
+            if (message instanceof Heartbeat heartbeat) {
+                update(address, heartbeat);
+            } else {
+                logger.warn(Thread.currentThread().getName() + ": Unexpected message on the heartbeat connection of " + address + ": " + message);
+            }
+        }
+
+        /**
+         * The onConnectionLost method removes the worker and connects to it again later.
+         */
+        @Override
+        public void onConnectionLost() {
+            detectors.remove(address);
+            channels.remove(address);
+            markDead(address);
+            reconnect(address);
+        }
+    }
+}
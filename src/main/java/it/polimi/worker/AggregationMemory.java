@@ -0,0 +1,101 @@
+package it.polimi.worker;
+
+/**
+ * The AggregationMemory class is the off-heap memory shared by the aggregation tables of a worker.
+ * The tasks, their files and the partitions reduced by the worker each have their own table, so a budget per table
+ * would multiply the memory of the worker by the number of tables that are alive at the same time.
+ * Each table reserves its memory from the shared budget, and it cannot grow beyond an equal share of the budget among the live tables,
+ * so that a table created first does not take all the memory and force the others to spill continuously.
+ * A table that holds more than its share, because other tables were created after it grew, shrinks to its share when it spills.
+ * A table that cannot grow with its keys in memory, because the old and the new memory together do not fit in the budget,
+ * spills and grows while it is empty, so that it still reaches its share.
+ *
+ * @see AggregationTable
+ */
+public class AggregationMemory {
+    private final long total;
+    private long reserved;
+    private int tables;
+
+    /**
+     * The constructor creates a new AggregationMemory.
+     *
+     * @param total represents the number of bytes of off-heap memory shared by the tables.
+     */
+    public AggregationMemory(long total) {
+        this.total = total;
+    }
+
+    /**
+     * The register method adds a table to the live tables, reserving its initial memory.
+     * The initial memory is always reserved, even beyond the budget, since it is the minimum a table needs to work.
+     *
+     * @param bytes represents the initial memory of the table.
+     */
+    public synchronized void register(long bytes) {
+        tables++;
+        reserved += bytes;
+    }
+
+    /**
+     * The unregister method removes a table from the live tables, releasing its memory.
+     *
+     * @param bytes represents the memory held by the table.
+     */
+    public synchronized void unregister(long bytes) {
+        tables--;
+        reserved -= bytes;
+    }
+
+    /**
+     * The reserve method takes the new memory of a table that grows, if the table stays within its share and the memory is available.
+     * The share bounds the memory the table keeps after growing, which replaces the memory it held.
+     * While the table grows, the old and the new memory are allocated together, so the peak is checked against the free memory of the budget,
+     * which already accounts for the memory held by the table.
+     *
+     * @param bytes represents the new memory of the table.
+     * @return true if the bytes have been taken, false otherwise.
+     */
+    public synchronized boolean reserve(long bytes) {
+        if (bytes > getShare() || reserved + bytes > total) {
+            return false;
+        }
+        reserved += bytes;
+        return true;
+    }
+
+    /**
+     * The replace method exchanges the memory of an empty table with a larger one, if the table stays within its share and the memory is available.
+     * The old memory is given back before the new one is allocated, so there is no peak: it is used after a spill, when growing
+     * with the keys in memory would exceed the free memory of the budget.
+     *
+     * @param held  represents the memory held by the table.
+     * @param bytes represents the new memory of the table.
+     * @return true if the memory has been exchanged, false otherwise.
+     */
+    public synchronized boolean replace(long held, long bytes) {
+        if (bytes > getShare() || reserved - held + bytes > total) {
+            return false;
+        }
+        reserved += bytes - held;
+        return true;
+    }
+
+    /**
+     * The release method gives back some bytes to the budget.
+     *
+     * @param bytes represents the number of bytes.
+     */
+    public synchronized void release(long bytes) {
+        reserved -= bytes;
+    }
+
+    /**
+     * The getShare method returns the memory that each live table may use.
+     *
+     * @return the share of the budget of a table.
+     */
+    public synchronized long getShare() {
+        return total / Math.max(1, tables);
+    }
+}
@@ -0,0 +1,580 @@
+package it.polimi.worker;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+import it.polimi.worker.models.Accumulator;
+import it.polimi.worker.models.KeyValueBatch;
+
+/**
+ * The AggregationTable class is used to aggregate the values of the keys incrementally with an accumulator.
+ * It is an open addressing hash table with int keys stored in off-heap memory, where each slot contains
+ * a flag, the key and the state of the accumulator, so that the keys do not put pressure on the garbage collector.
+ * The memory used by the table is reserved from the memory shared by the tables of the worker: when it cannot grow anymore,
+ * its content is sorted by key and spilled to a run on the local disk, and the runs are merged with the table when the entries are visited.
+ * The spilled runs are deleted by the clear method, and the close method, which must be invoked when the table is no longer used,
+ * also gives its memory back to the other tables.
+ *
+ * @see Accumulator
+ * @see AggregationMemory
+ */
+public class AggregationTable {
+    private static final Logger logger = LogManager.getLogger("it.polimi.Worker");
+    private static final int MIN_CAPACITY = 16;
+    private static final int MAX_RUNS = 64;
+    private static final int KEY_OFFSET = 4;
+    private static final int STATE_OFFSET = 8;
+    private final Accumulator accumulator;
+    private final int stateSize;
+    private final int slotSize;
+    private final AggregationMemory memory;
+    private final Path spillDirectory;
+    private final List<Path> runs;
+    private final long[] state;
+    private ByteBuffer slots;
+    private int capacity;
+    private int size;
+    private int mask;
+
+    /**
+     * The EntryConsumer interface is used to visit the entries of the table.
+     */
+    public interface EntryConsumer {
+        /**
+         * The accept method is invoked for each entry of the table.
+         *
+         * @param key    represents the key of the entry.
+         * @param state  represents the array containing the state of the entry.
+         * @param offset represents the index of the first long of the state.
+         * @throws IOException if the consumer fails to write the entry.
+         */
+        void accept(int key, long[] state, int offset) throws IOException;
+    }
+
+    /**
+     * The constructor creates a new AggregationTable.
+     *
+     * @param accumulator    represents the accumulator used to aggregate the values.
+     * @param memory         represents the off-heap memory from which the table reserves its memory.
+     * @param spillDirectory represents the local directory where the sorted runs are spilled.
+     */
+    public AggregationTable(Accumulator accumulator, AggregationMemory memory, String spillDirectory) {
+        this.accumulator = accumulator;
+        this.stateSize = accumulator.stateSize();
+        this.slotSize = STATE_OFFSET + stateSize * Long.BYTES;
+        this.memory = memory;
+        this.spillDirectory = Paths.get(spillDirectory);
+        this.runs = new ArrayList<>();
+        this.state = new long[stateSize];
+        allocate(MIN_CAPACITY);
+        memory.register((long) MIN_CAPACITY * slotSize);
+    }
+
+    /**
+     * The getAccumulator method returns the accumulator used by the table.
+     *
+     * @return the accumulator.
+     */
+    public Accumulator getAccumulator() {
+        return accumulator;
+    }
+
+    /**
+     * The size method returns the number of keys in memory, the keys spilled to the disk are not counted.
+     *
+     * @return the number of keys in memory.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * The isEmpty method returns if the table does not contain any key, neither in memory nor on the disk.
+     *
+     * @return true if the table is empty, false otherwise.
+     */
+    public boolean isEmpty() {
+        return size == 0 && runs.isEmpty();
+    }
+
+    /**
+     * The getSpillCount method returns the number of runs spilled to the disk.
+     *
+     * @return the number of spilled runs.
+     */
+    public int getSpillCount() {
+        return runs.size();
+    }
+
+    /**
+     * The clear method removes all the keys of the table, keeping the allocated memory and deleting the spilled runs.
+     */
+    public void clear() {
+        for (int slot = 0; slot < capacity; slot++) {
+            slots.putInt(slot * slotSize, 0);
+        }
+        size = 0;
+        for (Path run : runs) {
+            try {
+                Files.deleteIfExists(run);
+            } catch (IOException e) {
+                logger.warn(Thread.currentThread().getName() + ": Not possible to delete the spilled run " + run + ": " + e.getMessage());
+            }
+        }
+        runs.clear();
+    }
+
+    /**
+     * The close method clears the table and gives its memory back to the other tables of the worker.
+     * The table must not be used anymore after it has been closed.
+     */
+    public void close() {
+        if (slots == null) {
+            return;
+        }
+        clear();
+        memory.unregister((long) capacity * slotSize);
+        slots = null;
+        capacity = 0;
+    }
+
+    /**
+     * The accumulate method adds a value to the state of a key, initializing the state if the key is new.
+     *
+     * @param key   represents the key.
+     * @param value represents the value.
+     * @throws IOException if the table must be spilled and it is not possible to write the run.
+     */
+    public void accumulate(int key, int value) throws IOException {
+        int base = slotOf(key) * slotSize;
+        load(base);
+        accumulator.accumulate(state, 0, value);
+        store(base);
+    }
+
+    /**
+     * The accumulate method adds all the selected key-value pairs of a batch to the table.
+     *
+     * @param batch represents the batch.
+     * @throws IOException if the table must be spilled and it is not possible to write the run.
+     */
+    public void accumulate(KeyValueBatch batch) throws IOException {
+        int[] batchKeys = batch.getKeys();
+        int[] batchValues = batch.getValues();
+        for (int i = 0; i < batch.size(); i++) {
+            int r = batch.row(i);
+            accumulate(batchKeys[r], batchValues[r]);
+        }
+    }
+
+    /**
+     * The merge method merges the state of a partial aggregation into the state of a key.
+     *
+     * @param key    represents the key.
+     * @param other  represents the array containing the partial state.
+     * @param offset represents the index of the first long of the partial state.
+     * @throws IOException if the table must be spilled and it is not possible to write the run.
+     */
+    public void merge(int key, long[] other, int offset) throws IOException {
+        int base = slotOf(key) * slotSize;
+        load(base);
+        accumulator.merge(state, 0, other, offset);
+        store(base);
+    }
+
+    /**
+     * The forEach method visits all the entries of the table.
+     * If nothing has been spilled, the entries in memory are visited in the order of the slots,
+     * otherwise the entries in memory and the spilled runs are merged, and the keys are visited in ascending order.
+     * The state passed to the consumer is only valid during the invocation.
+     *
+     * @param consumer represents the consumer invoked for each entry.
+     * @throws IOException if the consumer fails or it is not possible to read the spilled runs.
+     */
+    public void forEach(EntryConsumer consumer) throws IOException {
+        if (runs.isEmpty()) {
+            for (int slot = 0; slot < capacity; slot++) {
+                int base = slot * slotSize;
+                if (slots.getInt(base) != 0) {
+                    load(base);
+                    consumer.accept(slots.getInt(base + KEY_OFFSET), state, 0);
+                }
+            }
+            return;
+        }
+
+        List<Run> opened = new ArrayList<>();
+        try {
+            opened.add(new MemoryRun(sortedSlots()));
+            for (Path run : runs) {
+                opened.add(new DiskRun(run));
+            }
+            merge(opened, consumer);
+        } finally {
+            for (Run run : opened) {
+                run.close();
+            }
+        }
+    }
+
+    /**
+     * The merge method merges sorted runs, combining the states of the same key, and visits the keys in ascending order.
+     *
+     * @param sources  represents the runs to be merged.
+     * @param consumer represents the consumer invoked for each key.
+     * @throws IOException if the consumer fails or it is not possible to read the runs.
+     */
+    private void merge(List<Run> sources, EntryConsumer consumer) throws IOException {
+        PriorityQueue<Run> queue = new PriorityQueue<>((a, b) -> Integer.compare(a.key, b.key));
+        for (Run run : sources) {
+            if (run.advance()) {
+                queue.add(run);
+            }
+        }
+        long[] merged = new long[stateSize];
+        while (!queue.isEmpty()) {
+            int key = queue.peek().key;
+            accumulator.init(merged, 0);
+            while (!queue.isEmpty() && queue.peek().key == key) {
+                Run run = queue.poll();
+                accumulator.merge(merged, 0, run.state, 0);
+                if (run.advance()) {
+                    queue.add(run);
+                }
+            }
+            consumer.accept(key, merged, 0);
+        }
+    }
+
+    /**
+     * The finish method computes the reduced value of every key and adds the results to the batch.
+     *
+     * @param output represents the batch where the key-value pairs are stored.
+     * @throws IOException if it is not possible to read the spilled runs.
+     */
+    public void finish(KeyValueBatch output) throws IOException {
+        forEach((key, s, offset) -> output.add(key, accumulator.finish(s, offset)));
+    }
+
+    /**
+     * The slotOf method returns the slot of a key, inserting the key with an initialized state if it is not present.
+     * If the table is full and it cannot reserve the memory to grow, it is spilled before inserting the key.
+     * The table grows while its new memory fits in its share and, since the old and the new memory are allocated together
+     * while the keys are moved, while both of them fit in the free memory of the worker.
+     *
+     * @param key represents the key.
+     * @return the slot of the key.
+     * @throws IOException if it is not possible to spill the table.
+     */
+    private int slotOf(int key) throws IOException {
+        int slot = hash(key) & mask;
+        int base;
+        while (slots.getInt(base = slot * slotSize) != 0) {
+            if (slots.getInt(base + KEY_OFFSET) == key) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        if ((size + 1) * 2 > capacity) {
+            long held = (long) capacity * slotSize;
+            if (held * 2 <= Integer.MAX_VALUE && memory.reserve(held * 2)) {
+                grow();
+                memory.release(held);
+            } else {
+                spill();
+            }
+            return slotOf(key);
+        }
+        slots.putInt(base, 1);
+        slots.putInt(base + KEY_OFFSET, key);
+        accumulator.init(state, 0);
+        store(base);
+        size++;
+        return slot;
+    }
+
+    /**
+     * The spill method writes the entries in memory, sorted by key, to a new run on the local disk and empties the memory.
+     * Each entry of the run is the key followed by the longs of its state.
+     *
+     * @throws IOException if it is not possible to write the run.
+     */
+    private void spill() throws IOException {
+        Path run = createRun();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run), 65536))) {
+            for (long entry : sortedSlots()) {
+                int base = (int) entry * slotSize;
+                out.writeInt(slots.getInt(base + KEY_OFFSET));
+                for (int i = 0; i < stateSize; i++) {
+                    out.writeLong(slots.getLong(base + STATE_OFFSET + i * Long.BYTES));
+                }
+            }
+        }
+        logger.info(Thread.currentThread().getName() + ": Spilled " + size + " keys of the aggregation table to " + run);
+        for (int slot = 0; slot < capacity; slot++) {
+            slots.putInt(slot * slotSize, 0);
+        }
+        size = 0;
+        resize();
+        if (runs.size() >= MAX_RUNS) {
+            compactRuns();
+        }
+    }
+
+    /**
+     * The compactRuns method merges all the spilled runs into a single run,
+     * so that the number of files opened at the same time while merging is bounded.
+     *
+     * @throws IOException if it is not possible to read or write the runs.
+     */
+    private void compactRuns() throws IOException {
+        List<Path> compacted = new ArrayList<>(runs);
+        runs.clear();
+        Path run = createRun();
+        List<Run> opened = new ArrayList<>();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run), 65536))) {
+            for (Path path : compacted) {
+                opened.add(new DiskRun(path));
+            }
+            merge(opened, (key, s, offset) -> {
+                out.writeInt(key);
+                for (int i = 0; i < stateSize; i++) {
+                    out.writeLong(s[offset + i]);
+                }
+            });
+        } finally {
+            for (Run source : opened) {
+                source.close();
+            }
+        }
+        for (Path path : compacted) {
+            Files.deleteIfExists(path);
+        }
+        logger.info(Thread.currentThread().getName() + ": Merged " + compacted.size() + " spilled runs into " + run);
+    }
+
+    /**
+     * The createRun method creates a new empty run in the spill directory.
+     *
+     * @return the path of the run.
+     * @throws IOException if it is not possible to create the run.
+     */
+    private Path createRun() throws IOException {
+        Files.createDirectories(spillDirectory);
+        Path run = Files.createTempFile(spillDirectory, "aggregation-", ".run");
+        runs.add(run);
+        return run;
+    }
+
+    /**
+     * The sortedSlots method returns the used slots sorted by key.
+     * Each element contains the key in the high 32 bits and the slot in the low 32 bits, so that sorting the longs sorts the keys.
+     *
+     * @return the sorted slots.
+     */
+    private long[] sortedSlots() {
+        long[] entries = new long[size];
+        int n = 0;
+        for (int slot = 0; slot < capacity; slot++) {
+            int base = slot * slotSize;
+            if (slots.getInt(base) != 0) {
+                entries[n++] = ((long) slots.getInt(base + KEY_OFFSET) << 32) | slot;
+            }
+        }
+        Arrays.sort(entries);
+        return entries;
+    }
+
+    /**
+     * The resize method adapts the memory of the empty table after a spill to its share of the memory of the worker.
+     * The table shrinks to its share when other tables have been created after it grew, and otherwise it doubles if the new memory fits in its share,
+     * giving the old memory back first, so that a table that could not grow with its keys in memory still reaches its share.
+     */
+    private void resize() {
+        long share = memory.getShare();
+        int target = capacity;
+        while (target > MIN_CAPACITY && (long) target * slotSize > share) {
+            target /= 2;
+        }
+        long held = (long) capacity * slotSize;
+        if (target < capacity) {
+            memory.release((long) (capacity - target) * slotSize);
+            allocate(target);
+        } else if (held * 2 <= Integer.MAX_VALUE && memory.replace(held, held * 2)) {
+            allocate(capacity * 2);
+        }
+    }
+
+    /**
+     * The grow method doubles the capacity of the table and reinserts all the keys.
+     */
+    private void grow() {
+        ByteBuffer oldSlots = slots;
+        int oldCapacity = capacity;
+        allocate(capacity * 2);
+        for (int slot = 0; slot < oldCapacity; slot++) {
+            int oldBase = slot * slotSize;
+            if (oldSlots.getInt(oldBase) != 0) {
+                int key = oldSlots.getInt(oldBase + KEY_OFFSET);
+                int target = hash(key) & mask;
+                while (slots.getInt(target * slotSize) != 0) {
+                    target = (target + 1) & mask;
+                }
+                slots.put(target * slotSize, oldSlots, oldBase, slotSize);
+                size++;
+            }
+        }
+    }
+
+    /**
+     * The allocate method allocates empty off-heap memory for the given number of slots.
+     *
+     * @param capacity represents the number of slots, which must be a power of two.
+     */
+    private void allocate(int capacity) {
+        this.slots = ByteBuffer.allocateDirect(capacity * slotSize).order(ByteOrder.nativeOrder());
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+        this.size = 0;
+    }
+
+    /**
+     * The load method copies the state of a slot into the state array.
+     *
+     * @param base represents the position of the slot in memory.
+     */
+    private void load(int base) {
+        for (int i = 0; i < stateSize; i++) {
+            state[i] = slots.getLong(base + STATE_OFFSET + i * Long.BYTES);
+        }
+    }
+
+    /**
+     * The store method copies the state array into the state of a slot.
+     *
+     * @param base represents the position of the slot in memory.
+     */
+    private void store(int base) {
+        for (int i = 0; i < stateSize; i++) {
+            slots.putLong(base + STATE_OFFSET + i * Long.BYTES, state[i]);
+        }
+    }
+
+    /**
+     * The hash method spreads the bits of the key, so that consecutive keys do not collide in the table.
+     *
+     * @param key represents the key.
+     * @return the hash of the key.
+     */
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * The Run class is used to read the entries of a sorted run while they are merged.
+     */
+    private abstract class Run {
+        int key;
+        final long[] state = new long[stateSize];
+
+        /**
+         * The advance method moves to the next entry of the run.
+         *
+         * @return true if there is a next entry, false otherwise.
+         * @throws IOException if it is not possible to read the run.
+         */
+        abstract boolean advance() throws IOException;
+
+        /**
+         * The close method releases the resources of the run.
+         */
+        void close() {
+        }
+    }
+
+    /**
+     * The MemoryRun class is used to read the entries in memory sorted by key.
+     */
+    private class MemoryRun extends Run {
+        private final long[] entries;
+        private int next;
+
+        /**
+         * The constructor creates a new MemoryRun.
+         *
+         * @param entries represents the used slots sorted by key.
+         */
+        MemoryRun(long[] entries) {
+            this.entries = entries;
+        }
+
+        @Override
+        boolean advance() {
+            if (next == entries.length) {
+                return false;
+            }
+            int base = (int) entries[next++] * slotSize;
+            key = slots.getInt(base + KEY_OFFSET);
+            for (int i = 0; i < stateSize; i++) {
+                state[i] = slots.getLong(base + STATE_OFFSET + i * Long.BYTES);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * The DiskRun class is used to read the entries of a run spilled to the disk.
+     */
+    private class DiskRun extends Run {
+        private final DataInputStream in;
+
+        /**
+         * The constructor creates a new DiskRun.
+         *
+         * @param path represents the path of the run.
+         * @throws IOException if it is not possible to open the run.
+         */
+        DiskRun(Path path) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 65536));
+        }
+
+        @Override
+        boolean advance() throws IOException {
+            try {
+                key = in.readInt();
+            } catch (EOFException e) {
+                return false;
+            }
+            for (int i = 0; i < stateSize; i++) {
+                state[i] = in.readLong();
+            }
+            return true;
+        }
+
+        @Override
+        void close() {
+            try {
+                in.close();
+            } catch (IOException e) {
+                logger.warn(Thread.currentThread().getName() + ": Not possible to close the spilled run: " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package it.polimi.worker;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.commons.lang3.tuple.MutablePair;
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+import it.polimi.worker.models.Operator;
+import it.polimi.worker.operators.CompiledChain;
+import it.polimi.worker.operators.FusedOperator;
+
+/**
+ * The ChainCompiler class is used to compile a chain of map, filter and changekey operators into a generated class.
+ * The chain is translated into three method handles, which compute the filter condition, the new key and the new value
+ * from the original key-value pair, with the constants of the predefined functions bound into the handles.
+ * The handles are passed as class data to a hidden class defined from the bytecode of CompiledChain.
+ * The compiled operators are stateless, so they are cached per distinct chain and shared by all the programs of the worker.
+ *
+ * @see CompiledChain
+ */
+public class ChainCompiler {
+    private static final Logger logger = LogManager.getLogger("it.polimi.Worker");
+    private static final Map<List<String>, Operator> cache = new ConcurrentHashMap<>();
+    private static final ReentrantLock templateLock = new ReentrantLock();
+    private static volatile byte[] template;
+
+    /**
+     * The compile method returns the compiled operator of a chain, compiling it if it is not in the cache.
+     * If it is not possible to generate the class, the chain is executed by a FusedOperator.
+     * The chain is compiled outside the lock of the cache, since it may read the template from the classpath:
+     * if two threads compile the same chain, only the first operator is cached.
+     *
+     * @param chain represents the chain of operators and functions, in the order in which they are executed.
+     * @return the operator executing the chain.
+     * @throws IllegalArgumentException if an operator or a function of the chain is not valid.
+     */
+    public static Operator compile(List<MutablePair<String, String>> chain) {
+        List<String> key = new ArrayList<>();
+        for (MutablePair<String, String> pair : chain) {
+            key.add(pair.getLeft() + ":" + pair.getRight());
+        }
+        Operator operator = cache.get(key);
+        if (operator == null) {
+            Operator compiled = define(chain);
+            operator = cache.putIfAbsent(key, compiled);
+            if (operator == null) {
+                operator = compiled;
+            }
+        }
+        return operator;
+    }
+
+    /**
+     * The define method builds the method handles of the chain and defines the hidden class executing them.
+     *
+     * @param chain represents the chain of operators and functions.
+     * @return the operator executing the chain.
+     * @throws IllegalArgumentException if an operator or a function of the chain is not valid.
+     */
+    private static Operator define(List<MutablePair<String, String>> chain) {
+        MethodHandle value = MethodHandles.identity(int.class);
+        MethodHandle key = MethodHandles.dropArguments(MethodHandles.identity(int.class), 1, int.class);
+        List<MethodHandle> conditions = new ArrayList<>();
+
+        for (MutablePair<String, String> pair : chain) {
+            switch (pair.getLeft()) {
+                case "MAP" -> value = MethodHandles.filterReturnValue(value, CreateOperator.createFunctionHandle(pair.getRight()));
+                case "CHANGEKEY" -> key = MethodHandles.dropArguments(MethodHandles.filterReturnValue(value, CreateOperator.createFunctionHandle(pair.getRight())), 0, int.class);
+                case "FILTER" -> conditions.add(MethodHandles.filterReturnValue(value, CreateOperator.createFilterHandle(pair.getRight())));
+                default -> throw new IllegalArgumentException("Unknown operator type: " + pair.getLeft());
+            }
+        }
+
+        MethodHandle reject = MethodHandles.dropArguments(MethodHandles.constant(boolean.class, false), 0, int.class);
+        MethodHandle filter = MethodHandles.dropArguments(MethodHandles.constant(boolean.class, true), 0, int.class);
+        for (int c = conditions.size() - 1; c >= 0; c--) {
+            filter = MethodHandles.guardWithTest(conditions.get(c), filter, reject);
+        }
+
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.privateLookupIn(CompiledChain.class, MethodHandles.lookup())
+                    .defineHiddenClassWithClassData(getTemplate(), List.of(filter, key, value), true);
+            Operator operator = (Operator) lookup.findConstructor(lookup.lookupClass(), MethodType.methodType(void.class)).invoke();
+            logger.info(Thread.currentThread().getName() + ": Compiled chain of " + chain.size() + " operators into " + lookup.lookupClass().getName());
+            return operator;
+        } catch (Throwable t) {
+            logger.warn(Thread.currentThread().getName() + ": Not possible to compile the chain, it will be interpreted: " + t.getMessage());
+            List<Operator> stages = new ArrayList<>();
+            for (MutablePair<String, String> pair : chain) {
+                stages.add(CreateOperator.createOperator(pair.getLeft(), pair.getRight()));
+            }
+            return new FusedOperator(stages);
+        }
+    }
+
+    /**
+     * The getTemplate method returns the bytecode of the CompiledChain class, reading it from the classpath the first time.
+     * A ReentrantLock is used instead of a synchronized method, so that a virtual thread reading the class does not pin its carrier.
+     *
+     * @return the bytecode of the template class.
+     * @throws IOException if it is not possible to read the bytecode.
+     */
+    private static byte[] getTemplate() throws IOException {
+        byte[] bytes = template;
+        if (bytes != null) {
+            return bytes;
+        }
+        templateLock.lock();
+        try {
+            if (template == null) {
+                try (InputStream in = CompiledChain.class.getResourceAsStream(CompiledChain.class.getSimpleName() + ".class")) {
+                    if (in == null) {
+                        throw new IOException("Template class not found");
+                    }
+                    template = in.readAllBytes();
+                }
+            }
+            return template;
+        } finally {
+            templateLock.unlock();
+        }
+    }
+}
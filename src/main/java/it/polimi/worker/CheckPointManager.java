@@ -1,159 +1,556 @@
 package it.polimi.worker;
 
 import java.io.IOException;
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
-import java.io.FileReader;
-import java.io.FileWriter;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.nio.file.Paths;
-import java.util.HashSet;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.locks.ReentrantLock;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 
 import org.apache.log4j.LogManager;
 import org.apache.log4j.Logger;
 
-import it.polimi.common.KeyValuePair;
 import it.polimi.worker.models.CheckpointInfo;
+import it.polimi.worker.models.CombinerCheckpoint;
 
 import java.io.File;
 
 /**
  * The CheckPointManager class is used to manage the checkpoints.
  * It contains the methods to create, read and delete the checkpoints.
+ * The checkpoints of the splits and of the reduce messages are appended to binary CheckpointLogs, kept open while the task runs,
+ * by a background writer shared by the tasks of the worker, so that the tasks do not wait for the disk.
+ * The CheckpointSchedulers decide which partitions are followed by a checkpoint.
+ * If the CheckpointReplica is enabled, every checkpoint and snapshot is also copied to HDFS by a separate background uploader,
+ * so that a slow NameNode never delays the local checkpoints, and the checkpoints are restored from HDFS when a task starts, so that a task moved to another worker resumes from its last checkpoint.
  *
  * @see CheckpointInfo
+ * @see CheckpointLog
+ * @see CheckpointReplica
  */
 public class CheckPointManager {
 
     private final String CHECKPOINT_DIRECTORY = "checkpoints-";
     private static final Logger logger = LogManager.getLogger("it.polimi.Worker");
     private static final ReentrantLock folderLock = new ReentrantLock();
-    private final Set<String> filesToDelete = new HashSet<>();
+    private final Set<String> filesToDelete = ConcurrentHashMap.newKeySet();
+    private static final ExecutorService writer = Executors.newSingleThreadExecutor(Thread.ofPlatform().daemon().name("checkpoint-writer").factory());
+    private static final ExecutorService uploader = Executors.newSingleThreadExecutor(Thread.ofPlatform().daemon().name("checkpoint-uploader").factory());
+    private final Map<Path, AsyncLog> logs = new ConcurrentHashMap<>();
+    private final Map<Path, CheckpointScheduler> schedulers = new ConcurrentHashMap<>();
+    private final Set<Path> queuedUploads = ConcurrentHashMap.newKeySet();
+    private final Map<Path, Future<?>> uploads = new ConcurrentHashMap<>();
+    private final WorkerConfiguration configuration;
+    private final CheckpointReplica replica;
 
     /**
-     * The createCheckpoint method creates a new checkpoint file.
-     * This method is invoked in the first phase when the program does not include a reduce operation unless it also includes a changekey operation.
-     * It is called upon completion of processing a partition.
+     * The AsyncLog class contains an open CheckpointLog and the checkpoint waiting to be appended to it by the background writer.
+     * After being appended, the checkpoint waits to be copied to HDFS by the background uploader if the replica is enabled.
+     * Only the last checkpoint waiting for each of them is kept, so the copy in HDFS may skip some checkpoints but never goes back.
+     */
+    private static final class AsyncLog {
+        private final CheckpointLog log;
+        private final CheckpointScheduler scheduler;
+        private final CheckpointReplica replica;
+        private final String programId;
+        private final String name;
+        private CheckpointInfo pending;
+        private boolean writing;
+        private CheckpointInfo toUpload;
+        private boolean uploading;
+
+        /**
+         * The constructor creates a new AsyncLog.
+         *
+         * @param log       represents the open log.
+         * @param scheduler represents the scheduler that receives the time spent to write the checkpoints.
+         * @param replica   represents the replica where the checkpoints are copied, null if it is not enabled.
+         * @param programId represents the program id.
+         * @param name      represents the name of the log.
+         */
+        private AsyncLog(CheckpointLog log, CheckpointScheduler scheduler, CheckpointReplica replica, String programId, String name) {
+            this.log = log;
+            this.scheduler = scheduler;
+            this.replica = replica;
+            this.programId = programId;
+            this.name = name;
+        }
+
+        /**
+         * The submit method sets the checkpoint to append, and starts the writer if it is not writing the log.
+         *
+         * @param checkpoint represents the checkpoint.
+         */
+        private synchronized void submit(CheckpointInfo checkpoint) {
+            pending = checkpoint;
+            if (!writing) {
+                writing = true;
+                writer.execute(this::drain);
+            }
+        }
+
+        /**
+         * The drain method appends the pending checkpoints until there are no more, it runs on the background writer.
+         */
+        private void drain() {
+            while (true) {
+                CheckpointInfo next;
+                synchronized (this) {
+                    next = pending;
+                    pending = null;
+                    if (next == null) {
+                        writing = false;
+                        notifyAll();
+                        return;
+                    }
+                }
+                long start = System.nanoTime();
+                try {
+                    log.append(next);
+                } catch (IOException e) {
+                    logger.error(Thread.currentThread().getName() + ": Error while creating checkpoint file: " + e.getMessage());
+                }
+                scheduler.recordWrite(System.nanoTime() - start);
+                if (replica != null) {
+                    replicate(next);
+                }
+            }
+        }
+
+        /**
+         * The replicate method sets the checkpoint to copy to HDFS, and starts the uploader if it is not copying the log.
+         *
+         * @param checkpoint represents the checkpoint, already appended to the local log.
+         */
+        private synchronized void replicate(CheckpointInfo checkpoint) {
+            toUpload = checkpoint;
+            if (!uploading) {
+                uploading = true;
+                uploader.execute(this::upload);
+            }
+        }
+
+        /**
+         * The upload method copies the checkpoints waiting for the uploader to HDFS until there are no more, it runs on the background uploader.
+         */
+        private void upload() {
+            while (true) {
+                CheckpointInfo next;
+                synchronized (this) {
+                    next = toUpload;
+                    toUpload = null;
+                    if (next == null) {
+                        uploading = false;
+                        notifyAll();
+                        return;
+                    }
+                }
+                long start = System.nanoTime();
+                try {
+                    replica.write(programId, name, CheckpointLog.toRecord(next));
+                } catch (IOException e) {
+                    logger.error(Thread.currentThread().getName() + ": Error while copying checkpoint " + name + " to HDFS: " + e.getMessage());
+                }
+                scheduler.recordWrite(System.nanoTime() - start);
+            }
+        }
+
+        /**
+         * The flush method waits until the pending checkpoint has been appended to the local log, without waiting for its copy in HDFS.
+         */
+        private synchronized void flush() {
+            while (writing) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    logger.warn(Thread.currentThread().getName() + ": Interrupted while waiting for the checkpoints");
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+
+        /**
+         * The awaitUploads method waits until the last checkpoint appended to the local log has been copied to HDFS.
+         * It must be invoked after the flush method.
+         */
+        private synchronized void awaitUploads() {
+            while (uploading) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    logger.warn(Thread.currentThread().getName() + ": Interrupted while waiting for the copies of the checkpoints");
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * The constructor creates a new CheckPointManager.
+     *
+     * @param configuration represents the configuration of the worker, which contains the sync policy of the logs.
+     * @param replica       represents the replica where the checkpoints are copied, null if it is not enabled.
+     */
+    public CheckPointManager(WorkerConfiguration configuration, CheckpointReplica replica) {
+        this.configuration = configuration;
+        this.replica = replica;
+    }
+
+    /**
+     * The getScheduler method returns the scheduler of the checkpoints of a split, of a combiner or of a reduce message,
+     * creating it with the limits of the configuration when the first partition is processed.
+     *
+     * @param programId  represents the program id.
+     * @param pathString represents the path of the file the checkpoints refer to.
+     * @return the scheduler.
+     */
+    public CheckpointScheduler getScheduler(String programId, String pathString) {
+        return schedulers.computeIfAbsent(getLogPath(programId, pathString), p -> new CheckpointScheduler(configuration.getCheckpointOverhead(), configuration.getCheckpointMaxBytes(), configuration.getCheckpointMaxTime()));
+    }
+
+    /**
+     * The createCheckpoint method appends a checkpoint to the log of a split or of a reduce message on the background writer.
+     * This method is invoked in the first phase when the program does not include a reduce operation unless it also includes a changekey operation,
+     * upon completion of processing a partition, and in the second phase upon completion of a shuffle partition.
+     * The log is opened by the first checkpoint and kept open until closeLogs is invoked at the end of the task.
+     * If the writer has not written the previous checkpoint of the log yet, it is replaced, since only the last one is needed to resume.
      *
      * @param programId     represents the program id.
-     * @param pathString    represents the path of the checkpoint file.
+     * @param pathString    represents the path of the file the checkpoint refers to.
      * @param checkPointObj represents the checkpoint information.
-     * @param forReduce     represents whether the checkpoint is for the reduce operation or not.
      */
-    public void createCheckpoint(String programId, String pathString, CheckpointInfo checkPointObj, boolean forReduce) {
-        createOutputDirectory(CHECKPOINT_DIRECTORY + programId);
+    public void createCheckpoint(String programId, String pathString, CheckpointInfo checkPointObj) {
+        Path path = getLogPath(programId, pathString);
         try {
-
-            Path path = Paths.get(pathString);
-            pathString = CHECKPOINT_DIRECTORY + programId + "/" + path.getFileName();
-            filesToDelete.add(pathString);
-            BufferedWriter writer = new BufferedWriter(new FileWriter(pathString, true));
-            if (forReduce) {
-                writer.write("<Checkpoint:" + checkPointObj.count() + "><" + checkPointObj.end() + "><" + checkPointObj.keyValuePair() + "><" + checkPointObj.remainingString() + ">\n");
-            } else {
-                writer.write("<Checkpoint:" + checkPointObj.count() + "><" + checkPointObj.end() + "><" + checkPointObj.remainingString() + ">\n");
+            AsyncLog log = logs.get(path);
+            if (log == null) {
+                createOutputDirectory(CHECKPOINT_DIRECTORY + programId);
+                filesToDelete.add(path.toString());
+                log = new AsyncLog(CheckpointLog.open(path, configuration.getCheckpointSync(), configuration.getCheckpointSyncInterval()), getScheduler(programId, pathString), replica, programId, path.getFileName().toString());
+                logs.put(path, log);
             }
-            writer.close();
-            logger.info(Thread.currentThread().getName() + ": Created checkpoint file " + pathString + " with count " + checkPointObj.count() + ", end " + checkPointObj.end() + " and remaining string " + checkPointObj.remainingString());
+            log.submit(checkPointObj);
         } catch (IOException e) {
-            logger.error(Thread.currentThread().getName() + ": Error while creating checkpoint file");
+            logger.error(Thread.currentThread().getName() + ": Error while creating checkpoint file: " + e.getMessage());
             System.out.println(Thread.currentThread().getName() + ": Error while creating checkpoint file");
             System.out.println(e.getMessage());
         }
     }
 
     /**
-     * The getCheckPoint method reads the checkpoint file.
-     * This method is invoked in the first phase when the program does not include a reduce operation unless it also includes a changekey operation.
-     * It is called in the first phase before read the corresponding input file.
+     * The createCheckpointAndWait method appends a checkpoint to a log and waits until it is written in the local log.
+     * It is used when the data needed to redo the work is deleted right after the checkpoint.
+     * It does not wait for the copy in HDFS, which is completed when the logs are closed.
+     *
+     * @param programId     represents the program id.
+     * @param pathString    represents the path of the file the checkpoint refers to.
+     * @param checkPointObj represents the checkpoint information.
+     */
+    public void createCheckpointAndWait(String programId, String pathString, CheckpointInfo checkPointObj) {
+        createCheckpoint(programId, pathString, checkPointObj);
+        AsyncLog log = logs.get(getLogPath(programId, pathString));
+        if (log != null) {
+            log.flush();
+        }
+    }
+
+    /**
+     * The getCheckPoint method reads the last checkpoint of a split or of a reduce message.
+     * It is called before processing a split in the first phase, and before reducing the partitions in the second phase.
+     * Only the tail of the log is read, unless the last record is torn.
+     * If the log is not open and the replica is enabled, the last copy in HDFS replaces the local log first,
+     * since it is the most recent checkpoint even when the task has been processed by another worker after this one.
      *
      * @param programId  represents the program id.
-     * @param pathString represents the path of the checkpoint file.
-     * @param forReduce  represents whether the checkpoint is for the reduce operation or not.
-     * @return the checkpoint information.
-     */
-    public CheckpointInfo getCheckPoint(String programId, String pathString, boolean forReduce) {
-        int count = 0;
-        boolean end = false;
-        String remainingString = "";
-        KeyValuePair keyValuePair = null;
+     * @param pathString represents the path of the file the checkpoint refers to.
+     * @return the checkpoint information, the beginning of the file if there is no checkpoint.
+     */
+    public CheckpointInfo getCheckPoint(String programId, String pathString) {
+        Path path = getLogPath(programId, pathString);
+        CheckpointInfo checkpoint = null;
         try {
-            Path path = Paths.get(pathString);
-            pathString = CHECKPOINT_DIRECTORY + programId + "/" + path.getFileName();
-            if (!Files.exists(Paths.get(pathString))) {
-                logger.info(Thread.currentThread().getName() + ": Checkpoint file " + pathString + " does not exist");
-                return new CheckpointInfo(0, false, "", null);
-            }
-            filesToDelete.add(pathString);
-            BufferedReader reader = new BufferedReader(new FileReader(pathString));
-            String line;
-            while ((line = reader.readLine()) != null) {
-                if (line.startsWith("<Checkpoint")) {
-                    if (!line.endsWith(">")) {
-                        String partial_line;
-                        if ((partial_line = reader.readLine()) != null) {
-                            line = line + partial_line;
-                        } else {
-                            reader.close();
-                            throw new NumberFormatException("Invalid checkpoint format");
-                        }
-                    }
-                    if (!line.endsWith(">")) {
-                        reader.close();
-                        throw new NumberFormatException("Invalid checkpoint format");
-                    }
+            AsyncLog log = logs.get(path);
+            if (log != null) {
+                log.flush();
+                checkpoint = log.log.getLast();
+            } else {
+                restore(programId, path);
+                checkpoint = CheckpointLog.readLast(path);
+            }
+        } catch (IOException e) {
+            logger.error(Thread.currentThread().getName() + ": Error while reading checkpoint file: " + e.getMessage());
+        }
+        if (checkpoint == null) {
+            logger.info(Thread.currentThread().getName() + ": Checkpoint file " + path + " does not exist");
+            return new CheckpointInfo(0, false, "");
+        }
+        filesToDelete.add(path.toString());
+        logger.info(Thread.currentThread().getName() + ": Retrieved checkpoint file " + path + " with count " + checkpoint.count() + ", end " + checkpoint.end() + " and remaining string " + checkpoint.remainingString());
+        return checkpoint;
+    }
 
-                    String[] parts = line.split("><");
+    /**
+     * The closeLogs method waits for the checkpoints of the task still to be written or copied to HDFS and closes its logs, which is invoked when the task ends.
+     */
+    public void closeLogs() {
+        for (Future<?> upload : uploads.values()) {
+            try {
+                upload.get();
+            } catch (ExecutionException e) {
+                logger.error(Thread.currentThread().getName() + ": Error while copying combiner checkpoint to HDFS: " + e.getMessage());
+            } catch (InterruptedException e) {
+                logger.warn(Thread.currentThread().getName() + ": Interrupted while waiting for the checkpoints");
+                Thread.currentThread().interrupt();
+            }
+        }
+        uploads.clear();
+        for (AsyncLog log : logs.values()) {
+            log.flush();
+            log.awaitUploads();
+            try {
+                log.log.close();
+            } catch (IOException e) {
+                logger.error(Thread.currentThread().getName() + ": Error while closing checkpoint file: " + e.getMessage());
+            }
+        }
+        logs.clear();
+        for (Map.Entry<Path, CheckpointScheduler> entry : schedulers.entrySet()) {
+            logger.info(Thread.currentThread().getName() + ": Checkpoints of " + entry.getKey().getFileName() + ": " + entry.getValue());
+        }
+        schedulers.clear();
+    }
 
-                    if (!forReduce && parts.length != 3) {
-                        reader.close();
-                        throw new NumberFormatException("Invalid checkpoint format");
-                    }
-                    if (forReduce && parts.length != 4) {
-                        reader.close();
-                        throw new NumberFormatException("Invalid checkpoint format");
-                    }
-                    try {
-                        int temp_count = Integer.parseInt(parts[0].split(":")[1]);
-                        boolean temp_end = Boolean.parseBoolean(parts[1]);
-                        String temp_remainingString;
-                        if (forReduce) {
-                            String[] keyValueString = parts[2].split(",");
-                            keyValuePair = new KeyValuePair(Integer.parseInt(keyValueString[0]), Integer.parseInt(keyValueString[1]));
-                            if (parts[3].length() > 1) {
-                                temp_remainingString = parts[3].substring(0, parts[3].length() - 1);
-                            } else {
-                                temp_remainingString = "";
-                            }
-                            keyValuePair = new KeyValuePair(Integer.parseInt(keyValueString[0]), Integer.parseInt(keyValueString[1]));
-                        } else {
-                            if (parts[2].length() > 1) {
-                                temp_remainingString = parts[2].substring(0, parts[2].length() - 1);
-                            } else {
-                                temp_remainingString = "";
-                            }
-                        }
-                        count = temp_count;
-                        end = temp_end;
-                        remainingString = temp_remainingString;
-                    } catch (NumberFormatException e) {
-                        reader.close();
-                        throw new NumberFormatException("Invalid checkpoint format");
+    /**
+     * The restore method replaces a local checkpoint file with its last copy in HDFS, if the replica is enabled and there is a valid copy.
+     * If the copy cannot be read, the local file is kept.
+     *
+     * @param programId represents the program id.
+     * @param path      represents the path of the local checkpoint file.
+     */
+    private void restore(String programId, Path path) {
+        if (replica == null) {
+            return;
+        }
+        try {
+            replica.download(programId, path.getFileName().toString(), path);
+        } catch (IOException e) {
+            logger.warn(Thread.currentThread().getName() + ": Not possible to restore checkpoint " + path + " from HDFS: " + e.getMessage());
+        }
+    }
+
+    /**
+     * The upload method copies a snapshot to HDFS on the background uploader, if the replica is enabled.
+     * If a copy of the same snapshot is already waiting for the uploader, no other copy is queued, since it reads the file when it starts.
+     *
+     * @param programId represents the program id.
+     * @param path      represents the path of the snapshot.
+     * @param scheduler represents the scheduler that receives the time spent to copy the snapshot.
+     */
+    private void upload(String programId, Path path, CheckpointScheduler scheduler) {
+        if (replica == null || !queuedUploads.add(path)) {
+            return;
+        }
+        uploads.put(path, uploader.submit(() -> {
+            queuedUploads.remove(path);
+            long start = System.nanoTime();
+            try {
+                replica.upload(programId, path.getFileName().toString(), path);
+            } catch (IOException e) {
+                logger.error(Thread.currentThread().getName() + ": Error while copying combiner checkpoint " + path + " to HDFS: " + e.getMessage());
+            }
+            scheduler.recordWrite(System.nanoTime() - start);
+        }));
+    }
+
+    /**
+     * The getLogPath method returns the path of the checkpoint log of a file.
+     *
+     * @param programId  represents the program id.
+     * @param pathString represents the path of the file the checkpoint refers to.
+     * @return the path of the log.
+     */
+    private Path getLogPath(String programId, String pathString) {
+        return Paths.get(CHECKPOINT_DIRECTORY + programId, Paths.get(pathString).getFileName() + ".log");
+    }
+
+    /**
+     * The createCombinerCheckpoint method stores the snapshot of the combiner of a task together with its position.
+     * This method is invoked in the first phase when the program includes both a changekey and a reduce operation.
+     *
+     * @param programId  represents the program id.
+     * @param name       represents the name of the snapshot file.
+     * @param checkpoint represents the position of the task.
+     * @param table      represents the combiner of the task.
+     */
+    public void createCombinerCheckpoint(String programId, String name, CombinerCheckpoint checkpoint, AggregationTable table) {
+        writeSnapshot(programId, name, checkpoint, table, getScheduler(programId, name));
+    }
+
+    /**
+     * The createTableCheckpoint method stores the checkpoint of a split whose values are aggregated in a table that belongs to the split.
+     * This method is invoked in the first phase when the program includes a reduce operation but not a changekey operation.
+     * The table is streamed to a snapshot next to the log, as the combiner of a task, and the log record contains only the position,
+     * so that a checkpoint never copies the keys of the table on the heap.
+     * When the split has been completely processed its results are already committed, so only the end of the split is appended to the log.
+     *
+     * @param programId  represents the program id.
+     * @param pathString represents the path of the file the checkpoint refers to.
+     * @param file       represents the index of the split in the task.
+     * @param checkpoint represents the position of the split.
+     * @param table      represents the table of the split.
+     */
+    public void createTableCheckpoint(String programId, String pathString, int file, CheckpointInfo checkpoint, AggregationTable table) {
+        if (!checkpoint.end()) {
+            writeSnapshot(programId, getSnapshotName(pathString), new CombinerCheckpoint(file, checkpoint.count(), false, checkpoint.remainingString()), table, getScheduler(programId, pathString));
+        }
+        createCheckpoint(programId, pathString, checkpoint);
+    }
+
+    /**
+     * The getTableCheckpoint method reads the checkpoint of a split whose values are aggregated in a table, and restores the table from its snapshot.
+     * If the log marks the end of the split, the table is left empty, since its results have already been committed.
+     * Otherwise the position is taken from the snapshot, which is written before the log record and is always consistent with the table.
+     *
+     * @param programId  represents the program id.
+     * @param pathString represents the path of the file the checkpoint refers to.
+     * @param table      represents the table of the split, which must be empty.
+     * @return the checkpoint information, the beginning of the file if there is no checkpoint.
+     */
+    public CheckpointInfo getTableCheckpoint(String programId, String pathString, AggregationTable table) {
+        CheckpointInfo checkpoint = getCheckPoint(programId, pathString);
+        if (checkpoint.end()) {
+            return checkpoint;
+        }
+        CombinerCheckpoint snapshot = readSnapshot(programId, getSnapshotName(pathString), table);
+        return new CheckpointInfo(snapshot.count(), snapshot.end(), snapshot.remainingString());
+    }
+
+    /**
+     * The getSnapshotName method returns the name of the snapshot of the table of a split.
+     *
+     * @param pathString represents the path of the file the checkpoint refers to.
+     * @return the name of the snapshot file.
+     */
+    private static String getSnapshotName(String pathString) {
+        return Paths.get(pathString).getFileName() + ".snapshot";
+    }
+
+    /**
+     * The writeSnapshot method streams a table and its position to a snapshot file.
+     * The snapshot is written to a temporary file and then moved over the previous one, so that a crash never leaves a partial snapshot.
+     * Each snapshot has its own temporary file, since two attempts of the same task may store their snapshots in the same directory.
+     * The snapshot is then copied to HDFS on the background uploader, if the replica is enabled.
+     * The file contains the position followed by the key and the state of every entry of the table.
+     *
+     * @param programId  represents the program id.
+     * @param name       represents the name of the snapshot file.
+     * @param checkpoint represents the position of the table.
+     * @param table      represents the table.
+     * @param scheduler  represents the scheduler that receives the time spent to copy the snapshot.
+     */
+    private void writeSnapshot(String programId, String name, CombinerCheckpoint checkpoint, AggregationTable table, CheckpointScheduler scheduler) {
+        createOutputDirectory(CHECKPOINT_DIRECTORY + programId);
+        Path path = Paths.get(CHECKPOINT_DIRECTORY + programId, name);
+        filesToDelete.add(path.toString());
+        int stateSize = table.getAccumulator().stateSize();
+        try {
+            Path temporary = Files.createTempFile(path.getParent(), name, ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary), 65536))) {
+                out.writeInt(checkpoint.file());
+                out.writeInt(checkpoint.count());
+                out.writeBoolean(checkpoint.end());
+                out.writeUTF(checkpoint.remainingString());
+                out.writeInt(stateSize);
+                table.forEach((key, state, offset) -> {
+                    out.writeInt(key);
+                    for (int i = 0; i < stateSize; i++) {
+                        out.writeLong(state[offset + i]);
                     }
+                });
+            }
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            upload(programId, path, scheduler);
+            logger.info(Thread.currentThread().getName() + ": Created snapshot " + path + " with file " + checkpoint.file() + ", count " + checkpoint.count() + " and end " + checkpoint.end());
+        } catch (IOException e) {
+            logger.error(Thread.currentThread().getName() + ": Error while creating snapshot " + path + ": " + e.getMessage());
+            System.out.println(Thread.currentThread().getName() + ": Error while creating snapshot");
+            System.out.println(e.getMessage());
+        }
+    }
+
+    /**
+     * The getCombinerCheckpoint method reads the snapshot of the combiner of a task and restores it into the table.
+     * This method is invoked in the first phase when the program includes both a changekey and a reduce operation.
+     *
+     * @param programId represents the program id.
+     * @param name      represents the name of the snapshot file.
+     * @param table     represents the combiner of the task, which must be empty.
+     * @return the position of the task.
+     */
+    public CombinerCheckpoint getCombinerCheckpoint(String programId, String name, AggregationTable table) {
+        return readSnapshot(programId, name, table);
+    }
+
+    /**
+     * The readSnapshot method reads a snapshot and restores it into a table.
+     * If the replica is enabled, the last copy of the snapshot in HDFS replaces the local one first.
+     * If the snapshot does not exist or it is not valid, the table is left empty and the position is the beginning.
+     *
+     * @param programId represents the program id.
+     * @param name      represents the name of the snapshot file.
+     * @param table     represents the table, which must be empty.
+     * @return the position of the table.
+     */
+    private CombinerCheckpoint readSnapshot(String programId, String name, AggregationTable table) {
+        Path path = Paths.get(CHECKPOINT_DIRECTORY + programId, name);
+        CombinerCheckpoint start = new CombinerCheckpoint(0, 0, false, "");
+        restore(programId, path);
+        if (!Files.exists(path)) {
+            logger.info(Thread.currentThread().getName() + ": Snapshot " + path + " does not exist");
+            return start;
+        }
+        filesToDelete.add(path.toString());
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 65536))) {
+            CombinerCheckpoint checkpoint = new CombinerCheckpoint(in.readInt(), in.readInt(), in.readBoolean(), in.readUTF());
+            int stateSize = in.readInt();
+            if (stateSize != table.getAccumulator().stateSize()) {
+                throw new IOException("Invalid state size " + stateSize);
+            }
+            long[] state = new long[stateSize];
+            while (true) {
+                int key;
+                try {
+                    key = in.readInt();
+                } catch (EOFException e) {
+                    break;
                 }
+                for (int i = 0; i < stateSize; i++) {
+                    state[i] = in.readLong();
+                }
+                table.merge(key, state, 0);
             }
-            reader.close();
+            logger.info(Thread.currentThread().getName() + ": Retrieved snapshot " + path + " with file " + checkpoint.file() + ", count " + checkpoint.count() + " and end " + checkpoint.end());
+            return checkpoint;
         } catch (IOException e) {
-            logger.error(Thread.currentThread().getName() + ": Error while reading checkpoint file");
-        } catch (NumberFormatException e) {
-            logger.warn(Thread.currentThread().getName() + ": " + e.getMessage());
+            logger.warn(Thread.currentThread().getName() + ": Invalid snapshot " + path + ", restarting from the beginning: " + e.getMessage());
+            table.clear();
+            return start;
         }
-        logger.info(Thread.currentThread().getName() + ": Retrieved checkpoint file " + pathString + " with count " + count + ", end " + end + " and remaining string " + remainingString);
-        return new CheckpointInfo(count, end, remainingString, keyValuePair);
     }
 
     /**
@@ -188,15 +585,26 @@ public class CheckPointManager {
 
     /**
      * The deleteCheckpoints method deletes the checkpoint files.
-     * This method is invoked at the end of the program.
+     * This method is invoked at the end of the program, and it deletes only the files of the program,
+     * since the checkpoints of the other programs run on the same session may still be needed.
+     * The copies in HDFS are deleted by the coordinator together with the directory of the program.
      *
      * @param programId represents the program id.
      */
     public void deleteCheckpoints(String programId) {
+        closeLogs();
+        if (replica != null) {
+            replica.forget(programId);
+        }
+        Path directory = Paths.get(CHECKPOINT_DIRECTORY + programId);
         try {
             for (String file : filesToDelete) {
                 Path path = Paths.get(file);
+                if (!directory.equals(path.getParent())) {
+                    continue;
+                }
                 Files.deleteIfExists(path);
+                filesToDelete.remove(file);
                 logger.info(Thread.currentThread().getName() + ": Deleted checkpoint file " + file);
             }
             deleteEmptyDirectory(new File(CHECKPOINT_DIRECTORY + programId + "/"));
@@ -0,0 +1,352 @@
+package it.polimi.worker;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+import it.polimi.worker.models.CheckpointInfo;
+
+/**
+ * The CheckpointLog class is an append-only binary log of the checkpoints of a split or of a reduce message.
+ * The file is kept open while the task runs, and every checkpoint is appended as a single record:
+ * a header with a magic number, the length and the CRC32 of the payload, the payload, and a trailer repeating the length.
+ * Only the last record is needed to resume, and the trailer allows it to be found by reading only the tail of the file.
+ * If the tail is torn by a crash, the records are scanned from the beginning and the file is truncated after the last valid one.
+ * When the log grows beyond MAX_LOG_SIZE bytes, it is replaced by a log containing only its last record.
+ * The records are forced to the disk according to the Sync policy: never, at most once per interval, or after every record.
+ */
+public class CheckpointLog implements Closeable {
+    public static final int MAGIC = 0x434B5054;
+    public static final int HEADER_SIZE = 3 * Integer.BYTES;
+    public static final int TRAILER_SIZE = Integer.BYTES;
+    public static final long MAX_LOG_SIZE = 4L * 1024 * 1024;
+    private static final Logger logger = LogManager.getLogger("it.polimi.Worker");
+    private final Path path;
+    private final Sync sync;
+    private final long syncInterval;
+    private final CRC32 crc;
+    private FileChannel channel;
+    private ByteBuffer buffer;
+    private CheckpointInfo last;
+    private long size;
+    private long lastSync;
+
+    /**
+     * The Sync enum represents when the records are forced to the disk.
+     * With NONE they are left to the operating system, which is enough to survive the crash of the worker but not of the machine,
+     * with GROUP the records written in the same interval are forced together, and with ALWAYS every record is forced.
+     */
+    public enum Sync {
+        NONE, GROUP, ALWAYS
+    }
+
+    /**
+     * The Recovered record represents the result of the recovery of a log.
+     *
+     * @param last represents the last valid checkpoint, null if there is none.
+     * @param end  represents the position after the last valid record.
+     */
+    private record Recovered(CheckpointInfo last, long end) {
+    }
+
+    /**
+     * The constructor creates a new CheckpointLog on an open channel.
+     *
+     * @param path         represents the path of the log.
+     * @param channel      represents the channel positioned at the end of the log.
+     * @param recovered    represents the result of the recovery of the log.
+     * @param sync         represents the sync policy.
+     * @param syncInterval represents the minimum time in milliseconds between two syncs with the GROUP policy.
+     */
+    private CheckpointLog(Path path, FileChannel channel, Recovered recovered, Sync sync, long syncInterval) {
+        this.path = path;
+        this.channel = channel;
+        this.last = recovered.last();
+        this.size = recovered.end();
+        this.sync = sync;
+        this.syncInterval = syncInterval;
+        this.crc = new CRC32();
+        this.buffer = ByteBuffer.allocate(4096);
+        this.lastSync = System.currentTimeMillis();
+    }
+
+    /**
+     * The open method opens a log for appending, creating it if it does not exist.
+     * A torn record at the end of the log is removed, so that the next record follows the last valid one.
+     *
+     * @param path         represents the path of the log.
+     * @param sync         represents the sync policy.
+     * @param syncInterval represents the minimum time in milliseconds between two syncs with the GROUP policy.
+     * @return the log.
+     * @throws IOException if the log cannot be opened.
+     */
+    public static CheckpointLog open(Path path, Sync sync, long syncInterval) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            Recovered recovered = recover(channel);
+            if (recovered.end() < channel.size()) {
+                logger.warn(Thread.currentThread().getName() + ": Truncating the torn tail of the checkpoint log " + path + " at " + recovered.end());
+                channel.truncate(recovered.end());
+            }
+            channel.position(recovered.end());
+            return new CheckpointLog(path, channel, recovered, sync, syncInterval);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * The readLast method reads the last valid checkpoint of a log without opening it for appending.
+     *
+     * @param path represents the path of the log.
+     * @return the last checkpoint, null if the log does not exist or contains no valid record.
+     * @throws IOException if the log cannot be read.
+     */
+    public static CheckpointInfo readLast(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return recover(channel).last();
+        }
+    }
+
+    /**
+     * The getLast method returns the last checkpoint appended to the log or recovered when it was opened.
+     *
+     * @return the last checkpoint, null if there is none.
+     */
+    public synchronized CheckpointInfo getLast() {
+        return last;
+    }
+
+    /**
+     * The append method writes a checkpoint at the end of the log, with a single write, and syncs it according to the policy.
+     *
+     * @param checkpoint represents the checkpoint.
+     * @throws IOException if the checkpoint cannot be written.
+     */
+    public synchronized void append(CheckpointInfo checkpoint) throws IOException {
+        ByteBuffer record = encode(checkpoint);
+        if (size + record.remaining() > MAX_LOG_SIZE && size > 0) {
+            rotate(record);
+        } else {
+            while (record.hasRemaining()) {
+                size += channel.write(record);
+            }
+            long now = System.currentTimeMillis();
+            if (sync == Sync.ALWAYS || (sync == Sync.GROUP && now - lastSync >= syncInterval)) {
+                channel.force(false);
+                lastSync = now;
+            }
+        }
+        last = checkpoint;
+    }
+
+    /**
+     * The close method syncs the log, unless the policy is NONE, and closes it.
+     *
+     * @throws IOException if the log cannot be synced or closed.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (!channel.isOpen()) {
+            return;
+        }
+        try {
+            if (sync != Sync.NONE) {
+                channel.force(false);
+            }
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * The rotate method replaces the log with a new log containing only a record.
+     * The new log is written to a temporary file and moved over the old one, so that a crash leaves one of the two logs.
+     *
+     * @param record represents the record.
+     * @throws IOException if the new log cannot be written.
+     */
+    private void rotate(ByteBuffer record) throws IOException {
+        Path temporary = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".tmp");
+        try (FileChannel out = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+            while (record.hasRemaining()) {
+                out.write(record);
+            }
+            if (sync != Sync.NONE) {
+                out.force(false);
+            }
+        }
+        channel.close();
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        size = channel.size();
+        channel.position(size);
+        lastSync = System.currentTimeMillis();
+        logger.info(Thread.currentThread().getName() + ": Rotated the checkpoint log " + path);
+    }
+
+    /**
+     * The encode method writes a checkpoint as a record in the buffer of the log.
+     *
+     * @param checkpoint represents the checkpoint.
+     * @return the buffer, ready to be written.
+     */
+    private ByteBuffer encode(CheckpointInfo checkpoint) {
+        buffer = encode(checkpoint, buffer, crc);
+        return buffer;
+    }
+
+    /**
+     * The toRecord method encodes a checkpoint as a record, which is also a valid log containing only that checkpoint.
+     * It is used to copy the last checkpoint of a log to the shared storage.
+     *
+     * @param checkpoint represents the checkpoint.
+     * @return the bytes of the record.
+     */
+    public static byte[] toRecord(CheckpointInfo checkpoint) {
+        ByteBuffer record = encode(checkpoint, ByteBuffer.allocate(4096), new CRC32());
+        byte[] bytes = new byte[record.remaining()];
+        record.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * The encode method writes a checkpoint as a record in a buffer, which is replaced if it is too small.
+     * The payload contains the count, the end flag and the remaining string in UTF-8.
+     *
+     * @param checkpoint represents the checkpoint.
+     * @param buffer     represents the buffer.
+     * @param crc        represents the checksum used to compute the CRC32 of the payload.
+     * @return the buffer containing the record, ready to be written.
+     */
+    private static ByteBuffer encode(CheckpointInfo checkpoint, ByteBuffer buffer, CRC32 crc) {
+        byte[] remaining = checkpoint.remainingString().getBytes(StandardCharsets.UTF_8);
+        int length = Integer.BYTES + 1 + Integer.BYTES + remaining.length;
+        int total = HEADER_SIZE + length + TRAILER_SIZE;
+        if (buffer.capacity() < total) {
+            buffer = ByteBuffer.allocate(Math.max(total, 2 * buffer.capacity()));
+        }
+        buffer.clear();
+        buffer.putInt(MAGIC).putInt(length).putInt(0);
+        buffer.putInt(checkpoint.count());
+        buffer.put((byte) (checkpoint.end() ? 1 : 0));
+        buffer.putInt(remaining.length).put(remaining);
+        crc.reset();
+        crc.update(buffer.array(), HEADER_SIZE, length);
+        buffer.putInt(2 * Integer.BYTES, (int) crc.getValue());
+        buffer.putInt(length);
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * The recover method finds the last valid record of a log.
+     * The record before the trailer at the end of the file is read first, and the file is scanned only if it is not valid.
+     *
+     * @param channel represents the channel of the log.
+     * @return the last valid checkpoint and the position after its record.
+     * @throws IOException if the log cannot be read.
+     */
+    private static Recovered recover(FileChannel channel) throws IOException {
+        long size = channel.size();
+        if (size >= HEADER_SIZE + TRAILER_SIZE) {
+            ByteBuffer trailer = read(channel, size - TRAILER_SIZE, TRAILER_SIZE);
+            int length = trailer.getInt();
+            if (length >= 0 && length <= size - HEADER_SIZE - TRAILER_SIZE) {
+                CheckpointInfo checkpoint = readRecord(channel, size - TRAILER_SIZE - length - HEADER_SIZE, size);
+                if (checkpoint != null) {
+                    return new Recovered(checkpoint, size);
+                }
+            }
+        }
+        CheckpointInfo last = null;
+        long position = 0;
+        while (position + HEADER_SIZE + TRAILER_SIZE <= size) {
+            int length = read(channel, position + Integer.BYTES, Integer.BYTES).getInt();
+            CheckpointInfo checkpoint = length >= 0 ? readRecord(channel, position, size) : null;
+            if (checkpoint == null) {
+                break;
+            }
+            last = checkpoint;
+            position += HEADER_SIZE + length + TRAILER_SIZE;
+        }
+        return new Recovered(last, position);
+    }
+
+    /**
+     * The readRecord method reads and validates the record starting at a position.
+     *
+     * @param channel  represents the channel of the log.
+     * @param position represents the position of the header of the record.
+     * @param size     represents the size of the log.
+     * @return the checkpoint, null if the record is not valid.
+     * @throws IOException if the log cannot be read.
+     */
+    private static CheckpointInfo readRecord(FileChannel channel, long position, long size) throws IOException {
+        ByteBuffer header = read(channel, position, HEADER_SIZE);
+        int magic = header.getInt();
+        int length = header.getInt();
+        int checksum = header.getInt();
+        if (magic != MAGIC || length < 0 || position + HEADER_SIZE + length + TRAILER_SIZE > size) {
+            return null;
+        }
+        ByteBuffer body = read(channel, position + HEADER_SIZE, length + TRAILER_SIZE);
+        CRC32 crc = new CRC32();
+        crc.update(body.array(), 0, length);
+        if ((int) crc.getValue() != checksum || body.getInt(length) != length) {
+            return null;
+        }
+        try {
+            return decode(body);
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * The decode method reads a checkpoint from the payload of a record.
+     *
+     * @param payload represents the payload.
+     * @return the checkpoint.
+     */
+    private static CheckpointInfo decode(ByteBuffer payload) {
+        int count = payload.getInt();
+        boolean end = payload.get() != 0;
+        byte[] remaining = new byte[payload.getInt()];
+        payload.get(remaining);
+        return new CheckpointInfo(count, end, new String(remaining, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * The read method reads a range of bytes of the log.
+     *
+     * @param channel  represents the channel of the log.
+     * @param position represents the position of the first byte.
+     * @param length   represents the number of bytes.
+     * @return the bytes, ready to be read.
+     * @throws IOException if the range cannot be read.
+     */
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of the checkpoint log");
+            }
+        }
+        return buffer.flip();
+    }
+}
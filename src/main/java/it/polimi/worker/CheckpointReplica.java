@@ -0,0 +1,274 @@
+package it.polimi.worker;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+/**
+ * The CheckpointReplica class copies the checkpoints of the worker to HDFS, so that a task moved to another worker
+ * resumes from its last checkpoint instead of processing its files again from the beginning.
+ * The copies of a program are stored in the directory /program{id}/checkpoints, which is deleted by the coordinator when the program ends.
+ * Each checkpoint has two slots, written alternately, since a file cannot be replaced atomically on every file system:
+ * a copy that is being written when a worker fails leaves the other slot intact.
+ * A slot contains the sequence number of the copy, the length of the content, the content and its CRC32,
+ * and the valid slot with the highest sequence number is the last copy.
+ * The content is the last record of a CheckpointLog, which is itself a log, or the snapshot of a combiner,
+ * and it is restored as a local file, so that the CheckPointManager reads it as if it had been written by the worker.
+ */
+public class CheckpointReplica {
+    public static final int SLOTS = 2;
+    private static final Logger logger = LogManager.getLogger("it.polimi.Worker");
+    private final FileSystem fs;
+    private final Map<String, Long> sequences;
+
+    /**
+     * The constructor creates a new CheckpointReplica.
+     *
+     * @param fs represents the HDFS client of the worker.
+     */
+    public CheckpointReplica(FileSystem fs) {
+        this.fs = fs;
+        this.sequences = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * The write method copies a checkpoint to HDFS, in the slot older than the last copy.
+     *
+     * @param programId represents the program id.
+     * @param name      represents the name of the local checkpoint file.
+     * @param content   represents the content of the checkpoint.
+     * @throws IOException if the copy cannot be written.
+     */
+    public void write(String programId, String name, byte[] content) throws IOException {
+        write(programId, name, content.length, out -> out.write(content));
+    }
+
+    /**
+     * The upload method copies a local checkpoint file to HDFS, in the slot older than the last copy.
+     * The file is opened before its length is read, so that the copy is consistent even if the file is replaced meanwhile.
+     *
+     * @param programId represents the program id.
+     * @param name      represents the name of the local checkpoint file.
+     * @param local     represents the path of the local checkpoint file.
+     * @throws IOException if the file cannot be read or the copy cannot be written.
+     */
+    public void upload(String programId, String name, java.nio.file.Path local) throws IOException {
+        try (FileChannel channel = FileChannel.open(local, StandardOpenOption.READ)) {
+            long length = channel.size();
+            write(programId, name, length, out -> {
+                try (InputStream in = Channels.newInputStream(channel)) {
+                    in.transferTo(out);
+                }
+            });
+        }
+    }
+
+    /**
+     * The download method restores the last valid copy of a checkpoint from HDFS into a local file.
+     * The content is written to a temporary file and moved over the local file only if its length and CRC32 are valid.
+     * The next copy is written in a slot other than the restored one, so that it is never overwritten before a newer copy is complete.
+     *
+     * @param programId represents the program id.
+     * @param name      represents the name of the local checkpoint file.
+     * @param local     represents the path of the local checkpoint file.
+     * @return true if a copy has been restored, false if there is no valid copy.
+     * @throws IOException if the copies cannot be read or the local file cannot be written.
+     */
+    public boolean download(String programId, String name, java.nio.file.Path local) throws IOException {
+        long[] slots = new long[SLOTS];
+        long last = 0;
+        for (int slot = 0; slot < SLOTS; slot++) {
+            slots[slot] = readSequence(getPath(programId, name, slot));
+            last = Math.max(last, slots[slot]);
+        }
+        String key = getKey(programId, name);
+        sequences.merge(key, last, Math::max);
+        for (int i = 0; i < SLOTS; i++) {
+            int slot = 0;
+            for (int j = 1; j < SLOTS; j++) {
+                if (slots[j] > slots[slot]) {
+                    slot = j;
+                }
+            }
+            if (slots[slot] <= 0) {
+                return false;
+            }
+            if (restore(getPath(programId, name, slot), local)) {
+                long next = sequences.get(key) + 1;
+                if (next % SLOTS == slot) {
+                    sequences.put(key, next);
+                }
+                logger.info(Thread.currentThread().getName() + ": Restored checkpoint " + local + " from HDFS, copy " + slots[slot]);
+                return true;
+            }
+            logger.warn(Thread.currentThread().getName() + ": Invalid copy " + slots[slot] + " of checkpoint " + local + " in HDFS");
+            slots[slot] = 0;
+        }
+        return false;
+    }
+
+    /**
+     * The forget method clears the sequence numbers of the copies of a program, which is invoked when the program ends.
+     * The copies are not deleted, since they are in the directory of the program deleted by the coordinator.
+     *
+     * @param programId represents the program id.
+     */
+    public void forget(String programId) {
+        sequences.keySet().removeIf(key -> key.startsWith(programId + "/"));
+    }
+
+    /**
+     * The ContentWriter interface writes the content of a copy.
+     */
+    @FunctionalInterface
+    private interface ContentWriter {
+        /**
+         * The writeTo method writes the content of a copy to a stream.
+         *
+         * @param out represents the stream.
+         * @throws IOException if the content cannot be written.
+         */
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    /**
+     * The write method writes a copy of a checkpoint in the slot following the last copy.
+     * If the sequence number of the last copy is not known, it is read from the slots.
+     *
+     * @param programId represents the program id.
+     * @param name      represents the name of the local checkpoint file.
+     * @param length    represents the length of the content.
+     * @param content   represents the writer of the content.
+     * @throws IOException if the copy cannot be written.
+     */
+    private void write(String programId, String name, long length, ContentWriter content) throws IOException {
+        String key = getKey(programId, name);
+        Long last = sequences.get(key);
+        if (last == null) {
+            last = 0L;
+            for (int slot = 0; slot < SLOTS; slot++) {
+                last = Math.max(last, readSequence(getPath(programId, name, slot)));
+            }
+        }
+        long sequence = last + 1;
+        CRC32 crc = new CRC32();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fs.create(getPath(programId, name, (int) (sequence % SLOTS)), true), 65536))) {
+            out.writeLong(sequence);
+            out.writeLong(length);
+            content.writeTo(new OutputStream() {
+                @Override
+                public void write(int b) throws IOException {
+                    crc.update(b);
+                    out.write(b);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    crc.update(b, off, len);
+                    out.write(b, off, len);
+                }
+            });
+            out.writeInt((int) crc.getValue());
+        }
+        sequences.put(key, sequence);
+    }
+
+    /**
+     * The readSequence method reads the sequence number of the copy in a slot.
+     *
+     * @param path represents the path of the slot.
+     * @return the sequence number, 0 if the slot does not exist or it cannot be read.
+     */
+    private long readSequence(Path path) {
+        try (FSDataInputStream in = fs.open(path)) {
+            return in.readLong();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * The restore method copies the content of a slot into a local file, if it is valid.
+     *
+     * @param path  represents the path of the slot.
+     * @param local represents the path of the local file.
+     * @return true if the content is valid and it has been restored, false otherwise.
+     * @throws IOException if the local file cannot be written.
+     */
+    private boolean restore(Path path, java.nio.file.Path local) throws IOException {
+        Files.createDirectories(local.getParent());
+        java.nio.file.Path temporary = Files.createTempFile(local.getParent(), local.getFileName().toString(), ".tmp");
+        boolean valid = false;
+        try {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(fs.open(path), 65536));
+                 OutputStream out = new BufferedOutputStream(Files.newOutputStream(temporary), 65536)) {
+                in.readLong();
+                long length = in.readLong();
+                CRC32 crc = new CRC32();
+                byte[] buffer = new byte[65536];
+                while (length > 0) {
+                    int read = in.read(buffer, 0, (int) Math.min(buffer.length, length));
+                    if (read < 0) {
+                        return false;
+                    }
+                    crc.update(buffer, 0, read);
+                    out.write(buffer, 0, read);
+                    length -= read;
+                }
+                valid = in.readInt() == (int) crc.getValue();
+            } catch (EOFException e) {
+                return false;
+            }
+            if (valid) {
+                Files.move(temporary, local, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            return valid;
+        } finally {
+            if (!valid) {
+                Files.deleteIfExists(temporary);
+            }
+        }
+    }
+
+    /**
+     * The getPath method returns the path of a slot of the copies of a checkpoint.
+     *
+     * @param programId represents the program id.
+     * @param name      represents the name of the local checkpoint file.
+     * @param slot      represents the slot.
+     * @return the path of the slot.
+     */
+    private static Path getPath(String programId, String name, int slot) {
+        return new Path("/program" + programId + "/checkpoints/" + name + "." + slot);
+    }
+
+    /**
+     * The getKey method returns the key of the sequence number of the copies of a checkpoint.
+     *
+     * @param programId represents the program id.
+     * @param name      represents the name of the local checkpoint file.
+     * @return the key.
+     */
+    private static String getKey(String programId, String name) {
+        return programId + "/" + name;
+    }
+}
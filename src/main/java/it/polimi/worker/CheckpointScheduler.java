@@ -0,0 +1,102 @@
+package it.polimi.worker;
+
+/**
+ * The CheckpointScheduler class decides which partitions of a split or of a task are followed by a checkpoint.
+ * A checkpoint costs the time to take its snapshot and to write it, while skipping it costs the re-execution of the partitions
+ * processed since the last checkpoint if the worker fails.
+ * The scheduler measures both, and takes a checkpoint when the processing time since the last one is enough to keep
+ * the cost of the checkpoints below the given fraction of the processing time.
+ * The re-execution is bounded anyway: a checkpoint is taken when the bytes or the time since the last one reach the maximum,
+ * and after the last partition.
+ * The cost is the sum of the exponential moving averages of the time to take a snapshot, spent by the task,
+ * and of the time to write it, spent by the background writer and uploader, since the snapshot grows with the partial aggregations and the disk may be shared.
+ */
+public class CheckpointScheduler {
+    public static final double COST_WEIGHT = 0.2;
+    private final double overhead;
+    private final long maxBytes;
+    private final long maxTime;
+    private long lastCheckpoint;
+    private long bytes;
+    private double snapshotCost;
+    private double writeCost;
+    private long checkpoints;
+    private long skipped;
+
+    /**
+     * The constructor creates a new CheckpointScheduler, which takes a checkpoint after the first partition to measure its cost.
+     *
+     * @param overhead represents the maximum fraction of the processing time spent in checkpoints.
+     * @param maxBytes represents the maximum number of bytes processed between two checkpoints.
+     * @param maxTime  represents the maximum time in milliseconds between two checkpoints.
+     */
+    public CheckpointScheduler(double overhead, long maxBytes, long maxTime) {
+        this.overhead = overhead;
+        this.maxBytes = maxBytes;
+        this.maxTime = maxTime * 1_000_000;
+        this.lastCheckpoint = System.nanoTime();
+        this.bytes = 0;
+        this.snapshotCost = 0;
+        this.writeCost = 0;
+    }
+
+    /**
+     * The isDue method records a processed partition and checks if it must be followed by a checkpoint.
+     *
+     * @param partitionBytes represents the number of bytes of the partition.
+     * @param end            represents whether the partition is the last one.
+     * @return true if a checkpoint must be taken, false otherwise.
+     */
+    public synchronized boolean isDue(long partitionBytes, boolean end) {
+        bytes += partitionBytes;
+        long now = System.nanoTime();
+        long elapsed = now - lastCheckpoint;
+        if (end || bytes >= maxBytes || elapsed >= maxTime || elapsed * overhead >= snapshotCost + writeCost) {
+            lastCheckpoint = now;
+            bytes = 0;
+            checkpoints++;
+            return true;
+        }
+        skipped++;
+        return false;
+    }
+
+    /**
+     * The recordSnapshot method records the time spent by the task to take a checkpoint.
+     *
+     * @param nanos represents the time in nanoseconds.
+     */
+    public synchronized void recordSnapshot(long nanos) {
+        snapshotCost = average(snapshotCost, nanos);
+    }
+
+    /**
+     * The recordWrite method records the time spent to write a checkpoint.
+     *
+     * @param nanos represents the time in nanoseconds.
+     */
+    public synchronized void recordWrite(long nanos) {
+        writeCost = average(writeCost, nanos);
+    }
+
+    /**
+     * The average method updates an exponential moving average with a new sample.
+     *
+     * @param average represents the current average, 0 if there are no samples yet.
+     * @param sample  represents the new sample.
+     * @return the updated average.
+     */
+    private static double average(double average, long sample) {
+        return average == 0 ? sample : COST_WEIGHT * sample + (1 - COST_WEIGHT) * average;
+    }
+
+    /**
+     * The toString method describes the checkpoints taken and skipped, and their current cost.
+     *
+     * @return the description of the scheduler.
+     */
+    @Override
+    public synchronized String toString() {
+        return checkpoints + " checkpoints, " + skipped + " skipped, cost " + String.format("%.3f", (snapshotCost + writeCost) / 1_000_000) + " ms";
+    }
+}
@@ -1,10 +1,18 @@
 package it.polimi.worker;
 
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.util.function.IntUnaryOperator;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import it.polimi.worker.accumulators.AvgAccumulator;
+import it.polimi.worker.accumulators.CountAccumulator;
+import it.polimi.worker.accumulators.MaxAccumulator;
+import it.polimi.worker.accumulators.MinAccumulator;
+import it.polimi.worker.accumulators.SumAccumulator;
 import it.polimi.worker.operators.ChangeKeyOperator;
 import it.polimi.worker.operators.FilterOperator;
 import it.polimi.worker.operators.MapOperator;
@@ -15,8 +23,13 @@ import it.polimi.worker.models.Operator;
  * This class is responsible for creating the operators from strings.
  * It uses the factory pattern to create the operators.
  * The operators are created by parsing the function string and creating the corresponding lambda function.
+ * The functions can also be created as method handles, which are used by the ChainCompiler to generate the code of a chain.
  */
 public class CreateOperator {
+    private static final MethodType FUNCTION_TYPE = MethodType.methodType(int.class, int.class, int.class);
+    private static final MethodType PREDICATE_TYPE = MethodType.methodType(boolean.class, int.class);
+    private static final MethodType CONSTANT_PREDICATE_TYPE = MethodType.methodType(boolean.class, int.class, int.class);
+
     /**
      * The createIntUnaryOperator method creates an IntUnaryOperator from a string.
      * The method parses the function string and creates the corresponding lambda function.
@@ -82,13 +95,29 @@ public class CreateOperator {
         if (matcher.matches()) {
             String operation = matcher.group(1);
 
+            if (!operation.equals("IS_EVEN") && !operation.equals("IS_ODD") && matcher.group(2) == null) {
+                throw new IllegalArgumentException("Invalid filter function format: " + functionName);
+            }
+
             return switch (operation) {
                 case "IS_EVEN" -> new FilterOperator(x -> x % 2 == 0);
                 case "IS_ODD" -> new FilterOperator(x -> x % 2 != 0);
-                case "LT" -> new FilterOperator(x -> x < Integer.parseInt(matcher.group(2)));
-                case "GT" -> new FilterOperator(x -> x > Integer.parseInt(matcher.group(2)));
-                case "GTE" -> new FilterOperator(x -> x >= Integer.parseInt(matcher.group(2)));
-                case "LTE" -> new FilterOperator(x -> x <= Integer.parseInt(matcher.group(2)));
+                case "LT" -> {
+                    int value = Integer.parseInt(matcher.group(2));
+                    yield new FilterOperator(x -> x < value);
+                }
+                case "GT" -> {
+                    int value = Integer.parseInt(matcher.group(2));
+                    yield new FilterOperator(x -> x > value);
+                }
+                case "GTE" -> {
+                    int value = Integer.parseInt(matcher.group(2));
+                    yield new FilterOperator(x -> x >= value);
+                }
+                case "LTE" -> {
+                    int value = Integer.parseInt(matcher.group(2));
+                    yield new FilterOperator(x -> x <= value);
+                }
                 default -> throw new IllegalArgumentException("Unknown filter function: " + functionName);
             };
         } else {
@@ -112,19 +141,140 @@ public class CreateOperator {
      * The method parses the function string and creates the corresponding lambda function.
      * The function string is in the format "operation".
      * The method uses a switch statement to create the lambda function based on the function string.
+     * The reduce functions are accumulators, so that the values can be reduced incrementally.
      *
      * @param functionName which is string representing the function.
      * @return the ReduceOperator corresponding to the function.
      */
     private static ReduceOperator createReduceOperator(String functionName) {
         return switch (functionName) {
-            case "SUM" -> new ReduceOperator(values -> values.stream().mapToInt(Integer::intValue).sum());
-            case "MIN" -> new ReduceOperator(values -> values.stream().min(Integer::compareTo).orElseThrow());
-            case "MAX" -> new ReduceOperator(values -> values.stream().max(Integer::compareTo).orElseThrow());
+            case "SUM" -> new ReduceOperator(new SumAccumulator());
+            case "MIN" -> new ReduceOperator(new MinAccumulator());
+            case "MAX" -> new ReduceOperator(new MaxAccumulator());
+            case "COUNT" -> new ReduceOperator(new CountAccumulator());
+            case "AVG" -> new ReduceOperator(new AvgAccumulator());
             default -> throw new IllegalArgumentException("Unknown reduce function: " + functionName);
         };
     }
 
+    /**
+     * The createFunctionHandle method creates a method handle of type (int)int from a string.
+     * The function string is in the format "operation(value)" and the value is bound to the handle as a constant.
+     *
+     * @param function which is string representing the function.
+     * @return the method handle corresponding to the function.
+     * @throws IllegalArgumentException if the function is not valid.
+     */
+    static MethodHandle createFunctionHandle(String function) {
+        Pattern FUNCTION_PATTERN = Pattern.compile("(\\w+)\\((\\d+)\\)");
+        Matcher matcher = FUNCTION_PATTERN.matcher(function);
+
+        if (!matcher.matches()) {
+            throw new IllegalArgumentException("Invalid function format: " + function);
+        }
+        int value = Integer.parseInt(matcher.group(2));
+        String method = switch (matcher.group(1)) {
+            case "ADD" -> "add";
+            case "MULTIPLY" -> "multiply";
+            case "SUBTRACT" -> "subtract";
+            case "DIVIDE" -> {
+                if (value == 0) {
+                    throw new IllegalArgumentException("Cannot divide by zero");
+                }
+                yield "divide";
+            }
+            default -> throw new IllegalArgumentException("Unknown function: " + function);
+        };
+        return MethodHandles.insertArguments(findStatic(method, FUNCTION_TYPE), 1, value);
+    }
+
+    /**
+     * The createFilterHandle method creates a method handle of type (int)boolean from a string.
+     * The function string is in the format "operation(value)" or "operation", and the value, if present, is bound to the handle as a constant.
+     *
+     * @param functionName which is string representing the function.
+     * @return the method handle corresponding to the function.
+     * @throws IllegalArgumentException if the function is not valid.
+     */
+    static MethodHandle createFilterHandle(String functionName) {
+        Pattern FUNCTION_PATTERN = Pattern.compile("(\\w+)(?:\\((\\d+)\\))?");
+        Matcher matcher = FUNCTION_PATTERN.matcher(functionName);
+
+        if (!matcher.matches()) {
+            throw new IllegalArgumentException("Invalid filter function format: " + functionName);
+        }
+        String operation = matcher.group(1);
+        if (operation.equals("IS_EVEN") || operation.equals("IS_ODD")) {
+            return findStatic(operation.equals("IS_EVEN") ? "isEven" : "isOdd", PREDICATE_TYPE);
+        }
+        if (matcher.group(2) == null) {
+            throw new IllegalArgumentException("Invalid filter function format: " + functionName);
+        }
+        String method = switch (operation) {
+            case "LT" -> "lessThan";
+            case "GT" -> "greaterThan";
+            case "GTE" -> "greaterOrEqual";
+            case "LTE" -> "lessOrEqual";
+            default -> throw new IllegalArgumentException("Unknown filter function: " + functionName);
+        };
+        return MethodHandles.insertArguments(findStatic(method, CONSTANT_PREDICATE_TYPE), 1, Integer.parseInt(matcher.group(2)));
+    }
+
+    /**
+     * The findStatic method returns the method handle of one of the predefined functions of this class.
+     *
+     * @param name represents the name of the method.
+     * @param type represents the type of the method.
+     * @return the method handle of the method.
+     */
+    private static MethodHandle findStatic(String name, MethodType type) {
+        try {
+            return MethodHandles.lookup().findStatic(CreateOperator.class, name, type);
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new IllegalStateException("Predefined function not found: " + name, e);
+        }
+    }
+
+    private static int add(int x, int value) {
+        return x + value;
+    }
+
+    private static int multiply(int x, int value) {
+        return x * value;
+    }
+
+    private static int subtract(int x, int value) {
+        return x - value;
+    }
+
+    private static int divide(int x, int value) {
+        return x / value;
+    }
+
+    private static boolean isEven(int x) {
+        return x % 2 == 0;
+    }
+
+    private static boolean isOdd(int x) {
+        return x % 2 != 0;
+    }
+
+    private static boolean lessThan(int x, int value) {
+        return x < value;
+    }
+
+    private static boolean greaterThan(int x, int value) {
+        return x > value;
+    }
+
+    private static boolean greaterOrEqual(int x, int value) {
+        return x >= value;
+    }
+
+    private static boolean lessOrEqual(int x, int value) {
+        return x <= value;
+    }
+
     /**
      * The createOperator method creates an Operator from a string.
      * The method parses the operator and creates the corresponding operator using the factory pattern.
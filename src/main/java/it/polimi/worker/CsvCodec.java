@@ -0,0 +1,435 @@
+package it.polimi.worker;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import it.polimi.worker.models.KeyValueBatch;
+
+/**
+ * The CsvCodec class is used to parse and format the key-value pairs of the CSV files directly from and into byte buffers.
+ * It parses the integers without creating intermediate strings and it keeps the partial trailing line of a chunk as bytes,
+ * so that it can be completed by the following chunk.
+ * The buffers are reused across calls, so an instance must be used by a single thread at a time.
+ */
+public class CsvCodec {
+    private static final int MAX_PAIR_LENGTH = 24;
+    private final byte[] buffer;
+    private byte[] partialLine;
+    private int partialLength;
+    private int position;
+    private long number;
+    private long[] state;
+
+    /**
+     * The LineParser interface is used to parse a complete line of a chunk.
+     */
+    private interface LineParser {
+        /**
+         * The parse method parses a line.
+         *
+         * @param data represents the bytes containing the line.
+         * @param from represents the index of the first byte of the line.
+         * @param to   represents the index after the last byte of the line.
+         * @throws IOException if the line is not valid.
+         */
+        void parse(byte[] data, int from, int to) throws IOException;
+    }
+
+    /**
+     * The constructor creates a new CsvCodec.
+     *
+     * @param bufferSize represents the size of the buffer used to read and write the data.
+     */
+    public CsvCodec(int bufferSize) {
+        this.buffer = new byte[bufferSize];
+        this.partialLine = new byte[256];
+        this.partialLength = 0;
+        this.state = new long[0];
+    }
+
+    /**
+     * The getBuffer method returns the buffer in which the data read from HDFS must be stored before decoding it.
+     *
+     * @return the buffer of the codec.
+     */
+    public byte[] getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * The hasPartialLine method returns if there is a partial line waiting for the next chunk.
+     *
+     * @return true if there is a partial line, false otherwise.
+     */
+    public boolean hasPartialLine() {
+        return partialLength > 0;
+    }
+
+    /**
+     * The getPartialLine method returns the partial line as a string, it is used to store it in the checkpoints.
+     *
+     * @return the partial line, or an empty string if there is no partial line.
+     */
+    public String getPartialLine() {
+        return partialLength == 0 ? "" : new String(partialLine, 0, partialLength, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * The setPartialLine method sets the partial line, it is used to restore it from a checkpoint.
+     *
+     * @param line represents the partial line, null or empty if there is no partial line.
+     */
+    public void setPartialLine(String line) {
+        partialLength = 0;
+        if (line != null && !line.isEmpty()) {
+            byte[] bytes = line.getBytes(StandardCharsets.US_ASCII);
+            appendPartial(bytes, 0, bytes.length);
+        }
+    }
+
+    /**
+     * The decode method parses the complete lines of a chunk and adds the key-value pairs to the result.
+     * The partial line of the previous chunk is completed with the first bytes of the chunk,
+     * while the bytes after the last line separator are kept as the new partial line.
+     * If the chunk is the last one, the partial line is parsed as a complete line.
+     *
+     * @param data   represents the chunk of data.
+     * @param length represents the number of valid bytes of the chunk.
+     * @param end    represents if the chunk is the last one of the file.
+     * @param result represents the batch where the key-value pairs are stored.
+     * @throws IOException if a line is not a valid key-value pair.
+     */
+    public void decode(byte[] data, int length, boolean end, KeyValueBatch result) throws IOException {
+        decodeLines(data, length, end, (bytes, from, to) -> parseLine(bytes, from, to, result));
+    }
+
+    /**
+     * The decodePartials method parses the complete lines of a chunk containing partial aggregations and merges them into the table.
+     * Each line is in the format "key,state", where the state is made of the longs of the accumulator of the table.
+     * The partial line is handled as in the decode method.
+     *
+     * @param data   represents the chunk of data.
+     * @param length represents the number of valid bytes of the chunk.
+     * @param end    represents if the chunk is the last one of the file.
+     * @param table  represents the table where the partial aggregations are merged.
+     * @throws IOException if a line is not a valid partial aggregation.
+     */
+    public void decodePartials(byte[] data, int length, boolean end, AggregationTable table) throws IOException {
+        decodeLines(data, length, end, (bytes, from, to) -> parsePartialLine(bytes, from, to, table));
+    }
+
+    /**
+     * The decodeLines method splits a chunk into lines, completing the partial line of the previous chunk, and parses them.
+     *
+     * @param data   represents the chunk of data.
+     * @param length represents the number of valid bytes of the chunk.
+     * @param end    represents if the chunk is the last one of the file.
+     * @param parser represents the parser invoked for each complete line.
+     * @throws IOException if a line is not valid.
+     */
+    private void decodeLines(byte[] data, int length, boolean end, LineParser parser) throws IOException {
+        int start = 0;
+        if (partialLength > 0) {
+            int newLine = indexOfNewLine(data, 0, length);
+            if (newLine < 0) {
+                appendPartial(data, 0, length);
+                start = length;
+            } else {
+                appendPartial(data, 0, newLine);
+                parser.parse(partialLine, 0, partialLength);
+                partialLength = 0;
+                start = newLine + 1;
+            }
+        }
+        int newLine;
+        while ((newLine = indexOfNewLine(data, start, length)) >= 0) {
+            parser.parse(data, start, newLine);
+            start = newLine + 1;
+        }
+        if (start < length) {
+            appendPartial(data, start, length);
+        }
+        if (end && partialLength > 0) {
+            parser.parse(partialLine, 0, partialLength);
+            partialLength = 0;
+        }
+    }
+
+    /**
+     * The encode method formats the selected key-value pairs of the batch as CSV lines and writes them to the output stream.
+     * The lines are formatted in the buffer of the codec, which is flushed to the stream only when it is full.
+     *
+     * @param data represents the key-value pairs to be written.
+     * @param out  represents the output stream.
+     * @throws IOException if it is not possible to write to the output stream.
+     */
+    public void encode(KeyValueBatch data, OutputStream out) throws IOException {
+        int[] keys = data.getKeys();
+        int[] values = data.getValues();
+        int offset = 0;
+        for (int i = 0; i < data.size(); i++) {
+            if (offset + MAX_PAIR_LENGTH > buffer.length) {
+                out.write(buffer, 0, offset);
+                offset = 0;
+            }
+            int r = data.row(i);
+            offset = formatPair(keys[r], values[r], buffer, offset);
+        }
+        if (offset > 0) {
+            out.write(buffer, 0, offset);
+        }
+    }
+
+    /**
+     * The encode method formats a single key-value pair as a CSV line and writes it to the output stream.
+     *
+     * @param key   represents the key to be written.
+     * @param value represents the value to be written.
+     * @param out   represents the output stream.
+     * @throws IOException if it is not possible to write to the output stream.
+     */
+    public void encode(int key, int value, OutputStream out) throws IOException {
+        out.write(buffer, 0, formatPair(key, value, buffer, 0));
+    }
+
+    /**
+     * The encodePartial method formats the partial aggregation of a key as a CSV line and writes it to the output stream.
+     * The line is in the format "key,state", where the state is made of the given longs.
+     *
+     * @param key       represents the key to be written.
+     * @param state     represents the array containing the state.
+     * @param offset    represents the index of the first long of the state.
+     * @param stateSize represents the number of longs of the state.
+     * @param out       represents the output stream.
+     * @throws IOException if it is not possible to write to the output stream.
+     */
+    public void encodePartial(int key, long[] state, int offset, int stateSize, OutputStream out) throws IOException {
+        int end = formatLong(key, buffer, 0);
+        for (int i = offset; i < offset + stateSize; i++) {
+            buffer[end++] = ',';
+            end = formatLong(state[i], buffer, end);
+        }
+        buffer[end++] = '\n';
+        out.write(buffer, 0, end);
+    }
+
+    /**
+     * The parseLine method parses a line in the format "key,value", ignoring the surrounding whitespaces.
+     * Blank lines are skipped.
+     *
+     * @param data   represents the bytes containing the line.
+     * @param from   represents the index of the first byte of the line.
+     * @param to     represents the index after the last byte of the line.
+     * @param result represents the batch where the key-value pair is stored.
+     * @throws IOException if the line is not a valid key-value pair.
+     */
+    private void parseLine(byte[] data, int from, int to, KeyValueBatch result) throws IOException {
+        position = skipWhitespaces(data, from, to);
+        if (position == to) {
+            return;
+        }
+        if (!parseNumber(data, to, Integer.MIN_VALUE, Integer.MAX_VALUE)) {
+            throw invalidLine(data, from, to);
+        }
+        int key = (int) number;
+        if (!skipSeparator(data, to) || !parseNumber(data, to, Integer.MIN_VALUE, Integer.MAX_VALUE) || skipWhitespaces(data, position, to) != to) {
+            throw invalidLine(data, from, to);
+        }
+        result.add(key, (int) number);
+    }
+
+    /**
+     * The parsePartialLine method parses a line in the format "key,state" and merges the partial aggregation into the table.
+     * Blank lines are skipped.
+     *
+     * @param data  represents the bytes containing the line.
+     * @param from  represents the index of the first byte of the line.
+     * @param to    represents the index after the last byte of the line.
+     * @param table represents the table where the partial aggregation is merged.
+     * @throws IOException if the line is not a valid partial aggregation.
+     */
+    private void parsePartialLine(byte[] data, int from, int to, AggregationTable table) throws IOException {
+        position = skipWhitespaces(data, from, to);
+        if (position == to) {
+            return;
+        }
+        if (!parseNumber(data, to, Integer.MIN_VALUE, Integer.MAX_VALUE)) {
+            throw invalidLine(data, from, to);
+        }
+        int key = (int) number;
+        int stateSize = table.getAccumulator().stateSize();
+        if (state.length < stateSize) {
+            state = new long[stateSize];
+        }
+        for (int i = 0; i < stateSize; i++) {
+            if (!skipSeparator(data, to) || !parseNumber(data, to, Long.MIN_VALUE, Long.MAX_VALUE)) {
+                throw invalidLine(data, from, to);
+            }
+            state[i] = number;
+        }
+        if (skipWhitespaces(data, position, to) != to) {
+            throw invalidLine(data, from, to);
+        }
+        table.merge(key, state, 0);
+    }
+
+    /**
+     * The skipSeparator method moves the current position after the comma separating two fields and the surrounding whitespaces.
+     *
+     * @param data represents the bytes containing the line.
+     * @param to   represents the index after the last byte that can be read.
+     * @return true if the separator has been found, false otherwise.
+     */
+    private boolean skipSeparator(byte[] data, int to) {
+        position = skipWhitespaces(data, position, to);
+        if (position == to || data[position] != ',') {
+            return false;
+        }
+        position = skipWhitespaces(data, position + 1, to);
+        return true;
+    }
+
+    /**
+     * The parseNumber method parses a number starting from the current position and moves the position after its last digit.
+     * The parsed number is stored in the number field.
+     *
+     * @param data represents the bytes containing the number.
+     * @param to   represents the index after the last byte that can be read.
+     * @param min  represents the minimum valid value.
+     * @param max  represents the maximum valid value.
+     * @return true if a valid number has been parsed, false otherwise.
+     */
+    private boolean parseNumber(byte[] data, int to, long min, long max) {
+        boolean negative = false;
+        if (position < to && (data[position] == '-' || data[position] == '+')) {
+            negative = data[position] == '-';
+            position++;
+        }
+        int firstDigit = position;
+        long limit = negative ? min : -max;
+        long multiplyLimit = limit / 10;
+        long result = 0;
+        while (position < to && data[position] >= '0' && data[position] <= '9') {
+            int digit = data[position] - '0';
+            if (result < multiplyLimit) {
+                return false;
+            }
+            result *= 10;
+            if (result < limit + digit) {
+                return false;
+            }
+            result -= digit;
+            position++;
+        }
+        if (position == firstDigit) {
+            return false;
+        }
+        number = negative ? result : -result;
+        return true;
+    }
+
+    /**
+     * The formatPair method writes a key-value pair followed by a line separator in the buffer.
+     *
+     * @param key    represents the key to be written.
+     * @param value  represents the value to be written.
+     * @param buffer represents the buffer.
+     * @param offset represents the index where the pair must be written.
+     * @return the index after the last written byte.
+     */
+    private static int formatPair(int key, int value, byte[] buffer, int offset) {
+        offset = formatLong(key, buffer, offset);
+        buffer[offset++] = ',';
+        offset = formatLong(value, buffer, offset);
+        buffer[offset++] = '\n';
+        return offset;
+    }
+
+    /**
+     * The formatLong method writes the decimal representation of a number in the buffer.
+     *
+     * @param value  represents the number to be written.
+     * @param buffer represents the buffer.
+     * @param offset represents the index where the number must be written.
+     * @return the index after the last written byte.
+     */
+    private static int formatLong(long value, byte[] buffer, int offset) {
+        if (value < 0) {
+            buffer[offset++] = '-';
+        } else {
+            value = -value;
+        }
+        int digits = 1;
+        for (long p = -10; p >= value && p < 0; p *= 10) {
+            digits++;
+        }
+        int end = offset + digits;
+        for (int i = end - 1; i >= offset; i--) {
+            buffer[i] = (byte) ('0' - value % 10);
+            value /= 10;
+        }
+        return end;
+    }
+
+    /**
+     * The indexOfNewLine method returns the index of the first line separator in the given interval.
+     *
+     * @param data represents the bytes to be searched.
+     * @param from represents the first index of the interval.
+     * @param to   represents the index after the last byte of the interval.
+     * @return the index of the line separator, or -1 if there is none.
+     */
+    private static int indexOfNewLine(byte[] data, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (data[i] == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * The skipWhitespaces method returns the index of the first byte that is not a whitespace.
+     *
+     * @param data represents the bytes to be read.
+     * @param from represents the first index to be read.
+     * @param to   represents the index after the last byte that can be read.
+     * @return the index of the first byte that is not a whitespace, or to if there is none.
+     */
+    private static int skipWhitespaces(byte[] data, int from, int to) {
+        while (from < to && data[from] <= ' ') {
+            from++;
+        }
+        return from;
+    }
+
+    /**
+     * The appendPartial method appends bytes to the partial line, growing it if needed.
+     *
+     * @param data represents the bytes to be appended.
+     * @param from represents the first index of the bytes to be appended.
+     * @param to   represents the index after the last byte to be appended.
+     */
+    private void appendPartial(byte[] data, int from, int to) {
+        int length = to - from;
+        if (partialLength + length > partialLine.length) {
+            partialLine = Arrays.copyOf(partialLine, Math.max(partialLine.length * 2, partialLength + length));
+        }
+        System.arraycopy(data, from, partialLine, partialLength, length);
+        partialLength += length;
+    }
+
+    /**
+     * The invalidLine method creates the exception thrown when a line is not a valid key-value pair.
+     *
+     * @param data represents the bytes containing the line.
+     * @param from represents the index of the first byte of the line.
+     * @param to   represents the index after the last byte of the line.
+     * @return the exception to be thrown.
+     */
+    private static IOException invalidLine(byte[] data, int from, int to) {
+        return new IOException("Invalid line in CSV: " + new String(data, from, to - from, StandardCharsets.US_ASCII));
+    }
+}
@@ -1,25 +1,36 @@
 package it.polimi.worker;
 
+import java.io.BufferedOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.regex.Pattern;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FSDataOutputStream;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.Path;
-import org.apache.hadoop.hdfs.DFSInputStream;
 import org.apache.log4j.LogManager;
 
-import java.util.regex.Matcher;
-
+import it.polimi.common.Address;
+import it.polimi.common.FileSplit;
 import it.polimi.common.HadoopFileManager;
-import it.polimi.common.KeyValuePair;
+import it.polimi.common.PartitionSlice;
 import it.polimi.common.messages.ReduceOperation;
 import it.polimi.worker.operators.ReduceOperator;
-import it.polimi.worker.models.CheckpointInfo;
 import it.polimi.worker.models.Data;
+import it.polimi.worker.models.KeyValueBatch;
 import it.polimi.worker.models.Operator;
 import it.polimi.common.messages.NormalOperations;
 
@@ -28,317 +39,773 @@ import it.polimi.common.messages.NormalOperations;
  * It also processes the data and executes the operators on the data.
  */
 public class HadoopWorker extends HadoopFileManager {
+    private final Queue<CsvCodec> codecs;
+    private final WorkerConfiguration configuration;
+    private final ShuffleStore shuffleStore;
+    private final CheckpointReplica checkpointReplica;
+    private final IntermediateCache intermediateCache;
+    private final AggregationMemory aggregationMemory;
+
     /**
      * HadoopWorker class constructor
      *
-     * @param address it is the address of the HDFS.
+     * @param address       it is the address of the HDFS.
+     * @param configuration it is the configuration of the worker.
      * @throws IOException if it is not possible to connect to the HDFS.
      */
-    public HadoopWorker(String address) throws IOException {
+    public HadoopWorker(String address, WorkerConfiguration configuration) throws IOException {
         super(address, 131072);
         logger = LogManager.getLogger("it.polimi.Worker");
+        this.configuration = configuration;
+        this.shuffleStore = new ShuffleStore(configuration.getShuffleDirectory());
+        this.checkpointReplica = configuration.isCheckpointReplicated() ? new CheckpointReplica(fs) : null;
+        this.intermediateCache = new IntermediateCache(configuration.getIntermediateCacheMemory());
+        this.aggregationMemory = new AggregationMemory(configuration.getAggregationMemory());
+        codecs = new ConcurrentLinkedQueue<>();
     }
 
     /**
-     * The processData method processes the data and executes the operators on the data.
-     * It splits the data into lines and processes each line.
-     *
-     * @param combinedData it is the data to be processed.
-     * @param result       it is the list of KeyValuePair where the data will be stored.
-     * @return the partial tuple.
-     * @throws IOException if there is an error processing the data.
-     */
-    public StringBuilder processData(String combinedData, List<KeyValuePair> result) throws IOException {
-        StringBuilder partialTuple;
-        String[] lines = combinedData.split("\n");
-
-        if (combinedData.endsWith("\n")) {
-            for (String line : lines) {
-                processLine(line.trim(), result);
-            }
-            partialTuple = new StringBuilder();
-        } else {
-            for (int j = 0; j < lines.length - 1; j++) {
-                processLine(lines[j].trim(), result);
-            }
-            partialTuple = new StringBuilder(lines[lines.length - 1]);
-        }
-        return partialTuple;
-
-    }
-
-    /**
-     * The readInputFile method reads the input file and processes the data.
-     * It reads the data from the input file and processes it using the operators.
-     * It also calls the WorkerHandler to write the processed data to HDFS.
+     * The readInputFile method reads a split of an input file and processes the data.
+     * The boundaries of the split are moved to the start of the following line, so that each line is read by a single split,
+     * then the lines of the split are read in partitions of BUFFER_SIZE bytes and processed using the operators.
+     * If the program includes a reduce, which is always the last operator, the values are aggregated in the given table:
+     * without a changekey the table belongs to the file, otherwise it is the combiner shared by all the files of the task.
+     * It also calls the WorkerHandler to write the processed data to HDFS and to report the progress of the task.
+     * The splits of a task may be read concurrently, so each call uses its own codec and batch.
      *
-     * @param i               it is the index of the file.
+     * @param i               it is the index of the split.
      * @param task            it is the NormalOperations object.
      * @param workerHandler   it is the WorkerHandler object.
      * @param operators       it is the list of operators.
-     * @param count           it is the partition count, used to identify the partition.
+     * @param count           it is the number of partitions of the split already processed.
      * @param remainingString it is the remaining string read from the checkpoint, if any.
-     * @param value           it is the KeyValuePair object read from the checkpoint, if any.
+     * @param table           it is the table where the values are reduced, null if the program does not include a reduce.
      * @throws IOException if there is an error reading the input file.
      */
-    public void readInputFile(int i, NormalOperations task, WorkerHandler workerHandler, List<Operator> operators, int count, String remainingString, KeyValuePair value) throws IOException {
-        logger.info(Thread.currentThread().getName() + ": Reading input file: " + task.getPathFiles().get(i));
-        Path filePath = new Path(task.getPathFiles().get(i));
-        FSDataInputStream in = fs.open(filePath);
+    public void readInputFile(int i, NormalOperations task, WorkerHandler workerHandler, List<Operator> operators, int count, String remainingString, AggregationTable table) throws IOException {
+        FileSplit split = task.getSplits().get(i);
+        logger.info(Thread.currentThread().getName() + ": Reading input file: " + split.path() + " from " + split.start() + " to " + split.end());
+        FSDataInputStream in = fs.open(new Path(split.path()));
 
-        List<KeyValuePair> result = new ArrayList<>();
+        KeyValueBatch result = new KeyValueBatch(BUFFER_SIZE / 4);
 
-        Operator reduce = null;
-        KeyValuePair reduceResult = value;
-        if (task.getReduce() && !task.getChangeKey()) {
-            for (Operator op : operators) {
-                if (op instanceof ReduceOperator) {
-                    reduce = op;
-                    break;
-                }
-            }
-        }
+        List<Operator> chain = table != null ? operators.subList(0, operators.size() - 1) : operators;
 
-        StringBuilder partialTuple = new StringBuilder(remainingString);
+        CsvCodec codec = acquireCodec();
+        codec.setPartialLine(remainingString);
         Data data;
 
-        while ((!(data = readFile(in, count)).data().isEmpty()) || !partialTuple.toString().isEmpty()) {
-            logger.info(Thread.currentThread().getName() + ": Data is ready to be processed of partition: " + count + " of file: " + task.getPathFiles().get(i));
-
-            String combinedData = data.data().isEmpty() ? partialTuple.toString() : partialTuple + data.data();
+        try {
+            long start = alignToLine(in, split.start());
+            long end = alignToLine(in, split.end());
+            while ((data = readFile(in, start + (long) count * BUFFER_SIZE, end, codec)).length() > 0 || codec.hasPartialLine()) {
+                logger.info(Thread.currentThread().getName() + ": Data is ready to be processed of partition: " + count + " of file: " + split.path());
 
-            partialTuple = processData(combinedData, result);
-
-            count++;
-            for (Operator op : operators) {
-                result = op.execute(result);
-            }
-            if (!(result == null || result.isEmpty())) {
-                if ((task.getReduce() && !task.getChangeKey())) {
-                    if (reduceResult == null) {
-                        reduceResult = result.getFirst();
-                    } else {
-                        result.add(reduceResult);
-                        assert reduce != null;
-                        reduceResult = reduce.execute(result).getFirst();
-                    }
-                    workerHandler.processPartitionTask(List.of(reduceResult), task, i, count, data.end() && partialTuple.toString().isEmpty(), partialTuple.toString(), data.end() && partialTuple.toString().isEmpty());
-                } else {
-                    workerHandler.processPartitionTask(result, task, i, count, data.end() && partialTuple.toString().isEmpty(), partialTuple.toString(), true);
+                codec.decode(data.data(), data.length(), data.end(), result);
 
+                count++;
+                for (Operator op : chain) {
+                    result = op.execute(result);
+                }
+                if (table != null) {
+                    table.accumulate(result);
+                    result.clear();
                 }
+                workerHandler.processPartitionTask(result, table, task, i, count, data.end(), codec.getPartialLine(), data.length());
                 result.clear();
-            }
-            logger.info(Thread.currentThread().getName() + ": Data processed of partition: " + (count - 1) + " of file: " + task.getPathFiles().get(i));
+                workerHandler.reportProgress(data.length());
+                logger.info(Thread.currentThread().getName() + ": Data processed of partition: " + (count - 1) + " of file: " + split.path());
 
+            }
+        } finally {
+            releaseCodec(codec);
+            in.close();
         }
-        in.close();
     }
 
     /**
-     * The processLine method processes the line of the data.
-     * It splits the line into key and value and stores it in the result list.
+     * The acquireCodec method takes a codec from the pool of the worker, creating it if the pool is empty.
+     * The codecs are not thread-safe, so a codec is used by a single thread until it is released.
      *
-     * @param line   it is the line to be processed.
-     * @param result it is the list of KeyValuePair where the data will be stored.
-     * @throws IOException if there is an error processing the line.
+     * @return the codec.
      */
-    private void processLine(String line, List<KeyValuePair> result) throws IOException {
-        String[] parts = line.split(",");
-        if (parts.length == 2) {
-            Integer key = Integer.parseInt(parts[0].trim());
-            Integer value = Integer.parseInt(parts[1].trim());
-            result.add(new KeyValuePair(key, value));
-        } else {
-            System.out.println("Invalid line in CSV: " + line);
-            logger.error(Thread.currentThread().getName() + ": Invalid line in CSV: " + line);
-            throw new IOException("Invalid line in CSV: " + line);
-        }
+    private CsvCodec acquireCodec() {
+        CsvCodec codec = codecs.poll();
+        return codec != null ? codec : new CsvCodec(BUFFER_SIZE);
     }
 
     /**
-     * The writeKeys method writes the keys to HDFS.
-     * It writes the keys to HDFS in the specified path.
-     * This method is called in the reduce phase, i.e., the second phase of the program.
+     * The releaseCodec method gives a codec back to the pool of the worker.
      *
-     * @param programId  it is the id of the program.
-     * @param identifier it is the identifier of the program.
-     * @param result     it is the KeyValuePair object to be written.
-     * @throws IOException if there is an error writing the keys.
+     * @param codec it is the codec.
+     */
+    private void releaseCodec(CsvCodec codec) {
+        codec.setPartialLine("");
+        codecs.offer(codec);
+    }
+
+    /**
+     * The createTable method creates the aggregation table of a reduce operator.
+     * The table reserves its memory from the memory shared by all the tables of the worker, and its spill directory is taken from the configuration.
+     * The table must be closed when it is no longer used, so that its memory is given back to the other tables.
+     *
+     * @param reduce it is the reduce operator.
+     * @return the aggregation table.
+     */
+    public AggregationTable createTable(ReduceOperator reduce) {
+        return new AggregationTable(reduce.getAccumulator(), aggregationMemory, configuration.getSpillDirectory());
+    }
+
+    /**
+     * The getShuffleStore method returns the store of the shuffle partitions received through the network.
+     *
+     * @return the shuffle store.
+     */
+    public ShuffleStore getShuffleStore() {
+        return shuffleStore;
+    }
+
+    /**
+     * The getCheckpointReplica method returns the replica where the checkpoints are copied in HDFS.
+     *
+     * @return the checkpoint replica, null if the checkpoints are stored only on the local disk.
      */
-    public void writeKeys(String programId, String identifier, KeyValuePair result) throws IOException {
-        logger.info(Thread.currentThread().getName() + ": Writing keys to HDFS");
-        String fileName = "/output" + programId + "/" + identifier + "/key" + result.key() + ".csv";
-        writeResult(List.of(result), fileName);
-        logger.info(Thread.currentThread().getName() + ": Keys written to HDFS");
+    public CheckpointReplica getCheckpointReplica() {
+        return checkpointReplica;
+    }
+
+    /**
+     * The getIntermediateCache method returns the cache of the intermediate files written by the worker.
+     *
+     * @return the intermediate cache.
+     */
+    public IntermediateCache getIntermediateCache() {
+        return intermediateCache;
     }
 
     /**
      * The writeKeys method writes the keys to HDFS.
-     * It writes the keys to HDFS in the specified path.
+     * The keys are written in a temporary path of the attempt and then committed to the output directory of the program.
      * This method is called in the first phase of the program.
      *
      * @param programId  it is the id of the program.
-     * @param identifier it is the identifier of the program.
-     * @param result     it is the list of KeyValuePair objects to be written.
+     * @param attempt    it is the name of the attempt of the task.
+     * @param identifier it is the name of the output file.
+     * @param result     it is the batch of key-value pairs to be written.
      * @throws IOException if there is an error writing the keys.
      */
-    public void writeKeys(String programId, String identifier, List<KeyValuePair> result, boolean changeKey, boolean reduce) throws IOException {
+    public void writeKeys(String programId, String attempt, String identifier, KeyValueBatch result) throws IOException {
         if (result.isEmpty()) {
             return;
         }
+        Path temporary = getTemporaryPath(programId, attempt, identifier);
+        writeResult(result, temporary);
+        commit(temporary, new Path("/output" + programId + "/" + identifier + ".csv"));
+    }
 
-        if (changeKey && reduce) {
-            for (KeyValuePair pair : result) {
-                String fileName = "/program" + programId + "/key" + pair.key() + "/" + identifier + ".csv";
-                writeResult(List.of(pair), fileName);
-            }
-        } else {
-            String fileName = "/output" + programId + "/" + identifier + ".csv";
-            writeResult(result, fileName);
+    /**
+     * The writeResults method writes the reduced values of all the keys of a table to HDFS.
+     * The values are computed and written while the table is visited, so that the keys spilled to the disk are never loaded all together.
+     * The values are written in a temporary path of the attempt and then committed to the output directory of the program.
+     * This method is called in the first phase of the program, when it includes a reduce but not a changekey, and in the second phase.
+     *
+     * @param programId  it is the id of the program.
+     * @param attempt    it is the name of the attempt of the task.
+     * @param identifier it is the name of the output file.
+     * @param table      it is the table containing the aggregations to be written.
+     * @throws IOException if there is an error writing the results.
+     */
+    public void writeResults(String programId, String attempt, String identifier, AggregationTable table) throws IOException {
+        if (table.isEmpty()) {
+            return;
         }
+        Path temporary = getTemporaryPath(programId, attempt, identifier);
+        logger.info(Thread.currentThread().getName() + ": Writing to HDFS: " + temporary);
+        OutputStream outputStream = new BufferedOutputStream(fs.create(temporary), BUFFER_SIZE);
+        CsvCodec codec = acquireCodec();
+        try {
+            table.forEach((key, state, offset) -> codec.encode(key, table.getAccumulator().finish(state, offset), outputStream));
+        } finally {
+            releaseCodec(codec);
+            outputStream.close();
+        }
+        commit(temporary, new Path("/output" + programId + "/" + identifier + ".csv"));
+        logger.info(Thread.currentThread().getName() + ": Written to HDFS: " + identifier);
     }
 
     /**
-     * The writeResult method writes the result to HDFS.
-     * It writes the result to HDFS in the specified path.
+     * The writePartitions method writes the partial aggregations of a task to HDFS, split in the shuffle partitions.
+     * Each task writes a single file per non-empty partition, so that the number of files depends on the number of partitions and not on the number of keys.
+     * The files are written in a temporary directory of the attempt and then renamed, so that a reducer never reads a partition that is being written.
+     * The committed partitions are also kept in the intermediate cache, so that they are read from memory if the worker reduces them.
+     * This method is called at the end of the first phase of the program, when it includes both a changekey and a reduce.
      *
-     * @param data it is the list of KeyValuePair objects to be written.
-     * @param path it is the path where the data will be written.
-     * @throws IOException if there is an error writing the result.
+     * @param programId     it is the id of the program.
+     * @param attempt       it is the name of the attempt of the task.
+     * @param identifier    it is the identifier of the task.
+     * @param table         it is the table containing the partial aggregations to be written.
+     * @param numPartitions it is the number of shuffle partitions.
+     * @throws IOException if there is an error writing the partial aggregations.
      */
-    private void writeResult(List<KeyValuePair> data, String path) throws IOException {
+    public void writePartitions(String programId, String attempt, String identifier, AggregationTable table, int numPartitions) throws IOException {
+        flushPartitions(bufferPartitions(programId, attempt, identifier, table, numPartitions));
+    }
 
-        logger.info(Thread.currentThread().getName() + ": Writing to HDFS: " + path);
-        Path outputPath = new Path(path);
-        FSDataOutputStream outputStream = fs.create(outputPath);
-        for (KeyValuePair pair : data) {
-            Integer key = pair.key();
-            Integer value = pair.value();
-            outputStream.write((key + "," + value + "\n").getBytes());
+    /**
+     * The bufferPartitions method splits the partial aggregations of a table in the shuffle partitions, keeping them in memory when possible.
+     * The memory is reserved from the intermediate cache, and a partition that does not fit is written in its temporary path in HDFS instead.
+     * The partitions are made durable by the flushPartitions method, which can run after the task has been acknowledged.
+     *
+     * @param programId     it is the id of the program.
+     * @param attempt       it is the name of the attempt of the task.
+     * @param identifier    it is the identifier of the task.
+     * @param table         it is the table containing the partial aggregations to be written.
+     * @param numPartitions it is the number of shuffle partitions.
+     * @return the partitions to be flushed.
+     * @throws IOException if there is an error writing the partial aggregations.
+     */
+    public PendingPartitions bufferPartitions(String programId, String attempt, String identifier, AggregationTable table, int numPartitions) throws IOException {
+        PendingPartitions pending = new PendingPartitions(programId, attempt, identifier, new TreeMap<>());
+        try {
+            writePartitions(table, numPartitions, partition -> {
+                IntermediateCache.Buffer buffer = intermediateCache.newBuffer(() -> {
+                    Path temporary = getTemporaryPath(programId, attempt, "part" + partition);
+                    logger.info(Thread.currentThread().getName() + ": Writing to HDFS: " + temporary);
+                    return fs.create(temporary);
+                });
+                pending.buffers().put(partition, buffer);
+                return buffer;
+            });
+        } catch (IOException | RuntimeException e) {
+            pending.discard();
+            throw e;
+        }
+        return pending;
+    }
+
+    /**
+     * The flushPartitions method writes in HDFS the partitions of a task kept in memory, then it commits all the partitions of the task.
+     * The committed partitions are added to the intermediate cache without copying them, so that they are read from memory if the worker reduces them.
+     * The memory of the partitions is given back in any case, so that a failed flush does not keep it.
+     *
+     * @param pending it is the partitions to be flushed.
+     * @return the number of bytes kept in the intermediate cache for each partition.
+     * @throws IOException if there is an error writing or committing the partitions.
+     */
+    public Map<Integer, Long> flushPartitions(PendingPartitions pending) throws IOException {
+        String programId = pending.programId();
+        Map<Integer, Long> cached = new TreeMap<>();
+        try {
+            for (Map.Entry<Integer, IntermediateCache.Buffer> entry : pending.buffers().entrySet()) {
+                if (!entry.getValue().isSpilled()) {
+                    Path temporary = getTemporaryPath(programId, pending.attempt(), "part" + entry.getKey());
+                    logger.info(Thread.currentThread().getName() + ": Writing to HDFS: " + temporary);
+                    try (OutputStream out = fs.create(temporary)) {
+                        entry.getValue().writeTo(out);
+                    }
+                }
+            }
+            for (Map.Entry<Integer, IntermediateCache.Buffer> entry : pending.buffers().entrySet()) {
+                commitPartition(programId, pending.attempt(), pending.identifier(), entry.getKey());
+                if (!entry.getValue().isSpilled()) {
+                    cached.put(entry.getKey(), entry.getValue().getLength());
+                    intermediateCache.put(getPartitionPath(programId, pending.identifier(), entry.getKey()).toUri().getPath(), entry.getValue());
+                }
+            }
+            fs.delete(new Path("/program" + programId + "/_temporary/" + pending.attempt()), true);
+        } finally {
+            pending.discard();
         }
-        logger.info(Thread.currentThread().getName() + ": Written to HDFS: " + path);
-        outputStream.close();
+        logger.info(Thread.currentThread().getName() + ": Partitions written to HDFS, " + cached.size() + " of " + pending.buffers().size() + " kept in memory");
+        return cached;
     }
 
     /**
-     * The readAndComputeReduce method reads and computes the reduce operation.
-     * It reads the data from HDFS and computes the reduce operation on the data.
-     * It returns the KeyValuePair object after the reduce operation is computed.
-     * It is called in the second phase of the program.
-     * It calls also the function to create the checkpoint.
+     * The PendingPartitions record contains the shuffle partitions of a task written by the bufferPartitions method and not flushed yet.
      *
-     * @param idx            it is the index of the file.
-     * @param reduceMessage  it is the ReduceOperation object.
-     * @param reduce         it is the ReduceOperator object.
-     * @param workerHandler  it is the WorkerHandler object.
-     * @param checkpointInfo it is the CheckpointInfo object.
-     * @return the KeyValuePair object.
-     * @throws IOException              if there is an error reading the data.
-     * @throws IllegalArgumentException if the key file is invalid.
+     * @param programId  it is the id of the program.
+     * @param attempt    it is the name of the attempt of the task.
+     * @param identifier it is the identifier of the task.
+     * @param buffers    it is the buffer of each partition, in memory or spilled to its temporary path in HDFS.
      */
-    public KeyValuePair readAndComputeReduce(int idx, ReduceOperation reduceMessage, Operator reduce, WorkerHandler workerHandler, CheckpointInfo checkpointInfo) throws IOException, IllegalArgumentException {
-        Integer key = findKey(idx, reduceMessage.getProgramId());
+    public record PendingPartitions(String programId, String attempt, String identifier, Map<Integer, IntermediateCache.Buffer> buffers) {
+
+        /**
+         * The discard method gives back the memory of the partitions that have not been added to the intermediate cache.
+         */
+        public void discard() {
+            for (IntermediateCache.Buffer buffer : buffers.values()) {
+                buffer.discard();
+            }
+        }
+    }
 
+    /**
+     * The getTemporaryPath method returns the path where an attempt of a task writes a file before committing it.
+     * Each attempt has its own directory, so that the attempts of the same task running on different workers never write the same file.
+     *
+     * @param programId it is the id of the program.
+     * @param attempt   it is the name of the attempt.
+     * @param name      it is the name of the file.
+     * @return the temporary path of the file.
+     */
+    private Path getTemporaryPath(String programId, String attempt, String name) {
+        return new Path("/program" + programId + "/_temporary/" + attempt + "/" + name + ".csv");
+    }
 
-        logger.info(Thread.currentThread().getName() + ": Reading and computing reduce for key: " + key);
-        String path = "/program" + reduceMessage.getProgramId() + "/key" + key;
-        List<KeyValuePair> result = checkpointInfo.keyValuePair() == null ? new ArrayList<>() : new ArrayList<>(List.of(checkpointInfo.keyValuePair()));
-        FileStatus[] fileStatuses = fs.listStatus(new Path(path));
-        long totalBytesRead = 0;
-        int startingFile = checkpointInfo.remainingString().isEmpty() ? 0 : Integer.parseInt(checkpointInfo.remainingString());
+    /**
+     * The commitPartition method moves a partition written by an attempt of a task from its temporary path to the directory of the partition.
+     *
+     * @param programId  it is the id of the program.
+     * @param attempt    it is the name of the attempt.
+     * @param identifier it is the identifier of the task.
+     * @param partition  it is the partition.
+     * @throws IOException if it is not possible to move the partition.
+     */
+    private void commitPartition(String programId, String attempt, String identifier, int partition) throws IOException {
+        commit(getTemporaryPath(programId, attempt, "part" + partition), getPartitionPath(programId, identifier, partition));
+    }
 
-        logger.info(Thread.currentThread().getName() + ": Starting file: " + startingFile + " of total files: " + fileStatuses.length + " for key: " + key + " with index: " + idx);
+    /**
+     * The getPartitionPath method returns the path of the file of a shuffle partition written by a task.
+     *
+     * @param programId  it is the id of the program.
+     * @param identifier it is the identifier of the task.
+     * @param partition  it is the partition.
+     * @return the path of the file.
+     */
+    private Path getPartitionPath(String programId, String identifier, int partition) {
+        return new Path("/program" + programId + "/part" + partition + "/" + identifier + ".csv");
+    }
 
-        for (int i = startingFile; i < fileStatuses.length; i++) {
-            int count = 0;
+    /**
+     * The openIntermediate method opens an intermediate file listed in HDFS, reading it from the intermediate cache if the worker wrote it.
+     *
+     * @param path it is the path of the file.
+     * @return the stream of the file.
+     * @throws IOException if it is not possible to open the file.
+     */
+    private InputStream openIntermediate(Path path) throws IOException {
+        InputStream content = intermediateCache.isEnabled() ? intermediateCache.open(path.toUri().getPath()) : null;
+        if (content != null) {
+            logger.info(Thread.currentThread().getName() + ": Reading from memory: " + path.getName() + " of " + path.getParent().getName());
+            return content;
+        }
+        return fs.open(path);
+    }
 
-            Path filePath = fileStatuses[i].getPath();
+    /**
+     * The commit method moves a file written by an attempt of a task from its temporary path to its final path.
+     * The attempts of a task process the same splits, so they write the same content in files with the same name:
+     * if another attempt has already committed the file, it is kept and the temporary file is discarded,
+     * so that a file that may already have been read is never removed.
+     *
+     * @param temporary   it is the temporary path of the file.
+     * @param destination it is the final path of the file.
+     * @throws IOException if it is not possible to move the file.
+     */
+    private void commit(Path temporary, Path destination) throws IOException {
+        fs.mkdirs(destination.getParent());
+        if (!fs.rename(temporary, destination)) {
+            if (!fs.exists(destination)) {
+                throw new IOException("Not possible to commit the file " + destination);
+            }
+            fs.delete(temporary, false);
+            logger.info(Thread.currentThread().getName() + ": File " + destination + " already committed by another attempt");
+        }
+    }
 
+    /**
+     * The shufflePartitions method sends the partial aggregations of a task directly to the reducers of the shuffle partitions.
+     * The partitions are first written in a local spool directory, then the partitions of each reducer are sent on a single connection.
+     * The partitions that cannot be delivered are written in HDFS, where the reducer reads them together with the ones it received.
+     * This method is called at the end of the first phase of the program, when it includes both a changekey and a reduce and the shuffle goes through the network.
+     *
+     * @param programId  it is the id of the program.
+     * @param attempt    it is the name of the attempt of the task.
+     * @param identifier it is the identifier of the task.
+     * @param table      it is the table containing the partial aggregations to be sent.
+     * @param reducers   it is the address of the reducer of each shuffle partition.
+     * @throws IOException if there is an error writing the partial aggregations.
+     */
+    public void shufflePartitions(String programId, String attempt, int identifier, AggregationTable table, List<Address> reducers) throws IOException {
+        java.nio.file.Path spool = shuffleStore.getSpoolDirectory(programId, attempt);
+        ShuffleStore.delete(spool);
+        Files.createDirectories(spool);
+        Map<Address, List<Integer>> partitionsPerReducer = new LinkedHashMap<>();
+        try {
+            writePartitions(table, reducers.size(), partition -> {
+                partitionsPerReducer.computeIfAbsent(reducers.get(partition), r -> new ArrayList<>()).add(partition);
+                return Files.newOutputStream(spool.resolve("part" + partition + ".csv"));
+            });
+
+            ShuffleClient client = new ShuffleClient(programId, identifier, configuration.getShuffleTimeout());
+            for (Map.Entry<Address, List<Integer>> entry : partitionsPerReducer.entrySet()) {
+                for (int partition : client.send(entry.getKey(), entry.getValue(), spool)) {
+                    Path temporary = getTemporaryPath(programId, attempt, "part" + partition);
+                    logger.info(Thread.currentThread().getName() + ": Writing to HDFS: " + temporary);
+                    fs.copyFromLocalFile(false, true, new Path(spool.resolve("part" + partition + ".csv").toUri()), temporary);
+                    commitPartition(programId, attempt, String.valueOf(identifier), partition);
+                }
+            }
+        } finally {
+            ShuffleStore.delete(spool);
+        }
+        logger.info(Thread.currentThread().getName() + ": Partitions sent to the reducers");
+    }
 
-            FSDataInputStream in = fs.open(filePath);
+    /**
+     * The writePartitions method splits the partial aggregations of a table in the shuffle partitions.
+     * The stream of a partition is opened only when its first key is found, so that no file is written for the empty partitions.
+     *
+     * @param table         it is the table containing the partial aggregations to be written.
+     * @param numPartitions it is the number of shuffle partitions.
+     * @param opener        it is used to open the stream of a partition.
+     * @throws IOException if there is an error writing the partial aggregations.
+     */
+    private void writePartitions(AggregationTable table, int numPartitions, PartitionOpener opener) throws IOException {
+        int stateSize = table.getAccumulator().stateSize();
+        OutputStream[] outputStreams = new OutputStream[numPartitions];
+        CsvCodec codec = acquireCodec();
+        try {
+            table.forEach((key, state, offset) -> {
+                int partition = partitionOf(key, numPartitions);
+                if (outputStreams[partition] == null) {
+                    outputStreams[partition] = new BufferedOutputStream(opener.open(partition), BUFFER_SIZE);
+                }
+                codec.encodePartial(key, state, offset, stateSize, outputStreams[partition]);
+            });
+        } finally {
+            releaseCodec(codec);
+            for (OutputStream outputStream : outputStreams) {
+                if (outputStream != null) {
+                    outputStream.close();
+                }
+            }
+        }
+    }
 
-            StringBuilder partialTuple = new StringBuilder();
-            Data data;
+    /**
+     * The partitionOf method returns the shuffle partition of a key.
+     * The bits of the key are mixed with a hash function different from the one of the aggregation tables,
+     * so that the keys of a partition are still spread over the slots of the table that reduces them.
+     *
+     * @param key           it is the key.
+     * @param numPartitions it is the number of shuffle partitions.
+     * @return the partition of the key.
+     */
+    public static int partitionOf(int key, int numPartitions) {
+        int h = key;
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return Math.floorMod(h, numPartitions);
+    }
 
-            while ((!(data = readFile(in, count)).data().isEmpty()) || !partialTuple.toString().isEmpty()) {
+    /**
+     * The writeResult method writes the result to HDFS.
+     * It writes the result to HDFS in the specified path.
+     *
+     * @param data       it is the batch of key-value pairs to be written.
+     * @param outputPath it is the path where the data will be written.
+     * @throws IOException if there is an error writing the result.
+     */
+    private void writeResult(KeyValueBatch data, Path outputPath) throws IOException {
 
-                totalBytesRead += data.data().length();
-                logger.info(Thread.currentThread().getName() + ": Data is ready to be processed of partition: " + count + " of file: " + filePath.getName());
-                String combinedData = data.data().isEmpty() ? partialTuple.toString() : partialTuple.toString() + data.data();
+        logger.info(Thread.currentThread().getName() + ": Writing to HDFS: " + outputPath);
+        FSDataOutputStream outputStream = fs.create(outputPath);
+        CsvCodec codec = acquireCodec();
+        try {
+            codec.encode(data, outputStream);
+        } finally {
+            releaseCodec(codec);
+            outputStream.close();
+        }
+        logger.info(Thread.currentThread().getName() + ": Written to HDFS: " + outputPath);
+    }
 
-                partialTuple = processData(combinedData, result);
+    /**
+     * The readAndComputeReduce method reads and computes the reduce operation of a shuffle partition.
+     * It reads the partial aggregations written by all the tasks for the partition and merges them with the accumulator of the reduce operation,
+     * then it writes the reduced values of all the keys of the partition to HDFS.
+     * It is called in the second phase of the program, when it is not pipelined.
+     *
+     * @param partition     it is the index of the partition.
+     * @param reduceMessage it is the ReduceOperation object.
+     * @param reduce        it is the ReduceOperator object.
+     * @throws IOException if there is an error reading or writing the data.
+     */
+    public void readAndComputeReduce(int partition, ReduceOperation reduceMessage, ReduceOperator reduce) throws IOException {
+        logger.info(Thread.currentThread().getName() + ": Reading and computing reduce for partition: " + partition);
+        AggregationTable table = createTable(reduce);
+        try {
+            if (mergePartials(reduceMessage.getProgramId(), partition, table, new HashSet<>()) == 0) {
+                logger.info(Thread.currentThread().getName() + ": Partition " + partition + " is empty");
+                return;
+            }
+            writeResults(reduceMessage.getProgramId(), "reduce" + reduceMessage.getIdentifier(), reduceMessage.getIdentifier() + "/part" + partition, table);
+        } finally {
+            table.close();
+        }
+        logger.info(Thread.currentThread().getName() + ": Reduce has been computed for partition: " + partition);
+    }
+
+    /**
+     * The mergePartials method merges into a table the files of a partition committed by the tasks of the first phase and not merged yet.
+     * The partial aggregations are read from the files received through the network and from HDFS,
+     * where a task writes the partitions it could not send; a file of a task already merged is not read twice.
+     * The files in HDFS written by the worker itself are read from the intermediate cache.
+     * It is called repeatedly while the first phase is running, when the second phase is pipelined.
+     *
+     * @param programId it is the id of the program.
+     * @param partition it is the index of the partition.
+     * @param table     it is the table where the partial aggregations are merged.
+     * @param merged    it is the set of the names of the files already merged, which is updated.
+     * @return the number of files merged.
+     * @throws IOException if there is an error reading the files.
+     */
+    public int mergePartials(String programId, int partition, AggregationTable table, Set<String> merged) throws IOException {
+        int count = 0;
+        for (java.nio.file.Path file : shuffleStore.getCommittedFiles(programId, partition)) {
+            if (merged.add(file.getFileName().toString())) {
+                try (InputStream in = Files.newInputStream(file)) {
+                    mergePartials(in, file.getFileName().toString(), table);
+                }
                 count++;
-                result = reduce.execute(result);
             }
-            in.close();
-            if (totalBytesRead > BUFFER_SIZE || fileStatuses.length == i + 1) {
-                workerHandler.createCheckpoint(result.isEmpty() ? null : result.getFirst(), idx, i, fileStatuses.length == i + 1);
-                totalBytesRead = 0;
+        }
+        Path path = new Path("/program" + programId + "/part" + partition);
+        if (!fs.exists(path)) {
+            return count;
+        }
+        for (FileStatus fileStatus : fs.listStatus(path)) {
+            Path filePath = fileStatus.getPath();
+            if (merged.add(filePath.getName())) {
+                try (InputStream in = openIntermediate(filePath)) {
+                    mergePartials(in, filePath.getName(), table);
+                }
+                count++;
             }
         }
-        logger.info(Thread.currentThread().getName() + ": Reduce has been computed for key: " + key);
-        return result.isEmpty() ? null : result.getFirst();
+        return count;
     }
 
     /**
-     * The findKey method finds the key from the file.
-     * It finds the key from the file using the index and the programId.
-     * It returns the key from the file.
+     * The isShuffleComplete method checks if all the tasks of the first phase have committed their partitions.
+     * The marker is written by the coordinator, so that a reducer that checks it before listing the partitions
+     * is sure to find all of them.
      *
-     * @param idx       it is the index of the file.
      * @param programId it is the id of the program.
-     * @return the key from the file.
-     * @throws IOException if there is an error finding the key.
-     */
-    private Integer findKey(int idx, String programId) throws IOException {
-        String path = "/program" + programId;
-        FileStatus[] fileStatuses = fs.listStatus(new Path(path));
-        Pattern pattern = Pattern.compile("key(-?\\d+)");
-        Matcher matcher = pattern.matcher(fileStatuses[idx].getPath().getName());
-
-        if (matcher.find()) {
-            return Integer.parseInt(matcher.group(1));
-        } else {
-            throw new IllegalArgumentException("Invalid Key file");
+     * @return true if the first phase is complete, false otherwise.
+     * @throws IOException if the program has been aborted or it is not possible to check the marker.
+     */
+    public boolean isShuffleComplete(String programId) throws IOException {
+        if (fs.exists(new Path("/program" + programId + "/_ABORTED"))) {
+            throw new IOException("The program has been aborted");
         }
+        return fs.exists(new Path("/program" + programId + "/_SUCCESS"));
     }
 
     /**
-     * The readFile method reads the file from HDFS.
-     * It reads the file from HDFS and returns the data.
-     * It reads the data in chunks of BUFFER_SIZE.
+     * The reduceSlice method reduces a slice of a partition too large to be reduced by a single worker.
+     * The partial aggregations of the files of the slice are merged and written back to HDFS as a single file of partial aggregations,
+     * which is merged by the worker of the first slice. The file is written even if it is empty, since that worker waits for it.
+     * The file is also kept in the intermediate cache, in case the worker of the first slice is the same one.
+     * If the file has already been committed by a previous attempt, the slice is not reduced again.
      *
-     * @param in      it is the FSDataInputStream object.
-     * @param numPart it is the partition number.
-     * @return the Data object.
+     * @param programId it is the id of the program.
+     * @param attempt   it is the name of the attempt of the reducer.
+     * @param slice     it is the slice.
+     * @param reduce    it is the ReduceOperator object.
+     * @throws IOException if there is an error reading or writing the partial aggregations.
+     */
+    public void reduceSlice(String programId, String attempt, PartitionSlice slice, ReduceOperator reduce) throws IOException {
+        Path destination = new Path("/program" + programId + "/slices" + slice.partition() + "/slice" + slice.slice() + ".csv");
+        if (fs.exists(destination)) {
+            logger.info(Thread.currentThread().getName() + ": Slice " + slice.slice() + " of partition " + slice.partition() + " already reduced");
+            return;
+        }
+        AggregationTable table = createTable(reduce);
+        try {
+            mergeSliceFiles(programId, slice, table);
+            Path temporary = getTemporaryPath(programId, attempt, "slice" + slice.partition() + "_" + slice.slice());
+            int stateSize = table.getAccumulator().stateSize();
+            IntermediateCache.Buffer buffer = intermediateCache.newBuffer(() -> fs.create(temporary));
+            try {
+                OutputStream outputStream = new BufferedOutputStream(buffer, BUFFER_SIZE);
+                CsvCodec codec = acquireCodec();
+                try {
+                    table.forEach((key, state, offset) -> codec.encodePartial(key, state, offset, stateSize, outputStream));
+                } finally {
+                    releaseCodec(codec);
+                    outputStream.close();
+                }
+                if (!buffer.isSpilled()) {
+                    try (OutputStream out = fs.create(temporary)) {
+                        buffer.writeTo(out);
+                    }
+                }
+                commit(temporary, destination);
+                intermediateCache.put(destination.toUri().getPath(), buffer);
+            } finally {
+                buffer.discard();
+            }
+        } finally {
+            table.close();
+        }
+        logger.info(Thread.currentThread().getName() + ": Slice " + slice.slice() + " of partition " + slice.partition() + " reduced");
+    }
+
+    /**
+     * The mergeSliceFiles method merges into a table the files of a partition that belong to a slice.
+     * The files are sorted by name and dealt to the slices in turn, so that every worker of the partition computes the same split.
+     *
+     * @param programId it is the id of the program.
+     * @param slice     it is the slice.
+     * @param table     it is the table where the partial aggregations are merged.
+     * @throws IOException if there is an error reading the files.
+     */
+    public void mergeSliceFiles(String programId, PartitionSlice slice, AggregationTable table) throws IOException {
+        FileStatus[] fileStatuses = fs.listStatus(new Path("/program" + programId + "/part" + slice.partition()));
+        Arrays.sort(fileStatuses, Comparator.comparing(fileStatus -> fileStatus.getPath().getName()));
+        for (int i = slice.slice(); i < fileStatuses.length; i += slice.slices()) {
+            Path filePath = fileStatuses[i].getPath();
+            try (InputStream in = openIntermediate(filePath)) {
+                mergePartials(in, filePath.getName(), table);
+            }
+        }
+    }
+
+    /**
+     * The mergeSlicePartials method merges into a table the partial aggregations of the slices of a partition reduced by the other workers and not merged yet.
+     * It is called repeatedly by the worker of the first slice, until the partial aggregations of all the slices have been merged.
+     *
+     * @param programId it is the id of the program.
+     * @param slice     it is the first slice of the partition.
+     * @param table     it is the table where the partial aggregations are merged.
+     * @param merged    it is the set of the names of the files already merged, which is updated.
+     * @return the number of files merged.
+     * @throws IOException if the program has been aborted or there is an error reading the files.
+     */
+    public int mergeSlicePartials(String programId, PartitionSlice slice, AggregationTable table, Set<String> merged) throws IOException {
+        if (fs.exists(new Path("/program" + programId + "/_ABORTED"))) {
+            throw new IOException("The program has been aborted");
+        }
+        Path path = new Path("/program" + programId + "/slices" + slice.partition());
+        if (!fs.exists(path)) {
+            return 0;
+        }
+        int count = 0;
+        for (FileStatus fileStatus : fs.listStatus(path)) {
+            Path filePath = fileStatus.getPath();
+            if (merged.add(filePath.getName())) {
+                try (InputStream in = openIntermediate(filePath)) {
+                    mergePartials(in, filePath.getName(), table);
+                }
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * The mergePartials method reads a file of partial aggregations sequentially and merges them into a table.
+     *
+     * @param in    it is the stream of the file.
+     * @param name  it is the name of the file.
+     * @param table it is the table where the partial aggregations are merged.
      * @throws IOException if there is an error reading the file.
      */
-    private Data readFile(FSDataInputStream in, int numPart) throws IOException {
+    private void mergePartials(InputStream in, String name, AggregationTable table) throws IOException {
+        CsvCodec codec = acquireCodec();
+        try {
+            byte[] buffer = codec.getBuffer();
+            int bytesRead;
+            do {
+                bytesRead = in.readNBytes(buffer, 0, BUFFER_SIZE);
+                codec.decodePartials(buffer, bytesRead, bytesRead < BUFFER_SIZE, table);
+            } while (bytesRead == BUFFER_SIZE);
+        } finally {
+            releaseCodec(codec);
+        }
+        logger.info(Thread.currentThread().getName() + ": Partial aggregations merged of file: " + name);
+    }
 
-        String data = "";
+    /**
+     * The PartitionOpener interface is used to open the stream where a shuffle partition is written.
+     */
+    private interface PartitionOpener {
+        /**
+         * The open method opens the stream of a partition.
+         *
+         * @param partition it is the partition.
+         * @return the stream of the partition.
+         * @throws IOException if it is not possible to open the stream.
+         */
+        OutputStream open(int partition) throws IOException;
+    }
 
-        byte[] buffer = new byte[BUFFER_SIZE];
+    /**
+     * The readFile method reads a partition of a split from HDFS.
+     * It reads the partition into the buffer of the codec, which is reused for every partition.
+     * It reads the data in chunks of BUFFER_SIZE, without going past the end of the split.
+     *
+     * @param in       it is the FSDataInputStream object.
+     * @param position it is the offset of the partition in the file.
+     * @param end      it is the offset of the end of the split, already moved to the start of a line.
+     * @param codec    it is the codec whose buffer is filled.
+     * @return the Data object.
+     * @throws IOException if there is an error reading the file.
+     */
+    private Data readFile(FSDataInputStream in, long position, long end, CsvCodec codec) throws IOException {
+        byte[] buffer = codec.getBuffer();
         int bytesRead;
-        long accumulatedBytesRead = 0;
-        DFSInputStream dfsInputStream = (DFSInputStream) in.getWrappedStream();
-        long fileLength = dfsInputStream.getFileLength();
-        long seekPosition = (long) numPart * BUFFER_SIZE;
-
+        int accumulatedBytesRead = 0;
+        int length = (int) Math.min(BUFFER_SIZE, end - position);
 
-        if (seekPosition >= fileLength) {
-            return new Data("", true);
+        if (length <= 0) {
+            return new Data(buffer, 0, true);
         }
-        in.seek(seekPosition);
-        while (accumulatedBytesRead < BUFFER_SIZE) {
-            if ((bytesRead = in.read(buffer, 0, BUFFER_SIZE)) != -1) {
-                data += new String(buffer, 0, bytesRead);
+        in.seek(position);
+        while (accumulatedBytesRead < length) {
+            if ((bytesRead = in.read(buffer, accumulatedBytesRead, length - accumulatedBytesRead)) != -1) {
                 accumulatedBytesRead += bytesRead;
             } else {
                 break;
             }
         }
         logger.info(Thread.currentThread().getName() + ": Read " + accumulatedBytesRead + " bytes from file");
-        return new Data(data, seekPosition + accumulatedBytesRead >= fileLength);
+        return new Data(buffer, accumulatedBytesRead, accumulatedBytesRead < length || position + accumulatedBytesRead >= end);
+    }
+
+    /**
+     * The alignToLine method returns the offset of the first line starting at or after an offset of a file.
+     * A line starts at the beginning of the file or after a new line, so the file is scanned from the byte preceding the offset.
+     * If no line starts after the offset, the end of the file is returned.
+     *
+     * @param in       it is the FSDataInputStream object.
+     * @param position it is the offset.
+     * @return the offset of the start of the line.
+     * @throws IOException if there is an error reading the file.
+     */
+    static long alignToLine(FSDataInputStream in, long position) throws IOException {
+        if (position == 0) {
+            return 0;
+        }
+        byte[] buffer = new byte[1024];
+        in.seek(position - 1);
+        long offset = position - 1;
+        int bytesRead;
+        while ((bytesRead = in.read(buffer, 0, buffer.length)) != -1) {
+            for (int b = 0; b < bytesRead; b++) {
+                if (buffer[b] == '\n') {
+                    return offset + b + 1;
+                }
+            }
+            offset += bytesRead;
+        }
+        return offset;
     }
 }
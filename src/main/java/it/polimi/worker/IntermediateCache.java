@@ -0,0 +1,371 @@
+package it.polimi.worker;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+/**
+ * The IntermediateCache class keeps in memory the intermediate files written in HDFS by the worker,
+ * which are the shuffle partitions of the tasks of the first phase and the partial aggregations of the slices of the second phase.
+ * When the worker reduces a partition, the files it wrote itself are read from memory instead of HDFS,
+ * while the files written by the other workers are read from HDFS as before.
+ * An intermediate file is first written in a Buffer, whose memory is reserved from the capacity of the cache: a Buffer that cannot reserve more memory
+ * spills its content to HDFS and gives its memory back, so the files being written and the cached files never exceed the capacity together.
+ * A Buffer kept in memory is written in HDFS later, possibly in the background, and it is added to the cache only after it has been committed,
+ * so HDFS always holds the durable copy and a file is read from memory only when it is listed in HDFS.
+ * The files are identified by their path in HDFS, and the least recently used ones are evicted when memory is needed.
+ */
+public class IntermediateCache {
+    private static final Logger logger = LogManager.getLogger("it.polimi.Worker");
+    private static final int MIN_CHUNK_SIZE = 4096;
+    private static final int MAX_CHUNK_SIZE = 65536;
+    private final long capacity;
+    private final LinkedHashMap<String, Content> files;
+    private long size;
+    private long reserved;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * The constructor creates a new IntermediateCache.
+     *
+     * @param capacity represents the maximum number of bytes kept in memory, 0 to disable the cache.
+     */
+    public IntermediateCache(long capacity) {
+        this.capacity = capacity;
+        this.files = new LinkedHashMap<>(16, 0.75f, true);
+        this.size = 0;
+        this.reserved = 0;
+    }
+
+    /**
+     * The isEnabled method checks if the cache can keep files in memory.
+     *
+     * @return true if the capacity of the cache is positive, false otherwise.
+     */
+    public boolean isEnabled() {
+        return capacity > 0;
+    }
+
+    /**
+     * The newBuffer method creates a Buffer where an intermediate file is written in memory.
+     * If the cache is disabled, the Buffer spills to HDFS at its first write.
+     *
+     * @param spill represents the opener of the file in HDFS, used if the Buffer spills.
+     * @return the buffer.
+     */
+    public Buffer newBuffer(SpillOpener spill) {
+        return new Buffer(spill);
+    }
+
+    /**
+     * The put method adds the content of a Buffer committed in HDFS to the cache.
+     * The memory of the Buffer becomes memory of the cache, so the content is not copied.
+     *
+     * @param path   represents the path of the file in HDFS.
+     * @param buffer represents the Buffer, which is empty afterwards.
+     */
+    public synchronized void put(String path, Buffer buffer) {
+        if (buffer.chunks == null) {
+            return;
+        }
+        Content content = new Content(buffer.chunks, buffer.allocated);
+        reserved -= buffer.allocated;
+        buffer.chunks = null;
+        Content previous = files.put(path, content);
+        size += content.allocated() - (previous != null ? previous.allocated() : 0);
+    }
+
+    /**
+     * The open method opens the content of a file, and marks it as the most recently used one.
+     *
+     * @param path represents the path of the file in HDFS.
+     * @return the stream of the content of the file, null if it is not cached.
+     */
+    public synchronized InputStream open(String path) {
+        Content content = files.get(path);
+        if (content == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        List<InputStream> streams = new ArrayList<>(content.chunks().size());
+        for (byte[] chunk : content.chunks()) {
+            streams.add(new ByteArrayInputStream(chunk));
+        }
+        return new SequenceInputStream(Collections.enumeration(streams));
+    }
+
+    /**
+     * The removePartition method removes the files of a shuffle partition, which is invoked when the partition has been reduced.
+     *
+     * @param programId represents the program id.
+     * @param partition represents the shuffle partition.
+     */
+    public void removePartition(String programId, int partition) {
+        remove("/program" + programId + "/part" + partition + "/");
+    }
+
+    /**
+     * The removeProgram method removes the files of a program, which is invoked when the program ends on the worker.
+     *
+     * @param programId represents the program id.
+     */
+    public void removeProgram(String programId) {
+        remove("/program" + programId + "/");
+        if (isEnabled()) {
+            logger.info(Thread.currentThread().getName() + ": Intermediate cache: " + this);
+        }
+    }
+
+    /**
+     * The remove method removes the files whose path starts with a prefix.
+     *
+     * @param prefix represents the prefix.
+     */
+    private synchronized void remove(String prefix) {
+        Iterator<Map.Entry<String, Content>> iterator = files.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Content> entry = iterator.next();
+            if (entry.getKey().startsWith(prefix)) {
+                size -= entry.getValue().allocated();
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * The reserve method takes some bytes from the capacity for a Buffer, evicting the least recently used files if needed.
+     *
+     * @param bytes represents the number of bytes.
+     * @return true if the bytes have been taken, false if they are not available even after evicting all the files.
+     */
+    private synchronized boolean reserve(long bytes) {
+        Iterator<Map.Entry<String, Content>> iterator = files.entrySet().iterator();
+        while (size + reserved + bytes > capacity && iterator.hasNext()) {
+            size -= iterator.next().getValue().allocated();
+            iterator.remove();
+            evictions++;
+        }
+        if (size + reserved + bytes > capacity) {
+            return false;
+        }
+        reserved += bytes;
+        return true;
+    }
+
+    /**
+     * The release method gives back to the capacity some bytes reserved by a Buffer.
+     *
+     * @param bytes represents the number of bytes.
+     */
+    private synchronized void release(long bytes) {
+        reserved -= bytes;
+    }
+
+    /**
+     * The SpillOpener interface opens the file in HDFS where a Buffer spills its content.
+     */
+    @FunctionalInterface
+    public interface SpillOpener {
+        /**
+         * The open method opens the file.
+         *
+         * @return the stream of the file.
+         * @throws IOException if it is not possible to open the file.
+         */
+        OutputStream open() throws IOException;
+    }
+
+    /**
+     * The Content record is a file kept in the cache, made of the chunks written by its Buffer.
+     *
+     * @param chunks    represents the chunks of the file, each one completely filled.
+     * @param allocated represents the memory used by the chunks.
+     */
+    private record Content(List<byte[]> chunks, long allocated) {
+    }
+
+    /**
+     * The Buffer class writes an intermediate file in memory, in chunks reserved from the capacity of the cache.
+     * The chunks grow with the file, so that the many small partitions of a task do not reserve much more memory than their content.
+     * When a chunk cannot be reserved, the content written so far and the following writes go to the file in HDFS,
+     * and the reserved memory is given back immediately.
+     * A Buffer that is not added to the cache must be discarded, so that its memory is given back.
+     */
+    public final class Buffer extends OutputStream {
+        private final SpillOpener opener;
+        private List<byte[]> chunks;
+        private byte[] current;
+        private int position;
+        private long length;
+        private long allocated;
+        private OutputStream spill;
+
+        /**
+         * The constructor creates a new Buffer.
+         *
+         * @param opener represents the opener of the file in HDFS, used if the Buffer spills.
+         */
+        private Buffer(SpillOpener opener) {
+            this.opener = opener;
+            this.chunks = new ArrayList<>();
+        }
+
+        /**
+         * The write method writes a byte.
+         *
+         * @param b represents the byte.
+         * @throws IOException if the Buffer spills and the byte cannot be written in HDFS.
+         */
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        /**
+         * The write method writes some bytes, in the current chunk and in new chunks, or in HDFS if the Buffer has spilled.
+         *
+         * @param b   represents the array containing the bytes.
+         * @param off represents the offset of the first byte.
+         * @param len represents the number of bytes.
+         * @throws IOException if the Buffer spills and the bytes cannot be written in HDFS.
+         */
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0 && spill == null) {
+                if (current == null || position == current.length) {
+                    int chunkSize = (int) Math.min(MAX_CHUNK_SIZE, Math.max(MIN_CHUNK_SIZE, length));
+                    if (!reserve(chunkSize)) {
+                        spill();
+                        break;
+                    }
+                    allocated += chunkSize;
+                    current = new byte[chunkSize];
+                    position = 0;
+                    chunks.add(current);
+                }
+                int n = Math.min(len, current.length - position);
+                System.arraycopy(b, off, current, position, n);
+                position += n;
+                length += n;
+                off += n;
+                len -= n;
+            }
+            if (len > 0) {
+                spill.write(b, off, len);
+                length += len;
+            }
+        }
+
+        /**
+         * The spill method writes the content of the Buffer in HDFS and gives its memory back.
+         *
+         * @throws IOException if the content cannot be written in HDFS.
+         */
+        private void spill() throws IOException {
+            spill = opener.open();
+            trim();
+            writeTo(spill);
+            discard();
+        }
+
+        /**
+         * The close method ends the file: the last chunk is trimmed to its content, or the file in HDFS is closed if the Buffer has spilled.
+         *
+         * @throws IOException if the file in HDFS cannot be closed.
+         */
+        @Override
+        public void close() throws IOException {
+            if (spill != null) {
+                spill.close();
+            } else {
+                trim();
+            }
+        }
+
+        /**
+         * The trim method replaces the last chunk with a copy containing only its content, and gives back the memory of the rest.
+         */
+        private void trim() {
+            if (current != null && position < current.length) {
+                release(current.length - position);
+                allocated -= current.length - position;
+                current = Arrays.copyOf(current, position);
+                chunks.set(chunks.size() - 1, current);
+            }
+        }
+
+        /**
+         * The isSpilled method checks if the content of the Buffer has been written in HDFS instead of memory.
+         *
+         * @return true if the Buffer has spilled, false otherwise.
+         */
+        public boolean isSpilled() {
+            return spill != null;
+        }
+
+        /**
+         * The getLength method returns the number of bytes written in the Buffer.
+         *
+         * @return the length of the file.
+         */
+        public long getLength() {
+            return length;
+        }
+
+        /**
+         * The writeTo method writes the content kept in memory to a stream.
+         *
+         * @param out represents the stream.
+         * @throws IOException if the content cannot be written.
+         */
+        public void writeTo(OutputStream out) throws IOException {
+            if (chunks == null) {
+                return;
+            }
+            for (byte[] chunk : chunks) {
+                out.write(chunk);
+            }
+        }
+
+        /**
+         * The discard method drops the content kept in memory and gives its memory back.
+         * It does nothing if the content has been added to the cache or already discarded.
+         */
+        public void discard() {
+            synchronized (IntermediateCache.this) {
+                if (chunks == null) {
+                    return;
+                }
+                release(allocated);
+                allocated = 0;
+                chunks = null;
+                current = null;
+            }
+        }
+    }
+
+    /**
+     * The toString method describes the content of the cache and how many reads it served.
+     *
+     * @return the description of the cache.
+     */
+    @Override
+    public synchronized String toString() {
+        return files.size() + " files, " + size + " bytes, " + reserved + " bytes being written, " + hits + " hits, " + misses + " misses, " + evictions + " evictions";
+    }
+}
@@ -0,0 +1,128 @@
+package it.polimi.worker;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+import it.polimi.common.Address;
+import it.polimi.common.MessageCodec;
+import it.polimi.common.messages.ShuffleAck;
+import it.polimi.common.messages.ShuffleData;
+import it.polimi.common.messages.StopComputation;
+
+/**
+ * The ShuffleClient class is used to send the shuffle partitions of a task directly to their reducers, without writing them in HDFS.
+ * The partitions of a reducer are sent on a single connection, in chunks, and each chunk is acknowledged by the reducer
+ * once it has been stored on its local disk.
+ * Up to WINDOW chunks are sent without waiting for their acknowledgements, so that the throughput is not limited
+ * to a chunk per round trip, while a slow reducer still slows down the sender instead of filling its memory.
+ */
+public class ShuffleClient {
+    private static final Logger logger = LogManager.getLogger("it.polimi.Worker");
+    private static final int CHUNK_SIZE = 131072;
+    private static final int WINDOW = 8;
+    private final String programId;
+    private final int source;
+    private final int timeout;
+
+    /**
+     * The constructor creates a new ShuffleClient.
+     *
+     * @param programId represents the program id.
+     * @param source    represents the identifier of the task sending the partitions.
+     * @param timeout   represents the timeout, in milliseconds, to connect to the reducer and to receive an acknowledgement.
+     */
+    public ShuffleClient(String programId, int source, int timeout) {
+        this.programId = programId;
+        this.source = source;
+        this.timeout = timeout;
+    }
+
+    /**
+     * The send method sends some partitions to their reducer.
+     * If the connection fails, the partitions that have not been completely acknowledged are returned,
+     * so that they can be written in HDFS instead.
+     *
+     * @param reducer    represents the address of the reducer.
+     * @param partitions represents the partitions to send.
+     * @param spool      represents the directory containing the files of the partitions.
+     * @return the partitions that have not been delivered.
+     */
+    public List<Integer> send(Address reducer, List<Integer> partitions, Path spool) {
+        int delivered = 0;
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(reducer.hostname(), reducer.port()), timeout);
+            socket.setSoTimeout(timeout);
+            DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            DataInputStream inputStream = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+
+            for (int partition : partitions) {
+                sendPartition(partition, spool.resolve("part" + partition + ".csv"), outputStream, inputStream);
+                delivered++;
+            }
+            MessageCodec.write(outputStream, new StopComputation());
+            logger.info(Thread.currentThread().getName() + ": Sent " + partitions.size() + " partitions to " + reducer.hostname() + ":" + reducer.port());
+        } catch (IOException e) {
+            logger.warn(Thread.currentThread().getName() + ": Not possible to send the partitions to " + reducer.hostname() + ":" + reducer.port() + ": " + e.getMessage());
+            System.out.println(Thread.currentThread().getName() + ": Not possible to send the partitions to " + reducer.hostname() + ":" + reducer.port() + ", writing them in HDFS");
+        }
+        return new ArrayList<>(partitions.subList(delivered, partitions.size()));
+    }
+
+    /**
+     * The sendPartition method sends the file of a partition in chunks, keeping at most WINDOW chunks unacknowledged.
+     * It returns when all the chunks have been acknowledged, so that the partition is delivered only if it has been completely stored.
+     *
+     * @param partition    represents the partition.
+     * @param file         represents the file of the partition.
+     * @param outputStream represents the stream to the reducer.
+     * @param inputStream  represents the stream from the reducer.
+     * @throws IOException if the connection fails or the acknowledgement is not valid.
+     */
+    private void sendPartition(int partition, Path file, DataOutputStream outputStream, DataInputStream inputStream) throws IOException {
+        long size = Files.size(file);
+        long sent = 0;
+        int sequence = 0;
+        int acknowledged = 0;
+        try (InputStream in = Files.newInputStream(file)) {
+            do {
+                byte[] chunk = in.readNBytes(CHUNK_SIZE);
+                sent += chunk.length;
+                MessageCodec.write(outputStream, new ShuffleData(programId, partition, source, sequence, chunk, sent >= size));
+                sequence++;
+                if (sequence - acknowledged >= WINDOW) {
+                    readAck(partition, acknowledged++, inputStream);
+                }
+            } while (sent < size);
+        }
+        while (acknowledged < sequence) {
+            readAck(partition, acknowledged++, inputStream);
+        }
+    }
+
+    /**
+     * The readAck method waits for the acknowledgement of a chunk, since the acknowledgements are received in the order the chunks are sent.
+     *
+     * @param partition   represents the partition.
+     * @param sequence    represents the sequence number of the chunk.
+     * @param inputStream represents the stream from the reducer.
+     * @throws IOException if the connection fails or the acknowledgement is not valid.
+     */
+    private void readAck(int partition, int sequence, DataInputStream inputStream) throws IOException {
+        if (!(MessageCodec.read(inputStream) instanceof ShuffleAck(int acknowledged)) || acknowledged != sequence) {
+            throw new IOException("Unexpected acknowledgement for partition " + partition);
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package it.polimi.worker;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+import it.polimi.common.messages.ShuffleData;
+
+/**
+ * The ShuffleStore class is used to store on the local disk the shuffle partitions received through the network.
+ * Each partition sent by a task is written in a temporary file, which is renamed when its last chunk is received,
+ * so that the second phase only reads the partitions that have been completely received.
+ * The temporary files are kept open by the connection receiving them until their last chunk is received or the connection is closed.
+ * The class also manages the spool directories where the tasks write their partitions before sending them.
+ */
+public class ShuffleStore {
+    private static final Logger logger = LogManager.getLogger("it.polimi.Worker");
+    private final Path directory;
+    private final Map<Long, Map<Path, OutputStream>> streams;
+
+    /**
+     * The constructor creates a new ShuffleStore.
+     *
+     * @param directory represents the local directory of the shuffle.
+     */
+    public ShuffleStore(String directory) {
+        this.directory = Paths.get(directory);
+        this.streams = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * The write method stores a chunk of a shuffle partition.
+     * The first chunk of a partition truncates the temporary file, so that a partition sent again by a task that was restarted replaces the previous one.
+     * The temporary file belongs to the connection, since two attempts of the same task may send the same partition at the same time:
+     * they send the same content, so the file committed last replaces the other one.
+     *
+     * @param data       represents the chunk of the partition.
+     * @param connection represents the identifier of the connection on which the chunk is received.
+     * @throws IOException if it is not possible to write the chunk or the message is not valid.
+     */
+    public void write(ShuffleData data, long connection) throws IOException {
+        Path partition = getPartitionDirectory(data.programId(), data.partition());
+        Path temporary = partition.resolve(data.source() + "." + connection + ".csv.tmp");
+        Map<Path, OutputStream> open = streams.computeIfAbsent(connection, c -> new ConcurrentHashMap<>());
+        OutputStream out = open.get(temporary);
+        if (data.sequence() == 0) {
+            if (out != null) {
+                out.close();
+            }
+            Files.createDirectories(partition);
+            out = Files.newOutputStream(temporary, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+            open.put(temporary, out);
+        } else if (out == null) {
+            throw new IOException("Unexpected chunk " + data.sequence() + " of partition " + data.partition());
+        }
+        try {
+            out.write(data.data());
+        } catch (IOException e) {
+            open.remove(temporary);
+            out.close();
+            throw e;
+        }
+        if (data.last()) {
+            open.remove(temporary);
+            out.close();
+            Files.move(temporary, partition.resolve(data.source() + ".csv"), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            logger.info(Thread.currentThread().getName() + ": Received partition " + data.partition() + " of task " + data.source());
+        }
+    }
+
+    /**
+     * The closeConnection method closes the temporary files of a connection, which is invoked when the connection is closed.
+     * The partitions whose last chunk has not been received are deleted, since the sender writes them in HDFS instead.
+     *
+     * @param connection represents the identifier of the connection.
+     */
+    public void closeConnection(long connection) {
+        Map<Path, OutputStream> open = streams.remove(connection);
+        if (open == null) {
+            return;
+        }
+        for (Map.Entry<Path, OutputStream> entry : open.entrySet()) {
+            try {
+                entry.getValue().close();
+                Files.deleteIfExists(entry.getKey());
+            } catch (IOException e) {
+                logger.warn(Thread.currentThread().getName() + ": Not possible to delete the temporary file " + entry.getKey() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * The getCommittedFiles method returns the files of a partition that have been completely received.
+     *
+     * @param programId represents the program id.
+     * @param partition represents the shuffle partition.
+     * @return the files of the partition, one per task.
+     * @throws IOException if it is not possible to list the files.
+     */
+    public List<Path> getCommittedFiles(String programId, int partition) throws IOException {
+        Path path = getPartitionDirectory(programId, partition);
+        List<Path> files = new ArrayList<>();
+        if (!Files.isDirectory(path)) {
+            return files;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(path, "*.csv")) {
+            stream.forEach(files::add);
+        }
+        return files;
+    }
+
+    /**
+     * The getSpoolDirectory method returns the directory where an attempt of a task writes its partitions before sending them.
+     *
+     * @param programId represents the program id.
+     * @param attempt   represents the name of the attempt of the task.
+     * @return the spool directory of the attempt.
+     * @throws IOException if the program id is not valid.
+     */
+    public Path getSpoolDirectory(String programId, String attempt) throws IOException {
+        return getProgramDirectory(programId).resolve("spool" + attempt);
+    }
+
+    /**
+     * The deletePartition method deletes the files of a partition received by the worker.
+     *
+     * @param programId represents the program id.
+     * @param partition represents the shuffle partition.
+     */
+    public void deletePartition(String programId, int partition) {
+        try {
+            delete(getPartitionDirectory(programId, partition));
+        } catch (IOException e) {
+            logger.warn(Thread.currentThread().getName() + ": Not possible to delete the partition " + partition + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * The delete method deletes a directory of the shuffle with all its files.
+     *
+     * @param path represents the directory to delete.
+     * @throws IOException if it is not possible to delete the directory.
+     */
+    public static void delete(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(path)) {
+            for (Path p : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(p);
+            }
+        }
+    }
+
+    /**
+     * The getPartitionDirectory method returns the directory where the files of a partition are received.
+     *
+     * @param programId represents the program id.
+     * @param partition represents the shuffle partition.
+     * @return the directory of the partition.
+     * @throws IOException if the program id is not valid.
+     */
+    private Path getPartitionDirectory(String programId, int partition) throws IOException {
+        return getProgramDirectory(programId).resolve("part" + partition);
+    }
+
+    /**
+     * The getProgramDirectory method returns the directory of the shuffle of a program.
+     * The program id is received from the network, so it is checked before being used as a file name.
+     *
+     * @param programId represents the program id.
+     * @return the directory of the program.
+     * @throws IOException if the program id is not valid.
+     */
+    private Path getProgramDirectory(String programId) throws IOException {
+        if (programId == null || !programId.matches("[\\w-]+")) {
+            throw new IOException("Invalid program id: " + programId);
+        }
+        return directory.resolve("shuffle-" + programId);
+    }
+}
@@ -4,6 +4,8 @@ import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.util.Scanner;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.apache.log4j.Logger;
 import org.apache.log4j.PropertyConfigurator;
@@ -14,7 +16,10 @@ import org.apache.log4j.LogManager;
 /**
  * This class is responsible for starting the worker server.
  * The worker server listens for connections from the coordinator.
- * When a connection is established, the worker server creates a WorkerHandler thread to handle the connection.
+ * When a connection is established, the worker server handles it with a WorkerHandler running on a new virtual thread,
+ * so that the blocking I/O of the connections and of HDFS does not limit the number of tasks hosted by the worker.
+ * A single HadoopWorker, with its HDFS client, is shared by all the connections, so that a new connection starts processing tasks immediately.
+ * The connections of the coordinator are long-lived sessions, which run the tasks of many programs.
  */
 public class Worker {
 
@@ -50,19 +55,27 @@ public class Worker {
             scanner.close();
             return;
         }
-        ServerSocket serverSocket;
+        WorkerConfiguration configuration = WorkerConfiguration.load();
+        HadoopWorker hadoopWorker;
         try {
-            serverSocket = new ServerSocket(port);
+            hadoopWorker = new HadoopWorker(address, configuration);
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+            return;
+        }
+        try (ServerSocket serverSocket = new ServerSocket(port);
+             ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
             System.out.println("Server started on port " + port);
             logger.info("Server started on port " + port);
             while (true) {
                 Socket clientSocket = serverSocket.accept();
                 logger.info("Coordinator opened a connection.");
-                WorkerHandler workerHandler = new WorkerHandler(clientSocket, new HadoopWorker(address));
-                workerHandler.start();
+                executor.execute(new WorkerHandler(clientSocket, hadoopWorker, configuration));
             }
         } catch (IOException e) {
             System.out.println(e.getMessage());
+        } finally {
+            hadoopWorker.closeFileSystem();
         }
     }
 }
@@ -0,0 +1,222 @@
+package it.polimi.worker;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Properties;
+
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+/**
+ * The WorkerConfiguration class is used to store the configuration of the worker.
+ * The configuration is read from the optional properties file conf/worker.properties,
+ * and every property that is missing or not valid takes its default value.
+ */
+public class WorkerConfiguration {
+    private static final String CONFIGURATION_FILE = "conf/worker.properties";
+    private static final Logger logger = LogManager.getLogger("it.polimi.Worker");
+    private final Properties properties;
+
+    /**
+     * The constructor creates a new WorkerConfiguration from the given properties.
+     *
+     * @param properties represents the properties of the worker.
+     */
+    public WorkerConfiguration(Properties properties) {
+        this.properties = properties;
+    }
+
+    /**
+     * The load method reads the configuration of the worker from conf/worker.properties.
+     * If the file does not exist or it cannot be read, the default configuration is used.
+     *
+     * @return the configuration of the worker.
+     */
+    public static WorkerConfiguration load() {
+        Properties properties = new Properties();
+        if (Files.exists(Paths.get(CONFIGURATION_FILE))) {
+            try (InputStream in = new FileInputStream(CONFIGURATION_FILE)) {
+                properties.load(in);
+                logger.info("Loaded worker configuration from " + CONFIGURATION_FILE);
+            } catch (IOException e) {
+                logger.warn("Not possible to read " + CONFIGURATION_FILE + ", using the default configuration: " + e.getMessage());
+                System.out.println("Not possible to read " + CONFIGURATION_FILE + ", using the default configuration");
+            }
+        }
+        return new WorkerConfiguration(properties);
+    }
+
+    /**
+     * The getAggregationMemory method returns the maximum number of bytes of off-heap memory used by all the aggregation tables of the worker.
+     * Each table may use an equal share of it among the tables alive at the same time, and when it needs more memory, its content is spilled to the local disk.
+     *
+     * @return the memory budget of the aggregation tables, 64 MB by default.
+     */
+    public long getAggregationMemory() {
+        return getLong("aggregation.memory", 64L * 1024 * 1024);
+    }
+
+    /**
+     * The getSpillDirectory method returns the local directory where the aggregation tables spill their sorted runs.
+     *
+     * @return the spill directory, the temporary directory of the system by default.
+     */
+    public String getSpillDirectory() {
+        return properties.getProperty("aggregation.spill.directory", System.getProperty("java.io.tmpdir")).trim();
+    }
+
+    /**
+     * The getIntermediateCacheMemory method returns the maximum number of bytes of the intermediate files kept in memory by the worker,
+     * so that the shuffle partitions it writes in HDFS are read from memory if it reduces them.
+     *
+     * @return the capacity of the intermediate cache, 64 MB by default, 0 if it is disabled.
+     */
+    public long getIntermediateCacheMemory() {
+        return Math.max(0, getLong("intermediate.cache.memory", 64L * 1024 * 1024));
+    }
+
+    /**
+     * The getCheckpointOverhead method returns the maximum fraction of the processing time of a task spent in checkpoints,
+     * which sets how often the CheckpointSchedulers take a checkpoint given its measured cost.
+     *
+     * @return the fraction of the processing time, 0.02 by default.
+     */
+    public double getCheckpointOverhead() {
+        String value = properties.getProperty("checkpoint.overhead", "0.02").trim();
+        try {
+            double overhead = Double.parseDouble(value);
+            if (overhead > 0) {
+                return overhead;
+            }
+        } catch (NumberFormatException ignored) {
+        }
+        logger.warn("Invalid value for checkpoint.overhead: " + value + ", using 0.02");
+        return 0.02;
+    }
+
+    /**
+     * The getCheckpointMaxBytes method returns the maximum number of input bytes processed between two checkpoints,
+     * which bounds the bytes processed again when a worker fails.
+     *
+     * @return the number of bytes, 16 MB by default.
+     */
+    public long getCheckpointMaxBytes() {
+        return Math.max(1, getLong("checkpoint.max.bytes", 16L * 1024 * 1024));
+    }
+
+    /**
+     * The getCheckpointMaxTime method returns the maximum time between two checkpoints,
+     * which bounds the time spent processing again the input when a worker fails.
+     *
+     * @return the time in milliseconds, 10 seconds by default.
+     */
+    public long getCheckpointMaxTime() {
+        return Math.max(1, getLong("checkpoint.max.time", 10000));
+    }
+
+    /**
+     * The getCheckpointSync method returns when the records of the checkpoint logs are forced to the disk.
+     *
+     * @return the sync policy, NONE by default.
+     */
+    public CheckpointLog.Sync getCheckpointSync() {
+        String value = properties.getProperty("checkpoint.sync", "none").trim();
+        try {
+            return CheckpointLog.Sync.valueOf(value.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            logger.warn("Invalid value for checkpoint.sync: " + value + ", using none");
+            return CheckpointLog.Sync.NONE;
+        }
+    }
+
+    /**
+     * The getCheckpointSyncInterval method returns the minimum time between two syncs of a checkpoint log with the group policy,
+     * so that the records written in the same interval are forced together.
+     *
+     * @return the sync interval in milliseconds, 1 second by default.
+     */
+    public long getCheckpointSyncInterval() {
+        return Math.max(0, getLong("checkpoint.sync.interval", 1000));
+    }
+
+    /**
+     * The isCheckpointReplicated method returns whether the checkpoints are copied to HDFS,
+     * so that a task moved to another worker resumes from its last checkpoint.
+     *
+     * @return true if the checkpoints are copied to HDFS, true by default.
+     */
+    public boolean isCheckpointReplicated() {
+        return Boolean.parseBoolean(properties.getProperty("checkpoint.replication", "true").trim());
+    }
+
+    /**
+     * The getFileParallelism method returns the maximum number of files of a task processed at the same time.
+     *
+     * @return the number of files processed concurrently, 4 by default.
+     */
+    public int getFileParallelism() {
+        return (int) Math.max(1, getLong("task.file.parallelism", 4));
+    }
+
+    /**
+     * The getShuffleDirectory method returns the local directory where the shuffle partitions sent through the network are stored.
+     *
+     * @return the shuffle directory, the temporary directory of the system by default.
+     */
+    public String getShuffleDirectory() {
+        return properties.getProperty("shuffle.directory", System.getProperty("java.io.tmpdir")).trim();
+    }
+
+    /**
+     * The getShuffleTimeout method returns the timeout used to send the shuffle partitions to a reducer,
+     * both to connect and to wait for the acknowledgement of a chunk.
+     * When it expires, the partitions not yet delivered are written in HDFS.
+     *
+     * @return the timeout in milliseconds, 30 seconds by default.
+     */
+    public int getShuffleTimeout() {
+        return (int) Math.max(1, getLong("shuffle.timeout", 30000));
+    }
+
+    /**
+     * The getPipelinePollInterval method returns the time between two checks of the partitions committed by the first phase,
+     * used by the reducers when the second phase is pipelined.
+     *
+     * @return the poll interval in milliseconds, 1 second by default.
+     */
+    public long getPipelinePollInterval() {
+        return Math.max(1, getLong("pipeline.poll.interval", 1000));
+    }
+
+    /**
+     * The getSlots method returns the number of tasks the worker can process at the same time, reported to the coordinator with the heartbeats.
+     *
+     * @return the number of slots, the number of processors by default.
+     */
+    public int getSlots() {
+        return (int) Math.max(1, getLong("worker.slots", Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * The getLong method returns the value of a numeric property.
+     *
+     * @param name         represents the name of the property.
+     * @param defaultValue represents the value returned if the property is missing or not valid.
+     * @return the value of the property.
+     */
+    private long getLong(String name, long defaultValue) {
+        String value = properties.getProperty(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            logger.warn("Invalid value for " + name + ": " + value + ", using " + defaultValue);
+            return defaultValue;
+        }
+    }
+}
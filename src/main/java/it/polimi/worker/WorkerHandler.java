@@ -1,53 +1,116 @@
 package it.polimi.worker;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.InterruptedIOException;
 import java.net.ConnectException;
 import java.net.Socket;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.commons.lang3.tuple.MutablePair;
 import org.apache.log4j.LogManager;
 import org.apache.log4j.Logger;
-import it.polimi.common.KeyValuePair;
+import it.polimi.common.FileSplit;
+import it.polimi.common.MessageCodec;
+import it.polimi.common.PartitionSlice;
+import it.polimi.common.messages.CancelTask;
 import it.polimi.common.messages.EndComputation;
 import it.polimi.common.messages.ErrorMessage;
+import it.polimi.common.messages.Heartbeat;
+import it.polimi.common.messages.HeartbeatRequest;
 import it.polimi.common.messages.ReduceOperation;
+import it.polimi.common.messages.ShuffleAck;
+import it.polimi.common.messages.ShuffleData;
 import it.polimi.common.messages.StopComputation;
+import it.polimi.common.messages.TaskFlushed;
+import it.polimi.common.messages.TaskProgress;
 import it.polimi.worker.models.CheckpointInfo;
+import it.polimi.worker.models.CombinerCheckpoint;
+import it.polimi.worker.models.KeyValueBatch;
 import it.polimi.worker.models.Operator;
+import it.polimi.worker.operators.ReduceOperator;
 import it.polimi.common.messages.NormalOperations;
 
 /**
  * The WorkerHandler class is used to handle the communication between the Coordinator and the Worker.
  * It is used to process the tasks and the reduce messages received from the Coordinator.
  * It is also used to handle the operators and the checkpoints.
+ * Each connection is handled by a virtual thread, and the splits of a task are processed by virtual threads
+ * whose lifetime is bounded by the task.
+ * The coordinator sends the tasks of the first phase one at a time on the same connection, whenever the previous one is completed,
+ * and sends a StopComputation message when the worker has no more work for the program.
+ * The connection is a session kept open by the coordinator across programs: when a program ends, its state is cleared
+ * and the handler waits for the messages of the next program, until the coordinator closes the connection.
+ * While a task is processed, its progress is reported periodically to the coordinator, which may run a backup attempt of a slow task on another worker.
+ * When an attempt of the task completes on another worker, the coordinator sends the next message without waiting:
+ * a message received while a task is processed cancels it, and the cancelled task is acknowledged before the message is processed.
+ * With write-behind, a task is acknowledged as soon as its partitions are in memory, and a single background thread of the connection writes them in HDFS
+ * while the next task is processed, reporting with a TaskFlushed message when they are durable.
+ * A connection opened by the coordinator to monitor the worker is used only to send heartbeats reporting the load of the worker.
  */
-public class WorkerHandler extends Thread {
+public class WorkerHandler implements Runnable {
+    public static final long PROGRESS_INTERVAL = 1000;
+    private static final AtomicLong connections = new AtomicLong();
+    private static final AtomicInteger runningTasks = new AtomicInteger();
     private final Socket clientSocket;
+    private final long connection;
     private int identifier;
+    private int attempt;
     private String programId;
     private static final Logger logger = LogManager.getLogger("it.polimi.Worker");
     private List<Operator> operators;
     private final CheckPointManager checkPointManager;
     private final HadoopWorker hadoopWorker;
+    private final WorkerConfiguration configuration;
     private boolean safeDelete = false;
+    private boolean shuffleConnection = false;
+    private DataInputStream inputStream;
+    private DataOutputStream outputStream;
+    private final AtomicLong progress;
+    private final ReentrantLock progressLock;
+    private volatile long lastProgress;
+    private volatile boolean cancelled;
+    private final ExecutorService flusher;
+    private Future<?> lastFlush;
+    private HadoopWorker.PendingPartitions pending;
 
     /**
      * Constructor for the WorkerHandler class.
      *
-     * @param clientSocket The socket used to communicate with the Coordinator.
-     * @param hadoopWorker The HadoopWorker used to read and write files.
+     * @param clientSocket  The socket used to communicate with the Coordinator.
+     * @param hadoopWorker  The HadoopWorker used to read and write files.
+     * @param configuration The configuration of the worker.
      */
-    public WorkerHandler(Socket clientSocket, HadoopWorker hadoopWorker) {
+    public WorkerHandler(Socket clientSocket, HadoopWorker hadoopWorker, WorkerConfiguration configuration) {
         this.clientSocket = clientSocket;
-        this.checkPointManager = new CheckPointManager();
+        this.connection = connections.incrementAndGet();
+        this.checkPointManager = new CheckPointManager(configuration, hadoopWorker.getCheckpointReplica());
         this.hadoopWorker = hadoopWorker;
+        this.configuration = configuration;
         this.identifier = -1;
         this.programId = null;
         this.operators = new ArrayList<>();
+        this.progress = new AtomicLong();
+        this.progressLock = new ReentrantLock();
+        this.flusher = Executors.newSingleThreadExecutor(Thread.ofVirtual().factory());
     }
 
     /**
@@ -62,46 +125,70 @@ public class WorkerHandler extends Thread {
         logger.info(Thread.currentThread().getName() + ": WorkerHandler started.");
 
         System.out.println(Thread.currentThread().getName() + ": WorkerHandler started");
-        ObjectInputStream inputStream = null;
-        ObjectOutputStream outputStream = null;
 
         try {
 
-            outputStream = new ObjectOutputStream(clientSocket.getOutputStream());
-            inputStream = new ObjectInputStream(clientSocket.getInputStream());
+            outputStream = new DataOutputStream(new BufferedOutputStream(clientSocket.getOutputStream()));
+            inputStream = new DataInputStream(new BufferedInputStream(clientSocket.getInputStream()));
             label:
             while (true) {
 
-                Object object = inputStream.readObject();
+                Object object = MessageCodec.read(inputStream);
+                if (object instanceof ShuffleData data) {
+                    if (!receiveShuffleData(data, outputStream)) {
+                        break;
+                    }
+                    continue;
+                }
+                if (object instanceof CancelTask(int task, int number)) {
+                    logger.info(Thread.currentThread().getName() + ": Attempt " + number + " of task " + task + " cancelled by the coordinator");
+                    continue;
+                }
+                if (object instanceof HeartbeatRequest request) {
+                    sendHeartbeats(request.interval());
+                    break;
+                }
                 System.out.println(Thread.currentThread().getName() + ": Received message from coordinator");
                 logger.info(Thread.currentThread().getName() + ": Received message from coordinator");
                 switch (object) {
                     case NormalOperations task:
 
                         identifier = task.getIdentifier();
+                        attempt = task.getAttempt();
                         programId = task.getProgramId();
+                        progress.set(0);
+                        cancelled = false;
                         Thread.currentThread().setName(clientSocket.getInetAddress().getHostName() + ":" + clientSocket.getLocalPort() + "(" + clientSocket.getPort() + ")" + ":" + task.getProgramId());
                         System.out.println(Thread.currentThread().getName() + ": Received task from coordinator");
-                        logger.info(Thread.currentThread().getName() + ": Received task from coordinator: " + identifier);
+                        logger.info(Thread.currentThread().getName() + ": Received task from coordinator: " + identifier + ", attempt " + attempt);
 
 
+                        runningTasks.incrementAndGet();
                         try {
                             if (processTask(task)) {
-                                outputStream.writeObject(new EndComputation());
+                                send(new EndComputation());
                                 System.out.println(Thread.currentThread().getName() + ": EndComputation message sent to the coordinator");
                                 logger.info(Thread.currentThread().getName() + ": EndComputation message sent to the coordinator");
-                                if (!(task.getChangeKey() && task.getReduce())) {
-                                    safeDelete = true;
-                                    break;
-                                }
+                                flushPartitions(task);
                             } else {
                                 break;
                             }
+                        } catch (CancellationException e) {
+                            logger.info(Thread.currentThread().getName() + ": " + e.getMessage());
+                            System.out.println(Thread.currentThread().getName() + ": " + e.getMessage());
+                            if (pending != null) {
+                                pending.discard();
+                                pending = null;
+                            }
+                            send(new EndComputation());
                         } catch (IllegalArgumentException e) {
                             logger.error(Thread.currentThread().getName() + ": Error while processing the task: " + e.getMessage());
-                            outputStream.writeObject(new ErrorMessage(e.getMessage()));
+                            send(new ErrorMessage(e.getMessage()));
                             System.out.println(Thread.currentThread().getName() + ": Error while processing the task\n" + e.getMessage());
                             break;
+                        } finally {
+                            checkPointManager.closeLogs();
+                            runningTasks.decrementAndGet();
                         }
 
 
@@ -113,50 +200,64 @@ public class WorkerHandler extends Thread {
                         Thread.currentThread().setName(clientSocket.getInetAddress().getHostName() + ":" + clientSocket.getLocalPort() + "(" + clientSocket.getPort() + ")" + ":" + reduceMessage.getProgramId());
 
                         System.out.println(Thread.currentThread().getName() + ": Received LastReduce message from coordinator");
-                        logger.info(Thread.currentThread().getName() + ": Received LastReduce message from coordinator, responsible for the keys: " + reduceMessage.getKeys().getLeft() + "-" + reduceMessage.getKeys().getRight());
+                        logger.info(Thread.currentThread().getName() + ": Received LastReduce message from coordinator, responsible for the partitions: " + reduceMessage.getPartitions());
 
+                        runningTasks.incrementAndGet();
                         try {
                             if (computeReduceMessage(reduceMessage)) {
-                                outputStream.writeObject(new EndComputation());
+                                send(new EndComputation());
                                 safeDelete = true;
+                                endProgram();
+                                continue label;
                             }
                         } catch (IllegalArgumentException e) {
-                            outputStream.writeObject(new ErrorMessage("Error in the reduce phase"));
+                            send(new ErrorMessage("Error in the reduce phase"));
                             logger.error(Thread.currentThread().getName() + ": Error in the reduce phase: " + e.getMessage());
+                        } finally {
+                            checkPointManager.closeLogs();
+                            runningTasks.decrementAndGet();
                         }
                         break label;
 
                     case StopComputation ignored:
                         System.out.println(Thread.currentThread().getName() + ": Received StopComputation message from coordinator");
                         logger.info(Thread.currentThread().getName() + ": Received StopComputation message from coordinator");
-                        safeDelete = true;
-                        break label;
+                        safeDelete = !shuffleConnection;
+                        endProgram();
+                        break;
                     case null:
                     default:
                         System.out.println(Thread.currentThread().getName() + ": Received unexpected object type");
-                        outputStream.writeObject(new ErrorMessage("Received unexpected object type"));
+                        send(new ErrorMessage("Received unexpected object type"));
                         logger.error(Thread.currentThread().getName() + ": Received unexpected object type");
                         break label;
                 }
             }
-        } catch (IOException | ClassNotFoundException e) {
-            System.out.println(Thread.currentThread().getName() + ": Coordinator connection lost");
-            logger.warn(Thread.currentThread().getName() + ": Coordinator connection lost");
+        } catch (IOException e) {
+            if (programId == null) {
+                logger.info(Thread.currentThread().getName() + ": Session closed by the coordinator");
+            } else {
+                System.out.println(Thread.currentThread().getName() + ": Coordinator connection lost");
+                logger.warn(Thread.currentThread().getName() + ": Coordinator connection lost");
+            }
         } finally {
             System.out.println(Thread.currentThread().getName() + ": Closing connection");
             logger.info(Thread.currentThread().getName() + ": Closing connection");
 
 
-            try {
-                Thread.sleep(1000);
-                if (safeDelete) {
-                    hadoopWorker.closeFileSystem();
-                    checkPointManager.deleteCheckpoints(programId);
-                }
-
-            } catch (InterruptedException e) {
-                logger.error(Thread.currentThread().getName() + ": Error while sleeping: " + e.getMessage());
-                System.out.println(Thread.currentThread().getName() + ": Error while sleeping: " + e.getMessage());
+            flusher.shutdown();
+            awaitFlushes();
+            if (pending != null) {
+                pending.discard();
+            }
+            if (safeDelete) {
+                checkPointManager.deleteCheckpoints(programId);
+            }
+            if (programId != null) {
+                hadoopWorker.getIntermediateCache().removeProgram(programId);
+            }
+            if (shuffleConnection) {
+                hadoopWorker.getShuffleStore().closeConnection(connection);
             }
 
             try {
@@ -176,30 +277,209 @@ public class WorkerHandler extends Thread {
         }
     }
 
+    /**
+     * The endProgram method clears the state of the program completed on the session, so that the next program starts from scratch.
+     * The checkpoints of the program are deleted if it has completed successfully, and its intermediate files are removed from the cache
+     * after the partitions being written in the background have been flushed.
+     */
+    private void endProgram() {
+        awaitFlushes();
+        if (safeDelete && programId != null) {
+            checkPointManager.deleteCheckpoints(programId);
+        }
+        if (programId != null) {
+            hadoopWorker.getIntermediateCache().removeProgram(programId);
+        }
+        logger.info(Thread.currentThread().getName() + ": Program " + programId + " ended, waiting for the next program");
+        safeDelete = false;
+        programId = null;
+        identifier = -1;
+        Thread.currentThread().setName(clientSocket.getInetAddress().getHostName() + ":" + clientSocket.getLocalPort() + "(" + clientSocket.getPort() + ")");
+    }
+
+    /**
+     * The send method writes a message to the coordinator.
+     * The messages are written by the thread of the connection, by the threads of the files reporting the progress
+     * and by the thread flushing the partitions, so the writes are serialized.
+     *
+     * @param message it is the message.
+     * @throws IOException if it is not possible to write the message.
+     */
+    private void send(Object message) throws IOException {
+        synchronized (outputStream) {
+            MessageCodec.write(outputStream, message);
+        }
+    }
+
+    /**
+     * The flushPartitions method writes in HDFS, in the background, the partitions of a task acknowledged with write-behind,
+     * then it reports to the coordinator with a TaskFlushed message that they are durable and which of them the worker keeps in memory.
+     * The partitions are flushed in the order of the tasks. If they cannot be written, the connection is closed,
+     * so that the coordinator processes again the tasks that have not been flushed.
+     *
+     * @param task it is the task that has been acknowledged.
+     */
+    private void flushPartitions(NormalOperations task) {
+        if (!task.isWriteBehind()) {
+            return;
+        }
+        HadoopWorker.PendingPartitions partitions = pending;
+        pending = null;
+        String name = Thread.currentThread().getName();
+        lastFlush = flusher.submit(() -> {
+            Thread.currentThread().setName(name + "/flush" + task.getIdentifier());
+            try {
+                Map<Integer, Long> cached = partitions != null ? hadoopWorker.flushPartitions(partitions) : Map.of();
+                send(new TaskFlushed(task.getProgramId(), task.getIdentifier(), task.getAttempt(), cached));
+                logger.info(Thread.currentThread().getName() + ": Partitions of task " + task.getIdentifier() + " flushed, " + cached.size() + " kept in memory");
+            } catch (IOException | RuntimeException e) {
+                logger.error(Thread.currentThread().getName() + ": Error while flushing the partitions of task " + task.getIdentifier() + ": " + e.getMessage());
+                System.out.println(Thread.currentThread().getName() + ": Error while flushing the partitions of task " + task.getIdentifier());
+                try {
+                    clientSocket.close();
+                } catch (IOException ex) {
+                    logger.error(Thread.currentThread().getName() + ": Error while closing the connection: " + ex.getMessage());
+                }
+            }
+        });
+    }
+
+    /**
+     * The awaitFlushes method waits until the partitions being written in the background have been flushed.
+     */
+    private void awaitFlushes() {
+        if (lastFlush == null) {
+            return;
+        }
+        try {
+            lastFlush.get();
+        } catch (ExecutionException e) {
+            logger.error(Thread.currentThread().getName() + ": Error while flushing the partitions: " + e.getCause().getMessage());
+        } catch (InterruptedException e) {
+            logger.error(Thread.currentThread().getName() + ": Interrupted while flushing the partitions: " + e.getMessage());
+            Thread.currentThread().interrupt();
+        }
+        lastFlush = null;
+    }
+
+    /**
+     * The sendHeartbeats method is used to report the load of the worker to the coordinator periodically, until the connection is closed.
+     * The load contains the number of slots of the worker, the number of tasks of all the programs it is processing and its free memory.
+     * The heartbeats are sent by a platform thread, since the virtual threads are not preempted: a busy worker would delay them
+     * until the coordinator judged it dead.
+     *
+     * @param interval it is the time between two heartbeats in milliseconds.
+     */
+    private void sendHeartbeats(long interval) {
+        logger.info(Thread.currentThread().getName() + ": Sending heartbeats to the coordinator every " + interval + " ms");
+        Thread sender = Thread.ofPlatform().daemon().name(Thread.currentThread().getName() + "-heartbeat").start(() -> heartbeatLoop(interval));
+        try {
+            sender.join();
+        } catch (InterruptedException e) {
+            logger.error(Thread.currentThread().getName() + ": Interrupted while sending the heartbeats: " + e.getMessage());
+            sender.interrupt();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * The heartbeatLoop method writes a heartbeat every interval milliseconds, until the connection is closed.
+     *
+     * @param interval it is the time between two heartbeats in milliseconds.
+     */
+    private void heartbeatLoop(long interval) {
+        try {
+            while (true) {
+                Runtime runtime = Runtime.getRuntime();
+                long freeMemory = runtime.maxMemory() - runtime.totalMemory() + runtime.freeMemory();
+                MessageCodec.write(outputStream, new Heartbeat(configuration.getSlots(), runningTasks.get(), freeMemory));
+                Thread.sleep(interval);
+            }
+        } catch (IOException e) {
+            logger.info(Thread.currentThread().getName() + ": Heartbeat connection closed by the coordinator");
+        } catch (InterruptedException e) {
+            logger.error(Thread.currentThread().getName() + ": Interrupted while sending the heartbeats: " + e.getMessage());
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * The receiveShuffleData method is used to store a chunk of a shuffle partition sent by another worker and to acknowledge it.
+     * The connection is then used only for the shuffle, and it is closed by the sender when all its partitions have been sent.
+     *
+     * @param data         it is the chunk of the partition.
+     * @param outputStream it is the stream used to reply to the sender.
+     * @return true if the chunk was stored, false otherwise.
+     * @throws IOException if it is not possible to reply to the sender.
+     */
+    private boolean receiveShuffleData(ShuffleData data, DataOutputStream outputStream) throws IOException {
+        shuffleConnection = true;
+        try {
+            hadoopWorker.getShuffleStore().write(data, connection);
+        } catch (IOException e) {
+            logger.error(Thread.currentThread().getName() + ": Error while storing the partition " + data.partition() + ": " + e.getMessage());
+            MessageCodec.write(outputStream, new ErrorMessage("Error while storing the partition " + data.partition()));
+            return false;
+        }
+        MessageCodec.write(outputStream, new ShuffleAck(data.sequence()));
+        return true;
+    }
+
     /**
      * The handleOperators method is used to create the operators from a list of mutable pairs.
+     * Consecutive map, filter and changekey operators are compiled into a single generated operator,
+     * so that each chunk is traversed once by the whole chain.
+     * The reduce operator, if present, must be the last one, since its values are aggregated across the partitions.
      *
      * @param dataFunctions it is the data functions to be used to create the operators.
      * @return The list of operators created.
+     * @throws IllegalArgumentException if an operator is not valid or the reduce is not the last operator.
      */
     private List<Operator> handleOperators(List<MutablePair<String, String>> dataFunctions) {
         logger.info(Thread.currentThread().getName() + ": Handling operators");
         List<Operator> operators = new ArrayList<>();
+        List<MutablePair<String, String>> chain = new ArrayList<>();
 
-        for (MutablePair<String, String> df : dataFunctions) {
+        for (int i = 0; i < dataFunctions.size(); i++) {
+            MutablePair<String, String> df = dataFunctions.get(i);
             String op = df.getLeft();
             String fun = df.getRight();
-            operators.add(CreateOperator.createOperator(op, fun));
+            if (op.equals("REDUCE")) {
+                if (i != dataFunctions.size() - 1) {
+                    throw new IllegalArgumentException("REDUCE must be the last operator");
+                }
+                compileChain(chain, operators);
+                operators.add(CreateOperator.createOperator(op, fun));
+            } else {
+                chain.add(df);
+            }
             logger.info(Thread.currentThread().getName() + ": Operator created: " + op + " with function: " + fun);
         }
+        compileChain(chain, operators);
 
         return operators;
     }
 
+    /**
+     * The compileChain method is used to add a chain of consecutive map, filter and changekey operators to the list of operators.
+     * The chain is compiled by the ChainCompiler into a single operator.
+     *
+     * @param chain     it is the chain of operators and functions, which is emptied.
+     * @param operators it is the list of operators to which the compiled chain is added.
+     */
+    private void compileChain(List<MutablePair<String, String>> chain, List<Operator> operators) {
+        if (!chain.isEmpty()) {
+            operators.add(ChainCompiler.compile(chain));
+            logger.info(Thread.currentThread().getName() + ": Compiled " + chain.size() + " operators into a single pass");
+            chain.clear();
+        }
+    }
+
     /**
      * The processTask method is used to process the task received from the Coordinator.
      * It reads the input files and processes them using the operators.
      * It also creates the checkpoints for the task.
+     * Unless the partial aggregations of the files are combined, the files are processed concurrently, since each one has its own checkpoint.
      *
      * @param task it is the task to be processed.
      * @return true if the task was processed successfully, false otherwise.
@@ -209,25 +489,11 @@ public class WorkerHandler extends Thread {
         operators = handleOperators(task.getOperators());
 
         try {
-            for (int i = 0; i < task.getPathFiles().size(); i++) {
-                CheckpointInfo checkPointObj;
-
-                checkPointObj = checkPointManager.getCheckPoint(task.getProgramId(), task.getPathFiles().get(i), task.getReduce() && !task.getChangeKey());
-
-
-                if (checkPointObj.end()) {
-                    logger.info(Thread.currentThread().getName() + ": File already processed");
-                } else {
-                    if (checkPointObj.count() != 0) {
-                        logger.info(Thread.currentThread().getName() + ": File partially processed, resuming from partition: " + checkPointObj.count());
-                    } else {
-                        logger.info(Thread.currentThread().getName() + ": File not processed yet");
-                    }
-
-                    hadoopWorker.readInputFile(i, task, this, operators, checkPointObj.count(), checkPointObj.remainingString(), checkPointObj.keyValuePair());
-                }
-
+            if (task.getReduce() && task.getChangeKey()) {
+                processCombinedTask(task);
+                return true;
             }
+            processFiles(task);
             return true;
 
         } catch (IOException e) {
@@ -242,66 +508,300 @@ public class WorkerHandler extends Thread {
         return false;
     }
 
+    /**
+     * The processFiles method is used to process the splits of a task concurrently, each one on its own virtual thread.
+     * At most the configured number of splits is processed at the same time, since each split may use an aggregation table.
+     * If a split fails, the other splits are cancelled, and the method returns only when all the virtual threads are terminated.
+     * The threads are not interrupted when the task is cancelled by the coordinator, since an interrupt may close the connection
+     * while a thread reports the progress: the other splits notice the cancellation at their next partition.
+     *
+     * @param task it is the task to be processed.
+     * @throws IOException if an error occurs while processing a file, or the task is interrupted.
+     */
+    private void processFiles(NormalOperations task) throws IOException {
+        String name = Thread.currentThread().getName();
+        Semaphore permits = new Semaphore(configuration.getFileParallelism());
+        try (ExecutorService scope = Executors.newVirtualThreadPerTaskExecutor()) {
+            CompletionService<Void> files = new ExecutorCompletionService<>(scope);
+            for (int i = 0; i < task.getSplits().size(); i++) {
+                int file = i;
+                files.submit(() -> {
+                    Thread.currentThread().setName(name + "/file" + file);
+                    permits.acquire();
+                    try {
+                        checkCancelled();
+                        processFile(task, file);
+                    } finally {
+                        permits.release();
+                    }
+                    return null;
+                });
+            }
+            for (int i = 0; i < task.getSplits().size(); i++) {
+                try {
+                    files.take().get();
+                } catch (ExecutionException e) {
+                    if (!(e.getCause() instanceof CancellationException)) {
+                        scope.shutdownNow();
+                    }
+                    switch (e.getCause()) {
+                        case IOException ioException -> throw ioException;
+                        case RuntimeException runtimeException -> throw runtimeException;
+                        default -> throw new IOException(e.getCause());
+                    }
+                } catch (InterruptedException e) {
+                    scope.shutdownNow();
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Task interrupted");
+                }
+            }
+        }
+    }
+
+    /**
+     * The processFile method is used to process a split of a task, resuming it from its checkpoint.
+     * If the program includes a reduce, the values of the split are aggregated in a table that belongs to the split,
+     * which is restored from the snapshot of its last checkpoint.
+     *
+     * @param task it is the task to be processed.
+     * @param i    it is the index of the split.
+     * @throws IOException if an error occurs while reading the file or writing the results.
+     */
+    private void processFile(NormalOperations task, int i) throws IOException {
+        String checkpointName = getCheckpointName(task.getSplits().get(i));
+        AggregationTable table = task.getReduce() ? hadoopWorker.createTable((ReduceOperator) operators.getLast()) : null;
+        try {
+            CheckpointInfo checkPointObj = table != null
+                    ? checkPointManager.getTableCheckpoint(task.getProgramId(), checkpointName, table)
+                    : checkPointManager.getCheckPoint(task.getProgramId(), checkpointName);
+
+            if (checkPointObj.end()) {
+                logger.info(Thread.currentThread().getName() + ": File already processed");
+                return;
+            }
+            if (checkPointObj.count() != 0) {
+                logger.info(Thread.currentThread().getName() + ": File partially processed, resuming from partition: " + checkPointObj.count());
+            } else {
+                logger.info(Thread.currentThread().getName() + ": File not processed yet");
+            }
+            hadoopWorker.readInputFile(i, task, this, operators, checkPointObj.count(), checkPointObj.remainingString(), table);
+        } finally {
+            if (table != null) {
+                table.close();
+            }
+        }
+    }
+
+    /**
+     * The processCombinedTask method is used to process a task whose program includes both a changekey and a reduce.
+     * The partial aggregations of all the files of the task are combined in a single table, which is written
+     * only once at the end of the task in the shuffle partitions, so that the second phase reads a single partial aggregation per key and task.
+     * The table is restored from the snapshot of the combiner, which also contains the position of the task.
+     * If the coordinator assigned the reducers of the partitions, the partitions are sent to them through the network instead of HDFS.
+     *
+     * @param task it is the task to be processed.
+     * @throws IOException if an error occurs while reading the files or writing the partial aggregations.
+     */
+    private void processCombinedTask(NormalOperations task) throws IOException {
+        AggregationTable combiner = hadoopWorker.createTable((ReduceOperator) operators.getLast());
+        try {
+            CombinerCheckpoint checkpoint = checkPointManager.getCombinerCheckpoint(programId, getCombinerName(), combiner);
+            for (int i = checkpoint.file(); i < task.getSplits().size(); i++) {
+                if (i == checkpoint.file() && checkpoint.end()) {
+                    logger.info(Thread.currentThread().getName() + ": File already processed");
+                } else if (i == checkpoint.file() && checkpoint.count() != 0) {
+                    logger.info(Thread.currentThread().getName() + ": File partially processed, resuming from partition: " + checkpoint.count());
+                    hadoopWorker.readInputFile(i, task, this, operators, checkpoint.count(), checkpoint.remainingString(), combiner);
+                } else {
+                    logger.info(Thread.currentThread().getName() + ": File not processed yet");
+                    hadoopWorker.readInputFile(i, task, this, operators, 0, "", combiner);
+                }
+            }
+            if (!task.getReducers().isEmpty()) {
+                hadoopWorker.shufflePartitions(programId, getAttemptName(), identifier, combiner, task.getReducers());
+            } else if (task.isWriteBehind()) {
+                pending = hadoopWorker.bufferPartitions(programId, getAttemptName(), String.valueOf(identifier), combiner, task.getNumPartitions());
+            } else {
+                hadoopWorker.writePartitions(programId, getAttemptName(), String.valueOf(identifier), combiner, task.getNumPartitions());
+            }
+            logger.info(Thread.currentThread().getName() + ": Partial aggregations of the task written, spilled runs: " + combiner.getSpillCount());
+        } finally {
+            combiner.close();
+        }
+    }
+
+    /**
+     * The getCombinerName method returns the name of the snapshot file of the combiner of the task.
+     *
+     * @return the name of the snapshot file.
+     */
+    private String getCombinerName() {
+        return "combiner" + identifier + ".bin";
+    }
+
+    /**
+     * The getAttemptName method returns the name of the attempt of the task being processed,
+     * which identifies the temporary paths where the attempt writes its outputs before committing them.
+     *
+     * @return the name of the attempt.
+     */
+    private String getAttemptName() {
+        return identifier + "_" + attempt;
+    }
+
+    /**
+     * The reportProgress method records the bytes processed by the task and sends the progress to the coordinator,
+     * at most once every PROGRESS_INTERVAL milliseconds.
+     * It is invoked by the HadoopWorker after each partition, possibly by several threads at the same time.
+     * It also checks if a message of the coordinator has been received, which means that the task has been cancelled.
+     *
+     * @param bytes it is the number of bytes of the partition.
+     * @throws IOException if it is not possible to send the progress.
+     * @throws CancellationException if the task has been cancelled by the coordinator.
+     */
+    public void reportProgress(long bytes) throws IOException {
+        checkCancelled();
+        long processed = progress.addAndGet(bytes);
+        long now = System.currentTimeMillis();
+        if (now - lastProgress >= PROGRESS_INTERVAL && progressLock.tryLock()) {
+            try {
+                lastProgress = now;
+                send(new TaskProgress(identifier, processed));
+            } finally {
+                progressLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * The checkCancelled method checks if the coordinator has cancelled the task, by sending a message while the task is processed.
+     * The message is usually a CancelTask, but any message cancels the task, since the coordinator sends nothing else to a worker processing a task.
+     * The message is not read, so that it is processed when the cancellation has been acknowledged.
+     *
+     * @throws IOException if it is not possible to check the connection.
+     * @throws CancellationException if the task has been cancelled.
+     */
+    private void checkCancelled() throws IOException {
+        if (cancelled || inputStream.available() > 0) {
+            cancelled = true;
+            throw new CancellationException("Task " + identifier + " cancelled by the coordinator, attempt " + attempt);
+        }
+    }
+
+    /**
+     * The getCheckpointName method returns the name of the checkpoint file of a split.
+     * The name includes the start of the split, since the same file can be split in several tasks.
+     *
+     * @param split it is the split.
+     * @return the name of the checkpoint file.
+     */
+    private String getCheckpointName(FileSplit split) {
+        return split.path() + "_" + split.start();
+    }
+
     /**
      * The processPartitionTask method is used to write the keys and create the checkpoints for a partition.
      * This method is invoked by the HadoopWorker after processing a partition.
+     * If the program includes a changekey and a reduce, the combiner of the task is periodically stored in a snapshot,
+     * while if it includes only a reduce, the table of the file is stored in a snapshot next to the checkpoint and written at the end of the file.
+     * The CheckpointScheduler of the split, or of the combiner, decides if the partition is followed by a checkpoint:
+     * skipping it is safe, since the partitions after the last checkpoint are processed again and write the same outputs.
      *
      * @param result          it is the result of the partition.
+     * @param table           it is the table of the partial aggregations, null if the program does not include a reduce.
      * @param task            it is the task to be processed.
-     * @param numFile         it is the number of the file to be processed.
+     * @param numFile         it is the index of the split to be processed.
      * @param numPart         it is the number of the partition to be processed.
      * @param end             it is a boolean value indicating if the partition is the last one.
      * @param remainingString it is the remaining string to be processed.
-     * @param writeKeys       it is a boolean value indicating if the keys should be written.
+     * @param bytes           it is the number of bytes of the partition.
      * @throws IOException if an error occurs while writing the keys or creating the checkpoints.
      */
-    public void processPartitionTask(List<KeyValuePair> result, NormalOperations task, Integer numFile, Integer numPart, Boolean end, String remainingString, boolean writeKeys) throws IOException {
-        if ((task.getReduce() && !task.getChangeKey())) {
-            if (writeKeys) {
-                hadoopWorker.writeKeys(programId, identifier + "_" + numFile + "_" + numPart, result, task.getChangeKey(), task.getReduce());
+    public void processPartitionTask(KeyValueBatch result, AggregationTable table, NormalOperations task, Integer numFile, Integer numPart, Boolean end, String remainingString, long bytes) throws IOException {
+        String fileIdentifier = identifier + "_" + numFile + "_" + numPart;
+        if (task.getReduce() && task.getChangeKey()) {
+            CheckpointScheduler scheduler = checkPointManager.getScheduler(programId, getCombinerName());
+            if (scheduler.isDue(bytes, end)) {
+                long start = System.nanoTime();
+                checkPointManager.createCombinerCheckpoint(programId, getCombinerName(), new CombinerCheckpoint(numFile, numPart, end, remainingString), table);
+                scheduler.recordSnapshot(System.nanoTime() - start);
+            }
+            return;
+        }
+        String checkpointName = getCheckpointName(task.getSplits().get(numFile));
+        CheckpointScheduler scheduler = checkPointManager.getScheduler(programId, checkpointName);
+        if (task.getReduce()) {
+            if (end) {
+                hadoopWorker.writeResults(programId, getAttemptName(), fileIdentifier, table);
+            }
+            if (scheduler.isDue(bytes, end)) {
+                long start = System.nanoTime();
+                checkPointManager.createTableCheckpoint(programId, checkpointName, numFile, new CheckpointInfo(numPart, end, remainingString), table);
+                scheduler.recordSnapshot(System.nanoTime() - start);
             }
-            checkPointManager.createCheckpoint(programId, task.getPathFiles().get(numFile), new CheckpointInfo(numPart, end, remainingString, result.getFirst()), true);
         } else {
-            hadoopWorker.writeKeys(programId, identifier + "_" + numFile + "_" + numPart, result, task.getChangeKey(), task.getReduce());
-            checkPointManager.createCheckpoint(programId, task.getPathFiles().get(numFile), new CheckpointInfo(numPart, end, remainingString, null), false);
+            hadoopWorker.writeKeys(programId, getAttemptName(), fileIdentifier, result);
+            if (scheduler.isDue(bytes, end)) {
+                checkPointManager.createCheckpoint(programId, checkpointName, new CheckpointInfo(numPart, end, remainingString));
+            }
         }
     }
 
     /**
      * The computeReduceMessage method is used to process the reduce message received from the Coordinator.
-     * It reads the input files and processes them using the reduce operator.
-     * It also retrieves the checkpoints for the reduce message.
+     * It reduces the shuffle partitions assigned to the worker, one at a time, or all together if the second phase is pipelined.
+     * The slices of the large partitions are reduced before the partitions, and the partitions whose partial aggregations
+     * are merged by the worker are completed after them, so that a worker never waits for a worker that is waiting for it.
+     * It also retrieves the checkpoints for the reduce message, which contain the last partition reduced.
      *
      * @param reduceMessage it is the reduce message to be processed.
      * @return true if the reduce message was processed successfully, false otherwise.
      */
     private boolean computeReduceMessage(ReduceOperation reduceMessage) {
-        Operator reduce = handleOperators(List.of(reduceMessage.getReduce())).getFirst();
+        ReduceOperator reduce = (ReduceOperator) CreateOperator.createOperator(reduceMessage.getReduce().getLeft(), reduceMessage.getReduce().getRight());
 
         try {
-            CheckpointInfo checkPointObj = checkPointManager.getCheckPoint(reduceMessage.getProgramId(), "reduce" + identifier + ".csv", true);
+            CheckpointInfo checkPointObj = checkPointManager.getCheckPoint(reduceMessage.getProgramId(), "reduce" + identifier);
 
-            int start = checkPointObj.count() > 0 ? checkPointObj.count() : reduceMessage.getKeys().getLeft();
+            List<Integer> partitions = reduceMessage.getPartitions();
+            int start = checkPointObj.count() > 0 ? partitions.indexOf(checkPointObj.count()) : -1;
 
-            if (checkPointObj.count() > 0) {
-                logger.info(Thread.currentThread().getName() + ": Files partially processed, resuming from idx: " + start);
+            if (start >= 0) {
+                logger.info(Thread.currentThread().getName() + ": Files partially processed, resuming from idx: " + checkPointObj.count());
             } else {
                 logger.info(Thread.currentThread().getName() + ": Files not processed yet");
             }
 
-            for (int idx = start; idx < reduceMessage.getKeys().getRight(); idx++) {
+            if (start < 0) {
+                start = 0;
+                checkPointObj = new CheckpointInfo(0, false, "");
+            }
 
+            if (reduceMessage.isPipelined()) {
+                return computePipelinedReduce(reduceMessage, reduce, checkPointObj.end() ? start + 1 : start);
+            }
+            for (PartitionSlice slice : reduceMessage.getSlices()) {
+                if (!slice.isFinal()) {
+                    hadoopWorker.reduceSlice(programId, "reduce" + identifier, slice, reduce);
+                }
+            }
+            for (int position = start; position < partitions.size(); position++) {
+                int idx = partitions.get(position);
 
                 if (checkPointObj.end()) {
-                    logger.info(Thread.currentThread().getName() + ": File with idx: " + idx + " already processed");
-                    checkPointObj = new CheckpointInfo(0, false, "", null);
+                    logger.info(Thread.currentThread().getName() + ": Partition with idx: " + idx + " already processed");
                 } else {
-                    KeyValuePair result = hadoopWorker.readAndComputeReduce(idx, reduceMessage, reduce, this, checkPointObj);
-                    if (result != null) {
-                        hadoopWorker.writeKeys(programId, String.valueOf(identifier), result);
-                    }
+                    hadoopWorker.readAndComputeReduce(idx, reduceMessage, reduce);
+                    createCheckpoint(idx);
+                    hadoopWorker.getShuffleStore().deletePartition(programId, idx);
+                    hadoopWorker.getIntermediateCache().removePartition(programId, idx);
+                }
+                checkPointObj = new CheckpointInfo(0, false, "");
+            }
+            for (PartitionSlice slice : reduceMessage.getSlices()) {
+                if (slice.isFinal() && !computeSplitPartition(slice, reduce)) {
+                    return false;
                 }
-
             }
             return true;
         } catch (IOException e) {
@@ -311,17 +811,100 @@ public class WorkerHandler extends Thread {
         return false;
     }
 
+    /**
+     * The computePipelinedReduce method is used to reduce the partitions assigned to the worker while the first phase is still running.
+     * The files of the partitions are merged into a table per partition as soon as the tasks of the first phase commit them,
+     * and the results are written only when all the tasks have completed.
+     *
+     * @param reduceMessage it is the reduce message to be processed.
+     * @param reduce        it is the reduce operator.
+     * @param first         it is the position of the first partition not processed yet among the partitions of the worker.
+     * @return true if the reduce message was processed successfully, false otherwise.
+     * @throws IOException if an error occurs while reading the partitions or writing the results.
+     */
+    private boolean computePipelinedReduce(ReduceOperation reduceMessage, ReduceOperator reduce, int first) throws IOException {
+        List<Integer> partitions = reduceMessage.getPartitions().subList(first, reduceMessage.getPartitions().size());
+        List<AggregationTable> tables = new ArrayList<>();
+        List<Set<String>> merged = new ArrayList<>();
+        try {
+            for (int i = 0; i < partitions.size(); i++) {
+                tables.add(hadoopWorker.createTable(reduce));
+                merged.add(new HashSet<>());
+            }
+            boolean complete;
+            do {
+                complete = hadoopWorker.isShuffleComplete(programId);
+                int files = 0;
+                for (int i = 0; i < partitions.size(); i++) {
+                    files += hadoopWorker.mergePartials(programId, partitions.get(i), tables.get(i), merged.get(i));
+                }
+                logger.info(Thread.currentThread().getName() + ": Merged " + files + " new files of the partitions " + partitions);
+                if (!complete) {
+                    Thread.sleep(configuration.getPipelinePollInterval());
+                }
+            } while (!complete);
+
+            for (int i = 0; i < partitions.size(); i++) {
+                hadoopWorker.writeResults(programId, "reduce" + identifier, identifier + "/part" + partitions.get(i), tables.get(i));
+                createCheckpoint(partitions.get(i));
+                hadoopWorker.getShuffleStore().deletePartition(programId, partitions.get(i));
+                hadoopWorker.getIntermediateCache().removePartition(programId, partitions.get(i));
+            }
+            return true;
+        } catch (InterruptedException e) {
+            logger.error(Thread.currentThread().getName() + ": Interrupted while waiting for the first phase: " + e.getMessage());
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            for (AggregationTable table : tables) {
+                table.close();
+            }
+        }
+    }
+
+    /**
+     * The computeSplitPartition method is used to reduce a partition split in slices among several workers.
+     * The worker reduces the first slice, then it merges the partial aggregations of the other slices as soon as their workers commit them,
+     * and it writes the reduced values of the partition when all of them have been merged.
+     *
+     * @param slice  it is the first slice of the partition.
+     * @param reduce it is the reduce operator.
+     * @return true if the partition was reduced successfully, false otherwise.
+     * @throws IOException if an error occurs while reading the slices or writing the results.
+     */
+    private boolean computeSplitPartition(PartitionSlice slice, ReduceOperator reduce) throws IOException {
+        AggregationTable table = hadoopWorker.createTable(reduce);
+        try {
+            hadoopWorker.mergeSliceFiles(programId, slice, table);
+            Set<String> merged = new HashSet<>();
+            int files = 0;
+            while (files < slice.slices() - 1) {
+                files += hadoopWorker.mergeSlicePartials(programId, slice, table, merged);
+                logger.info(Thread.currentThread().getName() + ": Merged " + files + "/" + (slice.slices() - 1) + " slices of the partition " + slice.partition());
+                if (files < slice.slices() - 1) {
+                    Thread.sleep(configuration.getPipelinePollInterval());
+                }
+            }
+            hadoopWorker.writeResults(programId, "reduce" + identifier, identifier + "/part" + slice.partition(), table);
+            return true;
+        } catch (InterruptedException e) {
+            logger.error(Thread.currentThread().getName() + ": Interrupted while waiting for the slices: " + e.getMessage());
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            table.close();
+        }
+    }
+
     /**
      * The createCheckpoint method is used to create the checkpoints for a reduce message.
-     * This method is invoked by the HadoopWorker after processing a partition in the second phase.
+     * This method is invoked after the reduced values of a partition have been written in the second phase.
+     * The checkpoint is written before returning, since the shuffle partition stored on the worker is deleted right after it.
      *
-     * @param result  it is the result of the partition.
-     * @param idx     it is the index of the partition processed.
-     * @param numFile it is the number of the last file processed.
-     * @param end     it is a boolean value indicating if the partition is the last one.
+     * @param idx it is the index of the partition processed.
      */
-    public void createCheckpoint(KeyValuePair result, Integer idx, Integer numFile, Boolean end) {
-        checkPointManager.createCheckpoint(programId, "reduce" + identifier + ".csv", new CheckpointInfo(idx, end, String.valueOf(numFile), result), true);
+    private void createCheckpoint(Integer idx) {
+        checkPointManager.createCheckpointAndWait(programId, "reduce" + identifier, new CheckpointInfo(idx, true, ""));
     }
 
 }
\ No newline at end of file
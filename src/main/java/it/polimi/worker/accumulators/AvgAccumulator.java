@@ -0,0 +1,72 @@
+package it.polimi.worker.accumulators;
+
+import it.polimi.worker.models.Accumulator;
+
+/**
+ * The AvgAccumulator class is an accumulator used to compute the average of the values of a key.
+ * The state contains the sum and the count of the values, and the average is truncated to an integer as the values are integers.
+ *
+ * @see Accumulator
+ */
+public class AvgAccumulator implements Accumulator {
+    /**
+     * The stateSize method returns the number of longs used by the state, which stores the sum and the count.
+     *
+     * @return the size of the state.
+     */
+    @Override
+    public int stateSize() {
+        return 2;
+    }
+
+    /**
+     * The init method initializes the state with the identity of the sum and the count.
+     *
+     * @param state  represents the array containing the state.
+     * @param offset represents the index of the first long of the state.
+     */
+    @Override
+    public void init(long[] state, int offset) {
+        state[offset] = 0;
+        state[offset + 1] = 0;
+    }
+
+    /**
+     * The accumulate method updates the sum and the count of the values with a new value.
+     *
+     * @param state  represents the array containing the state.
+     * @param offset represents the index of the first long of the state.
+     * @param value  represents the value to be accumulated.
+     */
+    @Override
+    public void accumulate(long[] state, int offset, int value) {
+        state[offset] += value;
+        state[offset + 1]++;
+    }
+
+    /**
+     * The merge method combines the sum and the count of the values of two partial aggregations.
+     *
+     * @param state       represents the array containing the state to be updated.
+     * @param offset      represents the index of the first long of the state to be updated.
+     * @param other       represents the array containing the state to be merged.
+     * @param otherOffset represents the index of the first long of the state to be merged.
+     */
+    @Override
+    public void merge(long[] state, int offset, long[] other, int otherOffset) {
+        state[offset] += other[otherOffset];
+        state[offset + 1] += other[otherOffset + 1];
+    }
+
+    /**
+     * The finish method returns the average of the values.
+     *
+     * @param state  represents the array containing the state.
+     * @param offset represents the index of the first long of the state.
+     * @return the reduced value.
+     */
+    @Override
+    public int finish(long[] state, int offset) {
+        return (int) (state[offset] / state[offset + 1]);
+    }
+}
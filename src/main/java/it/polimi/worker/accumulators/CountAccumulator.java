@@ -0,0 +1,68 @@
+package it.polimi.worker.accumulators;
+
+import it.polimi.worker.models.Accumulator;
+
+/**
+ * The CountAccumulator class is an accumulator used to count the values of a key.
+ *
+ * @see Accumulator
+ */
+public class CountAccumulator implements Accumulator {
+    /**
+     * The stateSize method returns the number of longs used by the state, which stores the count.
+     *
+     * @return the size of the state.
+     */
+    @Override
+    public int stateSize() {
+        return 1;
+    }
+
+    /**
+     * The init method initializes the state with the identity of the count.
+     *
+     * @param state  represents the array containing the state.
+     * @param offset represents the index of the first long of the state.
+     */
+    @Override
+    public void init(long[] state, int offset) {
+        state[offset] = 0;
+    }
+
+    /**
+     * The accumulate method updates the number of values with a new value.
+     *
+     * @param state  represents the array containing the state.
+     * @param offset represents the index of the first long of the state.
+     * @param value  represents the value to be accumulated.
+     */
+    @Override
+    public void accumulate(long[] state, int offset, int value) {
+        state[offset]++;
+    }
+
+    /**
+     * The merge method combines the number of values of two partial aggregations.
+     *
+     * @param state       represents the array containing the state to be updated.
+     * @param offset      represents the index of the first long of the state to be updated.
+     * @param other       represents the array containing the state to be merged.
+     * @param otherOffset represents the index of the first long of the state to be merged.
+     */
+    @Override
+    public void merge(long[] state, int offset, long[] other, int otherOffset) {
+        state[offset] += other[otherOffset];
+    }
+
+    /**
+     * The finish method returns the number of values.
+     *
+     * @param state  represents the array containing the state.
+     * @param offset represents the index of the first long of the state.
+     * @return the reduced value.
+     */
+    @Override
+    public int finish(long[] state, int offset) {
+        return (int) state[offset];
+    }
+}
@@ -0,0 +1,68 @@
+package it.polimi.worker.accumulators;
+
+import it.polimi.worker.models.Accumulator;
+
+/**
+ * The MaxAccumulator class is an accumulator used to compute the maximum of the values of a key.
+ *
+ * @see Accumulator
+ */
+public class MaxAccumulator implements Accumulator {
+    /**
+     * The stateSize method returns the number of longs used by the state, which stores the maximum.
+     *
+     * @return the size of the state.
+     */
+    @Override
+    public int stateSize() {
+        return 1;
+    }
+
+    /**
+     * The init method initializes the state with the identity of the maximum.
+     *
+     * @param state  represents the array containing the state.
+     * @param offset represents the index of the first long of the state.
+     */
+    @Override
+    public void init(long[] state, int offset) {
+        state[offset] = Integer.MIN_VALUE;
+    }
+
+    /**
+     * The accumulate method updates the maximum value with a new value.
+     *
+     * @param state  represents the array containing the state.
+     * @param offset represents the index of the first long of the state.
+     * @param value  represents the value to be accumulated.
+     */
+    @Override
+    public void accumulate(long[] state, int offset, int value) {
+        state[offset] = Math.max(state[offset], value);
+    }
+
+    /**
+     * The merge method combines the maximum value of two partial aggregations.
+     *
+     * @param state       represents the array containing the state to be updated.
+     * @param offset      represents the index of the first long of the state to be updated.
+     * @param other       represents the array containing the state to be merged.
+     * @param otherOffset represents the index of the first long of the state to be merged.
+     */
+    @Override
+    public void merge(long[] state, int offset, long[] other, int otherOffset) {
+        state[offset] = Math.max(state[offset], other[otherOffset]);
+    }
+
+    /**
+     * The finish method returns the maximum value.
+     *
+     * @param state  represents the array containing the state.
+     * @param offset represents the index of the first long of the state.
+     * @return the reduced value.
+     */
+    @Override
+    public int finish(long[] state, int offset) {
+        return (int) state[offset];
+    }
+}
@@ -0,0 +1,69 @@
+package it.polimi.worker.accumulators;
+
+import it.polimi.worker.models.Accumulator;
+
+/**
+ * The SumAccumulator class is an accumulator used to compute the sum of the values of a key.
+ * The sum is kept in a long and it is truncated to an integer only when the reduced value is computed.
+ *
+ * @see Accumulator
+ */
+public class SumAccumulator implements Accumulator {
+    /**
+     * The stateSize method returns the number of longs used by the state, which stores the sum.
+     *
+     * @return the size of the state.
+     */
+    @Override
+    public int stateSize() {
+        return 1;
+    }
+
+    /**
+     * The init method initializes the state with the identity of the sum.
+     *
+     * @param state  represents the array containing the state.
+     * @param offset represents the index of the first long of the state.
+     */
+    @Override
+    public void init(long[] state, int offset) {
+        state[offset] = 0;
+    }
+
+    /**
+     * The accumulate method updates the sum of the values with a new value.
+     *
+     * @param state  represents the array containing the state.
+     * @param offset represents the index of the first long of the state.
+     * @param value  represents the value to be accumulated.
+     */
+    @Override
+    public void accumulate(long[] state, int offset, int value) {
+        state[offset] += value;
+    }
+
+    /**
+     * The merge method combines the sum of the values of two partial aggregations.
+     *
+     * @param state       represents the array containing the state to be updated.
+     * @param offset      represents the index of the first long of the state to be updated.
+     * @param other       represents the array containing the state to be merged.
+     * @param otherOffset represents the index of the first long of the state to be merged.
+     */
+    @Override
+    public void merge(long[] state, int offset, long[] other, int otherOffset) {
+        state[offset] += other[otherOffset];
+    }
+
+    /**
+     * The finish method returns the sum truncated to an integer.
+     *
+     * @param state  represents the array containing the state.
+     * @param offset represents the index of the first long of the state.
+     * @return the reduced value.
+     */
+    @Override
+    public int finish(long[] state, int offset) {
+        return (int) state[offset];
+    }
+}
@@ -0,0 +1,52 @@
+package it.polimi.worker.models;
+
+/**
+ * The Accumulator interface is used to represent an algebraic reduce function.
+ * The values of a key are aggregated incrementally into a fixed-size state of primitive longs,
+ * which can be merged with the state of another partial aggregation and finally turned into the reduced value.
+ * The state of a key is stored in a long array, starting from the given offset, so that many states can share the same array.
+ */
+public interface Accumulator {
+    /**
+     * The stateSize method returns the number of longs used by the state of a key.
+     *
+     * @return the size of the state.
+     */
+    int stateSize();
+
+    /**
+     * The init method initializes the state of a key before any value is accumulated.
+     *
+     * @param state  represents the array containing the state.
+     * @param offset represents the index of the first long of the state.
+     */
+    void init(long[] state, int offset);
+
+    /**
+     * The accumulate method adds a value to the state of a key.
+     *
+     * @param state  represents the array containing the state.
+     * @param offset represents the index of the first long of the state.
+     * @param value  represents the value to be accumulated.
+     */
+    void accumulate(long[] state, int offset, int value);
+
+    /**
+     * The merge method merges the state of another partial aggregation of the same key into the state.
+     *
+     * @param state       represents the array containing the state to be updated.
+     * @param offset      represents the index of the first long of the state to be updated.
+     * @param other       represents the array containing the state to be merged.
+     * @param otherOffset represents the index of the first long of the state to be merged.
+     */
+    void merge(long[] state, int offset, long[] other, int otherOffset);
+
+    /**
+     * The finish method computes the reduced value from the state of a key.
+     *
+     * @param state  represents the array containing the state.
+     * @param offset represents the index of the first long of the state.
+     * @return the reduced value.
+     */
+    int finish(long[] state, int offset);
+}
@@ -0,0 +1,14 @@
+package it.polimi.worker.models;
+
+/**
+ * The CombinerCheckpoint class is a record used to store the position of a task whose partial aggregations are combined across all its files.
+ * The position is stored together with the snapshot of the combiner, so that the table and the position are always consistent.
+ *
+ * @param file            represents the index of the file being processed.
+ * @param count           represents the count of the next partition of the file.
+ * @param end             represents if the file has been completely processed.
+ * @param remainingString represents the remaining string of the file.
+ */
+public record CombinerCheckpoint(int file, int count, boolean end, String remainingString) {
+
+}
@@ -2,11 +2,12 @@ package it.polimi.worker.models;
 
 /**
  * The Data class is a record used to store the data read from HDFS and the end flag which indicates if there is no more data to read.
- * It contains the data and the end flag.
+ * It contains the buffer where the data has been read, the number of bytes read and the end flag.
  *
- * @param data represents the data.
- * @param end  represents the end flag.
+ * @param data   represents the buffer containing the data.
+ * @param length represents the number of valid bytes in the buffer.
+ * @param end    represents the end flag.
  */
-public record Data(String data, boolean end) {
+public record Data(byte[] data, int length, boolean end) {
 
 }
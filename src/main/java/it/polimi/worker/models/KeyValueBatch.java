@@ -0,0 +1,194 @@
+package it.polimi.worker.models;
+
+import java.util.Arrays;
+
+/**
+ * The KeyValueBatch class is used to store a batch of key-value pairs in a columnar way.
+ * The keys and the values are stored in two parallel arrays of primitive integers, so that the operators can work in place on them.
+ * It contains also an optional selection vector, which stores the indexes of the rows that are still part of the batch after a filter.
+ * When the selection vector is not present, all the rows of the batch are selected.
+ */
+public class KeyValueBatch {
+    private int[] keys;
+    private int[] values;
+    private int[] selection;
+    private int rowCount;
+    private int selectedCount;
+    private boolean selectionActive;
+
+    /**
+     * The constructor creates a new KeyValueBatch.
+     *
+     * @param capacity represents the initial number of rows that the batch can store without growing.
+     */
+    public KeyValueBatch(int capacity) {
+        capacity = Math.max(capacity, 16);
+        this.keys = new int[capacity];
+        this.values = new int[capacity];
+        this.selection = new int[capacity];
+        this.rowCount = 0;
+        this.selectedCount = 0;
+        this.selectionActive = false;
+    }
+
+    /**
+     * The add method adds a new row at the end of the batch, growing the arrays if needed.
+     * The batch must not have an active selection vector.
+     *
+     * @param key   represents the key of the row.
+     * @param value represents the value of the row.
+     */
+    public void add(int key, int value) {
+        if (selectionActive) {
+            compact();
+        }
+        if (rowCount == keys.length) {
+            int capacity = keys.length * 2;
+            keys = Arrays.copyOf(keys, capacity);
+            values = Arrays.copyOf(values, capacity);
+            selection = new int[capacity];
+        }
+        keys[rowCount] = key;
+        values[rowCount] = value;
+        rowCount++;
+        selectedCount = rowCount;
+    }
+
+    /**
+     * The size method returns the number of selected rows of the batch.
+     *
+     * @return the number of selected rows.
+     */
+    public int size() {
+        return selectedCount;
+    }
+
+    /**
+     * The isEmpty method returns if there are no selected rows in the batch.
+     *
+     * @return true if there are no selected rows, false otherwise.
+     */
+    public boolean isEmpty() {
+        return selectedCount == 0;
+    }
+
+    /**
+     * The getRowCount method returns the number of rows physically stored in the arrays, including the ones that are not selected.
+     *
+     * @return the number of rows stored in the arrays.
+     */
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * The row method returns the index in the arrays of the i-th selected row.
+     *
+     * @param i represents the position of the row among the selected ones.
+     * @return the index of the row in the arrays.
+     */
+    public int row(int i) {
+        return selectionActive ? selection[i] : i;
+    }
+
+    /**
+     * The getKey method returns the key of the i-th selected row.
+     *
+     * @param i represents the position of the row among the selected ones.
+     * @return the key of the row.
+     */
+    public int getKey(int i) {
+        return keys[row(i)];
+    }
+
+    /**
+     * The getValue method returns the value of the i-th selected row.
+     *
+     * @param i represents the position of the row among the selected ones.
+     * @return the value of the row.
+     */
+    public int getValue(int i) {
+        return values[row(i)];
+    }
+
+    /**
+     * The getKeys method returns the array of the keys, which is indexed by row.
+     *
+     * @return the array of the keys.
+     */
+    public int[] getKeys() {
+        return keys;
+    }
+
+    /**
+     * The getValues method returns the array of the values, which is indexed by row.
+     *
+     * @return the array of the values.
+     */
+    public int[] getValues() {
+        return values;
+    }
+
+    /**
+     * The getSelection method returns the selection vector, which is meaningful only if the selection is active.
+     * Operators that filter the batch write the indexes of the selected rows in this array and then call setSelectedCount.
+     *
+     * @return the selection vector.
+     */
+    public int[] getSelection() {
+        return selection;
+    }
+
+    /**
+     * The isSelectionActive method returns if the selection vector is used to identify the selected rows.
+     *
+     * @return true if the selection vector is active, false if all the rows are selected.
+     */
+    public boolean isSelectionActive() {
+        return selectionActive;
+    }
+
+    /**
+     * The setSelectedCount method activates the selection vector, which contains the indexes of the first count selected rows.
+     *
+     * @param count represents the number of selected rows.
+     */
+    public void setSelectedCount(int count) {
+        this.selectedCount = count;
+        this.selectionActive = true;
+    }
+
+    /**
+     * The truncate method keeps only the first count rows of the batch and removes the selection vector.
+     * It is used by the operators that compact the selected rows at the beginning of the arrays.
+     *
+     * @param count represents the number of rows to keep.
+     */
+    public void truncate(int count) {
+        this.rowCount = count;
+        this.selectedCount = count;
+        this.selectionActive = false;
+    }
+
+    /**
+     * The compact method moves the selected rows at the beginning of the arrays and removes the selection vector.
+     */
+    public void compact() {
+        if (!selectionActive) {
+            return;
+        }
+        for (int i = 0; i < selectedCount; i++) {
+            int r = selection[i];
+            keys[i] = keys[r];
+            values[i] = values[r];
+        }
+        truncate(selectedCount);
+    }
+
+    /**
+     * The clear method removes all the rows of the batch, keeping the allocated arrays.
+     */
+    public void clear() {
+        truncate(0);
+    }
+}
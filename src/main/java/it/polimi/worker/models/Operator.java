@@ -1,21 +1,18 @@
 package it.polimi.worker.models;
 
-import java.util.List;
-
-import it.polimi.common.KeyValuePair;
-
 /**
  * The Operator interface is used to represent the operator.
  * It contains the execute method that executes the operator.
  *
- * @see KeyValuePair
+ * @see KeyValueBatch
  */
 public interface Operator {
     /**
      * The execute method executes the operator.
+     * The operator works in place on the batch, without allocating a new one.
      *
      * @param input represents the input data on which the operator is executed.
-     * @return the output data after the operator is executed.
+     * @return the output data after the operator is executed, which is the same batch received as input.
      */
-    List<KeyValuePair> execute(List<KeyValuePair> input);
-}
\ No newline at end of file
+    KeyValueBatch execute(KeyValueBatch input);
+}
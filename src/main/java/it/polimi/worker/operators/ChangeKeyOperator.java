@@ -1,10 +1,8 @@
 package it.polimi.worker.operators;
 
-import java.util.ArrayList;
-import java.util.List;
 import java.util.function.IntUnaryOperator;
 
-import it.polimi.common.KeyValuePair;
+import it.polimi.worker.models.KeyValueBatch;
 import it.polimi.worker.models.Operator;
 
 /**
@@ -25,24 +23,38 @@ public class ChangeKeyOperator implements Operator {
         this.function = function;
     }
 
+    /**
+     * The getFunction method returns the function that computes the new key from the value.
+     *
+     * @return the function that changes the key.
+     */
+    public IntUnaryOperator getFunction() {
+        return function;
+    }
+
     /**
      * The execute method executes the operator.
-     * It applies the key transformation function to change the key.
+     * It applies the key transformation function to the value and overwrites the key of the selected key-value pairs in place.
      *
      * @param input represents the input data on which the operator is executed.
      * @return the key-value pairs with the changed key.
      */
     @Override
-    public List<KeyValuePair> execute(List<KeyValuePair> input) {
-        List<KeyValuePair> output = new ArrayList<>();
-
-        for (KeyValuePair pair : input) {
-            // Apply the key transformation function to change the key
-            int transformedKey = function.applyAsInt(pair.value());
-            KeyValuePair transformedPair = new KeyValuePair(transformedKey, pair.value());
-            output.add(transformedPair);
+    public KeyValueBatch execute(KeyValueBatch input) {
+        int[] keys = input.getKeys();
+        int[] values = input.getValues();
+        int size = input.size();
+        if (input.isSelectionActive()) {
+            int[] selection = input.getSelection();
+            for (int i = 0; i < size; i++) {
+                int r = selection[i];
+                keys[r] = function.applyAsInt(values[r]);
+            }
+        } else {
+            for (int r = 0; r < size; r++) {
+                keys[r] = function.applyAsInt(values[r]);
+            }
         }
-
-        return output;
+        return input;
     }
 }
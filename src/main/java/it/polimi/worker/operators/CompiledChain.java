@@ -0,0 +1,68 @@
+package it.polimi.worker.operators;
+
+import java.lang.constant.ConstantDescs;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+
+import it.polimi.worker.models.KeyValueBatch;
+import it.polimi.worker.models.Operator;
+
+/**
+ * The CompiledChain class is the template of the classes generated at runtime to execute a chain of map, filter and changekey operators.
+ * The class is never used as it is: the ChainCompiler defines a new hidden class from its bytecode for each distinct chain,
+ * passing the method handles of the chain as class data.
+ * Since the handles are stored in static final fields of the hidden class, the JIT compiler treats them as constants
+ * and inlines the whole chain, with the constants of the functions folded in, inside the loop.
+ *
+ * @see Operator
+ */
+public final class CompiledChain implements Operator {
+    private static final MethodHandle FILTER;
+    private static final MethodHandle KEY;
+    private static final MethodHandle VALUE;
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            FILTER = MethodHandles.classDataAt(lookup, ConstantDescs.DEFAULT_NAME, MethodHandle.class, 0);
+            KEY = MethodHandles.classDataAt(lookup, ConstantDescs.DEFAULT_NAME, MethodHandle.class, 1);
+            VALUE = MethodHandles.classDataAt(lookup, ConstantDescs.DEFAULT_NAME, MethodHandle.class, 2);
+        } catch (IllegalAccessException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /**
+     * The execute method executes the operator.
+     * For each selected key-value pair it evaluates the filters of the chain, and if they are satisfied it computes
+     * the new key and the new value and writes them at the beginning of the batch.
+     *
+     * @param input represents the input data on which the operator is executed.
+     * @return the key-value pairs that survived the chain, with the transformed keys and values.
+     */
+    @Override
+    public KeyValueBatch execute(KeyValueBatch input) {
+        int[] keys = input.getKeys();
+        int[] values = input.getValues();
+        int size = input.size();
+        int output = 0;
+
+        try {
+            for (int i = 0; i < size; i++) {
+                int r = input.row(i);
+                int value = values[r];
+                if ((boolean) FILTER.invokeExact(value)) {
+                    keys[output] = (int) KEY.invokeExact(keys[r], value);
+                    values[output] = (int) VALUE.invokeExact(value);
+                    output++;
+                }
+            }
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new IllegalStateException(t);
+        }
+        input.truncate(output);
+        return input;
+    }
+}
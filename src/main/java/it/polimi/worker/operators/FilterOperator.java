@@ -1,10 +1,8 @@
 package it.polimi.worker.operators;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.function.Predicate;
+import java.util.function.IntPredicate;
 
-import it.polimi.common.KeyValuePair;
+import it.polimi.worker.models.KeyValueBatch;
 import it.polimi.worker.models.Operator;
 
 /**
@@ -14,33 +12,55 @@ import it.polimi.worker.models.Operator;
  * @see Operator
  */
 public class FilterOperator implements Operator {
-    private final Predicate<Integer> filterFunction;
+    private final IntPredicate filterFunction;
 
     /**
      * The constructor creates a new FilterOperator.
      *
      * @param filterFunction represents the function that filters the key-value pairs.
      */
-    public FilterOperator(Predicate<Integer> filterFunction) {
+    public FilterOperator(IntPredicate filterFunction) {
         this.filterFunction = filterFunction;
     }
 
+    /**
+     * The getFilterFunction method returns the function that filters the key-value pairs.
+     *
+     * @return the function that filters the key-value pairs.
+     */
+    public IntPredicate getFilterFunction() {
+        return filterFunction;
+    }
+
     /**
      * The execute method executes the operator.
-     * It filters the key-value pairs that satisfy the filter function.
+     * It keeps the key-value pairs that satisfy the filter function by updating the selection vector of the batch,
+     * so that the rows are not moved.
      *
      * @param input represents the input data on which the operator is executed.
      * @return the key-value pairs that satisfy the filter function.
      */
     @Override
-    public List<KeyValuePair> execute(List<KeyValuePair> input) {
-        List<KeyValuePair> output = new ArrayList<>();
-
-        for (KeyValuePair pair : input) {
-            if (filterFunction.test(pair.value())) {
-                output.add(pair);
+    public KeyValueBatch execute(KeyValueBatch input) {
+        int[] values = input.getValues();
+        int[] selection = input.getSelection();
+        int size = input.size();
+        int selected = 0;
+        if (input.isSelectionActive()) {
+            for (int i = 0; i < size; i++) {
+                int r = selection[i];
+                if (filterFunction.test(values[r])) {
+                    selection[selected++] = r;
+                }
+            }
+        } else {
+            for (int r = 0; r < size; r++) {
+                if (filterFunction.test(values[r])) {
+                    selection[selected++] = r;
+                }
             }
         }
-        return output;
+        input.setSelectedCount(selected);
+        return input;
     }
 }
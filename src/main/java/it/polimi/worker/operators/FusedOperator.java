@@ -0,0 +1,93 @@
+package it.polimi.worker.operators;
+
+import java.util.List;
+import java.util.function.IntPredicate;
+import java.util.function.IntUnaryOperator;
+
+import it.polimi.worker.models.KeyValueBatch;
+import it.polimi.worker.models.Operator;
+
+/**
+ * The FusedOperator class is an operator used to execute a chain of consecutive map, filter and changekey operators in a single pass.
+ * Each key-value pair goes through the whole chain before the next one is read, a filter drops the pair as soon as it is not satisfied
+ * and the surviving pairs are compacted at the beginning of the batch, so that no intermediate batch is built.
+ *
+ * @see MapOperator
+ * @see FilterOperator
+ * @see ChangeKeyOperator
+ */
+public class FusedOperator implements Operator {
+    private static final byte MAP = 0;
+    private static final byte FILTER = 1;
+    private static final byte CHANGEKEY = 2;
+    private final byte[] kinds;
+    private final IntUnaryOperator[] functions;
+    private final IntPredicate[] predicates;
+
+    /**
+     * The constructor creates a new FusedOperator.
+     *
+     * @param stages represents the chain of operators to be fused, in the order in which they are executed.
+     * @throws IllegalArgumentException if an operator of the chain is not a map, filter or changekey operator.
+     */
+    public FusedOperator(List<Operator> stages) {
+        this.kinds = new byte[stages.size()];
+        this.functions = new IntUnaryOperator[stages.size()];
+        this.predicates = new IntPredicate[stages.size()];
+        for (int s = 0; s < stages.size(); s++) {
+            switch (stages.get(s)) {
+                case MapOperator map -> {
+                    kinds[s] = MAP;
+                    functions[s] = map.getFunction();
+                }
+                case FilterOperator filter -> {
+                    kinds[s] = FILTER;
+                    predicates[s] = filter.getFilterFunction();
+                }
+                case ChangeKeyOperator changeKey -> {
+                    kinds[s] = CHANGEKEY;
+                    functions[s] = changeKey.getFunction();
+                }
+                default -> throw new IllegalArgumentException("Operator cannot be fused: " + stages.get(s).getClass().getSimpleName());
+            }
+        }
+    }
+
+    /**
+     * The execute method executes the operator.
+     * It applies the whole chain to each selected key-value pair and writes the surviving pairs at the beginning of the batch.
+     *
+     * @param input represents the input data on which the operator is executed.
+     * @return the key-value pairs that survived the chain, with the transformed keys and values.
+     */
+    @Override
+    public KeyValueBatch execute(KeyValueBatch input) {
+        int[] keys = input.getKeys();
+        int[] values = input.getValues();
+        int size = input.size();
+        int output = 0;
+
+        tuples:
+        for (int i = 0; i < size; i++) {
+            int r = input.row(i);
+            int key = keys[r];
+            int value = values[r];
+            for (int s = 0; s < kinds.length; s++) {
+                switch (kinds[s]) {
+                    case MAP -> value = functions[s].applyAsInt(value);
+                    case CHANGEKEY -> key = functions[s].applyAsInt(value);
+                    default -> {
+                        if (!predicates[s].test(value)) {
+                            continue tuples;
+                        }
+                    }
+                }
+            }
+            keys[output] = key;
+            values[output] = value;
+            output++;
+        }
+        input.truncate(output);
+        return input;
+    }
+}
@@ -1,10 +1,8 @@
 package it.polimi.worker.operators;
 
-import java.util.List;
 import java.util.function.IntUnaryOperator;
-import java.util.stream.Collectors;
 
-import it.polimi.common.KeyValuePair;
+import it.polimi.worker.models.KeyValueBatch;
 import it.polimi.worker.models.Operator;
 
 /**
@@ -25,17 +23,37 @@ public class MapOperator implements Operator {
         this.function = function;
     }
 
+    /**
+     * The getFunction method returns the function that is applied to the value.
+     *
+     * @return the function that is applied to the value.
+     */
+    public IntUnaryOperator getFunction() {
+        return function;
+    }
+
     /**
      * The execute method executes the operator.
-     * It applies the function to the value of the key-value pair.
+     * It applies the function to the value of the selected key-value pairs, overwriting the values in place.
      *
      * @param input represents the input data on which the operator is executed.
      * @return the key-value pairs with the transformed value.
      */
     @Override
-    public List<KeyValuePair> execute(List<KeyValuePair> input) {
-        return input.stream()
-                .map(kv -> new KeyValuePair(kv.key(), function.applyAsInt(kv.value())))
-                .collect(Collectors.toList());
+    public KeyValueBatch execute(KeyValueBatch input) {
+        int[] values = input.getValues();
+        int size = input.size();
+        if (input.isSelectionActive()) {
+            int[] selection = input.getSelection();
+            for (int i = 0; i < size; i++) {
+                int r = selection[i];
+                values[r] = function.applyAsInt(values[r]);
+            }
+        } else {
+            for (int r = 0; r < size; r++) {
+                values[r] = function.applyAsInt(values[r]);
+            }
+        }
+        return input;
     }
-}
\ No newline at end of file
+}
@@ -1,57 +1,48 @@
 package it.polimi.worker.operators;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
-import java.util.HashMap;
-import java.util.function.Function;
-
-import it.polimi.common.KeyValuePair;
+import it.polimi.worker.models.Accumulator;
+import it.polimi.worker.models.KeyValueBatch;
 import it.polimi.worker.models.Operator;
 
 /**
  * The ReduceOperator class is an operator used to reduce the values of the key-value pairs with the same key.
- * It contains the function that reduces the values.
+ * It contains the accumulator that reduces the values incrementally.
+ * The operator is not executed on the batches: the workers reduce in the aggregation tables created by the HadoopWorker,
+ * which share the memory budget and the spill directory of their configuration.
  *
  * @see Operator
+ * @see Accumulator
  */
 public class ReduceOperator implements Operator {
-    private final Function<List<Integer>, Integer> reduceFunction;
+    private final Accumulator accumulator;
 
     /**
      * The constructor creates a new ReduceOperator.
      *
-     * @param reduceFunction represents the function that reduces the values.
+     * @param accumulator represents the accumulator that reduces the values.
      */
-    public ReduceOperator(Function<List<Integer>, Integer> reduceFunction) {
-        this.reduceFunction = reduceFunction;
+    public ReduceOperator(Accumulator accumulator) {
+        this.accumulator = accumulator;
     }
 
     /**
-     * The execute method executes the operator.
-     * It reduces the values of the key-value pairs with the same key.
+     * The getAccumulator method returns the accumulator that reduces the values.
      *
-     * @param input represents the input data on which the operator is executed.
-     * @return the key-value pairs with the reduced values.
+     * @return the accumulator.
      */
-    @Override
-    public List<KeyValuePair> execute(List<KeyValuePair> input) {
-        Map<Integer, List<Integer>> groupedValues = new HashMap<>();
-
-        for (KeyValuePair pair : input) {
-            groupedValues.computeIfAbsent(pair.key(), k -> new ArrayList<>()).add(pair.value());
-        }
-
-        List<KeyValuePair> output = new ArrayList<>();
-
-        for (Map.Entry<Integer, List<Integer>> entry : groupedValues.entrySet()) {
-            int key = entry.getKey();
-            List<Integer> values = entry.getValue();
-
-            int reducedValue = reduceFunction.apply(values);
-            output.add(new KeyValuePair(key, reducedValue));
-        }
+    public Accumulator getAccumulator() {
+        return accumulator;
+    }
 
-        return output;
+    /**
+     * The execute method is not supported, since the values are reduced in the aggregation tables of the worker.
+     *
+     * @param input represents the input data.
+     * @return nothing, it always throws.
+     * @throws UnsupportedOperationException always.
+     */
+    @Override
+    public KeyValueBatch execute(KeyValueBatch input) {
+        throw new UnsupportedOperationException("The reduce is computed in the aggregation tables of the worker");
     }
 }
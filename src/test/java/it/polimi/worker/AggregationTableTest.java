@@ -0,0 +1,206 @@
+package it.polimi.worker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import it.polimi.worker.accumulators.AvgAccumulator;
+import it.polimi.worker.accumulators.MinAccumulator;
+import it.polimi.worker.accumulators.SumAccumulator;
+import it.polimi.worker.models.Accumulator;
+import it.polimi.worker.models.KeyValueBatch;
+
+/**
+ * The AggregationTableTest class tests that the aggregation tables compute the same results as an aggregation on the heap,
+ * whether they keep the keys in memory, spill them to sorted runs or compact the runs, and that they give their memory back.
+ */
+public class AggregationTableTest {
+    private Path spillDirectory;
+
+    @Before
+    public void createSpillDirectory() throws IOException {
+        spillDirectory = Files.createTempDirectory("aggregation-table");
+    }
+
+    @After
+    public void deleteSpillDirectory() throws IOException {
+        try (Stream<Path> files = Files.walk(spillDirectory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    /**
+     * The reference method aggregates key-value pairs on the heap with an accumulator.
+     *
+     * @param accumulator represents the accumulator.
+     * @param keys        represents the keys.
+     * @param values      represents the values.
+     * @return the reduced value of every key.
+     */
+    private static Map<Integer, Integer> reference(Accumulator accumulator, int[] keys, int[] values) {
+        Map<Integer, long[]> states = new HashMap<>();
+        for (int i = 0; i < keys.length; i++) {
+            long[] state = states.computeIfAbsent(keys[i], k -> {
+                long[] s = new long[accumulator.stateSize()];
+                accumulator.init(s, 0);
+                return s;
+            });
+            accumulator.accumulate(state, 0, values[i]);
+        }
+        Map<Integer, Integer> results = new TreeMap<>();
+        states.forEach((key, state) -> results.put(key, accumulator.finish(state, 0)));
+        return results;
+    }
+
+    /**
+     * The results method reads the reduced values of a table, checking that the keys are visited once.
+     *
+     * @param table represents the table.
+     * @return the reduced value of every key.
+     * @throws IOException if the spilled runs cannot be read.
+     */
+    private static Map<Integer, Integer> results(AggregationTable table) throws IOException {
+        KeyValueBatch batch = new KeyValueBatch(1024);
+        table.finish(batch);
+        Map<Integer, Integer> results = new TreeMap<>();
+        for (int i = 0; i < batch.size(); i++) {
+            assertEquals(null, results.put(batch.getKey(i), batch.getValue(i)));
+        }
+        return results;
+    }
+
+    /**
+     * The spilledRuns method counts the runs in the spill directory.
+     *
+     * @return the number of runs.
+     * @throws IOException if the directory cannot be listed.
+     */
+    private long spilledRuns() throws IOException {
+        try (Stream<Path> files = Files.list(spillDirectory)) {
+            return files.count();
+        }
+    }
+
+    @Test
+    public void matchesTheReferenceInMemory() throws IOException {
+        Random random = new Random(1);
+        int[] keys = random.ints(20000, -500, 500).toArray();
+        int[] values = random.ints(20000, -1000, 1000).toArray();
+        for (Accumulator accumulator : List.of(new SumAccumulator(), new MinAccumulator(), new AvgAccumulator())) {
+            AggregationTable table = new AggregationTable(accumulator, new AggregationMemory(1 << 20), spillDirectory.toString());
+            try {
+                for (int i = 0; i < keys.length; i++) {
+                    table.accumulate(keys[i], values[i]);
+                }
+                assertEquals(0, table.getSpillCount());
+                assertEquals(reference(accumulator, keys, values), results(table));
+            } finally {
+                table.close();
+            }
+        }
+    }
+
+    @Test
+    public void matchesTheReferenceAfterSpillingAndCompactingTheRuns() throws IOException {
+        Random random = new Random(2);
+        int[] keys = random.ints(50000, Integer.MIN_VALUE, Integer.MAX_VALUE).map(k -> k % 4000).toArray();
+        int[] values = random.ints(50000).toArray();
+        Accumulator accumulator = new AvgAccumulator();
+        AggregationTable table = new AggregationTable(accumulator, new AggregationMemory(1024), spillDirectory.toString());
+        try {
+            for (int i = 0; i < keys.length; i++) {
+                table.accumulate(keys[i], values[i]);
+            }
+            assertTrue(table.getSpillCount() > 0);
+            assertTrue(spilledRuns() <= 64);
+            List<Integer> visited = new ArrayList<>();
+            table.forEach((key, state, offset) -> visited.add(key));
+            List<Integer> sorted = new ArrayList<>(visited);
+            sorted.sort(null);
+            assertEquals(sorted, visited);
+            assertEquals(reference(accumulator, keys, values), results(table));
+        } finally {
+            table.close();
+        }
+        assertEquals(0, spilledRuns());
+    }
+
+    @Test
+    public void mergesPartialAggregations() throws IOException {
+        Random random = new Random(3);
+        int[] keys = random.ints(30000, 0, 3000).toArray();
+        int[] values = random.ints(30000, 0, 100).toArray();
+        Accumulator accumulator = new AvgAccumulator();
+        AggregationMemory memory = new AggregationMemory(2048);
+        AggregationTable merged = new AggregationTable(accumulator, memory, spillDirectory.toString());
+        try {
+            for (int part = 0; part < 3; part++) {
+                AggregationTable partial = new AggregationTable(accumulator, memory, spillDirectory.toString());
+                try {
+                    for (int i = part; i < keys.length; i += 3) {
+                        partial.accumulate(keys[i], values[i]);
+                    }
+                    partial.forEach(merged::merge);
+                } finally {
+                    partial.close();
+                }
+            }
+            assertTrue(merged.getSpillCount() > 0);
+            assertEquals(reference(accumulator, keys, values), results(merged));
+        } finally {
+            merged.close();
+        }
+    }
+
+    @Test
+    public void growsToItsShareBeforeSpilling() throws IOException {
+        AggregationTable table = new AggregationTable(new SumAccumulator(), new AggregationMemory(65536), spillDirectory.toString());
+        try {
+            for (int key = 0; key < 3000; key++) {
+                table.accumulate(key, 1);
+            }
+            assertEquals(1, table.getSpillCount());
+            assertEquals(3000 - 1024, table.size());
+        } finally {
+            table.close();
+        }
+    }
+
+    @Test
+    public void givesTheMemoryBackWhenClosed() throws IOException {
+        AggregationMemory memory = new AggregationMemory(65536);
+        List<AggregationTable> tables = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            tables.add(new AggregationTable(new SumAccumulator(), memory, spillDirectory.toString()));
+        }
+        assertEquals(65536 / 4, memory.getShare());
+        for (AggregationTable table : tables) {
+            for (int key = 0; key < 5000; key++) {
+                table.accumulate(key, key);
+            }
+        }
+        for (AggregationTable table : tables) {
+            table.close();
+        }
+        assertEquals(65536, memory.getShare());
+        assertTrue(memory.reserve(65536));
+        assertEquals(0, spilledRuns());
+    }
+}
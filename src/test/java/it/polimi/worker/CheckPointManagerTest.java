@@ -0,0 +1,112 @@
+package it.polimi.worker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import org.junit.After;
+import org.junit.Test;
+
+import it.polimi.worker.accumulators.SumAccumulator;
+import it.polimi.worker.models.CheckpointInfo;
+
+/**
+ * The CheckPointManagerTest class tests the checkpoints of the splits whose values are aggregated in a table,
+ * which are stored as a position in the log and a snapshot of the table next to it.
+ */
+public class CheckPointManagerTest {
+    private static final String PROGRAM = "test" + ProcessHandle.current().pid();
+    private static final String SPLIT = "/input/file.csv_0";
+    private final WorkerConfiguration configuration = new WorkerConfiguration(new Properties());
+    private final CheckPointManager manager = new CheckPointManager(configuration, null);
+
+    @After
+    public void deleteCheckpoints() {
+        manager.deleteCheckpoints(PROGRAM);
+    }
+
+    /**
+     * The newTable method creates a table whose memory is small enough to spill after a few hundred keys.
+     *
+     * @return the table.
+     */
+    private static AggregationTable newTable() {
+        return new AggregationTable(new SumAccumulator(), new AggregationMemory(4096), System.getProperty("java.io.tmpdir"));
+    }
+
+    /**
+     * The contentOf method reads all the entries of a table.
+     *
+     * @param table represents the table.
+     * @return the state of every key.
+     * @throws IOException if the spilled runs cannot be read.
+     */
+    private static Map<Integer, Long> contentOf(AggregationTable table) throws IOException {
+        Map<Integer, Long> content = new TreeMap<>();
+        table.forEach((key, state, offset) -> content.put(key, state[offset]));
+        return content;
+    }
+
+    @Test
+    public void restoresTheTableAndThePositionFromTheSnapshot() throws IOException {
+        AggregationTable table = newTable();
+        AggregationTable restored = newTable();
+        try {
+            for (int key = 0; key < 1000; key++) {
+                table.accumulate(key, key * 3);
+            }
+            assertTrue(table.getSpillCount() > 0);
+            manager.createTableCheckpoint(PROGRAM, SPLIT, 0, new CheckpointInfo(7, false, "12,"), table);
+            manager.closeLogs();
+
+            CheckPointManager resumed = new CheckPointManager(configuration, null);
+            CheckpointInfo checkpoint = resumed.getTableCheckpoint(PROGRAM, SPLIT, restored);
+            assertEquals(7, checkpoint.count());
+            assertFalse(checkpoint.end());
+            assertEquals("12,", checkpoint.remainingString());
+            assertEquals(contentOf(table), contentOf(restored));
+            resumed.closeLogs();
+        } finally {
+            table.close();
+            restored.close();
+        }
+    }
+
+    @Test
+    public void leavesTheTableEmptyAtTheEndOfTheSplit() throws IOException {
+        AggregationTable table = newTable();
+        AggregationTable restored = newTable();
+        try {
+            table.accumulate(1, 1);
+            manager.createTableCheckpoint(PROGRAM, SPLIT, 0, new CheckpointInfo(3, false, ""), table);
+            manager.createTableCheckpoint(PROGRAM, SPLIT, 0, new CheckpointInfo(4, true, ""), table);
+            manager.closeLogs();
+
+            CheckpointInfo checkpoint = new CheckPointManager(configuration, null).getTableCheckpoint(PROGRAM, SPLIT, restored);
+            assertTrue(checkpoint.end());
+            assertEquals(4, checkpoint.count());
+            assertTrue(restored.isEmpty());
+        } finally {
+            table.close();
+            restored.close();
+        }
+    }
+
+    @Test
+    public void startsFromTheBeginningWithoutCheckpoints() {
+        AggregationTable table = newTable();
+        try {
+            CheckpointInfo checkpoint = manager.getTableCheckpoint(PROGRAM, SPLIT, table);
+            assertEquals(0, checkpoint.count());
+            assertFalse(checkpoint.end());
+            assertTrue(table.isEmpty());
+        } finally {
+            table.close();
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package it.polimi.worker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import it.polimi.worker.models.CheckpointInfo;
+
+/**
+ * The CheckpointLogTest class tests that a checkpoint log recovers its last valid record when its tail is torn or corrupted,
+ * both from the trailer and by scanning the records, that it truncates the invalid tail, and that it keeps the last record when it rotates.
+ */
+public class CheckpointLogTest {
+    private static final List<CheckpointInfo> CHECKPOINTS = List.of(
+            new CheckpointInfo(1, false, ""),
+            new CheckpointInfo(2, false, "12,"),
+            new CheckpointInfo(3, false, "-45"));
+    private Path directory;
+    private Path path;
+
+    @Before
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("checkpoint-log");
+        path = directory.resolve("file.csv_0.log");
+    }
+
+    @After
+    public void deleteDirectory() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    /**
+     * The write method appends the checkpoints to a new log and closes it.
+     *
+     * @return the size of the log.
+     * @throws IOException if the log cannot be written.
+     */
+    private long write() throws IOException {
+        try (CheckpointLog log = CheckpointLog.open(path, CheckpointLog.Sync.ALWAYS, 0)) {
+            for (CheckpointInfo checkpoint : CHECKPOINTS) {
+                log.append(checkpoint);
+            }
+        }
+        return Files.size(path);
+    }
+
+    /**
+     * The corrupt method flips the bits of a byte of the log.
+     *
+     * @param position represents the position of the byte.
+     * @throws IOException if the log cannot be modified.
+     */
+    private void corrupt(long position) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+            file.seek(position);
+            int value = file.read();
+            file.seek(position);
+            file.write(~value);
+        }
+    }
+
+    /**
+     * The assertRecoversTheSecondCheckpoint method checks that the log resumes from the second checkpoint, that opening it removes the invalid tail,
+     * and that a checkpoint appended afterwards is the last one.
+     *
+     * @param valid represents the size of the first two records.
+     * @throws IOException if the log cannot be read or written.
+     */
+    private void assertRecoversTheSecondCheckpoint(long valid) throws IOException {
+        assertEquals(CHECKPOINTS.get(1), CheckpointLog.readLast(path));
+        try (CheckpointLog log = CheckpointLog.open(path, CheckpointLog.Sync.NONE, 0)) {
+            assertEquals(CHECKPOINTS.get(1), log.getLast());
+            assertEquals(valid, Files.size(path));
+            log.append(new CheckpointInfo(4, true, ""));
+        }
+        assertEquals(new CheckpointInfo(4, true, ""), CheckpointLog.readLast(path));
+    }
+
+    @Test
+    public void readsTheLastRecord() throws IOException {
+        assertNull(CheckpointLog.readLast(path));
+        long size = write();
+        long expected = 0;
+        for (CheckpointInfo checkpoint : CHECKPOINTS) {
+            expected += CheckpointLog.toRecord(checkpoint).length;
+        }
+        assertEquals(expected, size);
+        assertEquals(CHECKPOINTS.get(2), CheckpointLog.readLast(path));
+        try (CheckpointLog log = CheckpointLog.open(path, CheckpointLog.Sync.NONE, 0)) {
+            assertEquals(CHECKPOINTS.get(2), log.getLast());
+        }
+    }
+
+    @Test
+    public void recoversFromATruncatedRecord() throws IOException {
+        long size = write();
+        long valid = size - CheckpointLog.toRecord(CHECKPOINTS.get(2)).length;
+        for (long cut = size - 1; cut > valid; cut -= 3) {
+            rewrite(size);
+            try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+                file.setLength(cut);
+            }
+            assertRecoversTheSecondCheckpoint(valid);
+        }
+    }
+
+    @Test
+    public void recoversFromACorruptedPayload() throws IOException {
+        long size = write();
+        long valid = size - CheckpointLog.toRecord(CHECKPOINTS.get(2)).length;
+        corrupt(valid + CheckpointLog.HEADER_SIZE + 1);
+        assertRecoversTheSecondCheckpoint(valid);
+    }
+
+    @Test
+    public void recoversFromACorruptedChecksum() throws IOException {
+        long size = write();
+        long valid = size - CheckpointLog.toRecord(CHECKPOINTS.get(2)).length;
+        corrupt(valid + 2 * Integer.BYTES);
+        assertRecoversTheSecondCheckpoint(valid);
+    }
+
+    @Test
+    public void scansTheRecordsWhenTheTrailerIsCorrupted() throws IOException {
+        long size = write();
+        long valid = size - CheckpointLog.toRecord(CHECKPOINTS.get(2)).length;
+        corrupt(size - 1);
+        assertRecoversTheSecondCheckpoint(valid);
+    }
+
+    @Test
+    public void scansTheRecordsAndTruncatesTheGarbageAfterThem() throws IOException {
+        long size = write();
+        Files.write(path, new byte[]{0x43, 0x4B, 0x50, 0x54, 0, 0, 0, 9, 1, 2, 3}, StandardOpenOption.APPEND);
+        assertEquals(CHECKPOINTS.get(2), CheckpointLog.readLast(path));
+        try (CheckpointLog log = CheckpointLog.open(path, CheckpointLog.Sync.NONE, 0)) {
+            assertEquals(CHECKPOINTS.get(2), log.getLast());
+            assertEquals(size, Files.size(path));
+        }
+    }
+
+    @Test
+    public void keepsTheLastRecordWhenItRotates() throws IOException {
+        String remaining = "1".repeat(100000);
+        CheckpointInfo last = null;
+        try (CheckpointLog log = CheckpointLog.open(path, CheckpointLog.Sync.GROUP, 1000)) {
+            for (int count = 0; count < 100; count++) {
+                last = new CheckpointInfo(count, false, remaining + count);
+                log.append(last);
+                assertTrue(Files.size(path) <= CheckpointLog.MAX_LOG_SIZE);
+                assertEquals(last, log.getLast());
+            }
+        }
+        assertTrue(Files.size(path) < CheckpointLog.MAX_LOG_SIZE);
+        assertEquals(last, CheckpointLog.readLast(path));
+        try (CheckpointLog log = CheckpointLog.open(path, CheckpointLog.Sync.NONE, 0)) {
+            assertEquals(last, log.getLast());
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            assertEquals(1, files.count());
+        }
+    }
+
+    /**
+     * The rewrite method writes the log again, when a test needs it again after modifying it.
+     *
+     * @param size represents the expected size of the log.
+     * @throws IOException if the log cannot be written.
+     */
+    private void rewrite(long size) throws IOException {
+        Files.deleteIfExists(path);
+        assertEquals(size, write());
+    }
+}
@@ -0,0 +1,219 @@
+package it.polimi.worker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.junit.Test;
+
+import it.polimi.worker.accumulators.AvgAccumulator;
+import it.polimi.worker.models.KeyValueBatch;
+
+/**
+ * The CsvCodecTest class tests the parsing and the formatting of the CSV lines on byte buffers,
+ * and the alignment of the splits of a file to the start of its lines.
+ */
+public class CsvCodecTest {
+
+    /**
+     * The decode method decodes a whole file given as a string, as a single last chunk.
+     *
+     * @param text represents the content of the file.
+     * @return the decoded key-value pairs.
+     * @throws IOException if a line is not valid.
+     */
+    private static KeyValueBatch decode(String text) throws IOException {
+        byte[] data = text.getBytes(StandardCharsets.US_ASCII);
+        KeyValueBatch batch = new KeyValueBatch(16);
+        new CsvCodec(1024).decode(data, data.length, true, batch);
+        return batch;
+    }
+
+    /**
+     * The assertInvalid method checks that a line is rejected by the parser.
+     *
+     * @param line represents the line.
+     */
+    private static void assertInvalid(String line) {
+        try {
+            decode(line + "\n");
+            fail("Line accepted: " + line);
+        } catch (IOException e) {
+            assertTrue(e.getMessage().startsWith("Invalid line in CSV"));
+        }
+    }
+
+    @Test
+    public void parsesSignsAndWhitespaces() throws IOException {
+        KeyValueBatch batch = decode("1,2\n -3 , +4 \r\n\n   \n0,-0\n");
+        assertEquals(3, batch.size());
+        assertEquals(1, batch.getKey(0));
+        assertEquals(2, batch.getValue(0));
+        assertEquals(-3, batch.getKey(1));
+        assertEquals(4, batch.getValue(1));
+        assertEquals(0, batch.getKey(2));
+        assertEquals(0, batch.getValue(2));
+    }
+
+    @Test
+    public void parsesIntegerBounds() throws IOException {
+        KeyValueBatch batch = decode("2147483647,-2147483648\n-2147483648,2147483647");
+        assertEquals(2, batch.size());
+        assertEquals(Integer.MAX_VALUE, batch.getKey(0));
+        assertEquals(Integer.MIN_VALUE, batch.getValue(0));
+        assertEquals(Integer.MIN_VALUE, batch.getKey(1));
+        assertEquals(Integer.MAX_VALUE, batch.getValue(1));
+    }
+
+    @Test
+    public void rejectsOverflowAndMalformedLines() {
+        assertInvalid("2147483648,1");
+        assertInvalid("1,-2147483649");
+        assertInvalid("99999999999999999999,1");
+        assertInvalid("1");
+        assertInvalid("1,");
+        assertInvalid(",1");
+        assertInvalid("1,2,3");
+        assertInvalid("1;2");
+        assertInvalid("a,1");
+        assertInvalid("1,2x");
+        assertInvalid("-,1");
+        assertInvalid("1 2,3");
+    }
+
+    @Test
+    public void completesLinesAcrossChunks() throws IOException {
+        String text = "10,20\n-30,40\n123456789,-987654321\n7,8";
+        byte[] data = text.getBytes(StandardCharsets.US_ASCII);
+        for (int size = 1; size <= data.length; size++) {
+            CsvCodec codec = new CsvCodec(1024);
+            KeyValueBatch batch = new KeyValueBatch(16);
+            for (int from = 0; from < data.length; from += size) {
+                int length = Math.min(size, data.length - from);
+                byte[] chunk = new byte[length];
+                System.arraycopy(data, from, chunk, 0, length);
+                codec.decode(chunk, length, from + length == data.length, batch);
+            }
+            assertFalse(codec.hasPartialLine());
+            assertEquals(4, batch.size());
+            assertEquals(123456789, batch.getKey(2));
+            assertEquals(-987654321, batch.getValue(2));
+            assertEquals(7, batch.getKey(3));
+            assertEquals(8, batch.getValue(3));
+        }
+    }
+
+    @Test
+    public void restoresThePartialLine() throws IOException {
+        CsvCodec codec = new CsvCodec(1024);
+        KeyValueBatch batch = new KeyValueBatch(16);
+        byte[] first = "1,2\n-12".getBytes(StandardCharsets.US_ASCII);
+        codec.decode(first, first.length, false, batch);
+        assertEquals("-12", codec.getPartialLine());
+
+        CsvCodec restored = new CsvCodec(1024);
+        restored.setPartialLine(codec.getPartialLine());
+        byte[] second = "3,-45\n".getBytes(StandardCharsets.US_ASCII);
+        restored.decode(second, second.length, true, batch);
+        assertEquals(2, batch.size());
+        assertEquals(-123, batch.getKey(1));
+        assertEquals(-45, batch.getValue(1));
+    }
+
+    @Test
+    public void formatsAndParsesTheSamePairs() throws IOException {
+        int[] numbers = {0, 1, -1, 9, 10, -10, 99, 100, 123456789, -987654321, Integer.MAX_VALUE, Integer.MIN_VALUE};
+        KeyValueBatch batch = new KeyValueBatch(numbers.length * numbers.length);
+        for (int key : numbers) {
+            for (int value : numbers) {
+                batch.add(key, value);
+            }
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new CsvCodec(64).encode(batch, out);
+        KeyValueBatch decoded = decode(out.toString(StandardCharsets.US_ASCII));
+        assertEquals(batch.size(), decoded.size());
+        for (int i = 0; i < batch.size(); i++) {
+            assertEquals(batch.getKey(i), decoded.getKey(i));
+            assertEquals(batch.getValue(i), decoded.getValue(i));
+        }
+        assertEquals(Integer.MIN_VALUE + "," + Integer.MAX_VALUE + "\n",
+                encodePair(Integer.MIN_VALUE, Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void formatsAndParsesTheSamePartials() throws IOException {
+        CsvCodec codec = new CsvCodec(1024);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        codec.encodePartial(-5, new long[]{0, Long.MIN_VALUE, Long.MAX_VALUE}, 1, 2, out);
+        codec.encodePartial(7, new long[]{-100, 3}, 0, 2, out);
+        assertEquals("-5," + Long.MIN_VALUE + "," + Long.MAX_VALUE + "\n7,-100,3\n", out.toString(StandardCharsets.US_ASCII));
+
+        AggregationTable table = new AggregationTable(new AvgAccumulator(), new AggregationMemory(1 << 20), System.getProperty("java.io.tmpdir"));
+        try {
+            byte[] data = "4,10,2\n4,5,1\n".getBytes(StandardCharsets.US_ASCII);
+            codec.decodePartials(data, data.length, true, table);
+            KeyValueBatch result = new KeyValueBatch(4);
+            table.finish(result);
+            assertEquals(1, result.size());
+            assertEquals(4, result.getKey(0));
+            assertEquals(5, result.getValue(0));
+
+            byte[] invalid = "4,10\n".getBytes(StandardCharsets.US_ASCII);
+            try {
+                codec.decodePartials(invalid, invalid.length, true, table);
+                fail("Partial aggregation with a missing long accepted");
+            } catch (IOException e) {
+                assertTrue(e.getMessage().startsWith("Invalid line in CSV"));
+            }
+        } finally {
+            table.close();
+        }
+    }
+
+    @Test
+    public void alignsSplitsToTheStartOfTheLines() throws IOException {
+        Path file = Files.createTempFile("csv-codec", ".csv");
+        try {
+            Files.writeString(file, "1,2\n33,44\n\n5,6");
+            FileSystem fs = FileSystem.getLocal(new Configuration());
+            try (FSDataInputStream in = fs.open(new org.apache.hadoop.fs.Path(file.toUri()))) {
+                assertEquals(0, HadoopWorker.alignToLine(in, 0));
+                assertEquals(4, HadoopWorker.alignToLine(in, 1));
+                assertEquals(4, HadoopWorker.alignToLine(in, 3));
+                assertEquals(4, HadoopWorker.alignToLine(in, 4));
+                assertEquals(10, HadoopWorker.alignToLine(in, 5));
+                assertEquals(10, HadoopWorker.alignToLine(in, 10));
+                assertEquals(11, HadoopWorker.alignToLine(in, 11));
+                assertEquals(14, HadoopWorker.alignToLine(in, 12));
+                assertEquals(14, HadoopWorker.alignToLine(in, 14));
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /**
+     * The encodePair method formats a single key-value pair.
+     *
+     * @param key   represents the key.
+     * @param value represents the value.
+     * @return the formatted line.
+     * @throws IOException if it is not possible to write the line.
+     */
+    private static String encodePair(int key, int value) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new CsvCodec(64).encode(key, value, out);
+        return out.toString(StandardCharsets.US_ASCII);
+    }
+}